@@ -73,7 +73,7 @@ public class SQLiteCursor {
 	}
 
 	public boolean next() throws SQLiteException {
-		int res = preparedStatement.step(preparedStatement.getStatementHandle());
+		int res = preparedStatement.step();
 		if(res == -1) {
             int repeatCount = 6;
             while (repeatCount-- != 0) {
@@ -11,12 +11,45 @@ package org.telegram.SQLite;
 import org.telegram.messenger.FileLog;
 import org.telegram.messenger.ApplicationLoader;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class SQLiteDatabase {
 	private final int sqliteHandle;
 
 	private boolean isOpen = false;
     private boolean inTransaction = false;
 
+    private static final int MAX_CACHED_STATEMENTS = 64;
+    private static final int MAX_QUERY_STATS = 256;
+    private static final String OTHER_QUERIES = "(other)";
+
+    public static class QueryStats {
+        public String sql;
+        public int count;
+        public int prepareCount;
+        public long time;
+    }
+
+    private final LinkedHashMap<String, SQLitePreparedStatement> cachedStatements = new LinkedHashMap<String, SQLitePreparedStatement>(MAX_CACHED_STATEMENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLitePreparedStatement> eldest) {
+            if (size() > MAX_CACHED_STATEMENTS) {
+                eldest.getValue().uncache();
+                return true;
+            }
+            return false;
+        }
+    };
+    private volatile Thread cacheThread;
+    private int cacheHits;
+    private int cacheMisses;
+
+    private volatile boolean profilingEnabled = false;
+    private final HashMap<String, QueryStats> queryStats = new HashMap<>();
+
 	public int getSQLiteHandle() {
 		return sqliteHandle;
 	}
@@ -54,10 +87,121 @@ public class SQLiteDatabase {
 		return new SQLitePreparedStatement(this, sql, true).query(args);
 	}
 
+    /**
+     * Set the thread that owns the statement cache, statements can't be shared between threads
+     * @param thread Thread the database is used on
+     */
+    public void setCacheThread(Thread thread) {
+        cacheThread = thread;
+    }
+
+    /**
+     * Get a prepared statement for the sql from the statement cache. The statement is reset when it
+     * is disposed and kept for the next call with the same sql instead of being finalized. Threads
+     * other than the cache thread get a new statement that is finalized when disposed.
+     */
+    public SQLitePreparedStatement executeCached(String sql) throws SQLiteException {
+        checkOpened();
+        if (cacheThread != Thread.currentThread()) {
+            return new SQLitePreparedStatement(this, sql, true);
+        }
+        SQLitePreparedStatement statement = cachedStatements.get(sql);
+        if (statement != null && !statement.isInUse()) {
+            cacheHits++;
+            statement.requery();
+        } else {
+            if (statement != null) {
+                statement.uncache();
+            }
+            cacheMisses++;
+            statement = new SQLitePreparedStatement(this, sql, false);
+            statement.setCached(true);
+            cachedStatements.put(sql, statement);
+        }
+        statement.setInUse(true);
+        return statement;
+    }
+
+    /**
+     * Same as queryFinalized, but with a statement from the statement cache
+     */
+    public SQLiteCursor queryCached(String sql, Object... args) throws SQLiteException {
+        return executeCached(sql).query(args);
+    }
+
+    public int getStatementCacheHits() {
+        return cacheHits;
+    }
+
+    public int getStatementCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * Collect the number of executions and the time spent preparing and stepping every statement
+     */
+    public void setProfilingEnabled(boolean enabled) {
+        profilingEnabled = enabled;
+    }
+
+    public boolean isProfilingEnabled() {
+        return profilingEnabled;
+    }
+
+    void addQueryStats(String sql, boolean prepared, long time) {
+        synchronized (queryStats) {
+            QueryStats stats = queryStats.get(sql);
+            if (stats == null) {
+                if (queryStats.size() >= MAX_QUERY_STATS) {
+                    sql = OTHER_QUERIES;
+                    stats = queryStats.get(sql);
+                }
+                if (stats == null) {
+                    stats = new QueryStats();
+                    stats.sql = sql;
+                    queryStats.put(sql, stats);
+                }
+            }
+            stats.count++;
+            if (prepared) {
+                stats.prepareCount++;
+            }
+            stats.time += time;
+        }
+    }
+
+    /**
+     * @return Copy of the collected statistics, time is in nanoseconds
+     */
+    public ArrayList<QueryStats> getQueryStats() {
+        ArrayList<QueryStats> result = new ArrayList<>();
+        synchronized (queryStats) {
+            for (QueryStats stats : queryStats.values()) {
+                QueryStats copy = new QueryStats();
+                copy.sql = stats.sql;
+                copy.count = stats.count;
+                copy.prepareCount = stats.prepareCount;
+                copy.time = stats.time;
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    public void resetQueryStats() {
+        synchronized (queryStats) {
+            queryStats.clear();
+        }
+    }
+
 	public void close() {
 		if (isOpen) {
 			try {
                 commitTransaction();
+                for (SQLitePreparedStatement statement : cachedStatements.values()) {
+                    statement.uncache();
+                }
+                cachedStatements.clear();
 				closedb(sqliteHandle);
 			} catch (SQLiteException e) {
                 FileLog.e("tmessages", e.getMessage(), e);
@@ -94,6 +238,21 @@ public class SQLiteDatabase {
         commitTransaction(sqliteHandle);
     }
 
+    /**
+     * Undo the writes of the current transaction, for callers that failed inside of it
+     */
+    public void rollbackTransaction() {
+        if (!inTransaction) {
+            return;
+        }
+        inTransaction = false;
+        try {
+            executeFast("ROLLBACK").stepThis().dispose();
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
+    }
+
 	native int opendb(String fileName, String tempDir) throws SQLiteException;
 	native void closedb(int sqliteHandle) throws SQLiteException;
     native void beginTransaction(int sqliteHandle);
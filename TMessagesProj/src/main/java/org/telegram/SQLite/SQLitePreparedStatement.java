@@ -19,13 +19,27 @@ public class SQLitePreparedStatement {
 	private int queryArgsCount;
 	private boolean finalizeAfterQuery = false;
 
+    private SQLiteDatabase database;
+    private String sql;
+    private boolean isCached;
+    private boolean isInUse;
+    private boolean isPrepared;
+    private long executionTime;
+
 	public int getStatementHandle() {
 		return sqliteStatementHandle;
 	}
 
 	public SQLitePreparedStatement(SQLiteDatabase db, String sql, boolean finalize) throws SQLiteException {
 		finalizeAfterQuery = finalize;
+        database = db;
+        this.sql = sql;
+        long startTime = db.isProfilingEnabled() ? System.nanoTime() : 0;
 		sqliteStatementHandle = prepare(db.getSQLiteHandle(), sql);
+        if (startTime != 0) {
+            executionTime = System.nanoTime() - startTime;
+        }
+        isPrepared = true;
 	}
 
 
@@ -44,6 +58,8 @@ public class SQLitePreparedStatement {
                 bindNull(sqliteStatementHandle, i);
             } else if (obj instanceof Integer) {
                 bindInt(sqliteStatementHandle, i, (Integer)obj);
+            } else if (obj instanceof Long) {
+                bindLong(sqliteStatementHandle, i, (Long)obj);
             } else if (obj instanceof Double) {
                 bindDouble(sqliteStatementHandle, i, (Double)obj);
             } else if (obj instanceof String) {
@@ -58,11 +74,19 @@ public class SQLitePreparedStatement {
     }
 
     public int step() throws SQLiteException {
-        return step(sqliteStatementHandle);
+        if (!database.isProfilingEnabled()) {
+            return step(sqliteStatementHandle);
+        }
+        long startTime = System.nanoTime();
+        try {
+            return step(sqliteStatementHandle);
+        } finally {
+            executionTime += System.nanoTime() - startTime;
+        }
     }
 
     public SQLitePreparedStatement stepThis() throws SQLiteException {
-        step(sqliteStatementHandle);
+        step();
         return this;
     }
 
@@ -72,11 +96,47 @@ public class SQLitePreparedStatement {
 	}
 
 	public void dispose() {
+        if (database.isProfilingEnabled()) {
+            database.addQueryStats(sql, isPrepared, executionTime);
+        }
+        isPrepared = false;
+        executionTime = 0;
 		if (finalizeAfterQuery) {
 			finalizeQuery();
-		}
+		} else if (isCached) {
+            isInUse = false;
+            try {
+                reset(sqliteStatementHandle);
+            } catch (SQLiteException e) {
+                FileLog.e("tmessages", e.getMessage(), e);
+            }
+        }
 	}
 
+    void setCached(boolean cached) {
+        isCached = cached;
+    }
+
+    boolean isInUse() {
+        return isInUse;
+    }
+
+    void setInUse(boolean inUse) {
+        isInUse = inUse;
+    }
+
+    /**
+     * Called when the statement leaves the statement cache, it is finalized right away or, if it
+     * is still in use, when it is disposed
+     */
+    void uncache() {
+        isCached = false;
+        finalizeAfterQuery = true;
+        if (!isInUse) {
+            finalizeQuery();
+        }
+    }
+
 	void checkFinalized() throws SQLiteException {
 		if (isFinalized) {
 			throw new SQLiteException("Prepared query finalized");
@@ -115,6 +175,10 @@ public class SQLitePreparedStatement {
         bindLong(sqliteStatementHandle, index, value);
     }
 
+    public void bindNull(int index) throws SQLiteException {
+        bindNull(sqliteStatementHandle, index);
+    }
+
 	native void bindByteBuffer(int statementHandle, int index, ByteBuffer value, int length) throws SQLiteException;
 	native void bindString(int statementHandle, int index, String value) throws SQLiteException;
 	native void bindInt(int statementHandle, int index, int value) throws SQLiteException;
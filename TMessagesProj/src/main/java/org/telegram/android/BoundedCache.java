@@ -0,0 +1,424 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.android;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache bounded by the total weight of its entries. Keys are spread over segments with a lock
+ * each, so threads working with different segments don't wait for each other, and every
+ * segment evicts on its own, with a share of the maximum weight.
+ *
+ * With {@link #POLICY_LRU} the least recently used entries are evicted. With
+ * {@link #POLICY_TINY_LFU} new entries go to a small LRU window first, and an entry leaving the
+ * window only replaces the least recently used entry of the main part if it was accessed more
+ * often, so one-off entries don't push out the ones that are used again and again.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class BoundedCache<K, V> {
+
+    public static final int POLICY_LRU = 0;
+    public static final int POLICY_TINY_LFU = 1;
+
+    public interface Weigher<K, V> {
+        /**
+         * @return Weight of an entry, must not change while it is in the cache
+         */
+        int weigh(K key, V value);
+    }
+
+    public interface RemovalListener<K, V> {
+        /**
+         * Called without any lock held after an entry left the cache
+         * @param newValue Value that replaced the entry, null if it was evicted or removed
+         * @param evicted Whether the entry was removed to make room
+         */
+        void onRemoved(K key, V oldValue, V newValue, boolean evicted);
+    }
+
+    private static class Node<V> {
+        V value;
+        int weight;
+
+        Node(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static class Removal<K, V> {
+        K key;
+        V oldValue;
+        V newValue;
+        boolean evicted;
+
+        Removal(K key, V oldValue, V newValue, boolean evicted) {
+            this.key = key;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+            this.evicted = evicted;
+        }
+    }
+
+    /**
+     * Approximate access counts of keys, four rows of counters that saturate at 15 and are
+     * halved once enough accesses were counted, so old popularity fades
+     */
+    private static class FrequencySketch {
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int size) {
+            int tableSize = Integer.highestOneBit(Math.max(64, size - 1) << 1);
+            counters = new byte[tableSize];
+            mask = tableSize - 1;
+            sampleSize = tableSize * 10;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * (0x9e3779b9 + row * 0x7f4a7c15);
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int index = index(hash, row);
+                if (counters[index] < 15) {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int a = 0; a < counters.length; a++) {
+                    counters[a] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int frequency = 15;
+            for (int row = 0; row < 4; row++) {
+                frequency = Math.min(frequency, counters[index(hash, row)]);
+            }
+            return frequency;
+        }
+    }
+
+    private static class Segment<K, V> {
+        final LinkedHashMap<K, Node<V>> window = new LinkedHashMap<>(0, 0.75f, true);
+        final LinkedHashMap<K, Node<V>> main = new LinkedHashMap<>(0, 0.75f, true);
+        final FrequencySketch sketch;
+        final int maxWeight;
+        final int maxWindowWeight;
+        int windowWeight;
+        int mainWeight;
+
+        Segment(int maxWeight, int expectedSize, boolean tinyLfu) {
+            this.maxWeight = maxWeight;
+            if (tinyLfu) {
+                maxWindowWeight = Math.max(1, maxWeight / 100);
+                sketch = new FrequencySketch(expectedSize);
+            } else {
+                maxWindowWeight = 0;
+                sketch = null;
+            }
+        }
+
+        synchronized V get(K key, int hash) {
+            if (sketch != null) {
+                sketch.increment(hash);
+            }
+            Node<V> node = main.get(key);
+            if (node == null) {
+                node = window.get(key);
+            }
+            return node != null ? node.value : null;
+        }
+
+        synchronized V peek(K key) {
+            Node<V> node = main.get(key);
+            if (node == null) {
+                node = window.get(key);
+            }
+            return node != null ? node.value : null;
+        }
+
+        synchronized boolean containsKey(K key) {
+            return main.containsKey(key) || window.containsKey(key);
+        }
+
+        synchronized V put(K key, int hash, V value, int weight, ArrayList<Removal<K, V>> removals) {
+            Node<V> previous = removeNode(key);
+            Node<V> node = new Node<>(value, weight);
+            if (previous != null) {
+                removals.add(new Removal<>(key, previous.value, value, false));
+            }
+            if (sketch == null) {
+                main.put(key, node);
+                mainWeight += weight;
+                evict(maxWeight, key, removals);
+            } else {
+                sketch.increment(hash);
+                window.put(key, node);
+                windowWeight += weight;
+                while (windowWeight > maxWindowWeight && window.size() > 1) {
+                    Iterator<Map.Entry<K, Node<V>>> iterator = window.entrySet().iterator();
+                    Map.Entry<K, Node<V>> candidate = iterator.next();
+                    iterator.remove();
+                    windowWeight -= candidate.getValue().weight;
+                    admit(candidate.getKey(), candidate.getValue(), removals);
+                }
+            }
+            return previous != null ? previous.value : null;
+        }
+
+        private void admit(K key, Node<V> node, ArrayList<Removal<K, V>> removals) {
+            int maxMainWeight = maxWeight - maxWindowWeight;
+            if (mainWeight + node.weight > maxMainWeight && !main.isEmpty()) {
+                K victim = main.keySet().iterator().next();
+                if (sketch.frequency(spread(key.hashCode())) <= sketch.frequency(spread(victim.hashCode()))) {
+                    removals.add(new Removal<>(key, node.value, null, true));
+                    return;
+                }
+            }
+            main.put(key, node);
+            mainWeight += node.weight;
+            evict(maxMainWeight, key, removals);
+        }
+
+        private void evict(int maxWeight, K justAdded, ArrayList<Removal<K, V>> removals) {
+            Iterator<Map.Entry<K, Node<V>>> iterator = main.entrySet().iterator();
+            while (mainWeight > maxWeight && iterator.hasNext()) {
+                Map.Entry<K, Node<V>> entry = iterator.next();
+                if (entry.getKey().equals(justAdded)) {
+                    continue;
+                }
+                iterator.remove();
+                mainWeight -= entry.getValue().weight;
+                removals.add(new Removal<>(entry.getKey(), entry.getValue().value, null, true));
+            }
+        }
+
+        private Node<V> removeNode(K key) {
+            Node<V> node = main.remove(key);
+            if (node != null) {
+                mainWeight -= node.weight;
+                return node;
+            }
+            node = window.remove(key);
+            if (node != null) {
+                windowWeight -= node.weight;
+            }
+            return node;
+        }
+
+        synchronized V remove(K key) {
+            Node<V> node = removeNode(key);
+            return node != null ? node.value : null;
+        }
+
+        synchronized void clear(ArrayList<Removal<K, V>> removals) {
+            for (Map.Entry<K, Node<V>> entry : window.entrySet()) {
+                removals.add(new Removal<>(entry.getKey(), entry.getValue().value, null, true));
+            }
+            for (Map.Entry<K, Node<V>> entry : main.entrySet()) {
+                removals.add(new Removal<>(entry.getKey(), entry.getValue().value, null, true));
+            }
+            window.clear();
+            main.clear();
+            windowWeight = 0;
+            mainWeight = 0;
+        }
+
+        synchronized int weight() {
+            return windowWeight + mainWeight;
+        }
+
+        synchronized int size() {
+            return window.size() + main.size();
+        }
+    }
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final int maxWeight;
+    private final Weigher<K, V> weigher;
+    private RemovalListener<K, V> removalListener;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxWeight Maximum total weight of the entries, the number of entries if there is
+     *                  no weigher
+     * @param concurrencyLevel Number of segments, rounded up to a power of two. Use 1 if single
+     *                         entries can weigh a large part of the maximum.
+     * @param policy {@link #POLICY_LRU} or {@link #POLICY_TINY_LFU}
+     * @param weigher Weigher of the entries or null to weigh every entry as 1
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(int maxWeight, int concurrencyLevel, int policy, Weigher<K, V> weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight <= 0");
+        }
+        int count = 1;
+        while (count < concurrencyLevel) {
+            count <<= 1;
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        segments = new Segment[count];
+        segmentMask = count - 1;
+        int expectedSize = weigher == null ? maxWeight / count : 256;
+        for (int a = 0; a < count; a++) {
+            segments[a] = new Segment<>(Math.max(1, maxWeight / count), expectedSize, policy == POLICY_TINY_LFU);
+        }
+    }
+
+    public void setRemovalListener(RemovalListener<K, V> listener) {
+        removalListener = listener;
+    }
+
+    private static int spread(int hash) {
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        return hash ^ (hash >>> 7) ^ (hash >>> 4);
+    }
+
+    private Segment<K, V> segmentFor(int hash) {
+        return segments[(hash >>> 16) & segmentMask];
+    }
+
+    public V get(K key) {
+        int hash = spread(key.hashCode());
+        V value = segmentFor(hash).get(key, hash);
+        if (value != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Look an entry up without counting it in the hit and miss statistics or the key frequency,
+     * for callers that only check whether a later lookup will find it
+     */
+    public V peek(K key) {
+        return segmentFor(spread(key.hashCode())).peek(key);
+    }
+
+    public boolean containsKey(K key) {
+        return segmentFor(spread(key.hashCode())).containsKey(key);
+    }
+
+    /**
+     * Add an entry, evicting others if the cache gets too heavy. An entry heavier than its
+     * segment is kept until the next one is added.
+     * @return Value previously stored for the key
+     */
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        int weight = weigher != null ? weigher.weigh(key, value) : 1;
+        if (weight < 0) {
+            throw new IllegalStateException("Negative weight: " + key + "=" + value);
+        }
+        int hash = spread(key.hashCode());
+        ArrayList<Removal<K, V>> removals = new ArrayList<>(2);
+        V previous = segmentFor(hash).put(key, hash, value, weight, removals);
+        notifyRemovals(removals);
+        return previous;
+    }
+
+    public V remove(K key) {
+        V previous = segmentFor(spread(key.hashCode())).remove(key);
+        if (previous != null && removalListener != null) {
+            removalListener.onRemoved(key, previous, null, false);
+        }
+        return previous;
+    }
+
+    /**
+     * Evict all entries
+     */
+    public void clear() {
+        ArrayList<Removal<K, V>> removals = new ArrayList<>();
+        for (Segment<K, V> segment : segments) {
+            segment.clear(removals);
+        }
+        notifyRemovals(removals);
+    }
+
+    private void notifyRemovals(ArrayList<Removal<K, V>> removals) {
+        for (Removal<K, V> removal : removals) {
+            if (removal.evicted) {
+                evictionCount.incrementAndGet();
+            }
+            if (removalListener != null) {
+                removalListener.onRemoved(removal.key, removal.oldValue, removal.newValue, removal.evicted);
+            }
+        }
+    }
+
+    /**
+     * Total weight of the entries
+     */
+    public int weight() {
+        int weight = 0;
+        for (Segment<K, V> segment : segments) {
+            weight += segment.weight();
+        }
+        return weight;
+    }
+
+    public int maxWeight() {
+        return maxWeight;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Share of lookups that found an entry, 0 if there were none
+     */
+    public float getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total != 0 ? (float) hits / total : 0;
+    }
+}
@@ -38,7 +38,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Locale;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class ContactsController {
 
@@ -916,11 +915,11 @@ public class ContactsController {
         // Disabled
     }
 
-    private void applyContactsUpdates(ArrayList<Integer> ids, ConcurrentHashMap<Integer, TLRPC.User> userDict, ArrayList<TLRPC.TL_contact> newC, ArrayList<Integer> contactsTD) {
+    private void applyContactsUpdates(ArrayList<Integer> ids, HashMap<Integer, TLRPC.User> userDict, ArrayList<TLRPC.TL_contact> newC, ArrayList<Integer> contactsTD) {
         // Disabled
     }
 
-    public void processContactsUpdates(ArrayList<Integer> ids, ConcurrentHashMap<Integer, TLRPC.User> userDict) {
+    public void processContactsUpdates(ArrayList<Integer> ids, HashMap<Integer, TLRPC.User> userDict) {
         // Disabled
     }
 
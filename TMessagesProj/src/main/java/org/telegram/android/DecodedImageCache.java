@@ -0,0 +1,344 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.android;
+
+import android.graphics.Bitmap;
+
+import org.telegram.messenger.DispatchQueue;
+import org.telegram.messenger.FileLog;
+import org.telegram.messenger.Utilities;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Second tier of the image cache that keeps small bitmaps on disk exactly as they were put to
+ * the memory cache, already scaled and blurred, so an image evicted from memory comes back with
+ * a memory-mapped copy instead of another decode. Files hold a short header and the raw pixels,
+ * the least recently used ones are deleted when the cache grows over its size.
+ */
+public class DecodedImageCache {
+
+    private static final int MAGIC = 0x54444943;
+    private static final int HEADER_SIZE = 16;
+    private static final int CONFIG_ARGB_8888 = 0;
+    private static final int CONFIG_RGB_565 = 1;
+
+    private final File directory;
+    private final long maxSize;
+    private final int maxEntrySize;
+    private long size;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final DispatchQueue writeQueue = new DispatchQueue("decodedImageCacheQueue");
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong readTime = new AtomicLong();
+    private final AtomicLong decodeCount = new AtomicLong();
+    private final AtomicLong decodeTime = new AtomicLong();
+
+    /**
+     * @param directory Directory for the cache files, only used by this cache
+     * @param maxSize Maximum size of all files in bytes
+     * @param maxEntrySize Bitmaps with more pixel bytes are not stored
+     */
+    public DecodedImageCache(File directory, long maxSize, int maxEntrySize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+        writeQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                loadEntries();
+            }
+        });
+    }
+
+    private void loadEntries() {
+        try {
+            if (!directory.isDirectory()) {
+                directory.mkdirs();
+            }
+            File[] files = directory.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long lhsTime = lhs.lastModified();
+                    long rhsTime = rhs.lastModified();
+                    if (lhsTime < rhsTime) {
+                        return -1;
+                    } else if (lhsTime > rhsTime) {
+                        return 1;
+                    }
+                    return 0;
+                }
+            });
+            synchronized (entries) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (entries.containsKey(name)) {
+                        continue;
+                    }
+                    long length = file.length();
+                    entries.put(name, length);
+                    size += length;
+                }
+            }
+            trimToSize();
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
+    }
+
+    private static String getFileName(String key) {
+        return Utilities.MD5(key);
+    }
+
+    /**
+     * Read a bitmap stored for a key
+     * @param key Memory cache key of the image, including its filter
+     * @return Bitmap or null if none is stored
+     */
+    public Bitmap get(String key) {
+        String name = getFileName(key);
+        synchronized (entries) {
+            if (entries.get(name) == null) {
+                missCount.incrementAndGet();
+                return null;
+            }
+        }
+        long startTime = System.nanoTime();
+        Bitmap bitmap = null;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(new File(directory, name), "r");
+            ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.limit() >= HEADER_SIZE && buffer.getInt() == MAGIC) {
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                int config = buffer.getInt();
+                bitmap = Bitmap.createBitmap(width, height, config == CONFIG_RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+                if (buffer.remaining() >= bitmap.getRowBytes() * height) {
+                    bitmap.copyPixelsFromBuffer(buffer);
+                } else {
+                    bitmap.recycle();
+                    bitmap = null;
+                }
+            }
+        } catch (Throwable e) {
+            FileLog.e("tmessages", e);
+            if (bitmap != null) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+        }
+        if (bitmap == null) {
+            remove(name);
+            missCount.incrementAndGet();
+        } else {
+            readTime.addAndGet(System.nanoTime() - startTime);
+            hitCount.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Store a bitmap, its pixels are copied right away and written to disk in the background
+     * @param key Memory cache key of the image, including its filter
+     * @param decodeTime Time in nanoseconds the bitmap took to decode and filter, for the stats
+     */
+    public void put(String key, Bitmap bitmap, long decodeTime) {
+        decodeCount.incrementAndGet();
+        this.decodeTime.addAndGet(decodeTime);
+        Bitmap.Config bitmapConfig = bitmap.getConfig();
+        int config;
+        if (bitmapConfig == Bitmap.Config.ARGB_8888) {
+            config = CONFIG_ARGB_8888;
+        } else if (bitmapConfig == Bitmap.Config.RGB_565) {
+            config = CONFIG_RGB_565;
+        } else {
+            return;
+        }
+        int pixelsSize = bitmap.getRowBytes() * bitmap.getHeight();
+        if (pixelsSize > maxEntrySize) {
+            return;
+        }
+        final String name = getFileName(key);
+        synchronized (entries) {
+            if (entries.containsKey(name)) {
+                return;
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + pixelsSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(bitmap.getWidth());
+        buffer.putInt(bitmap.getHeight());
+        buffer.putInt(config);
+        try {
+            bitmap.copyPixelsToBuffer(buffer);
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+            return;
+        }
+        buffer.rewind();
+        writeQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(directory, name);
+                RandomAccessFile output = null;
+                try {
+                    if (!directory.isDirectory()) {
+                        directory.mkdirs();
+                    }
+                    output = new RandomAccessFile(file, "rw");
+                    output.setLength(0);
+                    output.getChannel().write(buffer);
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                    file.delete();
+                    return;
+                } finally {
+                    if (output != null) {
+                        try {
+                            output.close();
+                        } catch (Exception e) {
+                            FileLog.e("tmessages", e);
+                        }
+                    }
+                }
+                synchronized (entries) {
+                    Long oldLength = entries.put(name, (long) buffer.limit());
+                    if (oldLength != null) {
+                        size -= oldLength;
+                    }
+                    size += buffer.limit();
+                }
+                writeCount.incrementAndGet();
+                trimToSize();
+            }
+        });
+    }
+
+    private void remove(String name) {
+        synchronized (entries) {
+            Long length = entries.remove(name);
+            if (length != null) {
+                size -= length;
+            }
+        }
+    }
+
+    private void trimToSize() {
+        while (true) {
+            String name;
+            synchronized (entries) {
+                if (size <= maxSize || entries.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+                Map.Entry<String, Long> eldest = iterator.next();
+                name = eldest.getKey();
+                size -= eldest.getValue();
+                iterator.remove();
+            }
+            new File(directory, name).delete();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forget all stored bitmaps and delete whatever files are left, used when the cache is
+     * cleared from the settings
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+        writeQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of bitmaps written to disk
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * Number of files deleted to keep the cache under its size
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Average time in nanoseconds to read a bitmap from the cache
+     */
+    public long getAverageReadTime() {
+        long count = hitCount.get();
+        return count != 0 ? readTime.get() / count : 0;
+    }
+
+    /**
+     * Average time in nanoseconds to decode and filter a bitmap that was not in the cache
+     */
+    public long getAverageDecodeTime() {
+        long count = decodeCount.get();
+        return count != 0 ? decodeTime.get() / count : 0;
+    }
+
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+}
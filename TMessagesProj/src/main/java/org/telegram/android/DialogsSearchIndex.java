@@ -0,0 +1,373 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.android;
+
+import org.telegram.messenger.DispatchQueue;
+import org.telegram.messenger.TLObject;
+import org.telegram.messenger.TLRPC;
+import org.telegram.messenger.UserConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory index of the names of dialogs and contacts, so the dialogs search doesn't have to
+ * read and decode them from the database on every keystroke. It is filled from the database the
+ * first time it is needed and kept up to date by MessagesStorage, on the storage queue, while
+ * searches run on their own queue.
+ */
+public class DialogsSearchIndex {
+
+    public static class SearchResult {
+        public TLObject object;
+        public TLRPC.User encryptedUser;
+        public String query;
+        public boolean byUsername;
+        public int date;
+    }
+
+    private static class Entry {
+        long dialogId;
+        TLObject object;
+        int userId;
+        String name;
+        String translitName;
+        String username;
+        ArrayList<String> tokens = new ArrayList<>();
+    }
+
+    private final HashMap<Long, Entry> entries = new HashMap<>();
+    private final HashMap<Integer, TLRPC.User> users = new HashMap<>();
+    private final HashMap<Long, Integer> dialogDates = new HashMap<>();
+    private final HashSet<Long> encryptedDialogs = new HashSet<>();
+    private final HashSet<Integer> contacts = new HashSet<>();
+    private final TreeMap<String, ArrayList<Entry>> nameTokens = new TreeMap<>();
+    private final TreeMap<String, ArrayList<Entry>> usernameTokens = new TreeMap<>();
+    private volatile boolean loaded;
+
+    private DispatchQueue searchQueue = new DispatchQueue("dialogsSearchQueue");
+
+    private static volatile DialogsSearchIndex Instance = null;
+    public static DialogsSearchIndex getInstance() {
+        DialogsSearchIndex localInstance = Instance;
+        if (localInstance == null) {
+            synchronized (DialogsSearchIndex.class) {
+                localInstance = Instance;
+                if (localInstance == null) {
+                    Instance = localInstance = new DialogsSearchIndex();
+                }
+            }
+        }
+        return localInstance;
+    }
+
+    public DispatchQueue getSearchQueue() {
+        return searchQueue;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Fill the index with what is stored in the database, updates are ignored until then
+     * @param users Users of the dialogs, encrypted chats and contacts
+     * @param dialogs Dates of all dialogs by dialog id
+     */
+    public synchronized void load(ArrayList<TLRPC.User> users, ArrayList<TLRPC.Chat> chats, ArrayList<TLRPC.EncryptedChat> encryptedChats, HashMap<Long, Integer> dialogs, ArrayList<Integer> contacts) {
+        clear();
+        for (TLRPC.User user : users) {
+            putUserInternal(user);
+        }
+        for (TLRPC.Chat chat : chats) {
+            putEntry(getChatDialogId(chat), chat, 0, chat.title, null);
+        }
+        for (TLRPC.EncryptedChat chat : encryptedChats) {
+            TLRPC.User user = this.users.get(chat.user_id);
+            if (user != null) {
+                putEncryptedChatInternal(chat, user);
+            }
+        }
+        dialogDates.putAll(dialogs);
+        this.contacts.addAll(contacts);
+        loaded = true;
+    }
+
+    public synchronized void clear() {
+        loaded = false;
+        entries.clear();
+        users.clear();
+        dialogDates.clear();
+        encryptedDialogs.clear();
+        contacts.clear();
+        nameTokens.clear();
+        usernameTokens.clear();
+    }
+
+    private static long getChatDialogId(TLRPC.Chat chat) {
+        return chat.id > 0 ? -chat.id : AndroidUtilities.makeBroadcastId(chat.id);
+    }
+
+    public synchronized void putUsers(ArrayList<TLRPC.User> users) {
+        if (!loaded || users == null) {
+            return;
+        }
+        for (TLRPC.User user : users) {
+            putUserInternal(user);
+            for (Long dialogId : encryptedDialogs) {
+                Entry entry = entries.get(dialogId);
+                if (entry != null && entry.userId == user.id) {
+                    putEntry(dialogId, entry.object, user.id, ContactsController.formatName(user.first_name, user.last_name), user.username);
+                }
+            }
+        }
+    }
+
+    private void putUserInternal(TLRPC.User user) {
+        users.put(user.id, user);
+        putEntry(user.id, user, user.id, ContactsController.formatName(user.first_name, user.last_name), user.username);
+    }
+
+    public synchronized void putChats(ArrayList<TLRPC.Chat> chats) {
+        if (!loaded || chats == null) {
+            return;
+        }
+        for (TLRPC.Chat chat : chats) {
+            putEntry(getChatDialogId(chat), chat, 0, chat.title, null);
+        }
+    }
+
+    /**
+     * Add or replace an encrypted chat
+     * @param user User of the chat, null to keep the one the chat was added with
+     */
+    public synchronized void putEncryptedChat(TLRPC.EncryptedChat chat, TLRPC.User user) {
+        if (!loaded) {
+            return;
+        }
+        if (user == null) {
+            Entry entry = entries.get(((long) chat.id) << 32);
+            if (entry != null) {
+                entry.object = chat;
+            }
+            return;
+        }
+        users.put(user.id, user);
+        putEncryptedChatInternal(chat, user);
+    }
+
+    private void putEncryptedChatInternal(TLRPC.EncryptedChat chat, TLRPC.User user) {
+        long dialogId = ((long) chat.id) << 32;
+        encryptedDialogs.add(dialogId);
+        putEntry(dialogId, chat, user.id, ContactsController.formatName(user.first_name, user.last_name), user.username);
+    }
+
+    public synchronized void putDialog(long dialogId, int date) {
+        if (!loaded) {
+            return;
+        }
+        dialogDates.put(dialogId, date);
+    }
+
+    public synchronized void removeDialog(long dialogId) {
+        if (!loaded) {
+            return;
+        }
+        dialogDates.remove(dialogId);
+        encryptedDialogs.remove(dialogId);
+        if ((int) dialogId <= 0 || (int) (dialogId >> 32) == 1) {
+            removeEntry(dialogId);
+        }
+    }
+
+    public synchronized void putContacts(ArrayList<Integer> uids, boolean replace) {
+        if (!loaded) {
+            return;
+        }
+        if (replace) {
+            contacts.clear();
+        }
+        contacts.addAll(uids);
+    }
+
+    public synchronized void removeContacts(ArrayList<Integer> uids) {
+        if (!loaded) {
+            return;
+        }
+        contacts.removeAll(uids);
+    }
+
+    private void putEntry(long dialogId, TLObject object, int userId, String name, String username) {
+        removeEntry(dialogId);
+        Entry entry = new Entry();
+        entry.dialogId = dialogId;
+        entry.object = object;
+        entry.userId = userId;
+        entry.name = name != null ? name.trim().toLowerCase() : "";
+        String translitName = LocaleController.getInstance().getTranslitString(entry.name);
+        if (!entry.name.equals(translitName)) {
+            entry.translitName = translitName;
+        }
+        if (username != null && username.length() > 0) {
+            entry.username = username.toLowerCase();
+        }
+        addTokens(entry, entry.name);
+        addTokens(entry, entry.translitName);
+        for (String token : entry.tokens) {
+            addToken(nameTokens, token, entry);
+        }
+        if (entry.username != null) {
+            addToken(usernameTokens, entry.username, entry);
+        }
+        entries.put(dialogId, entry);
+    }
+
+    private void removeEntry(long dialogId) {
+        Entry entry = entries.remove(dialogId);
+        if (entry == null) {
+            return;
+        }
+        for (String token : entry.tokens) {
+            removeToken(nameTokens, token, entry);
+        }
+        if (entry.username != null) {
+            removeToken(usernameTokens, entry.username, entry);
+        }
+    }
+
+    private static void addTokens(Entry entry, String name) {
+        if (name == null) {
+            return;
+        }
+        for (String token : name.split(" ")) {
+            if (token.length() != 0 && !entry.tokens.contains(token)) {
+                entry.tokens.add(token);
+            }
+        }
+    }
+
+    private static void addToken(TreeMap<String, ArrayList<Entry>> map, String token, Entry entry) {
+        ArrayList<Entry> list = map.get(token);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            map.put(token, list);
+        }
+        list.add(entry);
+    }
+
+    private static void removeToken(TreeMap<String, ArrayList<Entry>> map, String token, Entry entry) {
+        ArrayList<Entry> list = map.get(token);
+        if (list != null) {
+            list.remove(entry);
+            if (list.isEmpty()) {
+                map.remove(token);
+            }
+        }
+    }
+
+    private static void collect(TreeMap<String, ArrayList<Entry>> map, String prefix, HashSet<Entry> result) {
+        for (Map.Entry<String, ArrayList<Entry>> pair : map.subMap(prefix, prefix + '\uffff').entrySet()) {
+            result.addAll(pair.getValue());
+        }
+    }
+
+    /**
+     * Find the dialogs, newest first, and then the contacts without a dialog whose name or
+     * transliterated name has a word starting with the query, or whose username starts with it
+     * @param query Lower case query
+     * @param serverOnly Skip encrypted chats and broadcasts
+     * @return Matches, the query field is set to the variant of the query that matched
+     */
+    public synchronized ArrayList<SearchResult> search(String query, boolean serverOnly) {
+        ArrayList<SearchResult> dialogsResult = new ArrayList<>();
+        ArrayList<SearchResult> contactsResult = new ArrayList<>();
+        String translitQuery = LocaleController.getInstance().getTranslitString(query);
+        String[] search;
+        if (query.equals(translitQuery) || translitQuery.length() == 0) {
+            search = new String[] {query};
+        } else {
+            search = new String[] {query, translitQuery};
+        }
+
+        HashSet<Entry> candidates = new HashSet<>();
+        for (String q : search) {
+            int space = q.indexOf(' ');
+            collect(nameTokens, space == -1 ? q : q.substring(0, space), candidates);
+            collect(usernameTokens, q, candidates);
+        }
+
+        int selfId = UserConfig.getClientUserId();
+        for (Entry entry : candidates) {
+            Integer date = dialogDates.get(entry.dialogId);
+            boolean isContact = false;
+            if (date == null) {
+                if (!(entry.object instanceof TLRPC.User) || !contacts.contains(entry.userId)) {
+                    continue;
+                }
+                isContact = true;
+            }
+            if (entry.userId == selfId && entry.object instanceof TLRPC.User) {
+                continue;
+            }
+            if (serverOnly && (entry.object instanceof TLRPC.EncryptedChat || (int) (entry.dialogId >> 32) == 1)) {
+                continue;
+            }
+            for (String q : search) {
+                int found = 0;
+                if (matches(entry.name, q) || entry.translitName != null && matches(entry.translitName, q)) {
+                    found = 1;
+                } else if (entry.username != null && entry.username.startsWith(q)) {
+                    found = 2;
+                }
+                if (found != 0) {
+                    SearchResult result = new SearchResult();
+                    result.object = entry.object;
+                    result.query = q;
+                    result.byUsername = found == 2;
+                    if (entry.object instanceof TLRPC.EncryptedChat) {
+                        result.encryptedUser = users.get(entry.userId);
+                        if (result.encryptedUser == null) {
+                            break;
+                        }
+                    }
+                    if (isContact) {
+                        contactsResult.add(result);
+                    } else {
+                        result.date = date;
+                        dialogsResult.add(result);
+                    }
+                    break;
+                }
+            }
+        }
+
+        Collections.sort(dialogsResult, new Comparator<SearchResult>() {
+            @Override
+            public int compare(SearchResult lhs, SearchResult rhs) {
+                if (lhs.date < rhs.date) {
+                    return 1;
+                } else if (lhs.date > rhs.date) {
+                    return -1;
+                }
+                return 0;
+            }
+        });
+        dialogsResult.addAll(contactsResult);
+        return dialogsResult;
+    }
+
+    private static boolean matches(String name, String q) {
+        return name.startsWith(q) || name.contains(" " + q);
+    }
+}
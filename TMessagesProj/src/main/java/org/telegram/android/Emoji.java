@@ -10,7 +10,6 @@ package org.telegram.android;
 
 import java.io.File;
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Locale;
 
 import android.graphics.Bitmap;
@@ -30,9 +29,10 @@ import android.widget.TextView;
 import org.telegram.messenger.FileLog;
 import org.telegram.messenger.Utilities;
 import org.telegram.messenger.ApplicationLoader;
+import org.telegram.messenger.collections.LongHashMap;
 
 public class Emoji {
-	private static HashMap<Long, DrawableInfo> rects = new HashMap<>();
+	private static LongHashMap<DrawableInfo> rects = new LongHashMap<>(1024);
 	private static int drawImgSize, bigImgSize;
 	private static boolean inited = false;
 	private static Paint placeholderPaint;
@@ -58,6 +58,9 @@ public class Emoji {
             0x2B1C, 0x2B50, 0x2B55, 0x3030, 0x303D, 0x3297, 0x3299
     };
 
+    private static final int EMOJI_CHARS_LIMIT = 0x4000;
+    private static final long[] emojiCharsMask = new long[EMOJI_CHARS_LIMIT >> 6];
+
     public static  long[][] data = {
             new long[]
                     {},
@@ -211,9 +214,12 @@ public class Emoji {
 		for (int j = 1; j < data.length; j++) {
 			for (int i = 0; i < data[j].length; i++) {
                 Rect rect = new Rect((i % cols[j - 1]) * emojiFullSize, (i / cols[j - 1]) * emojiFullSize, (i % cols[j - 1] + 1) * emojiFullSize, (i / cols[j - 1] + 1) * emojiFullSize);
-				rects.put(data[j][i], new DrawableInfo(rect, (byte)(j - 1)));
+				rects.put(data[j][i], new DrawableInfo(rect, (byte)(j - 1), data[j][i]));
 			}
 		}
+        for (char c : emojiChars) {
+            emojiCharsMask[c >> 6] |= 1L << (c & 63);
+        }
 		placeholderPaint = new Paint();
 		placeholderPaint.setColor(0x00000000);
 	}
@@ -381,20 +387,120 @@ public class Emoji {
 	private static class DrawableInfo {
         public Rect rect;
         public byte page;
+        public long code;
 
-		public DrawableInfo(Rect r, byte p) {
+		public DrawableInfo(Rect r, byte p, long c) {
 			rect = r;
             page = p;
+            code = c;
 		}
 	}
 
-    private static boolean inArray(char c, char[] a) {
-        for (char cc : a) {
-            if (cc == c) {
-                return true;
+    private static boolean isEmojiChar(char c) {
+        return c < EMOJI_CHARS_LIMIT && (emojiCharsMask[c >> 6] & (1L << (c & 63))) != 0;
+    }
+
+    /**
+     * Emoji found in a text in the order of their positions, kept in parallel arrays that are
+     * only allocated once the first emoji is found
+     */
+    public static class EmojiScan {
+        public int count;
+        public int[] starts;
+        public int[] ends;
+        public long[] codes;
+
+        private void add(int start, int end, long code) {
+            if (starts == null) {
+                starts = new int[8];
+                ends = new int[8];
+                codes = new long[8];
+            } else if (count == starts.length) {
+                int size = count * 2;
+                int[] newStarts = new int[size];
+                int[] newEnds = new int[size];
+                long[] newCodes = new long[size];
+                System.arraycopy(starts, 0, newStarts, 0, count);
+                System.arraycopy(ends, 0, newEnds, 0, count);
+                System.arraycopy(codes, 0, newCodes, 0, count);
+                starts = newStarts;
+                ends = newEnds;
+                codes = newCodes;
+            }
+            starts[count] = start;
+            ends[count] = end;
+            codes[count] = code;
+            count++;
+        }
+
+        private int indexOf(int start) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (starts[middle] < start) {
+                    low = middle + 1;
+                } else if (starts[middle] > start) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Finds the emoji of a text that have drawables, without touching the text
+     */
+    public static EmojiScan scanEmoji(CharSequence cs) {
+        EmojiScan scan = new EmojiScan();
+        if (cs == null) {
+            return scan;
+        }
+        long buf = 0;
+        int length = cs.length();
+        for (int i = 0; i < length; i++) {
+            char c = cs.charAt(i);
+            if (c == 0xD83C || c == 0xD83D || (buf != 0 && (buf & 0xFFFFFFFF00000000L) == 0 && (c >= 0xDDE6 && c <= 0xDDFA))) {
+                buf <<= 16;
+                buf |= c;
+            } else if (buf > 0 && (c & 0xF000) == 0xD000) {
+                buf <<= 16;
+                buf |= c;
+                if (rects.containsKey(buf)) {
+                    if (c >= 0xDDE6 && c <= 0xDDFA) {
+                        scan.add(i - 3, i + 1, buf);
+                    } else {
+                        scan.add(i - 1, i + 1, buf);
+                    }
+                }
+                buf = 0;
+            } else if (c == 0x20E3) {
+                if (i > 0) {
+                    char c2 = cs.charAt(i - 1);
+                    if ((c2 >= '0' && c2 <= '9') || c2 == '#') {
+                        buf = c2;
+                        buf <<= 16;
+                        buf |= c;
+                        if (rects.containsKey(buf)) {
+                            scan.add(i - 1, i + 1, buf);
+                        }
+                        buf = 0;
+                    }
+                }
+            } else if (isEmojiChar(c) && rects.containsKey(c)) {
+                scan.add(i, i + 1, c);
             }
         }
-        return false;
+        return scan;
+    }
+
+    private static void setEmojiSpan(Spannable s, EmojiScan scan, int index, Paint.FontMetricsInt fontMetrics, int size) {
+        EmojiDrawable d = Emoji.getEmojiDrawable(scan.codes[index]);
+        if (d != null) {
+            s.setSpan(new EmojiSpan(d, DynamicDrawableSpan.ALIGN_BOTTOM, size, fontMetrics), scan.starts[index], scan.ends[index], 0);
+        }
     }
 
     public static CharSequence replaceEmoji(CharSequence cs, Paint.FontMetricsInt fontMetrics, int size) {
@@ -407,61 +513,46 @@ public class Emoji {
         } else {
             s = Spannable.Factory.getInstance().newSpannable(cs);
         }
-        long buf = 0;
-        int emojiCount = 0;
         try {
-            for (int i = 0; i < cs.length(); i++) {
-                char c = cs.charAt(i);
-                if (c == 0xD83C || c == 0xD83D || (buf != 0 && (buf & 0xFFFFFFFF00000000L) == 0 && (c >= 0xDDE6 && c <= 0xDDFA))) {
-                    buf <<= 16;
-                    buf |= c;
-                } else if (buf > 0 && (c & 0xF000) == 0xD000) {
-                    buf <<= 16;
-                    buf |= c;
-                    EmojiDrawable d = Emoji.getEmojiDrawable(buf);
-                    if (d != null) {
-                        EmojiSpan span = new EmojiSpan(d, DynamicDrawableSpan.ALIGN_BOTTOM, size, fontMetrics);
-                        emojiCount++;
-                        if (c >= 0xDDE6 && c <= 0xDDFA) {
-                            s.setSpan(span, i - 3, i + 1, 0);
-                        } else {
-                            s.setSpan(span, i - 1, i + 1, 0);
-                        }
-                    }
-                    buf = 0;
-                } else if (c == 0x20E3) {
-                    if (i > 0) {
-                        char c2 = cs.charAt(i - 1);
-                        if ((c2 >= '0' && c2 <= '9') || c2 == '#') {
-                            buf = c2;
-                            buf <<= 16;
-                            buf |= c;
-                            EmojiDrawable d = Emoji.getEmojiDrawable(buf);
-                            if (d != null) {
-                                EmojiSpan span = new EmojiSpan(d, DynamicDrawableSpan.ALIGN_BOTTOM, size, fontMetrics);
-                                emojiCount++;
-                                s.setSpan(span, i - 1, i + 1, 0);
-                            }
-                            buf = 0;
-                        }
-                    }
-                } else if (inArray(c, emojiChars)) {
-                    EmojiDrawable d = Emoji.getEmojiDrawable(c);
-                    if (d != null) {
-                        EmojiSpan span = new EmojiSpan(d, DynamicDrawableSpan.ALIGN_BOTTOM, size, fontMetrics);
-                        emojiCount++;
-                        s.setSpan(span, i, i + 1, 0);
+            EmojiScan scan = scanEmoji(cs);
+            for (int a = 0; a < scan.count; a++) {
+                setEmojiSpan(s, scan, a, fontMetrics, size);
+            }
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+            return cs;
+        }
+        return s;
+    }
+
+    /**
+     * Brings the emoji spans of an edited text up to date, keeping the spans that still cover
+     * the same emoji and only removing or adding the others. Image spans that aren't emoji are
+     * removed.
+     */
+    public static void updateEmoji(Spannable s, Paint.FontMetricsInt fontMetrics, int size) {
+        try {
+            EmojiScan scan = scanEmoji(s);
+            boolean[] present = new boolean[scan.count];
+            ImageSpan[] spans = s.getSpans(0, s.length(), ImageSpan.class);
+            for (ImageSpan span : spans) {
+                if (span instanceof EmojiSpan && span.getDrawable() instanceof EmojiDrawable) {
+                    int index = scan.indexOf(s.getSpanStart(span));
+                    if (index != -1 && !present[index] && scan.ends[index] == s.getSpanEnd(span) && scan.codes[index] == ((EmojiDrawable) span.getDrawable()).getDrawableInfo().code) {
+                        present[index] = true;
+                        continue;
                     }
                 }
-                if (emojiCount >= 50) {
-                    break;
+                s.removeSpan(span);
+            }
+            for (int a = 0; a < scan.count; a++) {
+                if (!present[a]) {
+                    setEmojiSpan(s, scan, a, fontMetrics, size);
                 }
             }
         } catch (Exception e) {
             FileLog.e("tmessages", e);
-            return cs;
         }
-        return s;
     }
 
     public static class EmojiSpan extends ImageSpan {
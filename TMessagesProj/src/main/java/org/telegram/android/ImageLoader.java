@@ -57,6 +57,7 @@ public class ImageLoader {
 
     private HashMap<String, Integer> bitmapUseCounts = new HashMap<>();
     private LruCache memCache;
+    private DecodedImageCache decodedImageCache;
     private HashMap<String, CacheImage> imageLoadingByUrl = new HashMap<>();
     private HashMap<String, CacheImage> imageLoadingByKeys = new HashMap<>();
     private HashMap<Integer, CacheImage> imageLoadingByTag = new HashMap<>();
@@ -511,12 +512,23 @@ public class ImageLoader {
             File cacheFileFinal = cacheImage.finalFilePath;
             boolean canDeleteFile = true;
             boolean isWebp = false;
+            long decodeStartTime = 0;
 
             if (cacheFileFinal.toString().endsWith("webp")) {
                 isWebp = true;
             }
 
-            if (cacheImage.thumb) {
+            boolean useDecodedCache = (cacheImage.thumb || cacheImage.filter != null) && (cacheImage.httpUrl == null || !cacheImage.httpUrl.startsWith("thumb://"));
+            if (useDecodedCache) {
+                image = decodedImageCache.get(cacheImage.key);
+            }
+
+            if (image != null) {
+                useDecodedCache = false;
+                if (runtimeHack != null) {
+                    runtimeHack.trackFree(image.getRowBytes() * image.getHeight());
+                }
+            } else if (cacheImage.thumb) {
 
                 int blurType = 0;
                 if (cacheImage.filter != null) {
@@ -531,6 +543,7 @@ public class ImageLoader {
 
                 try {
                     lastCacheOutTime = System.currentTimeMillis();
+                    decodeStartTime = System.nanoTime();
                     synchronized (sync) {
                         if (isCancelled) {
                             return;
@@ -597,6 +610,7 @@ public class ImageLoader {
                         Thread.sleep(delay);
                     }
                     lastCacheOutTime = System.currentTimeMillis();
+                    decodeStartTime = System.nanoTime();
                     synchronized (sync) {
                         if (isCancelled) {
                             return;
@@ -690,6 +704,9 @@ public class ImageLoader {
                     //don't promt
                 }
             }
+            if (useDecodedCache && image != null && decodeStartTime != 0) {
+                decodedImageCache.put(cacheImage.key, image, System.nanoTime() - decodeStartTime);
+            }
             Thread.interrupted();
             onPostExecute(image != null ? new BitmapDrawable(image) : null);
         }
@@ -907,6 +924,7 @@ public class ImageLoader {
             runtimeHack = new VMRuntimeHack();
             cacheSize = 1024 * 1024 * 3;
         }
+        decodedImageCache = new DecodedImageCache(new File(AndroidUtilities.getCacheDir(), "decoded"), 32 * 1024 * 1024, 512 * 1024);
         memCache = new LruCache(cacheSize) {
             @Override
             protected int sizeOf(String key, BitmapDrawable bitmap) {
@@ -1222,6 +1240,13 @@ public class ImageLoader {
         memCache.evictAll();
     }
 
+    /**
+     * Disk tier of the memory cache, for its stats
+     */
+    public DecodedImageCache getDecodedImageCache() {
+        return decodedImageCache;
+    }
+
     private void removeFromWaitingForThumb(Integer TAG) {
         String location = waitingForQualityThumbByTag.get(TAG);
         if (location != null) {
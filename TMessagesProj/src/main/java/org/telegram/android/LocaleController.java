@@ -35,7 +35,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 public class LocaleController {
@@ -70,7 +72,14 @@ public class LocaleController {
     private String languageOverride;
     private boolean changingConfiguration = false;
 
-    private HashMap<String, String> translitChars;
+    private volatile String[][] translitTable;
+    private final StringBuilder translitBuilder = new StringBuilder();
+    private final LinkedHashMap<String, String> translitCache = new LinkedHashMap<String, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > 256;
+        }
+    };
 
     private class TimeZoneChangedReceiver extends BroadcastReceiver {
         @Override
@@ -815,541 +824,589 @@ public class LocaleController {
         }
     }
 
+    private static void putTranslitChar(String[][] table, char ch, String value) {
+        String[] page = table[ch >> 8];
+        if (page == null) {
+            page = table[ch >> 8] = new String[256];
+        }
+        page[ch & 0xff] = value;
+    }
+
+    /**
+     * Replacements by character, in pages of 256 characters that are only allocated if one of
+     * their characters is replaced
+     */
+    private synchronized String[][] getTranslitTable() {
+        if (translitTable != null) {
+            return translitTable;
+        }
+        String[][] table = new String[256][];
+        putTranslitChar(table, 'ȼ', "c");
+        putTranslitChar(table, 'ᶇ', "n");
+        putTranslitChar(table, 'ɖ', "d");
+        putTranslitChar(table, 'ỿ', "y");
+        putTranslitChar(table, 'ᴓ', "o");
+        putTranslitChar(table, 'ø', "o");
+        putTranslitChar(table, 'ḁ', "a");
+        putTranslitChar(table, 'ʯ', "h");
+        putTranslitChar(table, 'ŷ', "y");
+        putTranslitChar(table, 'ʞ', "k");
+        putTranslitChar(table, 'ừ', "u");
+        putTranslitChar(table, 'ꜳ', "aa");
+        putTranslitChar(table, 'ĳ', "ij");
+        putTranslitChar(table, 'ḽ', "l");
+        putTranslitChar(table, 'ɪ', "i");
+        putTranslitChar(table, 'ḇ', "b");
+        putTranslitChar(table, 'ʀ', "r");
+        putTranslitChar(table, 'ě', "e");
+        putTranslitChar(table, 'ﬃ', "ffi");
+        putTranslitChar(table, 'ơ', "o");
+        putTranslitChar(table, 'ⱹ', "r");
+        putTranslitChar(table, 'ồ', "o");
+        putTranslitChar(table, 'ǐ', "i");
+        putTranslitChar(table, 'ꝕ', "p");
+        putTranslitChar(table, 'ý', "y");
+        putTranslitChar(table, 'ḝ', "e");
+        putTranslitChar(table, 'ₒ', "o");
+        putTranslitChar(table, 'ⱥ', "a");
+        putTranslitChar(table, 'ʙ', "b");
+        putTranslitChar(table, 'ḛ', "e");
+        putTranslitChar(table, 'ƈ', "c");
+        putTranslitChar(table, 'ɦ', "h");
+        putTranslitChar(table, 'ᵬ', "b");
+        putTranslitChar(table, 'ṣ', "s");
+        putTranslitChar(table, 'đ', "d");
+        putTranslitChar(table, 'ỗ', "o");
+        putTranslitChar(table, 'ɟ', "j");
+        putTranslitChar(table, 'ẚ', "a");
+        putTranslitChar(table, 'ɏ', "y");
+        putTranslitChar(table, 'л', "l");
+        putTranslitChar(table, 'ʌ', "v");
+        putTranslitChar(table, 'ꝓ', "p");
+        putTranslitChar(table, 'ﬁ', "fi");
+        putTranslitChar(table, 'ᶄ', "k");
+        putTranslitChar(table, 'ḏ', "d");
+        putTranslitChar(table, 'ᴌ', "l");
+        putTranslitChar(table, 'ė', "e");
+        putTranslitChar(table, 'ё', "yo");
+        putTranslitChar(table, 'ᴋ', "k");
+        putTranslitChar(table, 'ċ', "c");
+        putTranslitChar(table, 'ʁ', "r");
+        putTranslitChar(table, 'ƕ', "hv");
+        putTranslitChar(table, 'ƀ', "b");
+        putTranslitChar(table, 'ṍ', "o");
+        putTranslitChar(table, 'ȣ', "ou");
+        putTranslitChar(table, 'ǰ', "j");
+        putTranslitChar(table, 'ᶃ', "g");
+        putTranslitChar(table, 'ṋ', "n");
+        putTranslitChar(table, 'ɉ', "j");
+        putTranslitChar(table, 'ǧ', "g");
+        putTranslitChar(table, 'ǳ', "dz");
+        putTranslitChar(table, 'ź', "z");
+        putTranslitChar(table, 'ꜷ', "au");
+        putTranslitChar(table, 'ǖ', "u");
+        putTranslitChar(table, 'ᵹ', "g");
+        putTranslitChar(table, 'ȯ', "o");
+        putTranslitChar(table, 'ɐ', "a");
+        putTranslitChar(table, 'ą', "a");
+        putTranslitChar(table, 'õ', "o");
+        putTranslitChar(table, 'ɻ', "r");
+        putTranslitChar(table, 'ꝍ', "o");
+        putTranslitChar(table, 'ǟ', "a");
+        putTranslitChar(table, 'ȴ', "l");
+        putTranslitChar(table, 'ʂ', "s");
+        putTranslitChar(table, 'ﬂ', "fl");
+        putTranslitChar(table, 'ȉ', "i");
+        putTranslitChar(table, 'ⱻ', "e");
+        putTranslitChar(table, 'ṉ', "n");
+        putTranslitChar(table, 'ï', "i");
+        putTranslitChar(table, 'ñ', "n");
+        putTranslitChar(table, 'ᴉ', "i");
+        putTranslitChar(table, 'ʇ', "t");
+        putTranslitChar(table, 'ẓ', "z");
+        putTranslitChar(table, 'ỷ', "y");
+        putTranslitChar(table, 'ȳ', "y");
+        putTranslitChar(table, 'ṩ', "s");
+        putTranslitChar(table, 'ɽ', "r");
+        putTranslitChar(table, 'ĝ', "g");
+        putTranslitChar(table, 'в', "v");
+        putTranslitChar(table, 'ᴝ', "u");
+        putTranslitChar(table, 'ḳ', "k");
+        putTranslitChar(table, 'ꝫ', "et");
+        putTranslitChar(table, 'ī', "i");
+        putTranslitChar(table, 'ť', "t");
+        putTranslitChar(table, 'ꜿ', "c");
+        putTranslitChar(table, 'ʟ', "l");
+        putTranslitChar(table, 'ꜹ', "av");
+        putTranslitChar(table, 'û', "u");
+        putTranslitChar(table, 'æ', "ae");
+        putTranslitChar(table, 'и', "i");
+        putTranslitChar(table, 'ă', "a");
+        putTranslitChar(table, 'ǘ', "u");
+        putTranslitChar(table, 'ꞅ', "s");
+        putTranslitChar(table, 'ᵣ', "r");
+        putTranslitChar(table, 'ᴀ', "a");
+        putTranslitChar(table, 'ƃ', "b");
+        putTranslitChar(table, 'ḩ', "h");
+        putTranslitChar(table, 'ṧ', "s");
+        putTranslitChar(table, 'ₑ', "e");
+        putTranslitChar(table, 'ʜ', "h");
+        putTranslitChar(table, 'ẋ', "x");
+        putTranslitChar(table, 'ꝅ', "k");
+        putTranslitChar(table, 'ḋ', "d");
+        putTranslitChar(table, 'ƣ', "oi");
+        putTranslitChar(table, 'ꝑ', "p");
+        putTranslitChar(table, 'ħ', "h");
+        putTranslitChar(table, 'ⱴ', "v");
+        putTranslitChar(table, 'ẇ', "w");
+        putTranslitChar(table, 'ǹ', "n");
+        putTranslitChar(table, 'ɯ', "m");
+        putTranslitChar(table, 'ɡ', "g");
+        putTranslitChar(table, 'ɴ', "n");
+        putTranslitChar(table, 'ᴘ', "p");
+        putTranslitChar(table, 'ᵥ', "v");
+        putTranslitChar(table, 'ū', "u");
+        putTranslitChar(table, 'ḃ', "b");
+        putTranslitChar(table, 'ṗ', "p");
+        putTranslitChar(table, 'ь', "");
+        putTranslitChar(table, 'å', "a");
+        putTranslitChar(table, 'ɕ', "c");
+        putTranslitChar(table, 'ọ', "o");
+        putTranslitChar(table, 'ắ', "a");
+        putTranslitChar(table, 'ƒ', "f");
+        putTranslitChar(table, 'ǣ', "ae");
+        putTranslitChar(table, 'ꝡ', "vy");
+        putTranslitChar(table, 'ﬀ', "ff");
+        putTranslitChar(table, 'ᶉ', "r");
+        putTranslitChar(table, 'ô', "o");
+        putTranslitChar(table, 'ǿ', "o");
+        putTranslitChar(table, 'ṳ', "u");
+        putTranslitChar(table, 'ȥ', "z");
+        putTranslitChar(table, 'ḟ', "f");
+        putTranslitChar(table, 'ḓ', "d");
+        putTranslitChar(table, 'ȇ', "e");
+        putTranslitChar(table, 'ȕ', "u");
+        putTranslitChar(table, 'п', "p");
+        putTranslitChar(table, 'ȵ', "n");
+        putTranslitChar(table, 'ʠ', "q");
+        putTranslitChar(table, 'ấ', "a");
+        putTranslitChar(table, 'ǩ', "k");
+        putTranslitChar(table, 'ĩ', "i");
+        putTranslitChar(table, 'ṵ', "u");
+        putTranslitChar(table, 'ŧ', "t");
+        putTranslitChar(table, 'ɾ', "r");
+        putTranslitChar(table, 'ƙ', "k");
+        putTranslitChar(table, 'ṫ', "t");
+        putTranslitChar(table, 'ꝗ', "q");
+        putTranslitChar(table, 'ậ', "a");
+        putTranslitChar(table, 'н', "n");
+        putTranslitChar(table, 'ʄ', "j");
+        putTranslitChar(table, 'ƚ', "l");
+        putTranslitChar(table, 'ᶂ', "f");
+        putTranslitChar(table, 'д', "d");
+        putTranslitChar(table, 'ᵴ', "s");
+        putTranslitChar(table, 'ꞃ', "r");
+        putTranslitChar(table, 'ᶌ', "v");
+        putTranslitChar(table, 'ɵ', "o");
+        putTranslitChar(table, 'ḉ', "c");
+        putTranslitChar(table, 'ᵤ', "u");
+        putTranslitChar(table, 'ẑ', "z");
+        putTranslitChar(table, 'ṹ', "u");
+        putTranslitChar(table, 'ň', "n");
+        putTranslitChar(table, 'ʍ', "w");
+        putTranslitChar(table, 'ầ', "a");
+        putTranslitChar(table, 'ǉ', "lj");
+        putTranslitChar(table, 'ɓ', "b");
+        putTranslitChar(table, 'ɼ', "r");
+        putTranslitChar(table, 'ò', "o");
+        putTranslitChar(table, 'ẘ', "w");
+        putTranslitChar(table, 'ɗ', "d");
+        putTranslitChar(table, 'ꜽ', "ay");
+        putTranslitChar(table, 'ư', "u");
+        putTranslitChar(table, 'ᶀ', "b");
+        putTranslitChar(table, 'ǜ', "u");
+        putTranslitChar(table, 'ẹ', "e");
+        putTranslitChar(table, 'ǡ', "a");
+        putTranslitChar(table, 'ɥ', "h");
+        putTranslitChar(table, 'ṏ', "o");
+        putTranslitChar(table, 'ǔ', "u");
+        putTranslitChar(table, 'ʎ', "y");
+        putTranslitChar(table, 'ȱ', "o");
+        putTranslitChar(table, 'ệ', "e");
+        putTranslitChar(table, 'ế', "e");
+        putTranslitChar(table, 'ĭ', "i");
+        putTranslitChar(table, 'ⱸ', "e");
+        putTranslitChar(table, 'ṯ', "t");
+        putTranslitChar(table, 'ᶑ', "d");
+        putTranslitChar(table, 'ḧ', "h");
+        putTranslitChar(table, 'ṥ', "s");
+        putTranslitChar(table, 'ë', "e");
+        putTranslitChar(table, 'ᴍ', "m");
+        putTranslitChar(table, 'ö', "o");
+        putTranslitChar(table, 'é', "e");
+        putTranslitChar(table, 'ı', "i");
+        putTranslitChar(table, 'ď', "d");
+        putTranslitChar(table, 'ᵯ', "m");
+        putTranslitChar(table, 'ỵ', "y");
+        putTranslitChar(table, 'я', "ya");
+        putTranslitChar(table, 'ŵ', "w");
+        putTranslitChar(table, 'ề', "e");
+        putTranslitChar(table, 'ứ', "u");
+        putTranslitChar(table, 'ƶ', "z");
+        putTranslitChar(table, 'ĵ', "j");
+        putTranslitChar(table, 'ḍ', "d");
+        putTranslitChar(table, 'ŭ', "u");
+        putTranslitChar(table, 'ʝ', "j");
+        putTranslitChar(table, 'ж', "zh");
+        putTranslitChar(table, 'ê', "e");
+        putTranslitChar(table, 'ǚ', "u");
+        putTranslitChar(table, 'ġ', "g");
+        putTranslitChar(table, 'ṙ', "r");
+        putTranslitChar(table, 'ƞ', "n");
+        putTranslitChar(table, 'ъ', "");
+        putTranslitChar(table, 'ḗ', "e");
+        putTranslitChar(table, 'ẝ', "s");
+        putTranslitChar(table, 'ᶁ', "d");
+        putTranslitChar(table, 'ķ', "k");
+        putTranslitChar(table, 'ᴂ', "ae");
+        putTranslitChar(table, 'ɘ', "e");
+        putTranslitChar(table, 'ợ', "o");
+        putTranslitChar(table, 'ḿ', "m");
+        putTranslitChar(table, 'ꜰ', "f");
+        putTranslitChar(table, 'а', "a");
+        putTranslitChar(table, 'ẵ', "a");
+        putTranslitChar(table, 'ꝏ', "oo");
+        putTranslitChar(table, 'ᶆ', "m");
+        putTranslitChar(table, 'ᵽ', "p");
+        putTranslitChar(table, 'ц', "ts");
+        putTranslitChar(table, 'ữ', "u");
+        putTranslitChar(table, 'ⱪ', "k");
+        putTranslitChar(table, 'ḥ', "h");
+        putTranslitChar(table, 'ţ', "t");
+        putTranslitChar(table, 'ᵱ', "p");
+        putTranslitChar(table, 'ṁ', "m");
+        putTranslitChar(table, 'á', "a");
+        putTranslitChar(table, 'ᴎ', "n");
+        putTranslitChar(table, 'ꝟ', "v");
+        putTranslitChar(table, 'è', "e");
+        putTranslitChar(table, 'ᶎ', "z");
+        putTranslitChar(table, 'ꝺ', "d");
+        putTranslitChar(table, 'ᶈ', "p");
+        putTranslitChar(table, 'м', "m");
+        putTranslitChar(table, 'ɫ', "l");
+        putTranslitChar(table, 'ᴢ', "z");
+        putTranslitChar(table, 'ɱ', "m");
+        putTranslitChar(table, 'ṝ', "r");
+        putTranslitChar(table, 'ṽ', "v");
+        putTranslitChar(table, 'ũ', "u");
+        putTranslitChar(table, 'ß', "ss");
+        putTranslitChar(table, 'т', "t");
+        putTranslitChar(table, 'ĥ', "h");
+        putTranslitChar(table, 'ᵵ', "t");
+        putTranslitChar(table, 'ʐ', "z");
+        putTranslitChar(table, 'ṟ', "r");
+        putTranslitChar(table, 'ɲ', "n");
+        putTranslitChar(table, 'à', "a");
+        putTranslitChar(table, 'ẙ', "y");
+        putTranslitChar(table, 'ỳ', "y");
+        putTranslitChar(table, 'ᴔ', "oe");
+        putTranslitChar(table, 'ы', "i");
+        putTranslitChar(table, 'ₓ', "x");
+        putTranslitChar(table, 'ȗ', "u");
+        putTranslitChar(table, 'ⱼ', "j");
+        putTranslitChar(table, 'ẫ', "a");
+        putTranslitChar(table, 'ʑ', "z");
+        putTranslitChar(table, 'ẛ', "s");
+        putTranslitChar(table, 'ḭ', "i");
+        putTranslitChar(table, 'ꜵ', "ao");
+        putTranslitChar(table, 'ɀ', "z");
+        putTranslitChar(table, 'ÿ', "y");
+        putTranslitChar(table, 'ǝ', "e");
+        putTranslitChar(table, 'ǭ', "o");
+        putTranslitChar(table, 'ᴅ', "d");
+        putTranslitChar(table, 'ᶅ', "l");
+        putTranslitChar(table, 'ù', "u");
+        putTranslitChar(table, 'ạ', "a");
+        putTranslitChar(table, 'ḅ', "b");
+        putTranslitChar(table, 'ụ', "u");
+        putTranslitChar(table, 'к', "k");
+        putTranslitChar(table, 'ằ', "a");
+        putTranslitChar(table, 'ᴛ', "t");
+        putTranslitChar(table, 'ƴ', "y");
+        putTranslitChar(table, 'ⱦ', "t");
+        putTranslitChar(table, 'з', "z");
+        putTranslitChar(table, 'ⱡ', "l");
+        putTranslitChar(table, 'ȷ', "j");
+        putTranslitChar(table, 'ᵶ', "z");
+        putTranslitChar(table, 'ḫ', "h");
+        putTranslitChar(table, 'ⱳ', "w");
+        putTranslitChar(table, 'ḵ', "k");
+        putTranslitChar(table, 'ờ', "o");
+        putTranslitChar(table, 'î', "i");
+        putTranslitChar(table, 'ģ', "g");
+        putTranslitChar(table, 'ȅ', "e");
+        putTranslitChar(table, 'ȧ', "a");
+        putTranslitChar(table, 'ẳ', "a");
+        putTranslitChar(table, 'щ', "sch");
+        putTranslitChar(table, 'ɋ', "q");
+        putTranslitChar(table, 'ṭ', "t");
+        putTranslitChar(table, 'ꝸ', "um");
+        putTranslitChar(table, 'ᴄ', "c");
+        putTranslitChar(table, 'ẍ', "x");
+        putTranslitChar(table, 'ủ', "u");
+        putTranslitChar(table, 'ỉ', "i");
+        putTranslitChar(table, 'ᴚ', "r");
+        putTranslitChar(table, 'ś', "s");
+        putTranslitChar(table, 'ꝋ', "o");
+        putTranslitChar(table, 'ỹ', "y");
+        putTranslitChar(table, 'ṡ', "s");
+        putTranslitChar(table, 'ǌ', "nj");
+        putTranslitChar(table, 'ȁ', "a");
+        putTranslitChar(table, 'ẗ', "t");
+        putTranslitChar(table, 'ĺ', "l");
+        putTranslitChar(table, 'ž', "z");
+        putTranslitChar(table, 'ᵺ', "th");
+        putTranslitChar(table, 'ƌ', "d");
+        putTranslitChar(table, 'ș', "s");
+        putTranslitChar(table, 'š', "s");
+        putTranslitChar(table, 'ᶙ', "u");
+        putTranslitChar(table, 'ẽ', "e");
+        putTranslitChar(table, 'ẜ', "s");
+        putTranslitChar(table, 'ɇ', "e");
+        putTranslitChar(table, 'ṷ', "u");
+        putTranslitChar(table, 'ố', "o");
+        putTranslitChar(table, 'ȿ', "s");
+        putTranslitChar(table, 'ᴠ', "v");
+        putTranslitChar(table, 'ꝭ', "is");
+        putTranslitChar(table, 'ᴏ', "o");
+        putTranslitChar(table, 'ɛ', "e");
+        putTranslitChar(table, 'ǻ', "a");
+        putTranslitChar(table, 'ﬄ', "ffl");
+        putTranslitChar(table, 'ⱺ', "o");
+        putTranslitChar(table, 'ȋ', "i");
+        putTranslitChar(table, 'ᵫ', "ue");
+        putTranslitChar(table, 'ȡ', "d");
+        putTranslitChar(table, 'ⱬ', "z");
+        putTranslitChar(table, 'ẁ', "w");
+        putTranslitChar(table, 'ᶏ', "a");
+        putTranslitChar(table, 'ꞇ', "t");
+        putTranslitChar(table, 'ğ', "g");
+        putTranslitChar(table, 'ɳ', "n");
+        putTranslitChar(table, 'ʛ', "g");
+        putTranslitChar(table, 'ᴜ', "u");
+        putTranslitChar(table, 'ф', "f");
+        putTranslitChar(table, 'ẩ', "a");
+        putTranslitChar(table, 'ṅ', "n");
+        putTranslitChar(table, 'ɨ', "i");
+        putTranslitChar(table, 'ᴙ', "r");
+        putTranslitChar(table, 'ǎ', "a");
+        putTranslitChar(table, 'ſ', "s");
+        putTranslitChar(table, 'у', "u");
+        putTranslitChar(table, 'ȫ', "o");
+        putTranslitChar(table, 'ɿ', "r");
+        putTranslitChar(table, 'ƭ', "t");
+        putTranslitChar(table, 'ḯ', "i");
+        putTranslitChar(table, 'ǽ', "ae");
+        putTranslitChar(table, 'ⱱ', "v");
+        putTranslitChar(table, 'ɶ', "oe");
+        putTranslitChar(table, 'ṃ', "m");
+        putTranslitChar(table, 'ż', "z");
+        putTranslitChar(table, 'ĕ', "e");
+        putTranslitChar(table, 'ꜻ', "av");
+        putTranslitChar(table, 'ở', "o");
+        putTranslitChar(table, 'ễ', "e");
+        putTranslitChar(table, 'ɬ', "l");
+        putTranslitChar(table, 'ị', "i");
+        putTranslitChar(table, 'ᵭ', "d");
+        putTranslitChar(table, 'ﬆ', "st");
+        putTranslitChar(table, 'ḷ', "l");
+        putTranslitChar(table, 'ŕ', "r");
+        putTranslitChar(table, 'ᴕ', "ou");
+        putTranslitChar(table, 'ʈ', "t");
+        putTranslitChar(table, 'ā', "a");
+        putTranslitChar(table, 'э', "e");
+        putTranslitChar(table, 'ḙ', "e");
+        putTranslitChar(table, 'ᴑ', "o");
+        putTranslitChar(table, 'ç', "c");
+        putTranslitChar(table, 'ᶊ', "s");
+        putTranslitChar(table, 'ặ', "a");
+        putTranslitChar(table, 'ų', "u");
+        putTranslitChar(table, 'ả', "a");
+        putTranslitChar(table, 'ǥ', "g");
+        putTranslitChar(table, 'р', "r");
+        putTranslitChar(table, 'ꝁ', "k");
+        putTranslitChar(table, 'ẕ', "z");
+        putTranslitChar(table, 'ŝ', "s");
+        putTranslitChar(table, 'ḕ', "e");
+        putTranslitChar(table, 'ɠ', "g");
+        putTranslitChar(table, 'ꝉ', "l");
+        putTranslitChar(table, 'ꝼ', "f");
+        putTranslitChar(table, 'ᶍ', "x");
+        putTranslitChar(table, 'х', "h");
+        putTranslitChar(table, 'ǒ', "o");
+        putTranslitChar(table, 'ę', "e");
+        putTranslitChar(table, 'ổ', "o");
+        putTranslitChar(table, 'ƫ', "t");
+        putTranslitChar(table, 'ǫ', "o");
+        putTranslitChar(table, 'ṇ', "n");
+        putTranslitChar(table, 'ć', "c");
+        putTranslitChar(table, 'ᵷ', "g");
+        putTranslitChar(table, 'ẅ', "w");
+        putTranslitChar(table, 'ḑ', "d");
+        putTranslitChar(table, 'ḹ', "l");
+        putTranslitChar(table, 'ч', "ch");
+        putTranslitChar(table, 'œ', "oe");
+        putTranslitChar(table, 'ᵳ', "r");
+        putTranslitChar(table, 'ļ', "l");
+        putTranslitChar(table, 'ȑ', "r");
+        putTranslitChar(table, 'ȭ', "o");
+        putTranslitChar(table, 'ᵰ', "n");
+        putTranslitChar(table, 'ᴁ', "ae");
+        putTranslitChar(table, 'ŀ', "l");
+        putTranslitChar(table, 'ä', "a");
+        putTranslitChar(table, 'ƥ', "p");
+        putTranslitChar(table, 'ỏ', "o");
+        putTranslitChar(table, 'į', "i");
+        putTranslitChar(table, 'ȓ', "r");
+        putTranslitChar(table, 'ǆ', "dz");
+        putTranslitChar(table, 'ḡ', "g");
+        putTranslitChar(table, 'ṻ', "u");
+        putTranslitChar(table, 'ō', "o");
+        putTranslitChar(table, 'ľ', "l");
+        putTranslitChar(table, 'ẃ', "w");
+        putTranslitChar(table, 'ț', "t");
+        putTranslitChar(table, 'ń', "n");
+        putTranslitChar(table, 'ɍ', "r");
+        putTranslitChar(table, 'ȃ', "a");
+        putTranslitChar(table, 'ü', "u");
+        putTranslitChar(table, 'ꞁ', "l");
+        putTranslitChar(table, 'ᴐ', "o");
+        putTranslitChar(table, 'ớ', "o");
+        putTranslitChar(table, 'ᴃ', "b");
+        putTranslitChar(table, 'ɹ', "r");
+        putTranslitChar(table, 'ᵲ', "r");
+        putTranslitChar(table, 'ʏ', "y");
+        putTranslitChar(table, 'ᵮ', "f");
+        putTranslitChar(table, 'ⱨ', "h");
+        putTranslitChar(table, 'ŏ', "o");
+        putTranslitChar(table, 'ú', "u");
+        putTranslitChar(table, 'ṛ', "r");
+        putTranslitChar(table, 'ʮ', "h");
+        putTranslitChar(table, 'ó', "o");
+        putTranslitChar(table, 'ů', "u");
+        putTranslitChar(table, 'ỡ', "o");
+        putTranslitChar(table, 'ṕ', "p");
+        putTranslitChar(table, 'ᶖ', "i");
+        putTranslitChar(table, 'ự', "u");
+        putTranslitChar(table, 'ã', "a");
+        putTranslitChar(table, 'ᵢ', "i");
+        putTranslitChar(table, 'ṱ', "t");
+        putTranslitChar(table, 'ể', "e");
+        putTranslitChar(table, 'ử', "u");
+        putTranslitChar(table, 'í', "i");
+        putTranslitChar(table, 'ɔ', "o");
+        putTranslitChar(table, 'с', "s");
+        putTranslitChar(table, 'й', "i");
+        putTranslitChar(table, 'ɺ', "r");
+        putTranslitChar(table, 'ɢ', "g");
+        putTranslitChar(table, 'ř', "r");
+        putTranslitChar(table, 'ẖ', "h");
+        putTranslitChar(table, 'ű', "u");
+        putTranslitChar(table, 'ȍ', "o");
+        putTranslitChar(table, 'ш', "sh");
+        putTranslitChar(table, 'ḻ', "l");
+        putTranslitChar(table, 'ḣ', "h");
+        putTranslitChar(table, 'ȶ', "t");
+        putTranslitChar(table, 'ņ', "n");
+        putTranslitChar(table, 'ᶒ', "e");
+        putTranslitChar(table, 'ì', "i");
+        putTranslitChar(table, 'ẉ', "w");
+        putTranslitChar(table, 'б', "b");
+        putTranslitChar(table, 'ē', "e");
+        putTranslitChar(table, 'ᴇ', "e");
+        putTranslitChar(table, 'ł', "l");
+        putTranslitChar(table, 'ộ', "o");
+        putTranslitChar(table, 'ɭ', "l");
+        putTranslitChar(table, 'ẏ', "y");
+        putTranslitChar(table, 'ᴊ', "j");
+        putTranslitChar(table, 'ḱ', "k");
+        putTranslitChar(table, 'ṿ', "v");
+        putTranslitChar(table, 'ȩ', "e");
+        putTranslitChar(table, 'â', "a");
+        putTranslitChar(table, 'ş', "s");
+        putTranslitChar(table, 'ŗ', "r");
+        putTranslitChar(table, 'ʋ', "v");
+        putTranslitChar(table, 'ₐ', "a");
+        putTranslitChar(table, 'ↄ', "c");
+        putTranslitChar(table, 'ᶓ', "e");
+        putTranslitChar(table, 'ɰ', "m");
+        putTranslitChar(table, 'е', "e");
+        putTranslitChar(table, 'ᴡ', "w");
+        putTranslitChar(table, 'ȏ', "o");
+        putTranslitChar(table, 'č', "c");
+        putTranslitChar(table, 'ǵ', "g");
+        putTranslitChar(table, 'ĉ', "c");
+        putTranslitChar(table, 'ю', "yu");
+        putTranslitChar(table, 'ᶗ', "o");
+        putTranslitChar(table, 'ꝃ', "k");
+        putTranslitChar(table, 'ꝙ', "q");
+        putTranslitChar(table, 'г', "g");
+        putTranslitChar(table, 'ṑ', "o");
+        putTranslitChar(table, 'ꜱ', "s");
+        putTranslitChar(table, 'ṓ', "o");
+        putTranslitChar(table, 'ȟ', "h");
+        putTranslitChar(table, 'ő', "o");
+        putTranslitChar(table, 'ꜩ', "tz");
+        putTranslitChar(table, 'ẻ', "e");
+        putTranslitChar(table, 'о', "o");
+        translitTable = table;
+        return table;
+    }
+
+    /**
+     * Replace accented and non latin letters with latin ones. All replaced characters are in the
+     * basic multilingual plane, so surrogate pairs are copied unchanged.
+     * @return The source itself if nothing had to be replaced
+     */
     public String getTranslitString(String src) {
-        if (translitChars == null) {
-            translitChars = new HashMap<>(520);
-            translitChars.put("ȼ", "c");
-            translitChars.put("ᶇ", "n");
-            translitChars.put("ɖ", "d");
-            translitChars.put("ỿ", "y");
-            translitChars.put("ᴓ", "o");
-            translitChars.put("ø", "o");
-            translitChars.put("ḁ", "a");
-            translitChars.put("ʯ", "h");
-            translitChars.put("ŷ", "y");
-            translitChars.put("ʞ", "k");
-            translitChars.put("ừ", "u");
-            translitChars.put("ꜳ", "aa");
-            translitChars.put("ĳ", "ij");
-            translitChars.put("ḽ", "l");
-            translitChars.put("ɪ", "i");
-            translitChars.put("ḇ", "b");
-            translitChars.put("ʀ", "r");
-            translitChars.put("ě", "e");
-            translitChars.put("ﬃ", "ffi");
-            translitChars.put("ơ", "o");
-            translitChars.put("ⱹ", "r");
-            translitChars.put("ồ", "o");
-            translitChars.put("ǐ", "i");
-            translitChars.put("ꝕ", "p");
-            translitChars.put("ý", "y");
-            translitChars.put("ḝ", "e");
-            translitChars.put("ₒ", "o");
-            translitChars.put("ⱥ", "a");
-            translitChars.put("ʙ", "b");
-            translitChars.put("ḛ", "e");
-            translitChars.put("ƈ", "c");
-            translitChars.put("ɦ", "h");
-            translitChars.put("ᵬ", "b");
-            translitChars.put("ṣ", "s");
-            translitChars.put("đ", "d");
-            translitChars.put("ỗ", "o");
-            translitChars.put("ɟ", "j");
-            translitChars.put("ẚ", "a");
-            translitChars.put("ɏ", "y");
-            translitChars.put("л", "l");
-            translitChars.put("ʌ", "v");
-            translitChars.put("ꝓ", "p");
-            translitChars.put("ﬁ", "fi");
-            translitChars.put("ᶄ", "k");
-            translitChars.put("ḏ", "d");
-            translitChars.put("ᴌ", "l");
-            translitChars.put("ė", "e");
-            translitChars.put("ё", "yo");
-            translitChars.put("ᴋ", "k");
-            translitChars.put("ċ", "c");
-            translitChars.put("ʁ", "r");
-            translitChars.put("ƕ", "hv");
-            translitChars.put("ƀ", "b");
-            translitChars.put("ṍ", "o");
-            translitChars.put("ȣ", "ou");
-            translitChars.put("ǰ", "j");
-            translitChars.put("ᶃ", "g");
-            translitChars.put("ṋ", "n");
-            translitChars.put("ɉ", "j");
-            translitChars.put("ǧ", "g");
-            translitChars.put("ǳ", "dz");
-            translitChars.put("ź", "z");
-            translitChars.put("ꜷ", "au");
-            translitChars.put("ǖ", "u");
-            translitChars.put("ᵹ", "g");
-            translitChars.put("ȯ", "o");
-            translitChars.put("ɐ", "a");
-            translitChars.put("ą", "a");
-            translitChars.put("õ", "o");
-            translitChars.put("ɻ", "r");
-            translitChars.put("ꝍ", "o");
-            translitChars.put("ǟ", "a");
-            translitChars.put("ȴ", "l");
-            translitChars.put("ʂ", "s");
-            translitChars.put("ﬂ", "fl");
-            translitChars.put("ȉ", "i");
-            translitChars.put("ⱻ", "e");
-            translitChars.put("ṉ", "n");
-            translitChars.put("ï", "i");
-            translitChars.put("ñ", "n");
-            translitChars.put("ᴉ", "i");
-            translitChars.put("ʇ", "t");
-            translitChars.put("ẓ", "z");
-            translitChars.put("ỷ", "y");
-            translitChars.put("ȳ", "y");
-            translitChars.put("ṩ", "s");
-            translitChars.put("ɽ", "r");
-            translitChars.put("ĝ", "g");
-            translitChars.put("в", "v");
-            translitChars.put("ᴝ", "u");
-            translitChars.put("ḳ", "k");
-            translitChars.put("ꝫ", "et");
-            translitChars.put("ī", "i");
-            translitChars.put("ť", "t");
-            translitChars.put("ꜿ", "c");
-            translitChars.put("ʟ", "l");
-            translitChars.put("ꜹ", "av");
-            translitChars.put("û", "u");
-            translitChars.put("æ", "ae");
-            translitChars.put("и", "i");
-            translitChars.put("ă", "a");
-            translitChars.put("ǘ", "u");
-            translitChars.put("ꞅ", "s");
-            translitChars.put("ᵣ", "r");
-            translitChars.put("ᴀ", "a");
-            translitChars.put("ƃ", "b");
-            translitChars.put("ḩ", "h");
-            translitChars.put("ṧ", "s");
-            translitChars.put("ₑ", "e");
-            translitChars.put("ʜ", "h");
-            translitChars.put("ẋ", "x");
-            translitChars.put("ꝅ", "k");
-            translitChars.put("ḋ", "d");
-            translitChars.put("ƣ", "oi");
-            translitChars.put("ꝑ", "p");
-            translitChars.put("ħ", "h");
-            translitChars.put("ⱴ", "v");
-            translitChars.put("ẇ", "w");
-            translitChars.put("ǹ", "n");
-            translitChars.put("ɯ", "m");
-            translitChars.put("ɡ", "g");
-            translitChars.put("ɴ", "n");
-            translitChars.put("ᴘ", "p");
-            translitChars.put("ᵥ", "v");
-            translitChars.put("ū", "u");
-            translitChars.put("ḃ", "b");
-            translitChars.put("ṗ", "p");
-            translitChars.put("ь", "");
-            translitChars.put("å", "a");
-            translitChars.put("ɕ", "c");
-            translitChars.put("ọ", "o");
-            translitChars.put("ắ", "a");
-            translitChars.put("ƒ", "f");
-            translitChars.put("ǣ", "ae");
-            translitChars.put("ꝡ", "vy");
-            translitChars.put("ﬀ", "ff");
-            translitChars.put("ᶉ", "r");
-            translitChars.put("ô", "o");
-            translitChars.put("ǿ", "o");
-            translitChars.put("ṳ", "u");
-            translitChars.put("ȥ", "z");
-            translitChars.put("ḟ", "f");
-            translitChars.put("ḓ", "d");
-            translitChars.put("ȇ", "e");
-            translitChars.put("ȕ", "u");
-            translitChars.put("п", "p");
-            translitChars.put("ȵ", "n");
-            translitChars.put("ʠ", "q");
-            translitChars.put("ấ", "a");
-            translitChars.put("ǩ", "k");
-            translitChars.put("ĩ", "i");
-            translitChars.put("ṵ", "u");
-            translitChars.put("ŧ", "t");
-            translitChars.put("ɾ", "r");
-            translitChars.put("ƙ", "k");
-            translitChars.put("ṫ", "t");
-            translitChars.put("ꝗ", "q");
-            translitChars.put("ậ", "a");
-            translitChars.put("н", "n");
-            translitChars.put("ʄ", "j");
-            translitChars.put("ƚ", "l");
-            translitChars.put("ᶂ", "f");
-            translitChars.put("д", "d");
-            translitChars.put("ᵴ", "s");
-            translitChars.put("ꞃ", "r");
-            translitChars.put("ᶌ", "v");
-            translitChars.put("ɵ", "o");
-            translitChars.put("ḉ", "c");
-            translitChars.put("ᵤ", "u");
-            translitChars.put("ẑ", "z");
-            translitChars.put("ṹ", "u");
-            translitChars.put("ň", "n");
-            translitChars.put("ʍ", "w");
-            translitChars.put("ầ", "a");
-            translitChars.put("ǉ", "lj");
-            translitChars.put("ɓ", "b");
-            translitChars.put("ɼ", "r");
-            translitChars.put("ò", "o");
-            translitChars.put("ẘ", "w");
-            translitChars.put("ɗ", "d");
-            translitChars.put("ꜽ", "ay");
-            translitChars.put("ư", "u");
-            translitChars.put("ᶀ", "b");
-            translitChars.put("ǜ", "u");
-            translitChars.put("ẹ", "e");
-            translitChars.put("ǡ", "a");
-            translitChars.put("ɥ", "h");
-            translitChars.put("ṏ", "o");
-            translitChars.put("ǔ", "u");
-            translitChars.put("ʎ", "y");
-            translitChars.put("ȱ", "o");
-            translitChars.put("ệ", "e");
-            translitChars.put("ế", "e");
-            translitChars.put("ĭ", "i");
-            translitChars.put("ⱸ", "e");
-            translitChars.put("ṯ", "t");
-            translitChars.put("ᶑ", "d");
-            translitChars.put("ḧ", "h");
-            translitChars.put("ṥ", "s");
-            translitChars.put("ë", "e");
-            translitChars.put("ᴍ", "m");
-            translitChars.put("ö", "o");
-            translitChars.put("é", "e");
-            translitChars.put("ı", "i");
-            translitChars.put("ď", "d");
-            translitChars.put("ᵯ", "m");
-            translitChars.put("ỵ", "y");
-            translitChars.put("я", "ya");
-            translitChars.put("ŵ", "w");
-            translitChars.put("ề", "e");
-            translitChars.put("ứ", "u");
-            translitChars.put("ƶ", "z");
-            translitChars.put("ĵ", "j");
-            translitChars.put("ḍ", "d");
-            translitChars.put("ŭ", "u");
-            translitChars.put("ʝ", "j");
-            translitChars.put("ж", "zh");
-            translitChars.put("ê", "e");
-            translitChars.put("ǚ", "u");
-            translitChars.put("ġ", "g");
-            translitChars.put("ṙ", "r");
-            translitChars.put("ƞ", "n");
-            translitChars.put("ъ", "");
-            translitChars.put("ḗ", "e");
-            translitChars.put("ẝ", "s");
-            translitChars.put("ᶁ", "d");
-            translitChars.put("ķ", "k");
-            translitChars.put("ᴂ", "ae");
-            translitChars.put("ɘ", "e");
-            translitChars.put("ợ", "o");
-            translitChars.put("ḿ", "m");
-            translitChars.put("ꜰ", "f");
-            translitChars.put("а", "a");
-            translitChars.put("ẵ", "a");
-            translitChars.put("ꝏ", "oo");
-            translitChars.put("ᶆ", "m");
-            translitChars.put("ᵽ", "p");
-            translitChars.put("ц", "ts");
-            translitChars.put("ữ", "u");
-            translitChars.put("ⱪ", "k");
-            translitChars.put("ḥ", "h");
-            translitChars.put("ţ", "t");
-            translitChars.put("ᵱ", "p");
-            translitChars.put("ṁ", "m");
-            translitChars.put("á", "a");
-            translitChars.put("ᴎ", "n");
-            translitChars.put("ꝟ", "v");
-            translitChars.put("è", "e");
-            translitChars.put("ᶎ", "z");
-            translitChars.put("ꝺ", "d");
-            translitChars.put("ᶈ", "p");
-            translitChars.put("м", "m");
-            translitChars.put("ɫ", "l");
-            translitChars.put("ᴢ", "z");
-            translitChars.put("ɱ", "m");
-            translitChars.put("ṝ", "r");
-            translitChars.put("ṽ", "v");
-            translitChars.put("ũ", "u");
-            translitChars.put("ß", "ss");
-            translitChars.put("т", "t");
-            translitChars.put("ĥ", "h");
-            translitChars.put("ᵵ", "t");
-            translitChars.put("ʐ", "z");
-            translitChars.put("ṟ", "r");
-            translitChars.put("ɲ", "n");
-            translitChars.put("à", "a");
-            translitChars.put("ẙ", "y");
-            translitChars.put("ỳ", "y");
-            translitChars.put("ᴔ", "oe");
-            translitChars.put("ы", "i");
-            translitChars.put("ₓ", "x");
-            translitChars.put("ȗ", "u");
-            translitChars.put("ⱼ", "j");
-            translitChars.put("ẫ", "a");
-            translitChars.put("ʑ", "z");
-            translitChars.put("ẛ", "s");
-            translitChars.put("ḭ", "i");
-            translitChars.put("ꜵ", "ao");
-            translitChars.put("ɀ", "z");
-            translitChars.put("ÿ", "y");
-            translitChars.put("ǝ", "e");
-            translitChars.put("ǭ", "o");
-            translitChars.put("ᴅ", "d");
-            translitChars.put("ᶅ", "l");
-            translitChars.put("ù", "u");
-            translitChars.put("ạ", "a");
-            translitChars.put("ḅ", "b");
-            translitChars.put("ụ", "u");
-            translitChars.put("к", "k");
-            translitChars.put("ằ", "a");
-            translitChars.put("ᴛ", "t");
-            translitChars.put("ƴ", "y");
-            translitChars.put("ⱦ", "t");
-            translitChars.put("з", "z");
-            translitChars.put("ⱡ", "l");
-            translitChars.put("ȷ", "j");
-            translitChars.put("ᵶ", "z");
-            translitChars.put("ḫ", "h");
-            translitChars.put("ⱳ", "w");
-            translitChars.put("ḵ", "k");
-            translitChars.put("ờ", "o");
-            translitChars.put("î", "i");
-            translitChars.put("ģ", "g");
-            translitChars.put("ȅ", "e");
-            translitChars.put("ȧ", "a");
-            translitChars.put("ẳ", "a");
-            translitChars.put("щ", "sch");
-            translitChars.put("ɋ", "q");
-            translitChars.put("ṭ", "t");
-            translitChars.put("ꝸ", "um");
-            translitChars.put("ᴄ", "c");
-            translitChars.put("ẍ", "x");
-            translitChars.put("ủ", "u");
-            translitChars.put("ỉ", "i");
-            translitChars.put("ᴚ", "r");
-            translitChars.put("ś", "s");
-            translitChars.put("ꝋ", "o");
-            translitChars.put("ỹ", "y");
-            translitChars.put("ṡ", "s");
-            translitChars.put("ǌ", "nj");
-            translitChars.put("ȁ", "a");
-            translitChars.put("ẗ", "t");
-            translitChars.put("ĺ", "l");
-            translitChars.put("ž", "z");
-            translitChars.put("ᵺ", "th");
-            translitChars.put("ƌ", "d");
-            translitChars.put("ș", "s");
-            translitChars.put("š", "s");
-            translitChars.put("ᶙ", "u");
-            translitChars.put("ẽ", "e");
-            translitChars.put("ẜ", "s");
-            translitChars.put("ɇ", "e");
-            translitChars.put("ṷ", "u");
-            translitChars.put("ố", "o");
-            translitChars.put("ȿ", "s");
-            translitChars.put("ᴠ", "v");
-            translitChars.put("ꝭ", "is");
-            translitChars.put("ᴏ", "o");
-            translitChars.put("ɛ", "e");
-            translitChars.put("ǻ", "a");
-            translitChars.put("ﬄ", "ffl");
-            translitChars.put("ⱺ", "o");
-            translitChars.put("ȋ", "i");
-            translitChars.put("ᵫ", "ue");
-            translitChars.put("ȡ", "d");
-            translitChars.put("ⱬ", "z");
-            translitChars.put("ẁ", "w");
-            translitChars.put("ᶏ", "a");
-            translitChars.put("ꞇ", "t");
-            translitChars.put("ğ", "g");
-            translitChars.put("ɳ", "n");
-            translitChars.put("ʛ", "g");
-            translitChars.put("ᴜ", "u");
-            translitChars.put("ф", "f");
-            translitChars.put("ẩ", "a");
-            translitChars.put("ṅ", "n");
-            translitChars.put("ɨ", "i");
-            translitChars.put("ᴙ", "r");
-            translitChars.put("ǎ", "a");
-            translitChars.put("ſ", "s");
-            translitChars.put("у", "u");
-            translitChars.put("ȫ", "o");
-            translitChars.put("ɿ", "r");
-            translitChars.put("ƭ", "t");
-            translitChars.put("ḯ", "i");
-            translitChars.put("ǽ", "ae");
-            translitChars.put("ⱱ", "v");
-            translitChars.put("ɶ", "oe");
-            translitChars.put("ṃ", "m");
-            translitChars.put("ż", "z");
-            translitChars.put("ĕ", "e");
-            translitChars.put("ꜻ", "av");
-            translitChars.put("ở", "o");
-            translitChars.put("ễ", "e");
-            translitChars.put("ɬ", "l");
-            translitChars.put("ị", "i");
-            translitChars.put("ᵭ", "d");
-            translitChars.put("ﬆ", "st");
-            translitChars.put("ḷ", "l");
-            translitChars.put("ŕ", "r");
-            translitChars.put("ᴕ", "ou");
-            translitChars.put("ʈ", "t");
-            translitChars.put("ā", "a");
-            translitChars.put("э", "e");
-            translitChars.put("ḙ", "e");
-            translitChars.put("ᴑ", "o");
-            translitChars.put("ç", "c");
-            translitChars.put("ᶊ", "s");
-            translitChars.put("ặ", "a");
-            translitChars.put("ų", "u");
-            translitChars.put("ả", "a");
-            translitChars.put("ǥ", "g");
-            translitChars.put("р", "r");
-            translitChars.put("ꝁ", "k");
-            translitChars.put("ẕ", "z");
-            translitChars.put("ŝ", "s");
-            translitChars.put("ḕ", "e");
-            translitChars.put("ɠ", "g");
-            translitChars.put("ꝉ", "l");
-            translitChars.put("ꝼ", "f");
-            translitChars.put("ᶍ", "x");
-            translitChars.put("х", "h");
-            translitChars.put("ǒ", "o");
-            translitChars.put("ę", "e");
-            translitChars.put("ổ", "o");
-            translitChars.put("ƫ", "t");
-            translitChars.put("ǫ", "o");
-            translitChars.put("i̇", "i");
-            translitChars.put("ṇ", "n");
-            translitChars.put("ć", "c");
-            translitChars.put("ᵷ", "g");
-            translitChars.put("ẅ", "w");
-            translitChars.put("ḑ", "d");
-            translitChars.put("ḹ", "l");
-            translitChars.put("ч", "ch");
-            translitChars.put("œ", "oe");
-            translitChars.put("ᵳ", "r");
-            translitChars.put("ļ", "l");
-            translitChars.put("ȑ", "r");
-            translitChars.put("ȭ", "o");
-            translitChars.put("ᵰ", "n");
-            translitChars.put("ᴁ", "ae");
-            translitChars.put("ŀ", "l");
-            translitChars.put("ä", "a");
-            translitChars.put("ƥ", "p");
-            translitChars.put("ỏ", "o");
-            translitChars.put("į", "i");
-            translitChars.put("ȓ", "r");
-            translitChars.put("ǆ", "dz");
-            translitChars.put("ḡ", "g");
-            translitChars.put("ṻ", "u");
-            translitChars.put("ō", "o");
-            translitChars.put("ľ", "l");
-            translitChars.put("ẃ", "w");
-            translitChars.put("ț", "t");
-            translitChars.put("ń", "n");
-            translitChars.put("ɍ", "r");
-            translitChars.put("ȃ", "a");
-            translitChars.put("ü", "u");
-            translitChars.put("ꞁ", "l");
-            translitChars.put("ᴐ", "o");
-            translitChars.put("ớ", "o");
-            translitChars.put("ᴃ", "b");
-            translitChars.put("ɹ", "r");
-            translitChars.put("ᵲ", "r");
-            translitChars.put("ʏ", "y");
-            translitChars.put("ᵮ", "f");
-            translitChars.put("ⱨ", "h");
-            translitChars.put("ŏ", "o");
-            translitChars.put("ú", "u");
-            translitChars.put("ṛ", "r");
-            translitChars.put("ʮ", "h");
-            translitChars.put("ó", "o");
-            translitChars.put("ů", "u");
-            translitChars.put("ỡ", "o");
-            translitChars.put("ṕ", "p");
-            translitChars.put("ᶖ", "i");
-            translitChars.put("ự", "u");
-            translitChars.put("ã", "a");
-            translitChars.put("ᵢ", "i");
-            translitChars.put("ṱ", "t");
-            translitChars.put("ể", "e");
-            translitChars.put("ử", "u");
-            translitChars.put("í", "i");
-            translitChars.put("ɔ", "o");
-            translitChars.put("с", "s");
-            translitChars.put("й", "i");
-            translitChars.put("ɺ", "r");
-            translitChars.put("ɢ", "g");
-            translitChars.put("ř", "r");
-            translitChars.put("ẖ", "h");
-            translitChars.put("ű", "u");
-            translitChars.put("ȍ", "o");
-            translitChars.put("ш", "sh");
-            translitChars.put("ḻ", "l");
-            translitChars.put("ḣ", "h");
-            translitChars.put("ȶ", "t");
-            translitChars.put("ņ", "n");
-            translitChars.put("ᶒ", "e");
-            translitChars.put("ì", "i");
-            translitChars.put("ẉ", "w");
-            translitChars.put("б", "b");
-            translitChars.put("ē", "e");
-            translitChars.put("ᴇ", "e");
-            translitChars.put("ł", "l");
-            translitChars.put("ộ", "o");
-            translitChars.put("ɭ", "l");
-            translitChars.put("ẏ", "y");
-            translitChars.put("ᴊ", "j");
-            translitChars.put("ḱ", "k");
-            translitChars.put("ṿ", "v");
-            translitChars.put("ȩ", "e");
-            translitChars.put("â", "a");
-            translitChars.put("ş", "s");
-            translitChars.put("ŗ", "r");
-            translitChars.put("ʋ", "v");
-            translitChars.put("ₐ", "a");
-            translitChars.put("ↄ", "c");
-            translitChars.put("ᶓ", "e");
-            translitChars.put("ɰ", "m");
-            translitChars.put("е", "e");
-            translitChars.put("ᴡ", "w");
-            translitChars.put("ȏ", "o");
-            translitChars.put("č", "c");
-            translitChars.put("ǵ", "g");
-            translitChars.put("ĉ", "c");
-            translitChars.put("ю", "yu");
-            translitChars.put("ᶗ", "o");
-            translitChars.put("ꝃ", "k");
-            translitChars.put("ꝙ", "q");
-            translitChars.put("г", "g");
-            translitChars.put("ṑ", "o");
-            translitChars.put("ꜱ", "s");
-            translitChars.put("ṓ", "o");
-            translitChars.put("ȟ", "h");
-            translitChars.put("ő", "o");
-            translitChars.put("ꜩ", "tz");
-            translitChars.put("ẻ", "e");
-            translitChars.put("о", "o");
-        }
-        StringBuilder dst = new StringBuilder(src.length());
+        String[][] table = translitTable;
+        if (table == null) {
+            table = getTranslitTable();
+        }
         int len = src.length();
-        for (int a = 0; a < len; a++) {
-            String ch = src.substring(a, a + 1);
-            String tch = translitChars.get(ch);
-            if (tch != null) {
-                dst.append(tch);
-            } else {
-                dst.append(ch);
+        int a = 0;
+        for (; a < len; a++) {
+            char ch = src.charAt(a);
+            String[] page = table[ch >> 8];
+            if (page != null && page[ch & 0xff] != null) {
+                break;
+            }
+        }
+        if (a == len) {
+            return src;
+        }
+        synchronized (translitCache) {
+            String result = translitCache.get(src);
+            if (result != null) {
+                return result;
+            }
+            StringBuilder dst = translitBuilder;
+            dst.setLength(0);
+            dst.append(src, 0, a);
+            for (; a < len; a++) {
+                char ch = src.charAt(a);
+                String[] page = table[ch >> 8];
+                String tch = page != null ? page[ch & 0xff] : null;
+                if (tch != null) {
+                    dst.append(tch);
+                } else {
+                    dst.append(ch);
+                }
             }
+            result = dst.toString();
+            translitCache.put(src, result);
+            return result;
         }
-        return dst.toString();
     }
 
     abstract public static class PluralRules {
@@ -12,23 +12,14 @@ import android.graphics.drawable.BitmapDrawable;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 
 /**
- * Static library version of {@link android.util.LruCache}. Used to write apps
- * that run on API levels prior to 12. When running on API level 12 or above,
- * this implementation is still used; it does not try to switch to the
- * framework's implementation. See the framework SDK documentation for a class
- * overview.
+ * Bitmap cache of ImageLoader, a {@link BoundedCache} with LRU eviction that also keeps which
+ * filters every image is cached with, for keys in the key@filter form.
  */
 public class LruCache {
-    private final LinkedHashMap<String, BitmapDrawable> map;
-    private final LinkedHashMap<String, ArrayList<String>> mapFilters;
-
-    /** Size of this cache in units. Not necessarily the number of elements. */
-    private int size;
-    private int maxSize;
+    private final BoundedCache<String, BitmapDrawable> cache;
+    private final HashMap<String, ArrayList<String>> mapFilters = new HashMap<>();
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
@@ -36,39 +27,40 @@ public class LruCache {
      *     this is the maximum sum of the sizes of the entries in this cache.
      */
     public LruCache(int maxSize) {
-        if (maxSize <= 0) {
-            throw new IllegalArgumentException("maxSize <= 0");
-        }
-        this.maxSize = maxSize;
-        this.map = new LinkedHashMap<>(0, 0.75f, true);
-        this.mapFilters = new LinkedHashMap<>();
+        cache = new BoundedCache<>(maxSize, 1, BoundedCache.POLICY_LRU, new BoundedCache.Weigher<String, BitmapDrawable>() {
+            @Override
+            public int weigh(String key, BitmapDrawable value) {
+                return sizeOf(key, value);
+            }
+        });
+        cache.setRemovalListener(new BoundedCache.RemovalListener<String, BitmapDrawable>() {
+            @Override
+            public void onRemoved(String key, BitmapDrawable oldValue, BitmapDrawable newValue, boolean evicted) {
+                if (newValue == null) {
+                    removeFilter(key);
+                }
+                entryRemoved(evicted, key, oldValue, newValue);
+            }
+        });
     }
 
     /**
-     * Returns the value for {@code key} if it exists in the cache or can be
-     * created by {@code #create}. If a value was returned, it is moved to the
-     * head of the queue. This returns null if a value is not cached and cannot
-     * be created.
+     * Returns the value for {@code key} if it exists in the cache. If a value
+     * was returned, it is moved to the head of the queue.
      */
     public final BitmapDrawable get(String key) {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
-
-        BitmapDrawable mapValue;
-        synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
-                return mapValue;
-            }
-        }
-        return null;
+        return cache.get(key);
     }
 
     public ArrayList<String> getFilterKeys(String key) {
-        ArrayList<String> arr = mapFilters.get(key);
-        if (arr != null) {
-            return new ArrayList<>(arr);
+        synchronized (mapFilters) {
+            ArrayList<String> arr = mapFilters.get(key);
+            if (arr != null) {
+                return new ArrayList<>(arr);
+            }
         }
         return null;
     }
@@ -80,75 +72,43 @@ public class LruCache {
      * @return the previous value mapped by {@code key}.
      */
     public BitmapDrawable put(String key, BitmapDrawable value) {
-        if (key == null || value == null) {
-            throw new NullPointerException("key == null || value == null");
-        }
-
-        BitmapDrawable previous;
-        synchronized (this) {
-            size += safeSizeOf(key, value);
-            previous = map.put(key, value);
-            if (previous != null) {
-                size -= safeSizeOf(key, previous);
-            }
-        }
-
-        String[] args = key.split("@");
-        if (args.length > 1) {
-            ArrayList<String> arr = mapFilters.get(args[0]);
-            if (arr == null) {
-                arr = new ArrayList<>();
-                mapFilters.put(args[0], arr);
-            }
-            if (!arr.contains(args[1])) {
-                arr.add(args[1]);
+        int index = key.indexOf('@');
+        if (index != -1) {
+            String name = key.substring(0, index);
+            String filter = key.substring(index + 1);
+            synchronized (mapFilters) {
+                ArrayList<String> arr = mapFilters.get(name);
+                if (arr == null) {
+                    arr = new ArrayList<>();
+                    mapFilters.put(name, arr);
+                }
+                if (!arr.contains(filter)) {
+                    arr.add(filter);
+                }
             }
         }
-
-        if (previous != null) {
-            entryRemoved(false, key, previous, value);
+        long evictionCount = cache.getEvictionCount();
+        BitmapDrawable previous = cache.put(key, value);
+        if (previous != null || cache.getEvictionCount() != evictionCount) {
             ImageLoader.getInstance().callGC();
         }
-
-        trimToSize(maxSize, key);
         return previous;
     }
 
-    /**
-     * @param maxSize the maximum size of the cache before returning. May be -1
-     *     to evict even 0-sized elements.
-     */
-    private void trimToSize(int maxSize, String justAdded) {
-        synchronized (this) {
-            Iterator<HashMap.Entry<String, BitmapDrawable>> iterator = map.entrySet().iterator();
-            while (iterator.hasNext()) {
-                if (size <= maxSize || map.isEmpty()) {
-                    break;
-                }
-                HashMap.Entry<String, BitmapDrawable> entry = iterator.next();
-
-                String key = entry.getKey();
-                if (justAdded != null && justAdded.equals(key)) {
-                    continue;
-                }
-                BitmapDrawable value = entry.getValue();
-                size -= safeSizeOf(key, value);
-                iterator.remove();
-
-                String[] args = key.split("@");
-                if (args.length > 1) {
-                    ArrayList<String> arr = mapFilters.get(args[0]);
-                    if (arr != null) {
-                        arr.remove(args[1]);
-                        if (arr.isEmpty()) {
-                            mapFilters.remove(args[0]);
-                        }
-                    }
+    private void removeFilter(String key) {
+        int index = key.indexOf('@');
+        if (index == -1) {
+            return;
+        }
+        String name = key.substring(0, index);
+        synchronized (mapFilters) {
+            ArrayList<String> arr = mapFilters.get(name);
+            if (arr != null) {
+                arr.remove(key.substring(index + 1));
+                if (arr.isEmpty()) {
+                    mapFilters.remove(name);
                 }
-
-                entryRemoved(true, key, value, null);
             }
-            ImageLoader.getInstance().callGC();
         }
     }
 
@@ -161,36 +121,15 @@ public class LruCache {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
-
-        BitmapDrawable previous;
-        synchronized (this) {
-            previous = map.remove(key);
-            if (previous != null) {
-                size -= safeSizeOf(key, previous);
-            }
-        }
-
+        BitmapDrawable previous = cache.remove(key);
         if (previous != null) {
-            String[] args = key.split("@");
-            if (args.length > 1) {
-                ArrayList<String> arr = mapFilters.get(args[0]);
-                if (arr != null) {
-                    arr.remove(args[1]);
-                    if (arr.isEmpty()) {
-                        mapFilters.remove(args[0]);
-                    }
-                }
-            }
-
-            entryRemoved(false, key, previous, null);
             ImageLoader.getInstance().callGC();
         }
-
         return previous;
     }
-    
-    public boolean contains(String key){
-    	return map.containsKey(key);
+
+    public boolean contains(String key) {
+        return cache.containsKey(key);
     }
 
     /**
@@ -210,14 +149,6 @@ public class LruCache {
      */
     protected void entryRemoved(boolean evicted, String key, BitmapDrawable oldValue, BitmapDrawable newValue) {}
 
-    private int safeSizeOf(String key, BitmapDrawable value) {
-        int result = sizeOf(key, value);
-        if (result < 0) {
-            throw new IllegalStateException("Negative size: " + key + "=" + value);
-        }
-        return result;
-    }
-
     /**
      * Returns the size of the entry for {@code key} and {@code value} in
      * user-defined units.  The default implementation returns 1 so that size
@@ -233,7 +164,8 @@ public class LruCache {
      * Clear the cache, calling {@link #entryRemoved} on each removed entry.
      */
     public final void evictAll() {
-        trimToSize(-1, null); // -1 will evict 0-sized elements
+        cache.clear();
+        ImageLoader.getInstance().callGC();
     }
 
     /**
@@ -241,8 +173,8 @@ public class LruCache {
      * of entries in the cache. For all other caches, this returns the sum of
      * the sizes of the entries in this cache.
      */
-    public synchronized final int size() {
-        return size;
+    public final int size() {
+        return cache.weight();
     }
 
     /**
@@ -250,7 +182,14 @@ public class LruCache {
      * number of entries in the cache. For all other caches, this returns the
      * maximum sum of the sizes of the entries in this cache.
      */
-    public synchronized final int maxSize() {
-        return maxSize;
+    public final int maxSize() {
+        return cache.maxWeight();
+    }
+
+    /**
+     * Underlying cache, for its hit and eviction counts
+     */
+    public BoundedCache<String, BitmapDrawable> getCache() {
+        return cache;
     }
 }
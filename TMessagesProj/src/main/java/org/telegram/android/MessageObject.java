@@ -9,6 +9,7 @@
 package org.telegram.android;
 
 import android.graphics.Paint;
+import android.os.Looper;
 import android.text.Layout;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
@@ -19,6 +20,7 @@ import android.text.TextUtils;
 import android.text.util.Linkify;
 
 import org.telegram.messenger.ConnectionsManager;
+import org.telegram.messenger.DispatchQueue;
 import org.telegram.messenger.FileLoader;
 import org.telegram.messenger.FileLog;
 import org.telegram.messenger.TLRPC;
@@ -30,7 +32,9 @@ import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.regex.Matcher;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 public class MessageObject {
@@ -51,7 +55,6 @@ public class MessageObject {
     public int audioProgressSec;
     public ArrayList<TLRPC.PhotoSize> photoThumbs;
 
-    private static TextPaint textPaint;
     public int lastLineWidth;
     public int textWidth;
     public int textHeight;
@@ -64,19 +67,42 @@ public class MessageObject {
         public int charactersOffset = 0;
     }
 
+    /**
+     * Text layout of a message for one width and font size, shared by the objects of the message
+     * through the layout cache
+     */
+    public static class TextLayout {
+        private String source;
+        private CharSequence text;
+        private ArrayList<TextLayoutBlock> blocks = new ArrayList<>();
+        private int textWidth;
+        private int textHeight;
+        private int blockHeight = Integer.MAX_VALUE;
+        private int lastLineWidth;
+    }
+
     private static final int LINES_PER_BLOCK = 10;
+    private static final int MAX_CACHED_LAYOUT_BLOCKS = 400;
+    private static final int LAYOUT_QUEUES_COUNT = 2;
+    private static final Pattern MENTION_PATTERN = Pattern.compile("(^|\\s)@[a-zA-Z\\d_]{5,32}|(^|\\s)#[\\w@\\.]+");
+
+    private static final HashMap<Integer, TextPaint> textPaints = new HashMap<>();
+    private static final BoundedCache<Long, TextLayout> layoutCache = new BoundedCache<>(MAX_CACHED_LAYOUT_BLOCKS, 4, BoundedCache.POLICY_LRU, new BoundedCache.Weigher<Long, TextLayout>() {
+        @Override
+        public int weigh(Long key, TextLayout value) {
+            return Math.max(1, value.blocks.size());
+        }
+    });
+    private static final AtomicInteger uiLayoutsCount = new AtomicInteger();
+    private static DispatchQueue[] layoutQueues;
+    private static int layoutQueueIndex;
 
     public ArrayList<TextLayoutBlock> textLayoutBlocks;
+    private int layoutWidth;
+    private int layoutFontSize;
+    private volatile boolean layoutQueued;
 
     public MessageObject(TLRPC.Message message, AbstractMap<Integer, TLRPC.User> users, boolean generateLayout) {
-        if (textPaint == null) {
-            textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
-            textPaint.setColor(0xff000000);
-            textPaint.linkColor = 0xff316f9f;
-        }
-
-        textPaint.setTextSize(AndroidUtilities.dp(MessagesController.getInstance().fontSize));
-
         messageOwner = message;
 
         if (message.replyMessage != null) {
@@ -292,7 +318,7 @@ public class MessageObject {
         } else {
             messageText = message.message;
         }
-        messageText = Emoji.replaceEmoji(messageText, textPaint.getFontMetricsInt(), AndroidUtilities.dp(20));
+        messageText = Emoji.replaceEmoji(messageText, getTextPaint(MessagesController.getInstance().fontSize).getFontMetricsInt(), AndroidUtilities.dp(20));
 
         if (message instanceof TLRPC.TL_message || message instanceof TLRPC.TL_messageForwarded_old2) {
             if (message.media == null || message.media instanceof TLRPC.TL_messageMediaEmpty) {
@@ -360,7 +386,7 @@ public class MessageObject {
         }
 
         if (generateLayout) {
-            generateLayout();
+            checkLayout();
         }
         generateThumbs(false);
     }
@@ -524,62 +550,184 @@ public class MessageObject {
         return false;
     }
 
-    private void generateLayout() {
+    private static TextPaint getTextPaint(int fontSize) {
+        synchronized (textPaints) {
+            TextPaint paint = textPaints.get(fontSize);
+            if (paint == null) {
+                paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+                paint.setColor(0xff000000);
+                paint.linkColor = 0xff316f9f;
+                paint.setTextSize(AndroidUtilities.dp(fontSize));
+                textPaints.put(fontSize, paint);
+            }
+            return paint;
+        }
+    }
+
+    private static synchronized DispatchQueue getLayoutQueue() {
+        if (layoutQueues == null) {
+            layoutQueues = new DispatchQueue[LAYOUT_QUEUES_COUNT];
+            for (int a = 0; a < LAYOUT_QUEUES_COUNT; a++) {
+                layoutQueues[a] = new DispatchQueue("layoutQueue" + a);
+                layoutQueues[a].setPriority(Thread.MIN_PRIORITY);
+            }
+        }
+        layoutQueueIndex = (layoutQueueIndex + 1) % LAYOUT_QUEUES_COUNT;
+        return layoutQueues[layoutQueueIndex];
+    }
+
+    /**
+     * Generates text layouts of the messages that don't have one for the current width and font
+     * size on the layout queues. They only go to the layout cache, the objects themselves are
+     * left alone until {@link #checkLayout()} takes the layout on the thread that uses them.
+     * Must be called on the thread that owns the messages.
+     */
+    public static void precomputeLayouts(ArrayList<MessageObject> messages, int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(messages.size(), end);
+        final int fontSize = MessagesController.getInstance().fontSize;
+        for (int a = start; a < end; a++) {
+            final MessageObject messageObject = messages.get(a);
+            if (messageObject.layoutQueued || !messageObject.needsLayout()) {
+                continue;
+            }
+            final int maxWidth = messageObject.getMaxTextWidth();
+            final Long key = messageObject.getLayoutKey(maxWidth, fontSize);
+            if (messageObject.getCachedLayout(key, false) != null) {
+                continue;
+            }
+            final CharSequence text = messageObject.messageText;
+            final boolean linkify = messageObject.textLayoutBlocks == null;
+            messageObject.layoutQueued = true;
+            getLayoutQueue().postRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    TextLayout layout = messageObject.generateLayout(text, linkify, maxWidth, fontSize);
+                    if (layout.source != null) {
+                        layoutCache.put(key, layout);
+                    }
+                    messageObject.layoutQueued = false;
+                }
+            });
+        }
+    }
+
+    /**
+     * Number of layouts that had to be generated on the UI thread because they weren't
+     * precomputed, for the frame time logs
+     */
+    public static int getUILayoutsCount() {
+        return uiLayoutsCount.get();
+    }
+
+    public static BoundedCache<Long, TextLayout> getLayoutCache() {
+        return layoutCache;
+    }
+
+    private int getMaxTextWidth() {
+        int minSide = AndroidUtilities.isTablet() ? AndroidUtilities.getMinTabletSide() : Math.min(AndroidUtilities.displaySize.x, AndroidUtilities.displaySize.y);
+        return minSide - AndroidUtilities.dp(messageOwner.to_id.chat_id != 0 ? 122 : 80);
+    }
+
+    /**
+     * @return Whether the text layout is missing or was made for another width or font size
+     */
+    public boolean needsLayout() {
         if (type != 0 || messageOwner.to_id == null || messageText == null || messageText.length() == 0) {
-            return;
+            return false;
         }
+        return textLayoutBlocks == null || layoutWidth != getMaxTextWidth() || layoutFontSize != MessagesController.getInstance().fontSize;
+    }
 
-        textLayoutBlocks = new ArrayList<>();
+    private Long getLayoutKey(int maxWidth, int fontSize) {
+        return ((long) messageOwner.id << 32) | ((maxWidth & 0xffffffL) << 8) | (fontSize & 0xff);
+    }
 
-        if (messageText instanceof Spannable && containsUrls(messageText)) {
-            if (messageText.length() < 100) {
-                Linkify.addLinks((Spannable) messageText, Linkify.WEB_URLS | Linkify.PHONE_NUMBERS);
+    /**
+     * @param count Whether the lookup counts in the cache statistics, false for prefetch probes
+     */
+    private TextLayout getCachedLayout(Long key, boolean count) {
+        TextLayout layout = count ? layoutCache.get(key) : layoutCache.peek(key);
+        if (layout == null || !layout.source.equals(messageOwner.message)) {
+            return null;
+        }
+        return layout;
+    }
+
+    /**
+     * Generates the text layout if {@link #needsLayout()}, taking it from the layout cache when
+     * the same message was laid out for the same width and font size before, for example by
+     * {@link #precomputeLayouts}. Must be called on the thread that uses the object.
+     * @return Whether the layout changed
+     */
+    public boolean checkLayout() {
+        if (!needsLayout()) {
+            return false;
+        }
+        int maxWidth = getMaxTextWidth();
+        int fontSize = MessagesController.getInstance().fontSize;
+        Long key = getLayoutKey(maxWidth, fontSize);
+        TextLayout layout = getCachedLayout(key, true);
+        if (layout == null) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                uiLayoutsCount.incrementAndGet();
+            }
+            layout = generateLayout(messageText, textLayoutBlocks == null, maxWidth, fontSize);
+            if (layout.source != null) {
+                layoutCache.put(key, layout);
+            }
+        }
+        messageText = layout.text;
+        textWidth = layout.textWidth;
+        textHeight = layout.textHeight;
+        blockHeight = layout.blockHeight;
+        lastLineWidth = layout.lastLineWidth;
+        textLayoutBlocks = layout.blocks;
+        layoutWidth = maxWidth;
+        layoutFontSize = fontSize;
+        return true;
+    }
+
+    private TextLayout generateLayout(CharSequence text, boolean linkify, int maxWidth, int fontSize) {
+        TextLayout layout = new TextLayout();
+        layout.source = messageOwner.message;
+        TextPaint paint = getTextPaint(fontSize);
+
+        if (text instanceof Spannable && linkify && containsUrls(text)) {
+            text = new SpannableStringBuilder(text);
+            if (text.length() < 100) {
+                Linkify.addLinks((Spannable) text, Linkify.WEB_URLS | Linkify.PHONE_NUMBERS);
             } else {
-                Linkify.addLinks((Spannable) messageText, Linkify.WEB_URLS);
+                Linkify.addLinks((Spannable) text, Linkify.WEB_URLS);
             }
 
             try {
-                Pattern pattern = Pattern.compile("(^|\\s)@[a-zA-Z\\d_]{5,32}|(^|\\s)#[\\w@\\.]+");
-                Matcher matcher = pattern.matcher(messageText);
+                Matcher matcher = MENTION_PATTERN.matcher(text);
                 while (matcher.find()) {
                     int start = matcher.start();
                     int end = matcher.end();
-                    if (messageText.charAt(start) != '@' && messageText.charAt(start) != '#') {
+                    if (text.charAt(start) != '@' && text.charAt(start) != '#') {
                         start++;
                     }
-                    URLSpanNoUnderline url = new URLSpanNoUnderline(messageText.subSequence(start, end).toString());
-                    ((Spannable) messageText).setSpan(url, start, end, 0);
+                    URLSpanNoUnderline url = new URLSpanNoUnderline(text.subSequence(start, end).toString());
+                    ((Spannable) text).setSpan(url, start, end, 0);
                 }
             } catch (Exception e) {
                 FileLog.e("tmessages", e);
             }
         }
-
-        int maxWidth;
-        if (AndroidUtilities.isTablet()) {
-            if (messageOwner.to_id.chat_id != 0) {
-                maxWidth = AndroidUtilities.getMinTabletSide() - AndroidUtilities.dp(122);
-            } else {
-                maxWidth = AndroidUtilities.getMinTabletSide() - AndroidUtilities.dp(80);
-            }
-        } else {
-            if (messageOwner.to_id.chat_id != 0) {
-                maxWidth = Math.min(AndroidUtilities.displaySize.x, AndroidUtilities.displaySize.y) - AndroidUtilities.dp(122);
-            } else {
-                maxWidth = Math.min(AndroidUtilities.displaySize.x, AndroidUtilities.displaySize.y) - AndroidUtilities.dp(80);
-            }
-        }
+        layout.text = text;
 
         StaticLayout textLayout = null;
 
         try {
-            textLayout = new StaticLayout(messageText, textPaint, maxWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+            textLayout = new StaticLayout(text, paint, maxWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
         } catch (Exception e) {
             FileLog.e("tmessages", e);
-            return;
+            return layout;
         }
 
-        textHeight = textLayout.getHeight();
+        layout.textHeight = textLayout.getHeight();
         int linesCount = textLayout.getLineCount();
 
         int blocksCount = (int) Math.ceil((float) linesCount / LINES_PER_BLOCK);
@@ -594,7 +742,7 @@ public class MessageObject {
                 block.textLayout = textLayout;
                 block.textYOffset = 0;
                 block.charactersOffset = 0;
-                blockHeight = textHeight;
+                layout.blockHeight = layout.textHeight;
             } else {
                 int startCharacter = textLayout.getLineStart(linesOffset);
                 int endCharacter = textLayout.getLineEnd(linesOffset + currentBlockLinesCount - 1);
@@ -603,19 +751,19 @@ public class MessageObject {
                 }
                 block.charactersOffset = startCharacter;
                 try {
-                    CharSequence str = messageText.subSequence(startCharacter, endCharacter);
-                    block.textLayout = new StaticLayout(str, textPaint, maxWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+                    CharSequence str = text.subSequence(startCharacter, endCharacter);
+                    block.textLayout = new StaticLayout(str, paint, maxWidth, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
                     block.textYOffset = textLayout.getLineTop(linesOffset);
                     if (a != 0) {
-                        blockHeight = Math.min(blockHeight, (int) (block.textYOffset - prevOffset));
+                        layout.blockHeight = Math.min(layout.blockHeight, (int) (block.textYOffset - prevOffset));
                     }
                     prevOffset = block.textYOffset;
                     /*if (a != blocksCount - 1) {
                         int height = block.textLayout.getHeight();
-                        blockHeight = Math.min(blockHeight, block.textLayout.getHeight());
+                        layout.blockHeight = Math.min(layout.blockHeight, block.textLayout.getHeight());
                         prevOffset = block.textYOffset;
                     } else {
-                        blockHeight = Math.min(blockHeight, (int)(block.textYOffset - prevOffset));
+                        layout.blockHeight = Math.min(layout.blockHeight, (int)(block.textYOffset - prevOffset));
                     }*/
                 } catch (Exception e) {
                     FileLog.e("tmessages", e);
@@ -623,7 +771,7 @@ public class MessageObject {
                 }
             }
 
-            textLayoutBlocks.add(block);
+            layout.blocks.add(block);
 
             float lastLeft = block.textXOffset = 0;
             try {
@@ -645,7 +793,7 @@ public class MessageObject {
             boolean hasNonRTL = false;
 
             if (a == blocksCount - 1) {
-                lastLineWidth = linesMaxWidth;
+                layout.lastLineWidth = linesMaxWidth;
             }
 
             linesMaxWidthWithLeft = lastLineWidthWithLeft = (int) Math.ceil(lastLine + lastLeft);
@@ -687,15 +835,15 @@ public class MessageObject {
                 if (hasNonRTL) {
                     textRealMaxWidth = textRealMaxWidthWithLeft;
                     if (a == blocksCount - 1) {
-                        lastLineWidth = lastLineWidthWithLeft;
+                        layout.lastLineWidth = lastLineWidthWithLeft;
                     }
                     linesMaxWidth = linesMaxWidthWithLeft;
                 } else if (a == blocksCount - 1) {
-                    lastLineWidth = linesMaxWidth;
+                    layout.lastLineWidth = linesMaxWidth;
                 }
-                textWidth = Math.max(textWidth, (int) Math.ceil(textRealMaxWidth));
+                layout.textWidth = Math.max(layout.textWidth, (int) Math.ceil(textRealMaxWidth));
             } else {
-                textWidth = Math.max(textWidth, Math.min(maxWidth, linesMaxWidth));
+                layout.textWidth = Math.max(layout.textWidth, Math.min(maxWidth, linesMaxWidth));
             }
 
             if (hasNonRTL) {
@@ -704,9 +852,10 @@ public class MessageObject {
 
             linesOffset += currentBlockLinesCount;
         }
-        if (blockHeight == 0) {
-            blockHeight = 1;
+        if (layout.blockHeight == 0) {
+            layout.blockHeight = 1;
         }
+        return layout;
     }
 
     public boolean isOut() {
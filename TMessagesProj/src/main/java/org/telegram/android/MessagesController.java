@@ -29,31 +29,35 @@ import org.telegram.messenger.TLRPC;
 import org.telegram.messenger.UserConfig;
 import org.telegram.messenger.Utilities;
 import org.telegram.messenger.ApplicationLoader;
+import org.telegram.messenger.collections.ConcurrentIntHashMap;
+import org.telegram.messenger.collections.ConcurrentLongHashMap;
+import org.telegram.messenger.collections.IntHashMap;
 import org.telegram.ui.ActionBar.BaseFragment;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 
 public class MessagesController implements NotificationCenter.NotificationCenterDelegate {
 
-    private ConcurrentHashMap<Integer, TLRPC.Chat> chats = new ConcurrentHashMap<>(100, 1.0f, 2);
+    private ConcurrentIntHashMap<TLRPC.Chat> chats = new ConcurrentIntHashMap<>(100, 2);
     private ConcurrentHashMap<Integer, TLRPC.EncryptedChat> encryptedChats = new ConcurrentHashMap<>(10, 1.0f, 2);
-    private ConcurrentHashMap<Integer, TLRPC.User> users = new ConcurrentHashMap<>(100, 1.0f, 2);
+    private ConcurrentIntHashMap<TLRPC.User> users = new ConcurrentIntHashMap<>(100, 2);
     private ConcurrentHashMap<String, TLRPC.User> usersByUsernames = new ConcurrentHashMap<>(100, 1.0f, 2);
 
     public ArrayList<TLRPC.TL_dialog> dialogs = new ArrayList<>();
     public ArrayList<TLRPC.TL_dialog> dialogsServerOnly = new ArrayList<>();
-    public ConcurrentHashMap<Long, TLRPC.TL_dialog> dialogs_dict = new ConcurrentHashMap<>(100, 1.0f, 2);
-    public HashMap<Integer, MessageObject> dialogMessage = new HashMap<>();
-    public ConcurrentHashMap<Long, ArrayList<PrintingUser>> printingUsers = new ConcurrentHashMap<>(20, 1.0f, 2);
+    public ConcurrentLongHashMap<TLRPC.TL_dialog> dialogs_dict = new ConcurrentLongHashMap<>(100, 2);
+    public IntHashMap<MessageObject> dialogMessage = new IntHashMap<>();
+    public ConcurrentLongHashMap<ArrayList<PrintingUser>> printingUsers = new ConcurrentLongHashMap<>(20, 2);
     public HashMap<Long, CharSequence> printingStrings = new HashMap<>();
     public HashMap<Long, Boolean> sendingTypings = new HashMap<>();
-    public ConcurrentHashMap<Integer, Integer> onlinePrivacy = new ConcurrentHashMap<>(20, 1.0f, 2);
+    public ConcurrentIntHashMap<Integer> onlinePrivacy = new ConcurrentIntHashMap<>(20, 2);
     private int lastPrintingStringCount = 0;
 
     public boolean loadingBlockedUsers = false;
@@ -71,6 +75,22 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     private ArrayList<Integer> loadedFullChats = new ArrayList<>();
 
     private ArrayList<Integer> reloadingMessages = new ArrayList<>();
+    private HashSet<Integer> loadingDialogPreviews = new HashSet<>();
+    private HashMap<Integer, Integer> readDialogPreviews = new HashMap<>();
+    private HashSet<Integer> deletedDialogPreviews = new HashSet<>();
+    private ArrayList<Integer> pendingDialogPreviews = new ArrayList<>();
+
+    private static final int UPDATES_BATCH_DELAY = 50;
+    private static final int UPDATES_BATCH_MAX_SIZE = 300;
+    private final Object updatesBatchSync = new Object();
+    private UpdatesBatch pendingUpdatesBatch;
+    private UpdatesBatch applyingUpdatesBatch;
+    private final Runnable flushUpdatesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushUpdatesBatch();
+        }
+    };
 
     private boolean gettingNewDeleteTask = false;
     private int currentDeletingTaskTime = 0;
@@ -392,6 +412,15 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         loadingFullUsers.clear();
         loadedFullUsers.clear();
         reloadingMessages.clear();
+        loadingDialogPreviews.clear();
+        readDialogPreviews.clear();
+        deletedDialogPreviews.clear();
+        pendingDialogPreviews.clear();
+        synchronized (updatesBatchSync) {
+            pendingUpdatesBatch = null;
+            applyingUpdatesBatch = null;
+        }
+        Utilities.stageQueue.cancelRunnable(flushUpdatesRunnable);
         loadingFullChats.clear();
         loadedFullChats.clear();
 
@@ -423,7 +452,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         addSupportUser();
     }
 
-    public TLRPC.User getUser(Integer id) {
+    public TLRPC.User getUser(int id) {
         return users.get(id);
     }
 
@@ -431,11 +460,11 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         return usersByUsernames.get(username);
     }
 
-    public ConcurrentHashMap<Integer, TLRPC.User> getUsers() {
+    public ConcurrentIntHashMap<TLRPC.User> getUsers() {
         return users;
     }
 
-    public TLRPC.Chat getChat(Integer id) {
+    public TLRPC.Chat getChat(int id) {
         return chats.get(id);
     }
 
@@ -692,7 +721,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             if (MessagesStorage.lastPtsValue + pts_count == pts) {
                 FileLog.e("tmessages", "APPLY PTS");
                 MessagesStorage.lastPtsValue = pts;
-                MessagesStorage.getInstance().saveDiffParams(MessagesStorage.lastSeqValue, MessagesStorage.lastPtsValue, MessagesStorage.lastDateValue, MessagesStorage.lastQtsValue);
+                saveDiffParams();
             } else if (MessagesStorage.lastPtsValue != pts) {
                 if (gettingDifference || updatesStartWaitTimePts == 0 || updatesStartWaitTimePts != 0 && updatesStartWaitTimePts + 1500 > System.currentTimeMillis()) {
                     FileLog.e("tmessages", "ADD UPDATE TO QUEUE pts = " + pts + " pts_count = " + pts_count);
@@ -715,7 +744,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 if (date != -1) {
                     MessagesStorage.lastDateValue = date;
                 }
-                MessagesStorage.getInstance().saveDiffParams(MessagesStorage.lastSeqValue, MessagesStorage.lastPtsValue, MessagesStorage.lastDateValue, MessagesStorage.lastQtsValue);
+                saveDiffParams();
             } else if (MessagesStorage.lastSeqValue != seq) {
                 if (gettingDifference || updatesStartWaitTimeSeq == 0 || updatesStartWaitTimeSeq != 0 && updatesStartWaitTimeSeq + 1500 > System.currentTimeMillis()) {
                     FileLog.e("tmessages", "ADD UPDATE TO QUEUE seq = " + seq);
@@ -1024,12 +1053,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         if (messages == null) {
             return;
         }
-        for (Integer id : messages) {
-            MessageObject obj = dialogMessage.get(id);
-            if (obj != null) {
-                obj.deleted = true;
-            }
-        }
+        markDialogMessagesDeleted(messages);
         MessagesStorage.getInstance().markMessagesAsDeleted(messages, true);
         MessagesStorage.getInstance().updateDialogsWithDeletedMessages(messages, true);
         NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesDeleted, messages);
@@ -1072,8 +1096,9 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     dialogsServerOnly.remove(dialog);
                     dialogs_dict.remove(did);
                     totalDialogsCount--;
-                } else {
+                } else if (dialog.unread_count > 0) {
                     dialog.unread_count = 0;
+                    putDialogSorted(dialog);
                 }
                 dialogMessage.remove(dialog.top_message);
                 dialog.top_message = 0;
@@ -1222,12 +1247,13 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         if (!onlinePrivacy.isEmpty()) {
             ArrayList<Integer> toRemove = null;
             int currentServerTime = ConnectionsManager.getInstance().getCurrentTime();
-            for (ConcurrentHashMap.Entry<Integer, Integer> entry : onlinePrivacy.entrySet()) {
-                if (entry.getValue() < currentServerTime - 30) {
+            for (int uid : onlinePrivacy.keys()) {
+                Integer time = onlinePrivacy.get(uid);
+                if (time != null && time < currentServerTime - 30) {
                     if (toRemove == null) {
                         toRemove = new ArrayList<>();
                     }
-                    toRemove.add(entry.getKey());
+                    toRemove.add(uid);
                 }
             }
             if (toRemove != null) {
@@ -1244,10 +1270,11 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
         if (!printingUsers.isEmpty() || lastPrintingStringCount != printingUsers.size()) {
             boolean updated = false;
-            ArrayList<Long> keys = new ArrayList<>(printingUsers.keySet());
-            for (int b = 0; b < keys.size(); b++) {
-                Long key = keys.get(b);
+            for (long key : printingUsers.keys()) {
                 ArrayList<PrintingUser> arr = printingUsers.get(key);
+                if (arr == null) {
+                    continue;
+                }
                 for (int a = 0; a < arr.size(); a++) {
                     PrintingUser user = arr.get(a);
                     if (user.lastTime + 5900 < currentTime) {
@@ -1258,8 +1285,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 }
                 if (arr.isEmpty()) {
                     printingUsers.remove(key);
-                    keys.remove(b);
-                    b--;
                 }
             }
 
@@ -1279,12 +1304,14 @@ public class MessagesController implements NotificationCenter.NotificationCenter
     public void updatePrintingStrings() {
         final HashMap<Long, CharSequence> newPrintingStrings = new HashMap<>();
 
-        ArrayList<Long> keys = new ArrayList<>(printingUsers.keySet());
-        for (Long key : keys) {
-            if (key > 0 || key.intValue() == 0) {
+        for (long key : printingUsers.keys()) {
+            if (key > 0 || (int) key == 0) {
                 newPrintingStrings.put(key, LocaleController.getString("Typing", R.string.Typing));
             } else {
                 ArrayList<PrintingUser> arr = printingUsers.get(key);
+                if (arr == null) {
+                    continue;
+                }
                 int count = 0;
                 String label = "";
                 for (PrintingUser pu : arr) {
@@ -1555,7 +1582,11 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 for (HashMap.Entry<Long, Integer> entry : dialogsToUpdate.entrySet()) {
                     TLRPC.TL_dialog currentDialog = dialogs_dict.get(entry.getKey());
                     if (currentDialog != null) {
+                        boolean wasUnread = currentDialog.unread_count > 0;
                         currentDialog.unread_count = entry.getValue();
+                        if (wasUnread != currentDialog.unread_count > 0) {
+                            putDialogSorted(currentDialog);
+                        }
                     }
                 }
                 NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
@@ -1604,13 +1635,15 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         putUsers(dialogsRes.users, true);
                         putChats(dialogsRes.chats, true);
 
+                        HashMap<Long, TLRPC.TL_dialog> previousDialogs = new HashMap<>();
                         for (HashMap.Entry<Long, TLRPC.TL_dialog> pair : new_dialogs_dict.entrySet()) {
                             long key = pair.getKey();
                             TLRPC.TL_dialog value = pair.getValue();
                             TLRPC.TL_dialog currentDialog = dialogs_dict.get(key);
+                            previousDialogs.put(key, currentDialog);
                             if (currentDialog == null) {
                                 dialogs_dict.put(key, value);
-                                dialogMessage.put(value.top_message, new_dialogMessage.get(value.top_message));
+                                putDialogMessage(value.top_message, new_dialogMessage.get(value.top_message));
                             } else {
                                 currentDialog.unread_count = value.unread_count;
                                 MessageObject oldMsg = dialogMessage.get(currentDialog.top_message);
@@ -1620,48 +1653,123 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                         if (oldMsg != null) {
                                             dialogMessage.remove(oldMsg.getId());
                                         }
-                                        dialogMessage.put(value.top_message, new_dialogMessage.get(value.top_message));
+                                        putDialogMessage(value.top_message, new_dialogMessage.get(value.top_message));
                                     }
                                 } else {
                                     MessageObject newMsg = new_dialogMessage.get(value.top_message);
                                     if (oldMsg.deleted || newMsg == null || newMsg.messageOwner.date > oldMsg.messageOwner.date) {
                                         dialogs_dict.put(key, value);
                                         dialogMessage.remove(oldMsg.getId());
-                                        dialogMessage.put(value.top_message, new_dialogMessage.get(value.top_message));
+                                        putDialogMessage(value.top_message, new_dialogMessage.get(value.top_message));
                                     }
                                 }
                             }
                         }
 
-                        dialogs.clear();
-                        dialogsServerOnly.clear();
-                        dialogs.addAll(dialogs_dict.values());
-                        Collections.sort(dialogs, new Comparator<TLRPC.TL_dialog>() {
-                            @Override
-                            public int compare(TLRPC.TL_dialog tl_dialog, TLRPC.TL_dialog tl_dialog2) {
-                                if (tl_dialog.unread_count > 0 && tl_dialog2.unread_count <= 0) {
-                                    return -1;
-                                } else if (tl_dialog.unread_count <= 0 &&  tl_dialog2.unread_count > 0) {
-                                    return 1;
-                                } else {
-                                    if (tl_dialog.last_message_date == tl_dialog2.last_message_date) {
-                                        return 0;
-                                    } else if (tl_dialog.last_message_date < tl_dialog2.last_message_date) {
-                                        return 1;
-                                    } else {
-                                        return -1;
-                                    }
-                                }
+                        updateDialogsOrder(previousDialogs);
+                        NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
+                        NotificationsController.getInstance().processDialogsUpdateRead(dialogsToUpdate);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Load the last message of a dialog that was loaded from the cache without it, requests of
+     * the cells shown in one layout pass are merged to one query
+     */
+    public void loadDialogPreview(TLRPC.TL_dialog dialog) {
+        if (dialog.top_message == 0 || loadingDialogPreviews.contains(dialog.top_message)) {
+            return;
+        }
+        loadingDialogPreviews.add(dialog.top_message);
+        pendingDialogPreviews.add(dialog.top_message);
+        if (pendingDialogPreviews.size() == 1) {
+            AndroidUtilities.runOnUIThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (pendingDialogPreviews.isEmpty()) {
+                        return;
+                    }
+                    ArrayList<Integer> mids = new ArrayList<>(pendingDialogPreviews);
+                    pendingDialogPreviews.clear();
+                    MessagesStorage.getInstance().getDialogPreviews(mids);
+                }
+            });
+        }
+    }
+
+    /**
+     * Mark the last messages of dialogs as deleted, including previews that are still loading,
+     * must be called on the UI thread
+     */
+    public void markDialogMessagesDeleted(ArrayList<Integer> ids) {
+        for (Integer id : ids) {
+            MessageObject obj = dialogMessage.get(id);
+            if (obj != null) {
+                obj.deleted = true;
+            } else if (loadingDialogPreviews.contains(id)) {
+                deletedDialogPreviews.add(id);
+            }
+        }
+    }
+
+    private void markDialogPreviewRead(int mid, int maxDate) {
+        if (loadingDialogPreviews.contains(mid)) {
+            Integer date = readDialogPreviews.get(mid);
+            if (date == null || date < maxDate) {
+                readDialogPreviews.put(mid, maxDate);
+            }
+        }
+    }
+
+    /**
+     * Show the last messages loaded by {@link #loadDialogPreview}. Messages that are no longer
+     * the last of their dialog are dropped, reads and deletes that came while they were loading
+     * are applied to them.
+     * @param mids Ids of the requested messages, found or not
+     */
+    public void processLoadedDialogPreviews(final ArrayList<Integer> mids, final ArrayList<TLRPC.Message> messages, final ArrayList<TLRPC.User> users) {
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                final HashMap<Integer, TLRPC.User> usersLocal = new HashMap<>();
+                for (TLRPC.User u : users) {
+                    usersLocal.put(u.id, u);
+                }
+                final ArrayList<MessageObject> objects = new ArrayList<>(messages.size());
+                for (TLRPC.Message message : messages) {
+                    objects.add(new MessageObject(message, usersLocal, false));
+                }
+                AndroidUtilities.runOnUIThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        putUsers(users, true);
+                        boolean changed = false;
+                        for (MessageObject messageObject : objects) {
+                            TLRPC.TL_dialog dialog = dialogs_dict.get(messageObject.getDialogId());
+                            if (dialog == null || dialog.top_message != messageObject.getId() || !loadingDialogPreviews.contains(dialog.top_message) || dialogMessage.containsKey(dialog.top_message)) {
+                                continue;
                             }
-                        });
-                        for (TLRPC.TL_dialog d : dialogs) {
-                            int high_id = (int) (d.id >> 32);
-                            if ((int) d.id != 0 && high_id != 1) {
-                                dialogsServerOnly.add(d);
+                            Integer readDate = readDialogPreviews.get(dialog.top_message);
+                            if (readDate != null && messageObject.messageOwner.date <= readDate || !messageObject.isOut() && dialog.unread_count == 0) {
+                                messageObject.setIsRead();
                             }
+                            if (deletedDialogPreviews.contains(dialog.top_message)) {
+                                messageObject.deleted = true;
+                            }
+                            dialogMessage.put(dialog.top_message, messageObject);
+                            changed = true;
+                        }
+                        for (Integer mid : mids) {
+                            loadingDialogPreviews.remove(mid);
+                            readDialogPreviews.remove(mid);
+                            deletedDialogPreviews.remove(mid);
+                        }
+                        if (changed) {
+                            NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
                         }
-                        NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
-                        NotificationsController.getInstance().processDialogsUpdateRead(dialogsToUpdate);
                     }
                 });
             }
@@ -1748,13 +1856,15 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         loadingDialogs = false;
                         totalDialogsCount = arg1;
 
+                        HashMap<Long, TLRPC.TL_dialog> previousDialogs = new HashMap<>();
                         for (HashMap.Entry<Long, TLRPC.TL_dialog> pair : new_dialogs_dict.entrySet()) {
                             long key = pair.getKey();
                             TLRPC.TL_dialog value = pair.getValue();
                             TLRPC.TL_dialog currentDialog = dialogs_dict.get(key);
+                            previousDialogs.put(key, currentDialog);
                             if (currentDialog == null) {
                                 dialogs_dict.put(key, value);
-                                dialogMessage.put(value.top_message, new_dialogMessage.get(value.top_message));
+                                putDialogMessage(value.top_message, new_dialogMessage.get(value.top_message));
                             } else {
                                 MessageObject oldMsg = dialogMessage.get(value.top_message);
                                 if (oldMsg == null || currentDialog.top_message > 0) {
@@ -1763,46 +1873,20 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                             dialogMessage.remove(oldMsg.getId());
                                         }
                                         dialogs_dict.put(key, value);
-                                        dialogMessage.put(value.top_message, new_dialogMessage.get(value.top_message));
+                                        putDialogMessage(value.top_message, new_dialogMessage.get(value.top_message));
                                     }
                                 } else {
                                     MessageObject newMsg = new_dialogMessage.get(value.top_message);
                                     if (oldMsg.deleted || newMsg == null || newMsg.messageOwner.date > oldMsg.messageOwner.date) {
                                         dialogMessage.remove(oldMsg.getId());
                                         dialogs_dict.put(key, value);
-                                        dialogMessage.put(value.top_message, new_dialogMessage.get(value.top_message));
+                                        putDialogMessage(value.top_message, new_dialogMessage.get(value.top_message));
                                     }
                                 }
                             }
                         }
 
-                        dialogs.clear();
-                        dialogsServerOnly.clear();
-                        dialogs.addAll(dialogs_dict.values());
-                        Collections.sort(dialogs, new Comparator<TLRPC.TL_dialog>() {
-                            @Override
-                            public int compare(TLRPC.TL_dialog tl_dialog, TLRPC.TL_dialog tl_dialog2) {
-                                if (tl_dialog.unread_count > 0 && tl_dialog2.unread_count <= 0) {
-                                    return -1;
-                                } else if (tl_dialog.unread_count <= 0 &&  tl_dialog2.unread_count > 0) {
-                                    return 1;
-                                } else {
-                                    if (tl_dialog.last_message_date == tl_dialog2.last_message_date) {
-                                        return 0;
-                                    } else if (tl_dialog.last_message_date < tl_dialog2.last_message_date) {
-                                        return 1;
-                                    } else {
-                                        return -1;
-                                    }
-                                }
-                            }
-                        });
-                        for (TLRPC.TL_dialog d : dialogs) {
-                            int high_id = (int) (d.id >> 32);
-                            if ((int) d.id != 0 && high_id != 1) {
-                                dialogsServerOnly.add(d);
-                            }
-                        }
+                        updateDialogsOrder(previousDialogs);
 
                         dialogsEndReached = (dialogsRes.dialogs.size() == 0 || dialogsRes.dialogs.size() != count) && !isCache;
                         NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
@@ -1870,7 +1954,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             public void run() {
                                 TLRPC.TL_dialog dialog = dialogs_dict.get(dialog_id);
                                 if (dialog != null) {
-                                    dialog.unread_count = 0;
+                                    if (dialog.unread_count > 0) {
+                                        dialog.unread_count = 0;
+                                        putDialogSorted(dialog);
+                                    }
                                     NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
                                 }
                                 if (!popup) {
@@ -1934,7 +2021,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             NotificationsController.getInstance().processReadMessages(null, dialog_id, max_date, 0, popup);
                             TLRPC.TL_dialog dialog = dialogs_dict.get(dialog_id);
                             if (dialog != null) {
-                                dialog.unread_count = 0;
+                                if (dialog.unread_count > 0) {
+                                    dialog.unread_count = 0;
+                                    putDialogSorted(dialog);
+                                }
                                 NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_READ_DIALOG_MESSAGE);
                             }
                             HashMap<Long, Integer> dialogsToUpdate = new HashMap<>();
@@ -1991,7 +2081,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             newMsg.date = ConnectionsManager.getInstance().getCurrentTime();
             newMsg.random_id = 0;
             UserConfig.saveConfig(false);
-            MessageObject newMsgObj = new MessageObject(newMsg, users, true);
+            MessageObject newMsgObj = new MessageObject(newMsg, null, true);
             newMsgObj.messageOwner.send_state = MessageObject.MESSAGE_SEND_STATE_SENT;
 
             ArrayList<MessageObject> objArr = new ArrayList<>();
@@ -2035,7 +2125,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             putUsers(res.users, false);
                             putChats(res.chats, false);
                             final ArrayList<MessageObject> messagesObj = new ArrayList<>();
-                            messagesObj.add(new MessageObject(res.message, users, true));
+                            messagesObj.add(new MessageObject(res.message, null, true));
                             TLRPC.Chat chat = res.chats.get(0);
                             updateInterfaceWithMessages(-chat.id, messagesObj);
                             NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
@@ -2087,7 +2177,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             putUsers(res.users, false);
                             putChats(res.chats, false);
                             final ArrayList<MessageObject> messagesObj = new ArrayList<>();
-                            messagesObj.add(new MessageObject(res.message, users, true));
+                            messagesObj.add(new MessageObject(res.message, null, true));
                             TLRPC.Chat chat = res.chats.get(0);
                             updateInterfaceWithMessages(-chat.id, messagesObj);
                             NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
@@ -2174,7 +2264,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             putChats(res.chats, false);
                             if (user.id != UserConfig.getClientUserId()) {
                                 final ArrayList<MessageObject> messagesObj = new ArrayList<>();
-                                messagesObj.add(new MessageObject(res.message, users, true));
+                                messagesObj.add(new MessageObject(res.message, null, true));
                                 TLRPC.Chat chat = res.chats.get(0);
                                 updateInterfaceWithMessages(-chat.id, messagesObj);
                                 NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
@@ -2263,7 +2353,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                             putUsers(res.users, false);
                             putChats(res.chats, false);
                             final ArrayList<MessageObject> messagesObj = new ArrayList<>();
-                            messagesObj.add(new MessageObject(res.message, users, true));
+                            messagesObj.add(new MessageObject(res.message, null, true));
                             TLRPC.Chat chat = res.chats.get(0);
                             updateInterfaceWithMessages(-chat.id, messagesObj);
                             NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
@@ -2322,7 +2412,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         putUsers(res.users, false);
                         putChats(res.chats, false);
                         final ArrayList<MessageObject> messagesObj = new ArrayList<>();
-                        messagesObj.add(new MessageObject(res.message, users, true));
+                        messagesObj.add(new MessageObject(res.message, null, true));
                         TLRPC.Chat chat = res.chats.get(0);
                         updateInterfaceWithMessages(-chat.id, messagesObj);
                         NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
@@ -2451,7 +2541,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     for (int a = 0; a < 3; a++) {
                         processUpdatesQueue(a, 2);
                     }
-                    MessagesStorage.getInstance().saveDiffParams(MessagesStorage.lastSeqValue, MessagesStorage.lastPtsValue, MessagesStorage.lastDateValue, MessagesStorage.lastQtsValue);
+                    saveDiffParams();
                 } else {
                     if (error.code != 401) {
                         loadCurrentState();
@@ -2644,6 +2734,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             public void run(TLObject response, TLRPC.TL_error error) {
                 gettingDifferenceAgain = false;
                 if (error == null) {
+                    flushUpdatesBatch();
                     final TLRPC.updates_Difference res = (TLRPC.updates_Difference) response;
                     gettingDifferenceAgain = res instanceof TLRPC.TL_updates_differenceSlice;
 
@@ -2837,7 +2928,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                             });
                                         }
                                     }
-                                    MessagesStorage.getInstance().saveDiffParams(MessagesStorage.lastSeqValue, MessagesStorage.lastPtsValue, MessagesStorage.lastDateValue, MessagesStorage.lastQtsValue);
+                                    saveDiffParams();
                                     FileLog.e("tmessages", "received difference with date = " + MessagesStorage.lastDateValue + " pts = " + MessagesStorage.lastPtsValue + " seq = " + MessagesStorage.lastSeqValue);
                                     FileLog.e("tmessages", "messages = " + res.new_messages.size() + " users = " + res.users.size() + " chats = " + res.chats.size() + " other updates = " + res.other_updates.size());
                                 }
@@ -2917,58 +3008,13 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     message.reply_to_msg_id = updates.reply_to_msg_id;
                     message.media = new TLRPC.TL_messageMediaEmpty();
                     MessagesStorage.lastPtsValue = updates.pts;
-                    final MessageObject obj = new MessageObject(message, null, true);
-                    final ArrayList<MessageObject> objArr = new ArrayList<>();
-                    objArr.add(obj);
-                    ArrayList<TLRPC.Message> arr = new ArrayList<>();
-                    arr.add(message);
-                    if (updates instanceof TLRPC.TL_updateShortMessage) {
-                        final boolean printUpdate = (updates.flags & TLRPC.MESSAGE_FLAG_OUT) == 0 && updatePrintingUsersWithNewMessages(updates.user_id, objArr);
-                        if (printUpdate) {
-                            updatePrintingStrings();
-                        }
-                        AndroidUtilities.runOnUIThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (printUpdate) {
-                                    NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_USER_PRINT);
-                                }
-                                updateInterfaceWithMessages(updates.user_id, objArr);
-                                NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
-                            }
-                        });
-                    } else {
-                        final boolean printUpdate = updatePrintingUsersWithNewMessages(-updates.chat_id, objArr);
-                        if (printUpdate) {
-                            updatePrintingStrings();
-                        }
-                        AndroidUtilities.runOnUIThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (printUpdate) {
-                                    NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, UPDATE_MASK_USER_PRINT);
-                                }
-
-                                updateInterfaceWithMessages(-updates.chat_id, objArr);
-                                NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
-                            }
-                        });
-                    }
-
-                    MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
-                        @Override
-                        public void run() {
-                            AndroidUtilities.runOnUIThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    if (!obj.isFromMe() && obj.isUnread()) {
-                                        NotificationsController.getInstance().processNewMessages(objArr, true);
-                                    }
-                                }
-                            });
-                        }
-                    });
-                    MessagesStorage.getInstance().putMessages(arr, false, true, false, 0);
+                    TLRPC.TL_updateNewMessage update = new TLRPC.TL_updateNewMessage();
+                    update.message = message;
+                    update.pts = updates.pts;
+                    update.pts_count = updates.pts_count;
+                    ArrayList<TLRPC.Update> arr = new ArrayList<>();
+                    arr.add(update);
+                    processUpdateArray(arr, null, null);
                 } else if (MessagesStorage.lastPtsValue != updates.pts) {
                     FileLog.e("tmessages", "need get diff short message, pts: " + MessagesStorage.lastPtsValue + " " + updates.pts + " count = " + updates.pts_count);
                     if (gettingDifference || updatesStartWaitTimePts == 0 || updatesStartWaitTimePts != 0 && updatesStartWaitTimePts + 1500 > System.currentTimeMillis()) {
@@ -3114,48 +3160,224 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 }
             });
         }
-        MessagesStorage.getInstance().saveDiffParams(MessagesStorage.lastSeqValue, MessagesStorage.lastPtsValue, MessagesStorage.lastDateValue, MessagesStorage.lastQtsValue);
+        saveDiffParams();
     }
 
-    public boolean processUpdateArray(ArrayList<TLRPC.Update> updates, final ArrayList<TLRPC.User> usersArr, final ArrayList<TLRPC.Chat> chatsArr) {
-        if (updates.isEmpty()) {
-            return true;
-        }
-        long currentTime = System.currentTimeMillis();
-
+    /**
+     * Result of the processUpdateArray calls made during a short window, applied to memory,
+     * storage and the interface at once
+     */
+    private static class UpdatesBatch {
         final HashMap<Long, ArrayList<MessageObject>> messages = new HashMap<>();
+        final IntHashMap<MessageObject> messagesById = new IntHashMap<>();
         final ArrayList<MessageObject> pushMessages = new ArrayList<>();
         final ArrayList<TLRPC.Message> messagesArr = new ArrayList<>();
         final HashMap<Integer, Integer> markAsReadMessagesInbox = new HashMap<>();
         final HashMap<Integer, Integer> markAsReadMessagesOutbox = new HashMap<>();
         final HashMap<Integer, Integer> markAsReadEncrypted = new HashMap<>();
         final ArrayList<Integer> deletedMessages = new ArrayList<>();
-        boolean printChanged = false;
-        final ArrayList<TLRPC.ChatParticipants> chatInfoToUpdate = new ArrayList<>();
+        final HashMap<Integer, TLRPC.ChatParticipants> chatInfoToUpdate = new HashMap<>();
         final ArrayList<TLRPC.Update> updatesOnMainThread = new ArrayList<>();
         final ArrayList<TLRPC.TL_updateEncryptedMessagesRead> tasks = new ArrayList<>();
         final ArrayList<Integer> contactsIds = new ArrayList<>();
+        final HashMap<Integer, TLRPC.User> users = new HashMap<>();
+        int interfaceUpdateMask;
+        boolean printChanged;
+        boolean saveDiffParams;
+
+        static void putMax(HashMap<Integer, Integer> map, int key, int value) {
+            Integer current = map.get(key);
+            if (current == null || current < value) {
+                map.put(key, value);
+            }
+        }
+
+        boolean containsMessage(int id) {
+            return id > 0 && messagesById.containsKey(id);
+        }
+
+        boolean addMessage(long uid, MessageObject obj, boolean push) {
+            int id = obj.getId();
+            if (id > 0) {
+                if (messagesById.containsKey(id)) {
+                    return false;
+                }
+                messagesById.put(id, obj);
+            }
+            messagesArr.add(obj.messageOwner);
+            ArrayList<MessageObject> arr = messages.get(uid);
+            if (arr == null) {
+                arr = new ArrayList<>();
+                messages.put(uid, arr);
+            }
+            arr.add(obj);
+            if (push) {
+                pushMessages.add(obj);
+            }
+            return true;
+        }
+
+        void addDeletedMessages(ArrayList<Integer> ids) {
+            for (Integer id : ids) {
+                if (!deletedMessages.contains(id)) {
+                    deletedMessages.add(id);
+                }
+            }
+        }
+
+        /**
+         * @param uid User id, negative if the user is no longer a contact
+         */
+        void addContactUpdate(int uid) {
+            int idx = contactsIds.indexOf(-uid);
+            if (idx != -1) {
+                contactsIds.remove(idx);
+            }
+            if (!contactsIds.contains(uid)) {
+                contactsIds.add(uid);
+            }
+        }
+
+        void merge(UpdatesBatch batch) {
+            ArrayList<MessageObject> duplicates = new ArrayList<>();
+            for (HashMap.Entry<Long, ArrayList<MessageObject>> entry : batch.messages.entrySet()) {
+                for (MessageObject obj : entry.getValue()) {
+                    if (!addMessage(entry.getKey(), obj, false)) {
+                        duplicates.add(obj);
+                    }
+                }
+            }
+            for (MessageObject obj : batch.pushMessages) {
+                if (!duplicates.contains(obj)) {
+                    pushMessages.add(obj);
+                }
+            }
+            for (HashMap.Entry<Integer, Integer> entry : batch.markAsReadMessagesInbox.entrySet()) {
+                putMax(markAsReadMessagesInbox, entry.getKey(), entry.getValue());
+            }
+            for (HashMap.Entry<Integer, Integer> entry : batch.markAsReadMessagesOutbox.entrySet()) {
+                putMax(markAsReadMessagesOutbox, entry.getKey(), entry.getValue());
+            }
+            for (HashMap.Entry<Integer, Integer> entry : batch.markAsReadEncrypted.entrySet()) {
+                putMax(markAsReadEncrypted, entry.getKey(), entry.getValue());
+            }
+            addDeletedMessages(batch.deletedMessages);
+            chatInfoToUpdate.putAll(batch.chatInfoToUpdate);
+            updatesOnMainThread.addAll(batch.updatesOnMainThread);
+            tasks.addAll(batch.tasks);
+            for (Integer uid : batch.contactsIds) {
+                addContactUpdate(uid);
+            }
+            users.putAll(batch.users);
+            interfaceUpdateMask |= batch.interfaceUpdateMask;
+            printChanged |= batch.printChanged;
+            saveDiffParams |= batch.saveDiffParams;
+        }
+
+        int size() {
+            return messagesArr.size() + updatesOnMainThread.size() + deletedMessages.size();
+        }
+    }
+
+    private boolean isMessageInBatch(UpdatesBatch batch, int id) {
+        if (batch.containsMessage(id)) {
+            return true;
+        }
+        synchronized (updatesBatchSync) {
+            return pendingUpdatesBatch != null && pendingUpdatesBatch.containsMessage(id);
+        }
+    }
+
+    private void queueUpdatesBatch(UpdatesBatch batch) {
+        boolean flushNow;
+        synchronized (updatesBatchSync) {
+            if (pendingUpdatesBatch == null) {
+                pendingUpdatesBatch = batch;
+                Utilities.stageQueue.postRunnable(flushUpdatesRunnable, UPDATES_BATCH_DELAY);
+            } else {
+                pendingUpdatesBatch.merge(batch);
+            }
+            flushNow = pendingUpdatesBatch.size() >= UPDATES_BATCH_MAX_SIZE;
+        }
+        if (flushNow) {
+            Utilities.stageQueue.cancelRunnable(flushUpdatesRunnable);
+            Utilities.stageQueue.postRunnable(flushUpdatesRunnable);
+        }
+    }
+
+    /**
+     * Apply the updates collected so far without waiting for the end of the batch window, must
+     * be called on the stage queue
+     */
+    public void flushUpdatesBatch() {
+        UpdatesBatch batch;
+        synchronized (updatesBatchSync) {
+            batch = pendingUpdatesBatch;
+            pendingUpdatesBatch = null;
+            applyingUpdatesBatch = batch;
+        }
+        if (batch != null) {
+            Utilities.stageQueue.cancelRunnable(flushUpdatesRunnable);
+            applyUpdatesBatch(batch);
+            boolean save;
+            synchronized (updatesBatchSync) {
+                applyingUpdatesBatch = null;
+                save = batch.saveDiffParams;
+            }
+            if (save) {
+                MessagesStorage.getInstance().saveDiffParams(MessagesStorage.lastSeqValue, MessagesStorage.lastPtsValue, MessagesStorage.lastDateValue, MessagesStorage.lastQtsValue);
+            }
+        }
+    }
+
+    /**
+     * Store the current seq, pts, date and qts. While updates wait in a batch, this is done once
+     * the batch has queued its messages, so the stored state never gets ahead of the stored
+     * messages.
+     */
+    private void saveDiffParams() {
+        synchronized (updatesBatchSync) {
+            if (pendingUpdatesBatch != null) {
+                pendingUpdatesBatch.saveDiffParams = true;
+                return;
+            }
+            if (applyingUpdatesBatch != null) {
+                applyingUpdatesBatch.saveDiffParams = true;
+                return;
+            }
+        }
+        MessagesStorage.getInstance().saveDiffParams(MessagesStorage.lastSeqValue, MessagesStorage.lastPtsValue, MessagesStorage.lastDateValue, MessagesStorage.lastQtsValue);
+    }
+
+    /**
+     * Collect updates to the current batch, which is applied by the stage queue once the batch
+     * window ends or it gets too big
+     * @return false if the updates refer to users or chats that are not known
+     */
+    public boolean processUpdateArray(ArrayList<TLRPC.Update> updates, final ArrayList<TLRPC.User> usersArr, final ArrayList<TLRPC.Chat> chatsArr) {
+        if (updates.isEmpty()) {
+            return true;
+        }
+        long currentTime = System.currentTimeMillis();
+
+        UpdatesBatch batch = new UpdatesBatch();
 
         boolean checkForUsers = true;
-        ConcurrentHashMap<Integer, TLRPC.User> usersDict;
-        ConcurrentHashMap<Integer, TLRPC.Chat> chatsDict;
+        HashMap<Integer, TLRPC.User> usersDict = batch.users;
+        HashMap<Integer, TLRPC.Chat> chatsDict = new HashMap<>();
         if (usersArr != null) {
-            usersDict = new ConcurrentHashMap<>();
             for (TLRPC.User user : usersArr) {
                 usersDict.put(user.id, user);
             }
         } else {
             checkForUsers = false;
-            usersDict = users;
         }
         if (chatsArr != null) {
-            chatsDict = new ConcurrentHashMap<>();
             for (TLRPC.Chat chat : chatsArr) {
                 chatsDict.put(chat.id, chat);
             }
         } else {
             checkForUsers = false;
-            chatsDict = chats;
         }
 
         if (usersArr != null || chatsArr != null) {
@@ -3168,29 +3390,36 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             });
         }
 
-        int interfaceUpdateMask = 0;
+        if (checkForUsers) {
+            for (TLRPC.Update update : updates) {
+                if (update instanceof TLRPC.TL_updateNewMessage) {
+                    TLRPC.Message message = ((TLRPC.TL_updateNewMessage) update).message;
+                    if (usersDict.get(message.from_id) == null && getUser(message.from_id) == null || message.to_id.chat_id != 0 && chatsDict.get(message.to_id.chat_id) == null && getChat(message.to_id.chat_id) == null) {
+                        return false;
+                    }
+                }
+            }
+        }
 
         for (TLRPC.Update update : updates) {
             if (update instanceof TLRPC.TL_updateNewMessage) {
                 TLRPC.TL_updateNewMessage upd = (TLRPC.TL_updateNewMessage)update;
+                if (isMessageInBatch(batch, upd.message.id)) {
+                    continue;
+                }
                 if (checkForUsers) {
                     TLRPC.User user = getUser(upd.message.from_id);
-                    if (usersDict.get(upd.message.from_id) == null && user == null || upd.message.to_id.chat_id != 0 && chatsDict.get(upd.message.to_id.chat_id) == null && getChat(upd.message.to_id.chat_id) == null) {
-                        return false;
-                    }
-
                     if (user != null && user.status != null && user.status.expires <= 0) {
                         onlinePrivacy.put(upd.message.from_id, ConnectionsManager.getInstance().getCurrentTime());
-                        interfaceUpdateMask |= UPDATE_MASK_STATUS;
+                        batch.interfaceUpdateMask |= UPDATE_MASK_STATUS;
                     }
                 }
-                messagesArr.add(upd.message);
                 ImageLoader.saveMessageThumbs(upd.message);
-                MessageObject obj = new MessageObject(upd.message, usersDict, true);
+                MessageObject obj = new MessageObject(upd.message, usersDict, false);
                 if (obj.type == 11) {
-                    interfaceUpdateMask |= UPDATE_MASK_CHAT_AVATAR;
+                    batch.interfaceUpdateMask |= UPDATE_MASK_CHAT_AVATAR;
                 } else if (obj.type == 10) {
-                    interfaceUpdateMask |= UPDATE_MASK_CHAT_NAME;
+                    batch.interfaceUpdateMask |= UPDATE_MASK_CHAT_NAME;
                 }
                 long uid;
                 if (upd.message.to_id.chat_id != 0) {
@@ -3201,33 +3430,25 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     }
                     uid = upd.message.to_id.user_id;
                 }
-                ArrayList<MessageObject> arr = messages.get(uid);
-                if (arr == null) {
-                    arr = new ArrayList<>();
-                    messages.put(uid, arr);
-                }
-                arr.add(obj);
-                if (!obj.isFromMe() && obj.isUnread()) {
-                    pushMessages.add(obj);
-                }
+                batch.addMessage(uid, obj, !obj.isFromMe() && obj.isUnread());
             } else if (update instanceof TLRPC.TL_updateReadMessages) {
                 //markAsReadMessages.addAll(update.messages); disabled for now
             } else if (update instanceof TLRPC.TL_updateReadHistoryInbox) {
                 TLRPC.Peer peer = ((TLRPC.TL_updateReadHistoryInbox) update).peer;
                 if (peer.chat_id != 0) {
-                    markAsReadMessagesInbox.put(-peer.chat_id, update.max_id);
+                    UpdatesBatch.putMax(batch.markAsReadMessagesInbox, -peer.chat_id, update.max_id);
                 } else {
-                    markAsReadMessagesInbox.put(peer.user_id, update.max_id);
+                    UpdatesBatch.putMax(batch.markAsReadMessagesInbox, peer.user_id, update.max_id);
                 }
             } else if (update instanceof TLRPC.TL_updateReadHistoryOutbox) {
                 TLRPC.Peer peer = ((TLRPC.TL_updateReadHistoryOutbox) update).peer;
                 if (peer.chat_id != 0) {
-                    markAsReadMessagesOutbox.put(-peer.chat_id, update.max_id);
+                    UpdatesBatch.putMax(batch.markAsReadMessagesOutbox, -peer.chat_id, update.max_id);
                 } else {
-                    markAsReadMessagesOutbox.put(peer.user_id, update.max_id);
+                    UpdatesBatch.putMax(batch.markAsReadMessagesOutbox, peer.user_id, update.max_id);
                 }
             } else if (update instanceof TLRPC.TL_updateDeleteMessages) {
-                deletedMessages.addAll(update.messages);
+                batch.addDeletedMessages(update.messages);
             } else if (update instanceof TLRPC.TL_updateUserTyping || update instanceof TLRPC.TL_updateChatUserTyping) {
                 if (update.action instanceof TLRPC.TL_sendMessageTypingAction && update.user_id != UserConfig.getClientUserId()) {
                     long uid = -update.chat_id;
@@ -3252,28 +3473,28 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         newUser.userId = update.user_id;
                         newUser.lastTime = currentTime;
                         arr.add(newUser);
-                        printChanged = true;
+                        batch.printChanged = true;
                     }
                     onlinePrivacy.put(update.user_id, ConnectionsManager.getInstance().getCurrentTime());
                 }
             } else if (update instanceof TLRPC.TL_updateChatParticipants) {
-                interfaceUpdateMask |= UPDATE_MASK_CHAT_MEMBERS;
-                chatInfoToUpdate.add(update.participants);
+                batch.interfaceUpdateMask |= UPDATE_MASK_CHAT_MEMBERS;
+                batch.chatInfoToUpdate.put(update.participants.chat_id, update.participants);
             } else if (update instanceof TLRPC.TL_updateUserStatus) {
-                interfaceUpdateMask |= UPDATE_MASK_STATUS;
-                updatesOnMainThread.add(update);
+                batch.interfaceUpdateMask |= UPDATE_MASK_STATUS;
+                batch.updatesOnMainThread.add(update);
             } else if (update instanceof TLRPC.TL_updateUserName) {
-                interfaceUpdateMask |= UPDATE_MASK_NAME;
-                updatesOnMainThread.add(update);
+                batch.interfaceUpdateMask |= UPDATE_MASK_NAME;
+                batch.updatesOnMainThread.add(update);
             } else if (update instanceof TLRPC.TL_updateUserPhoto) {
-                interfaceUpdateMask |= UPDATE_MASK_AVATAR;
+                batch.interfaceUpdateMask |= UPDATE_MASK_AVATAR;
                 MessagesStorage.getInstance().clearUserPhotos(update.user_id);
-                updatesOnMainThread.add(update);
+                batch.updatesOnMainThread.add(update);
             } else if (update instanceof TLRPC.TL_updateUserPhone) {
-                interfaceUpdateMask |= UPDATE_MASK_PHONE;
-                updatesOnMainThread.add(update);
+                batch.interfaceUpdateMask |= UPDATE_MASK_PHONE;
+                batch.updatesOnMainThread.add(update);
             } else if (update instanceof TLRPC.TL_updateContactRegistered) {
-                if (enableJoined && usersDict.containsKey(update.user_id)) {
+                if (enableJoined && (usersArr != null ? usersDict.containsKey(update.user_id) : getUser(update.user_id) != null)) {
                     TLRPC.TL_messageService newMessage = new TLRPC.TL_messageService();
                     newMessage.action = new TLRPC.TL_messageActionUserJoined();
                     newMessage.local_id = newMessage.id = UserConfig.getNewMessageId();
@@ -3285,34 +3506,11 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     newMessage.to_id.user_id = UserConfig.getClientUserId();
                     newMessage.dialog_id = update.user_id;
 
-                    messagesArr.add(newMessage);
-                    MessageObject obj = new MessageObject(newMessage, usersDict, true);
-                    ArrayList<MessageObject> arr = messages.get(newMessage.dialog_id);
-                    if (arr == null) {
-                        arr = new ArrayList<>();
-                        messages.put(newMessage.dialog_id, arr);
-                    }
-                    arr.add(obj);
-                    pushMessages.add(obj);
+                    MessageObject obj = new MessageObject(newMessage, usersDict, false);
+                    batch.addMessage(newMessage.dialog_id, obj, true);
                 }
             } else if (update instanceof TLRPC.TL_updateContactLink) {
-                if (update.my_link instanceof TLRPC.TL_contactLinkContact) {
-                    int idx = contactsIds.indexOf(-update.user_id);
-                    if (idx != -1) {
-                        contactsIds.remove(idx);
-                    }
-                    if (!contactsIds.contains(update.user_id)) {
-                        contactsIds.add(update.user_id);
-                    }
-                } else {
-                    int idx = contactsIds.indexOf(update.user_id);
-                    if (idx != -1) {
-                        contactsIds.remove(idx);
-                    }
-                    if (!contactsIds.contains(update.user_id)) {
-                        contactsIds.add(-update.user_id);
-                    }
-                }
+                batch.addContactUpdate(update.my_link instanceof TLRPC.TL_contactLinkContact ? update.user_id : -update.user_id);
             } else if (update instanceof TLRPC.TL_updateActivation) {
                 //DEPRECATED
             } else if (update instanceof TLRPC.TL_updateNewAuthorization) {
@@ -3324,17 +3522,10 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 if (decryptedMessages != null && !decryptedMessages.isEmpty()) {
                     int cid = ((TLRPC.TL_updateNewEncryptedMessage)update).message.chat_id;
                     long uid = ((long) cid) << 32;
-                    ArrayList<MessageObject> arr = messages.get(uid);
-                    if (arr == null) {
-                        arr = new ArrayList<>();
-                        messages.put(uid, arr);
-                    }
                     for (TLRPC.Message message : decryptedMessages) {
                         ImageLoader.saveMessageThumbs(message);
-                        messagesArr.add(message);
-                        MessageObject obj = new MessageObject(message, usersDict, true);
-                        arr.add(obj);
-                        pushMessages.add(obj);
+                        MessageObject obj = new MessageObject(message, usersDict, false);
+                        batch.addMessage(uid, obj, true);
                     }
                 }
             } else if (update instanceof TLRPC.TL_updateEncryptedChatTyping) {
@@ -3360,13 +3551,13 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         newUser.userId = update.user_id;
                         newUser.lastTime = currentTime;
                         arr.add(newUser);
-                        printChanged = true;
+                        batch.printChanged = true;
                     }
                     onlinePrivacy.put(update.user_id, ConnectionsManager.getInstance().getCurrentTime());
                 }
             } else if (update instanceof TLRPC.TL_updateEncryptedMessagesRead) {
-                markAsReadEncrypted.put(update.chat_id, Math.max(update.max_date, update.date));
-                tasks.add((TLRPC.TL_updateEncryptedMessagesRead) update);
+                UpdatesBatch.putMax(batch.markAsReadEncrypted, update.chat_id, Math.max(update.max_date, update.date));
+                batch.tasks.add((TLRPC.TL_updateEncryptedMessagesRead) update);
             } else if (update instanceof TLRPC.TL_updateChatParticipantAdd) {
                 MessagesStorage.getInstance().updateChatInfo(update.chat_id, update.user_id, false, update.inviter_id, update.version);
             } else if (update instanceof TLRPC.TL_updateChatParticipantDelete) {
@@ -3403,7 +3594,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     }
                 });
             } else if (update instanceof TLRPC.TL_updateNotifySettings) {
-                updatesOnMainThread.add(update);
+                batch.updatesOnMainThread.add(update);
             } else if (update instanceof TLRPC.TL_updateServiceNotification) {
                 TLRPC.TL_message newMessage = new TLRPC.TL_message();
                 newMessage.local_id = newMessage.id = UserConfig.getNewMessageId();
@@ -3417,69 +3608,51 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 newMessage.media = update.media;
                 newMessage.message = ((TLRPC.TL_updateServiceNotification)update).message;
 
-                messagesArr.add(newMessage);
-                MessageObject obj = new MessageObject(newMessage, usersDict, true);
-                ArrayList<MessageObject> arr = messages.get(newMessage.dialog_id);
-                if (arr == null) {
-                    arr = new ArrayList<>();
-                    messages.put(newMessage.dialog_id, arr);
-                }
-                arr.add(obj);
-                pushMessages.add(obj);
+                MessageObject obj = new MessageObject(newMessage, usersDict, false);
+                batch.addMessage(newMessage.dialog_id, obj, true);
             } else if (update instanceof TLRPC.TL_updatePrivacy) {
-                updatesOnMainThread.add(update);
+                batch.updatesOnMainThread.add(update);
             }
         }
-        if (!messages.isEmpty()) {
-            for (HashMap.Entry<Long, ArrayList<MessageObject>> pair : messages.entrySet()) {
+        queueUpdatesBatch(batch);
+        return true;
+    }
+
+    private void applyUpdatesBatch(final UpdatesBatch batch) {
+        if (!batch.messages.isEmpty()) {
+            for (HashMap.Entry<Long, ArrayList<MessageObject>> pair : batch.messages.entrySet()) {
                 Long key = pair.getKey();
                 ArrayList<MessageObject> value = pair.getValue();
                 if (updatePrintingUsersWithNewMessages(key, value)) {
-                    printChanged = true;
+                    batch.printChanged = true;
                 }
+                MessageObject.precomputeLayouts(value, 0, value.size());
             }
         }
 
-        if (printChanged) {
+        if (batch.printChanged) {
             updatePrintingStrings();
         }
 
-        final int interfaceUpdateMaskFinal = interfaceUpdateMask;
-        final boolean printChangedArg = printChanged;
-
-        if (!contactsIds.isEmpty()) {
-            ContactsController.getInstance().processContactsUpdates(contactsIds, usersDict);
+        if (!batch.contactsIds.isEmpty()) {
+            ContactsController.getInstance().processContactsUpdates(batch.contactsIds, batch.users);
         }
 
-        MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
-            @Override
-            public void run() {
-                AndroidUtilities.runOnUIThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (!pushMessages.isEmpty()) {
-                            NotificationsController.getInstance().processNewMessages(pushMessages, true);
-                        }
-                    }
-                });
-            }
-        });
-
-        if (!messagesArr.isEmpty()) {
-            MessagesStorage.getInstance().putMessages(messagesArr, true, true, false, MediaController.getInstance().getAutodownloadMask());
+        if (!batch.messagesArr.isEmpty()) {
+            MessagesStorage.getInstance().putMessages(batch.messagesArr, true, true, false, MediaController.getInstance().getAutodownloadMask());
         }
 
         AndroidUtilities.runOnUIThread(new Runnable() {
             @Override
             public void run() {
-                int updateMask = interfaceUpdateMaskFinal;
+                int updateMask = batch.interfaceUpdateMask;
 
                 boolean avatarsUpdate = false;
-                if (!updatesOnMainThread.isEmpty()) {
+                if (!batch.updatesOnMainThread.isEmpty()) {
                     ArrayList<TLRPC.User> dbUsers = new ArrayList<>();
                     ArrayList<TLRPC.User> dbUsersStatus = new ArrayList<>();
                     SharedPreferences.Editor editor = null;
-                    for (TLRPC.Update update : updatesOnMainThread) {
+                    for (TLRPC.Update update : batch.updatesOnMainThread) {
                         final TLRPC.User toDbUser = new TLRPC.User();
                         toDbUser.id = update.user_id;
                         final TLRPC.User currentUser = getUser(update.user_id);
@@ -3602,23 +3775,23 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                     MessagesStorage.getInstance().updateUsers(dbUsers, false, true, true);
                 }
 
-                if (!messages.isEmpty()) {
-                    for (HashMap.Entry<Long, ArrayList<MessageObject>> entry : messages.entrySet()) {
+                if (!batch.messages.isEmpty()) {
+                    for (HashMap.Entry<Long, ArrayList<MessageObject>> entry : batch.messages.entrySet()) {
                         Long key = entry.getKey();
                         ArrayList<MessageObject> value = entry.getValue();
                         updateInterfaceWithMessages(key, value);
                     }
                     NotificationCenter.getInstance().postNotificationName(NotificationCenter.dialogsNeedReload);
                 }
-                if (printChangedArg) {
+                if (batch.printChanged) {
                     updateMask |= UPDATE_MASK_USER_PRINT;
                 }
-                if (!contactsIds.isEmpty()) {
+                if (!batch.contactsIds.isEmpty()) {
                     updateMask |= UPDATE_MASK_NAME;
                     updateMask |= UPDATE_MASK_USER_PHONE;
                 }
-                if (!chatInfoToUpdate.isEmpty()) {
-                    for (TLRPC.ChatParticipants info : chatInfoToUpdate) {
+                if (!batch.chatInfoToUpdate.isEmpty()) {
+                    for (TLRPC.ChatParticipants info : batch.chatInfoToUpdate.values()) {
                         MessagesStorage.getInstance().updateChatInfo(info.chat_id, info, true);
                         NotificationCenter.getInstance().postNotificationName(NotificationCenter.chatInfoDidLoaded, info.chat_id, info);
                     }
@@ -3635,53 +3808,57 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 AndroidUtilities.runOnUIThread(new Runnable() {
                     @Override
                     public void run() {
+                        if (!batch.pushMessages.isEmpty()) {
+                            NotificationsController.getInstance().processNewMessages(batch.pushMessages, true);
+                        }
                         int updateMask = 0;
-                        if (!markAsReadMessagesInbox.isEmpty() || !markAsReadMessagesOutbox.isEmpty()) {
-                            NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesRead, markAsReadMessagesInbox, markAsReadMessagesOutbox);
-                            NotificationsController.getInstance().processReadMessages(markAsReadMessagesInbox, 0, 0, 0, false);
-                            for (HashMap.Entry<Integer, Integer> entry : markAsReadMessagesInbox.entrySet()) {
+                        if (!batch.markAsReadMessagesInbox.isEmpty() || !batch.markAsReadMessagesOutbox.isEmpty()) {
+                            NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesRead, batch.markAsReadMessagesInbox, batch.markAsReadMessagesOutbox);
+                            NotificationsController.getInstance().processReadMessages(batch.markAsReadMessagesInbox, 0, 0, 0, false);
+                            for (HashMap.Entry<Integer, Integer> entry : batch.markAsReadMessagesInbox.entrySet()) {
                                 TLRPC.TL_dialog dialog = dialogs_dict.get((long) entry.getKey());
                                 if (dialog != null && dialog.top_message <= entry.getValue()) {
                                     MessageObject obj = dialogMessage.get(dialog.top_message);
                                     if (obj != null) {
                                         obj.setIsRead();
                                         updateMask |= UPDATE_MASK_READ_DIALOG_MESSAGE;
+                                    } else {
+                                        markDialogPreviewRead(dialog.top_message, Integer.MAX_VALUE);
                                     }
                                 }
                             }
-                            for (HashMap.Entry<Integer, Integer> entry : markAsReadMessagesOutbox.entrySet()) {
+                            for (HashMap.Entry<Integer, Integer> entry : batch.markAsReadMessagesOutbox.entrySet()) {
                                 TLRPC.TL_dialog dialog = dialogs_dict.get((long) entry.getKey());
                                 if (dialog != null && dialog.top_message <= entry.getValue()) {
                                     MessageObject obj = dialogMessage.get(dialog.top_message);
                                     if (obj != null) {
                                         obj.setIsRead();
                                         updateMask |= UPDATE_MASK_READ_DIALOG_MESSAGE;
+                                    } else {
+                                        markDialogPreviewRead(dialog.top_message, Integer.MAX_VALUE);
                                     }
                                 }
                             }
                         }
-                        if (!markAsReadEncrypted.isEmpty()) {
-                            for (HashMap.Entry<Integer, Integer> entry : markAsReadEncrypted.entrySet()) {
+                        if (!batch.markAsReadEncrypted.isEmpty()) {
+                            for (HashMap.Entry<Integer, Integer> entry : batch.markAsReadEncrypted.entrySet()) {
                                 NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesReadedEncrypted, entry.getKey(), entry.getValue());
                                 long dialog_id = (long) (entry.getKey()) << 32;
                                 TLRPC.TL_dialog dialog = dialogs_dict.get(dialog_id);
                                 if (dialog != null) {
                                     MessageObject message = dialogMessage.get(dialog.top_message);
-                                    if (message != null && message.messageOwner.date <= entry.getValue()) {
+                                    if (message == null) {
+                                        markDialogPreviewRead(dialog.top_message, entry.getValue());
+                                    } else if (message.messageOwner.date <= entry.getValue()) {
                                         message.setIsRead();
                                         updateMask |= UPDATE_MASK_READ_DIALOG_MESSAGE;
                                     }
                                 }
                             }
                         }
-                        if (!deletedMessages.isEmpty()) {
-                            NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesDeleted, deletedMessages);
-                            for (Integer id : deletedMessages) {
-                                MessageObject obj = dialogMessage.get(id);
-                                if (obj != null) {
-                                    obj.deleted = true;
-                                }
-                            }
+                        if (!batch.deletedMessages.isEmpty()) {
+                            NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesDeleted, batch.deletedMessages);
+                            markDialogMessagesDeleted(batch.deletedMessages);
                         }
                         if (updateMask != 0) {
                             NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateInterfaces, updateMask);
@@ -3691,25 +3868,24 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             }
         });
 
-        if (!markAsReadMessagesInbox.isEmpty() || !markAsReadMessagesOutbox.isEmpty() || !markAsReadEncrypted.isEmpty()) {
-            if (!markAsReadMessagesInbox.isEmpty() || !markAsReadMessagesOutbox.isEmpty()) {
-                MessagesStorage.getInstance().updateDialogsWithReadedMessages(markAsReadMessagesInbox, true);
+        if (!batch.markAsReadMessagesInbox.isEmpty() || !batch.markAsReadMessagesOutbox.isEmpty() || !batch.markAsReadEncrypted.isEmpty()) {
+            if (!batch.markAsReadMessagesInbox.isEmpty() || !batch.markAsReadMessagesOutbox.isEmpty()) {
+                MessagesStorage.getInstance().updateDialogsWithReadedMessages(batch.markAsReadMessagesInbox, true);
             }
-            MessagesStorage.getInstance().markMessagesAsRead(markAsReadMessagesInbox, markAsReadMessagesOutbox, markAsReadEncrypted, true);
+            MessagesStorage.getInstance().markMessagesAsRead(batch.markAsReadMessagesInbox, batch.markAsReadMessagesOutbox, batch.markAsReadEncrypted, true);
         }
-        if (!deletedMessages.isEmpty()) {
-            MessagesStorage.getInstance().markMessagesAsDeleted(deletedMessages, true);
+        if (!batch.deletedMessages.isEmpty()) {
+            MessagesStorage.getInstance().markMessagesAsDeleted(batch.deletedMessages, true);
         }
-        if (!deletedMessages.isEmpty()) {
-            MessagesStorage.getInstance().updateDialogsWithDeletedMessages(deletedMessages, true);
+        if (!batch.deletedMessages.isEmpty()) {
+            MessagesStorage.getInstance().updateDialogsWithDeletedMessages(batch.deletedMessages, true);
         }
-        if (!tasks.isEmpty()) {
-            for (TLRPC.TL_updateEncryptedMessagesRead update : tasks) {
+        if (!batch.tasks.isEmpty()) {
+            for (TLRPC.TL_updateEncryptedMessagesRead update : batch.tasks) {
                 MessagesStorage.getInstance().createTaskForSecretChat(update.chat_id, update.max_date, update.date, 1, null);
             }
         }
 
-        return true;
     }
 
     private boolean isNotifySettingsMuted(TLRPC.PeerNotifySettings settings) {
@@ -3795,7 +3971,6 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 dialog.top_message = lastMessage.getId();
                 dialog.last_message_date = lastMessage.messageOwner.date;
                 dialogs_dict.put(uid, dialog);
-                dialogs.add(dialog);
                 dialogMessage.put(lastMessage.getId(), lastMessage);
                 changed = true;
             }
@@ -3828,31 +4003,125 @@ public class MessagesController implements NotificationCenter.NotificationCenter
         }
 
         if (changed) {
-            dialogsServerOnly.clear();
-            Collections.sort(dialogs, new Comparator<TLRPC.TL_dialog>() {
-                @Override
-                public int compare(TLRPC.TL_dialog tl_dialog, TLRPC.TL_dialog tl_dialog2) {
-                    if (tl_dialog.unread_count > 0 && tl_dialog2.unread_count <= 0) {
-                        return -1;
-                    } else if (tl_dialog.unread_count <= 0 &&  tl_dialog2.unread_count > 0) {
-                        return 1;
-                    } else {
-                        if (tl_dialog.last_message_date == tl_dialog2.last_message_date) {
-                            return 0;
-                        } else if (tl_dialog.last_message_date < tl_dialog2.last_message_date) {
-                            return 1;
-                        } else {
-                            return -1;
-                        }
-                    }
+            putDialogSorted(dialog);
+        }
+    }
+
+    private final Comparator<TLRPC.TL_dialog> dialogsComparator = new Comparator<TLRPC.TL_dialog>() {
+        @Override
+        public int compare(TLRPC.TL_dialog tl_dialog, TLRPC.TL_dialog tl_dialog2) {
+            if (tl_dialog.unread_count > 0 && tl_dialog2.unread_count <= 0) {
+                return -1;
+            } else if (tl_dialog.unread_count <= 0 &&  tl_dialog2.unread_count > 0) {
+                return 1;
+            } else {
+                if (tl_dialog.last_message_date == tl_dialog2.last_message_date) {
+                    return 0;
+                } else if (tl_dialog.last_message_date < tl_dialog2.last_message_date) {
+                    return 1;
+                } else {
+                    return -1;
                 }
-            });
+            }
+        }
+    };
+
+    private static boolean isServerDialog(TLRPC.TL_dialog dialog) {
+        int high_id = (int) (dialog.id >> 32);
+        return (int) dialog.id != 0 && high_id != 1;
+    }
+
+    private int findDialogPosition(ArrayList<TLRPC.TL_dialog> list, TLRPC.TL_dialog dialog) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (dialogsComparator.compare(list.get(middle), dialog) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void putDialogMessage(int mid, MessageObject messageObject) {
+        if (messageObject != null) {
+            dialogMessage.put(mid, messageObject);
+        } else {
+            dialogMessage.remove(mid);
+        }
+    }
+
+    /**
+     * Insert a dialog to the sorted dialogs lists, or move it to its new place if it is there
+     * already, instead of sorting the whole lists again
+     */
+    public void putDialogSorted(TLRPC.TL_dialog dialog) {
+        dialogs.remove(dialog);
+        dialogsServerOnly.remove(dialog);
+        dialogs.add(findDialogPosition(dialogs, dialog), dialog);
+        if (isServerDialog(dialog)) {
+            dialogsServerOnly.add(findDialogPosition(dialogsServerOnly, dialog), dialog);
+        }
+    }
+
+    /**
+     * Update the sorted dialogs lists after dialogs_dict was changed, small changes are merged
+     * in place and the lists are only sorted from scratch when most of them changed
+     * @param previousDialogs Changed dialog ids with the dialog objects they had before, null
+     *                        for new dialogs
+     */
+    private void updateDialogsOrder(HashMap<Long, TLRPC.TL_dialog> previousDialogs) {
+        if (previousDialogs.size() > dialogs.size() / 2) {
+            dialogs.clear();
+            dialogsServerOnly.clear();
+            dialogs.addAll(dialogs_dict.values());
+            Collections.sort(dialogs, dialogsComparator);
             for (TLRPC.TL_dialog d : dialogs) {
-                int high_id = (int)(d.id >> 32);
-                if ((int)d.id != 0 && high_id != 1) {
+                if (isServerDialog(d)) {
                     dialogsServerOnly.add(d);
                 }
             }
+            return;
+        }
+        ArrayList<TLRPC.TL_dialog> changedDialogs = new ArrayList<>(previousDialogs.size());
+        for (HashMap.Entry<Long, TLRPC.TL_dialog> entry : previousDialogs.entrySet()) {
+            TLRPC.TL_dialog previous = entry.getValue();
+            if (previous != null) {
+                dialogs.remove(previous);
+                dialogsServerOnly.remove(previous);
+            }
+            TLRPC.TL_dialog dialog = dialogs_dict.get(entry.getKey());
+            if (dialog != null) {
+                if (dialog != previous) {
+                    dialogs.remove(dialog);
+                    dialogsServerOnly.remove(dialog);
+                }
+                changedDialogs.add(dialog);
+            }
+        }
+        insertDialogsSorted(changedDialogs);
+    }
+
+    /**
+     * Move dialogs whose order keys were changed in place to their new places. All of them are
+     * taken out before any is inserted again, so the binary search only sees sorted lists.
+     */
+    private void putDialogsSorted(ArrayList<TLRPC.TL_dialog> changedDialogs) {
+        for (TLRPC.TL_dialog dialog : changedDialogs) {
+            dialogs.remove(dialog);
+            dialogsServerOnly.remove(dialog);
+        }
+        insertDialogsSorted(changedDialogs);
+    }
+
+    private void insertDialogsSorted(ArrayList<TLRPC.TL_dialog> changedDialogs) {
+        for (TLRPC.TL_dialog dialog : changedDialogs) {
+            dialogs.add(findDialogPosition(dialogs, dialog), dialog);
+            if (isServerDialog(dialog)) {
+                dialogsServerOnly.add(findDialogPosition(dialogsServerOnly, dialog), dialog);
+            }
         }
     }
 
@@ -3930,6 +4199,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                 AndroidUtilities.runOnUIThread(new Runnable() {
                     @Override
                     public void run() {
+                        ArrayList<TLRPC.TL_dialog> readDialogs = new ArrayList<>();
                         for(TLRPC.TL_dialog dialog : MessagesController.getInstance().dialogs) {
                             if (dialog.unread_count > 0) {
                                 MessageObject message = MessagesController.getInstance().dialogMessage.get(dialog.top_message);
@@ -3939,10 +4209,12 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                                 if (message.isFromMe()) {
                                     if (!message.messageText.toString().contains("#tsfBot")) {
                                         dialog.unread_count = 0;
+                                        readDialogs.add(dialog);
                                     }
                                 }
                             }
                         }
+                        putDialogsSorted(readDialogs);
                         NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesRead);
                     }
                 });
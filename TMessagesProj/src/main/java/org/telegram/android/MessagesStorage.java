@@ -20,6 +20,7 @@ import org.telegram.SQLite.SQLiteException;
 import org.telegram.SQLite.SQLitePreparedStatement;
 import org.telegram.android.query.SharedMediaQuery;
 import org.telegram.messenger.BuffersStorage;
+import org.telegram.messenger.BuildVars;
 import org.telegram.messenger.ByteBufferDesc;
 import org.telegram.messenger.ConnectionsManager;
 import org.telegram.messenger.DispatchQueue;
@@ -37,16 +38,36 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MessagesStorage {
-    public DispatchQueue storageQueue = new DispatchQueue("storageQueue");
+    public DispatchQueue storageQueue = new DispatchQueue("storageQueue") {
+        @Override
+        public void postRunnable(Runnable runnable, long delay) {
+            if (delay <= 0 && !(runnable instanceof PendingWrites)) {
+                synchronized (pendingWritesSync) {
+                    pendingWrites = null;
+                }
+            }
+            super.postRunnable(runnable, delay);
+        }
+    };
     private SQLiteDatabase database;
+    private SQLiteDatabase templatesDatabase;
     private File cacheFile;
     private BuffersStorage buffersStorage = new BuffersStorage(false);
+    private volatile SQLiteDatabase readDatabase;
+    private DispatchQueue readQueue = new DispatchQueue("storageReadQueue");
+    private BuffersStorage readBuffersStorage = new BuffersStorage(false);
+    private volatile int walAutoCheckpoint = 1000;
+    private final AtomicLong readCount = new AtomicLong();
+    private final AtomicLong readTime = new AtomicLong();
+    private final AtomicLong maxReadTime = new AtomicLong();
     public static int lastDateValue = 0;
     public static int lastPtsValue = 0;
     public static int lastQtsValue = 0;
@@ -60,6 +81,17 @@ public class MessagesStorage {
     private int lastSavedDate = 0;
     private int lastSavedQts = 0;
 
+    private static final int SEARCH_INDEX_BATCH = 200;
+    private static final int SEARCH_MAX_TOKENS_PER_MESSAGE = 64;
+    private static final int SEARCH_MAX_QUERY_TOKENS = 5;
+    private volatile long lastSearchTime;
+    private volatile int lastSearchCount;
+
+    private static final int DIALOG_PREVIEW_COUNT = 20;
+    private volatile int dialogsLoadOffset;
+    private volatile int dialogsLoadDate;
+    private volatile long dialogsLoadDid;
+
     private static volatile MessagesStorage Instance = null;
     public static MessagesStorage getInstance() {
         MessagesStorage localInstance = Instance;
@@ -74,9 +106,13 @@ public class MessagesStorage {
         return localInstance;
     }
 
+    public static final int TEMPLATE_SOURCE_DEFAULT = 0;
+    public static final int TEMPLATE_SOURCE_CUSTOM = 1;
+
     public MessagesStorage() {
         storageQueue.setPriority(Thread.MAX_PRIORITY);
         openDatabase();
+        openTemplatesDatabase();
     }
 
     public SQLiteDatabase getDatabase() {
@@ -91,6 +127,170 @@ public class MessagesStorage {
         return buffersStorage;
     }
 
+    /**
+     * Write the collected query timings to the log, the slowest queries first
+     */
+    public void logQueryStats() {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (database == null) {
+                    return;
+                }
+                ArrayList<SQLiteDatabase.QueryStats> stats = database.getQueryStats();
+                Collections.sort(stats, new Comparator<SQLiteDatabase.QueryStats>() {
+                    @Override
+                    public int compare(SQLiteDatabase.QueryStats lhs, SQLiteDatabase.QueryStats rhs) {
+                        if (lhs.time > rhs.time) {
+                            return -1;
+                        } else if (lhs.time < rhs.time) {
+                            return 1;
+                        }
+                        return 0;
+                    }
+                });
+                FileLog.d("tmessages", "statement cache hits = " + database.getStatementCacheHits() + " misses = " + database.getStatementCacheMisses());
+                long reads = readCount.get();
+                if (reads != 0) {
+                    FileLog.d("tmessages", String.format(Locale.US, "%d reads on the read connection, %.2f ms average, %.2f ms max including the wait in the queue", reads, readTime.get() / 1000000.0 / reads, maxReadTime.get() / 1000000.0));
+                }
+                if (writeBatchCount != 0) {
+                    FileLog.d("tmessages", String.format(Locale.US, "%d write batches, %d writes merged to %d, max batch %d, %.2f ms per batch", writeBatchCount, batchedWriteCount, appliedWriteCount, maxWriteBatch, writeBatchTime / 1000000.0 / writeBatchCount));
+                }
+                try {
+                    SQLiteCursor cursor = database.queryFinalized("SELECT COUNT(*), COUNT(DISTINCT mid) FROM messages_search");
+                    if (cursor.next()) {
+                        FileLog.d("tmessages", String.format(Locale.US, "search index %d words of %d messages, last search %d results in %.2f ms", cursor.intValue(0), cursor.intValue(1), lastSearchCount, lastSearchTime / 1000000.0));
+                    }
+                    cursor.dispose();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+                for (SQLiteDatabase.QueryStats query : stats) {
+                    FileLog.d("tmessages", String.format(Locale.US, "%d runs, %d prepares, %.2f ms total, %.3f ms per run: %s", query.count, query.prepareCount, query.time / 1000000.0, query.time / 1000000.0 / query.count, query.sql));
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes that are merged per table and key and committed together in one transaction. A
+     * batch is posted to the storage queue when its first write arrives and takes all the
+     * writes that come until anything else is posted to the queue, so batched writes keep
+     * their order with all other storage operations.
+     */
+    private class PendingWrites implements Runnable {
+        final HashMap<Integer, TLRPC.User> users = new HashMap<>();
+        final HashMap<Integer, TLRPC.Chat> chats = new HashMap<>();
+        final HashMap<Integer, ArrayList<TLRPC.User>> userUpdates = new HashMap<>();
+        final HashMap<Integer, TLRPC.User> userStatuses = new HashMap<>();
+        final HashMap<Long, Long> dialogFlags = new HashMap<>();
+        final HashMap<Integer, Integer> readDialogs = new HashMap<>();
+        final HashMap<Integer, Integer> readInbox = new HashMap<>();
+        final HashMap<Integer, Integer> readOutbox = new HashMap<>();
+        final HashMap<Integer, Integer> readEncrypted = new HashMap<>();
+        int count;
+
+        @Override
+        public void run() {
+            flushPendingWrites(this);
+        }
+    }
+
+    private static final int MAX_BATCH_WRITES = 500;
+
+    private final Object pendingWritesSync = new Object();
+    private PendingWrites pendingWrites;
+    private long writeBatchCount;
+    private long batchedWriteCount;
+    private long appliedWriteCount;
+    private int maxWriteBatch;
+    private long writeBatchTime;
+
+    private PendingWrites getPendingWrites() {
+        if (pendingWrites == null) {
+            pendingWrites = new PendingWrites();
+            storageQueue.postRunnable(pendingWrites);
+        }
+        return pendingWrites;
+    }
+
+    private void writeAdded(PendingWrites writes) {
+        writes.count++;
+        if (writes.count >= MAX_BATCH_WRITES) {
+            pendingWrites = null;
+        }
+    }
+
+    private static void putMax(HashMap<Integer, Integer> to, HashMap<Integer, Integer> from) {
+        if (from == null) {
+            return;
+        }
+        for (HashMap.Entry<Integer, Integer> entry : from.entrySet()) {
+            Integer value = to.get(entry.getKey());
+            if (value == null || value < entry.getValue()) {
+                to.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void flushPendingWrites(PendingWrites writes) {
+        synchronized (pendingWritesSync) {
+            if (pendingWrites == writes) {
+                pendingWrites = null;
+            }
+        }
+        if (database == null) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        int applied = writes.users.size() + writes.chats.size() + writes.userUpdates.size() + writes.userStatuses.size() + writes.dialogFlags.size() + writes.readDialogs.size() + writes.readInbox.size() + writes.readOutbox.size() + writes.readEncrypted.size();
+        boolean transaction = false;
+        try {
+            database.beginTransaction();
+            transaction = true;
+            putUsersInternal(new ArrayList<>(writes.users.values()));
+            putChatsInternal(new ArrayList<>(writes.chats.values()));
+            if (!writes.userUpdates.isEmpty()) {
+                ArrayList<TLRPC.User> updates = new ArrayList<>();
+                for (ArrayList<TLRPC.User> userUpdates : writes.userUpdates.values()) {
+                    updates.addAll(userUpdates);
+                }
+                updateUsersInternal(updates, false, false);
+            }
+            if (!writes.userStatuses.isEmpty()) {
+                updateUsersInternal(new ArrayList<>(writes.userStatuses.values()), true, false);
+            }
+            if (!writes.dialogFlags.isEmpty()) {
+                SQLitePreparedStatement state = database.executeFast("REPLACE INTO dialog_settings VALUES(?, ?)");
+                for (HashMap.Entry<Long, Long> entry : writes.dialogFlags.entrySet()) {
+                    state.requery();
+                    state.bindLong(1, entry.getKey());
+                    state.bindLong(2, entry.getValue());
+                    state.step();
+                }
+                state.dispose();
+            }
+            if (!writes.readDialogs.isEmpty()) {
+                updateDialogsWithReadedMessagesInternal(null, writes.readDialogs, true);
+            }
+            if (!writes.readInbox.isEmpty() || !writes.readOutbox.isEmpty() || !writes.readEncrypted.isEmpty()) {
+                markMessagesAsReadInternal(writes.readInbox, writes.readOutbox, writes.readEncrypted);
+            }
+            database.commitTransaction();
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+            if (transaction) {
+                database.rollbackTransaction();
+            }
+        }
+        writeBatchCount++;
+        batchedWriteCount += writes.count;
+        appliedWriteCount += applied;
+        maxWriteBatch = Math.max(maxWriteBatch, writes.count);
+        writeBatchTime += System.nanoTime() - startTime;
+    }
+
     public void openDatabase() {
         cacheFile = new File(ApplicationLoader.applicationContext.getFilesDir(), "cache4.db");
 
@@ -101,8 +301,13 @@ public class MessagesStorage {
         }
         try {
             database = new SQLiteDatabase(cacheFile.getPath());
+            database.setCacheThread(storageQueue);
+            database.setProfilingEnabled(BuildVars.DEBUG_VERSION);
             database.executeFast("PRAGMA secure_delete = ON").stepThis().dispose();
             database.executeFast("PRAGMA temp_store = 1").stepThis().dispose();
+            database.executeFast("PRAGMA journal_mode = WAL").stepThis().dispose();
+            database.executeFast("PRAGMA synchronous = NORMAL").stepThis().dispose();
+            database.executeFast("PRAGMA wal_autocheckpoint = " + walAutoCheckpoint).stepThis().dispose();
             if (createTable) {
                 database.executeFast("CREATE TABLE users(uid INTEGER PRIMARY KEY, name TEXT, status INTEGER, data BLOB)").stepThis().dispose();
                 database.executeFast("CREATE TABLE messages(mid INTEGER PRIMARY KEY, uid INTEGER, read_state INTEGER, send_state INTEGER, date INTEGER, data BLOB, out INTEGER, ttl INTEGER, media INTEGER, replydata BLOB)").stepThis().dispose();
@@ -163,8 +368,12 @@ public class MessagesStorage {
                 //kev-value
                 database.executeFast("CREATE TABLE keyvalue(id TEXT PRIMARY KEY, value TEXT)").stepThis().dispose();
 
+                //message search index, the bundled sqlite is built without fts
+                database.executeFast("CREATE TABLE messages_search(token TEXT, mid INTEGER, uid INTEGER, date INTEGER, PRIMARY KEY (token, mid)) WITHOUT ROWID").stepThis().dispose();
+                database.executeFast("CREATE INDEX IF NOT EXISTS mid_idx_messages_search ON messages_search(mid);").stepThis().dispose();
+
                 //version
-                database.executeFast("PRAGMA user_version = 14").stepThis().dispose();
+                database.executeFast("PRAGMA user_version = 15").stepThis().dispose();
             } else {
                 try {
                     SQLiteCursor cursor = database.queryFinalized("SELECT seq, pts, date, qts, lsv, sg, pbytes FROM params WHERE id = 1");
@@ -195,7 +404,7 @@ public class MessagesStorage {
                     }
                 }
                 int version = database.executeInt("PRAGMA user_version");
-                if (version < 14) {
+                if (version < 15) {
                     updateDbToLastVersion(version);
                 }
             }
@@ -203,6 +412,153 @@ public class MessagesStorage {
             FileLog.e("tmessages", e);
         }
         loadUnreadMessages();
+        indexMessagesForSearch();
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                openReadDatabase();
+            }
+        });
+    }
+
+    private void openReadDatabase() {
+        if (database == null) {
+            return;
+        }
+        final String path = cacheFile.getPath();
+        readQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase db = new SQLiteDatabase(path);
+                    db.setCacheThread(readQueue);
+                    db.setProfilingEnabled(BuildVars.DEBUG_VERSION);
+                    db.executeFast("PRAGMA query_only = 1").stepThis().dispose();
+                    db.executeFast("PRAGMA temp_store = 1").stepThis().dispose();
+                    readDatabase = db;
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+        });
+    }
+
+    private void closeReadDatabase() {
+        readQueue.cleanupQueue();
+        final Semaphore semaphore = new Semaphore(0);
+        readQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (readDatabase != null) {
+                    readDatabase.close();
+                    readDatabase = null;
+                }
+                semaphore.release();
+            }
+        });
+        try {
+            semaphore.acquire();
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
+    }
+
+    /**
+     * Run a read-only operation on the read connection, so it doesn't wait for the writes queued
+     * on the storage queue. The open write batch is closed, so it commits without waiting for
+     * more writes, but the read sees only what was committed when it starts. A read that has to
+     * see a queued write must be posted to the storage queue instead. Runs on the storage queue
+     * while the read connection is not open.
+     */
+    public void postReadRunnable(final Runnable runnable) {
+        final long startTime = System.nanoTime();
+        synchronized (pendingWritesSync) {
+            pendingWrites = null;
+        }
+        readQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (readDatabase == null) {
+                    storageQueue.postRunnable(runnable);
+                    return;
+                }
+                runnable.run();
+                long time = System.nanoTime() - startTime;
+                readCount.incrementAndGet();
+                readTime.addAndGet(time);
+                long max;
+                do {
+                    max = maxReadTime.get();
+                } while (time > max && !maxReadTime.compareAndSet(max, time));
+            }
+        });
+    }
+
+    private SQLiteDatabase getCurrentDatabase() {
+        return Thread.currentThread() == readQueue ? readDatabase : database;
+    }
+
+    private BuffersStorage getCurrentBuffersStorage() {
+        return Thread.currentThread() == readQueue ? readBuffersStorage : buffersStorage;
+    }
+
+    /**
+     * Number of WAL pages after which the log is copied back to the database
+     */
+    public void setWalAutoCheckpoint(final int pages) {
+        walAutoCheckpoint = pages;
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (database != null) {
+                        database.executeFast("PRAGMA wal_autocheckpoint = " + pages).stepThis().dispose();
+                    }
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copy the whole WAL back to the database and truncate it, used when the app goes to background
+     */
+    public void checkpointDatabase() {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (database != null) {
+                        database.executeFast("PRAGMA wal_checkpoint(TRUNCATE)").stepThis().dispose();
+                    }
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+        });
+    }
+
+    public void openTemplatesDatabase() {
+        File templatesFile = new File(ApplicationLoader.applicationContext.getFilesDir(), "templates.db");
+        try {
+            templatesDatabase = new SQLiteDatabase(templatesFile.getPath());
+            templatesDatabase.executeFast("PRAGMA temp_store = 1").stepThis().dispose();
+            int version = templatesDatabase.executeInt("PRAGMA user_version");
+            if (version < 1) {
+                templatesDatabase.executeFast("CREATE TABLE IF NOT EXISTS templates(key TEXT, value TEXT, question TEXT, source INTEGER, lang TEXT, hash INTEGER, PRIMARY KEY (key, source))").stepThis().dispose();
+                templatesDatabase.executeFast("CREATE INDEX IF NOT EXISTS question_idx_templates ON templates(question);").stepThis().dispose();
+                //search index, the bundled sqlite is built without fts
+                templatesDatabase.executeFast("CREATE TABLE IF NOT EXISTS templates_tokens(token TEXT, key TEXT, source INTEGER, PRIMARY KEY (token, key, source))").stepThis().dispose();
+                templatesDatabase.executeFast("CREATE INDEX IF NOT EXISTS key_source_idx_templates_tokens ON templates_tokens(key, source);").stepThis().dispose();
+                templatesDatabase.executeFast("PRAGMA user_version = 2").stepThis().dispose();
+            } else if (version == 1) {
+                templatesDatabase.executeFast("ALTER TABLE templates ADD COLUMN hash INTEGER default 0").stepThis().dispose();
+                templatesDatabase.executeFast("PRAGMA user_version = 2").stepThis().dispose();
+            }
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
     }
 
     public void updateDbToLastVersion(final int currentVersion) {
@@ -375,6 +731,12 @@ public class MessagesStorage {
                         database.executeFast("PRAGMA user_version = 14").stepThis().dispose();
                         version = 14;
                     }
+                    if (version == 14) {
+                        database.executeFast("CREATE TABLE IF NOT EXISTS messages_search(token TEXT, mid INTEGER, uid INTEGER, date INTEGER, PRIMARY KEY (token, mid)) WITHOUT ROWID").stepThis().dispose();
+                        database.executeFast("CREATE INDEX IF NOT EXISTS mid_idx_messages_search ON messages_search(mid);").stepThis().dispose();
+                        database.executeFast("PRAGMA user_version = 15").stepThis().dispose();
+                        version = 15;
+                    }
                 } catch (Exception e) {
                     FileLog.e("tmessages", e);
                 }
@@ -400,12 +762,17 @@ public class MessagesStorage {
 
                 secretPBytes = null;
                 secretG = 0;
+                dialogsLoadOffset = 0;
+                DialogsSearchIndex.getInstance().clear();
+                closeReadDatabase();
                 if (database != null) {
                     database.close();
                     database = null;
                 }
                 if (cacheFile != null) {
                     cacheFile.delete();
+                    new File(cacheFile.getPath() + "-wal").delete();
+                    new File(cacheFile.getPath() + "-shm").delete();
                     cacheFile = null;
                 }
                 openDatabase();
@@ -478,16 +845,11 @@ public class MessagesStorage {
     }
 
     public void setDialogFlags(final long did, final long flags) {
-        storageQueue.postRunnable(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    database.executeFast(String.format(Locale.US, "REPLACE INTO dialog_settings VALUES(%d, %d)", did, flags)).stepThis().dispose();
-                } catch (Exception e) {
-                    FileLog.e("tmessages", e);
-                }
-            }
-        });
+        synchronized (pendingWritesSync) {
+            PendingWrites writes = getPendingWrites();
+            writes.dialogFlags.put(did, flags);
+            writeAdded(writes);
+        }
     }
 
     public void loadUnreadMessages() {
@@ -837,6 +1199,7 @@ public class MessagesStorage {
             public void run() {
                 try {
                     if (!messagesOnly) {
+                        DialogsSearchIndex.getInstance().removeDialog(did);
                         database.executeFast("DELETE FROM dialogs WHERE did = " + did).stepThis().dispose();
                         database.executeFast("DELETE FROM chat_settings WHERE uid = " + did).stepThis().dispose();
                         int lower_id = (int)did;
@@ -906,6 +1269,7 @@ public class MessagesStorage {
                     }
 
                     database.executeFast("UPDATE dialogs SET unread_count = 0 WHERE did = " + did).stepThis().dispose();
+                    database.executeFast("DELETE FROM messages_search WHERE mid IN(SELECT mid FROM messages WHERE uid = " + did + ")").stepThis().dispose();
                     database.executeFast("DELETE FROM messages WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM media_counts_v2 WHERE uid = " + did).stepThis().dispose();
                     database.executeFast("DELETE FROM media_v2 WHERE uid = " + did).stepThis().dispose();
@@ -1099,7 +1463,11 @@ public class MessagesStorage {
         });
     }
 
-    private void updateDialogsWithReadedMessagesInternal(final ArrayList<Integer> messages, final HashMap<Integer, Integer> inbox) {
+    /**
+     * @param inTransaction Whether the caller runs this inside its own transaction
+     */
+    private void updateDialogsWithReadedMessagesInternal(final ArrayList<Integer> messages, final HashMap<Integer, Integer> inbox, boolean inTransaction) {
+        boolean transaction = false;
         try {
             HashMap<Long, Integer> dialogsToUpdate = new HashMap<>();
             StringBuilder dialogsToReload = new StringBuilder();
@@ -1161,7 +1529,10 @@ public class MessagesStorage {
                 }
                 cursor.dispose();
 
-                database.beginTransaction();
+                if (!inTransaction) {
+                    database.beginTransaction();
+                    transaction = true;
+                }
                 SQLitePreparedStatement state = database.executeFast("UPDATE dialogs SET unread_count = ? WHERE did = ?");
                 for (HashMap.Entry<Long, Integer> entry : dialogsToUpdate.entrySet()) {
                     state.requery();
@@ -1170,7 +1541,10 @@ public class MessagesStorage {
                     state.step();
                 }
                 state.dispose();
-                database.commitTransaction();
+                if (transaction) {
+                    transaction = false;
+                    database.commitTransaction();
+                }
             }
 
             if (!dialogsToUpdate.isEmpty()) {
@@ -1178,6 +1552,9 @@ public class MessagesStorage {
             }
         } catch (Exception e) {
             FileLog.e("tmessages", e);
+            if (transaction) {
+                database.rollbackTransaction();
+            }
         }
     }
 
@@ -1186,14 +1563,13 @@ public class MessagesStorage {
             return;
         }
         if (useQueue) {
-            storageQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    updateDialogsWithReadedMessagesInternal(null, inbox);
-                }
-            });
+            synchronized (pendingWritesSync) {
+                PendingWrites writes = getPendingWrites();
+                putMax(writes.readDialogs, inbox);
+                writeAdded(writes);
+            }
         } else {
-            updateDialogsWithReadedMessagesInternal(null, inbox);
+            updateDialogsWithReadedMessagesInternal(null, inbox, false);
         }
     }
 
@@ -1410,14 +1786,17 @@ public class MessagesStorage {
                     }
                     database.beginTransaction();
                     SQLitePreparedStatement state = database.executeFast("REPLACE INTO contacts VALUES(?, ?)");
+                    ArrayList<Integer> uids = new ArrayList<>(contacts.size());
                     for (TLRPC.TL_contact contact : contacts) {
                         state.requery();
                         state.bindInteger(1, contact.user_id);
                         state.bindInteger(2, contact.mutual ? 1 : 0);
                         state.step();
+                        uids.add(contact.user_id);
                     }
                     state.dispose();
                     database.commitTransaction();
+                    DialogsSearchIndex.getInstance().putContacts(uids, deleteAll);
                 } catch (Exception e) {
                     FileLog.e("tmessages", e);
                 }
@@ -1435,6 +1814,7 @@ public class MessagesStorage {
                 try {
                     String ids = TextUtils.join(",", uids);
                     database.executeFast("DELETE FROM contacts WHERE uid IN(" + ids + ")").stepThis().dispose();
+                    DialogsSearchIndex.getInstance().removeContacts(uids);
                 } catch (Exception e) {
                     FileLog.e("tmessages", e);
                 }
@@ -1705,9 +2085,11 @@ public class MessagesStorage {
     }*/
 
     public void getMessages(final long dialog_id, final int count, final int max_id, final int minDate, final int classGuid, final int load_type) {
-        storageQueue.postRunnable(new Runnable() {
+        postReadRunnable(new Runnable() {
             @Override
             public void run() {
+                SQLiteDatabase database = getCurrentDatabase();
+                BuffersStorage buffersStorage = getCurrentBuffersStorage();
                 TLRPC.TL_messages_messages res = new TLRPC.TL_messages_messages();
                 int count_unread = 0;
                 int count_query = count;
@@ -1729,7 +2111,7 @@ public class MessagesStorage {
 
                     if (lower_id != 0) {
                         if (load_type == 3) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid), min(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
+                            cursor = database.queryCached("SELECT max(mid), min(mid) FROM messages WHERE uid = ? AND mid > 0", dialog_id);
                             if (cursor.next()) {
                                 last_message_id = cursor.intValue(0);
                                 first_message_id = cursor.intValue(1);
@@ -1737,42 +2119,42 @@ public class MessagesStorage {
                             cursor.dispose();
 
                             boolean containMessage = false;
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT mid FROM messages WHERE mid = %d", max_id));
+                            cursor = database.queryCached("SELECT mid FROM messages WHERE mid = ?", max_id);
                             if (cursor.next()) {
                                 containMessage = true;
                             }
                             cursor.dispose();
 
                             if (containMessage) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid <= %d ORDER BY m.date DESC, m.mid DESC LIMIT %d) UNION " +
-                                        "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d ORDER BY m.date ASC, m.mid ASC LIMIT %d)", dialog_id, max_id, count_query / 2, dialog_id, max_id, count_query / 2 - 1));
+                                cursor = database.queryCached("SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? AND m.mid <= ? ORDER BY m.date DESC, m.mid DESC LIMIT ?) UNION " +
+                                        "SELECT * FROM (SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? AND m.mid > ? ORDER BY m.date ASC, m.mid ASC LIMIT ?)", dialog_id, max_id, count_query / 2, dialog_id, max_id, count_query / 2 - 1);
                             } else {
                                 cursor = null;
                             }
                         } else if (load_type == 1) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date >= %d AND m.mid > %d ORDER BY m.date ASC, m.mid ASC LIMIT %d", dialog_id, minDate, max_id, count_query));
+                            cursor = database.queryCached("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? AND m.date >= ? AND m.mid > ? ORDER BY m.date ASC, m.mid ASC LIMIT ?", dialog_id, minDate, max_id, count_query);
                         } else if (minDate != 0) {
                             if (max_id != 0) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d AND m.mid < %d ORDER BY m.date DESC, m.mid DESC LIMIT %d", dialog_id, minDate, max_id, count_query));
+                                cursor = database.queryCached("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? AND m.date <= ? AND m.mid < ? ORDER BY m.date DESC, m.mid DESC LIMIT ?", dialog_id, minDate, max_id, count_query);
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
+                                cursor = database.queryCached("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? AND m.date <= ? ORDER BY m.date DESC, m.mid DESC LIMIT ?,?", dialog_id, minDate, offset_query, count_query);
                             }
                         } else {
                             if (load_type == 2) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid) FROM messages WHERE uid = %d AND mid > 0", dialog_id));
+                                cursor = database.queryCached("SELECT max(mid) FROM messages WHERE uid = ? AND mid > 0", dialog_id);
                                 if (cursor.next()) {
                                     last_message_id = cursor.intValue(0);
                                 }
                                 cursor.dispose();
 
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state = 0 AND mid > 0", dialog_id));
+                                cursor = database.queryCached("SELECT min(mid), max(date) FROM messages WHERE uid = ? AND out = 0 AND read_state = 0 AND mid > 0", dialog_id);
                                 if (cursor.next()) {
                                     min_unread_id = cursor.intValue(0);
                                     max_unread_date = cursor.intValue(1);
                                 }
                                 cursor.dispose();
                                 if (min_unread_id != 0) {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid >= %d AND out = 0 AND read_state = 0", dialog_id, min_unread_id));
+                                    cursor = database.queryCached("SELECT COUNT(*) FROM messages WHERE uid = ? AND mid >= ? AND out = 0 AND read_state = 0", dialog_id, min_unread_id);
                                     if (cursor.next()) {
                                         count_unread = cursor.intValue(0);
                                     }
@@ -1791,33 +2173,33 @@ public class MessagesStorage {
                                 offset_query = count_unread - count_query;
                                 count_query += 10;
                             }
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d ORDER BY m.date DESC, m.mid DESC LIMIT %d,%d", dialog_id, offset_query, count_query));
+                            cursor = database.queryCached("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? ORDER BY m.date DESC, m.mid DESC LIMIT ?,?", dialog_id, offset_query, count_query);
                         }
                     } else {
                         if (load_type == 1) {
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid < %d ORDER BY m.mid DESC LIMIT %d", dialog_id, max_id, count_query));
+                            cursor = database.queryCached("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? AND m.mid < ? ORDER BY m.mid DESC LIMIT ?", dialog_id, max_id, count_query);
                         } else if (minDate != 0) {
                             if (max_id != 0) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.mid > %d ORDER BY m.mid ASC LIMIT %d", dialog_id, max_id, count_query));
+                                cursor = database.queryCached("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? AND m.mid > ? ORDER BY m.mid ASC LIMIT ?", dialog_id, max_id, count_query);
                             } else {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d AND m.date <= %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, minDate, offset_query, count_query));
+                                cursor = database.queryCached("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? AND m.date <= ? ORDER BY m.mid ASC LIMIT ?,?", dialog_id, minDate, offset_query, count_query);
                             }
                         } else {
                             if (load_type == 2) {
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT min(mid) FROM messages WHERE uid = %d AND mid < 0", dialog_id));
+                                cursor = database.queryCached("SELECT min(mid) FROM messages WHERE uid = ? AND mid < 0", dialog_id);
                                 if (cursor.next()) {
                                     last_message_id = cursor.intValue(0);
                                 }
                                 cursor.dispose();
 
-                                cursor = database.queryFinalized(String.format(Locale.US, "SELECT max(mid), max(date) FROM messages WHERE uid = %d AND out = 0 AND read_state = 0 AND mid < 0", dialog_id));
+                                cursor = database.queryCached("SELECT max(mid), max(date) FROM messages WHERE uid = ? AND out = 0 AND read_state = 0 AND mid < 0", dialog_id);
                                 if (cursor.next()) {
                                     min_unread_id = cursor.intValue(0);
                                     max_unread_date = cursor.intValue(1);
                                 }
                                 cursor.dispose();
                                 if (min_unread_id != 0) {
-                                    cursor = database.queryFinalized(String.format(Locale.US, "SELECT COUNT(*) FROM messages WHERE uid = %d AND mid <= %d AND out = 0 AND read_state = 0", dialog_id, min_unread_id));
+                                    cursor = database.queryCached("SELECT COUNT(*) FROM messages WHERE uid = ? AND mid <= ? AND out = 0 AND read_state = 0", dialog_id, min_unread_id);
                                     if (cursor.next()) {
                                         count_unread = cursor.intValue(0);
                                     }
@@ -1836,7 +2218,7 @@ public class MessagesStorage {
                                 offset_query = count_unread - count_query;
                                 count_query += 10;
                             }
-                            cursor = database.queryFinalized(String.format(Locale.US, "SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = %d ORDER BY m.mid ASC LIMIT %d,%d", dialog_id, offset_query, count_query));
+                            cursor = database.queryCached("SELECT m.read_state, m.data, m.send_state, m.mid, m.date, r.random_id, m.replydata FROM messages as m LEFT JOIN randoms as r ON r.mid = m.mid WHERE m.uid = ? ORDER BY m.mid ASC LIMIT ?,?", dialog_id, offset_query, count_query);
                         }
                     }
                     if (cursor != null) {
@@ -1908,7 +2290,7 @@ public class MessagesStorage {
                                 }
                                 if ((int) dialog_id == 0 && message.media != null && message.media.photo != null) {
                                     try {
-                                        SQLiteCursor cursor2 = database.queryFinalized(String.format(Locale.US, "SELECT date FROM enc_tasks_v2 WHERE mid = %d", message.id));
+                                        SQLiteCursor cursor2 = database.queryCached("SELECT date FROM enc_tasks_v2 WHERE mid = ?", message.id);
                                         if (cursor2.next()) {
                                             message.destroyTime = cursor2.intValue(0);
                                         }
@@ -2203,6 +2585,7 @@ public class MessagesStorage {
                         System.arraycopy(sha1, 0, chat.key_hash, 0, chat.key_hash.length);
                     }
 
+                    DialogsSearchIndex.getInstance().putEncryptedChat(chat, null);
                     state = database.executeFast("UPDATE enc_chats SET data = ?, g = ?, authkey = ?, ttl = ?, layer = ?, seq_in = ?, seq_out = ?, use_count = ?, exchange_id = ?, key_date = ?, fprint = ?, fauthkey = ?, khash = ? WHERE uid = ?");
                     ByteBufferDesc data = buffersStorage.getFreeBuffer(chat.getObjectSize());
                     ByteBufferDesc data2 = buffersStorage.getFreeBuffer(chat.a_or_b != null ? chat.a_or_b.length : 1);
@@ -2340,6 +2723,7 @@ public class MessagesStorage {
                     buffersStorage.reuseFreeBuffer(data4);
                     buffersStorage.reuseFreeBuffer(data5);
 
+                    DialogsSearchIndex.getInstance().putEncryptedChat(chat, user);
                     if (dialog != null) {
                         state = database.executeFast("REPLACE INTO dialogs(did, date, unread_count, last_mid) VALUES(?, ?, ?, ?)");
                         state.bindLong(1, dialog.id);
@@ -2348,6 +2732,7 @@ public class MessagesStorage {
                         state.bindInteger(4, dialog.top_message);
                         state.step();
                         state.dispose();
+                        DialogsSearchIndex.getInstance().putDialog(dialog.id, dialog.last_message_date);
                     }
                 } catch (Exception e) {
                     FileLog.e("tmessages", e);
@@ -2402,6 +2787,7 @@ public class MessagesStorage {
             buffersStorage.reuseFreeBuffer(data);
         }
         state.dispose();
+        DialogsSearchIndex.getInstance().putUsers(users);
     }
 
     private void putChatsInternal(ArrayList<TLRPC.Chat> chats) throws Exception {
@@ -2425,13 +2811,16 @@ public class MessagesStorage {
             buffersStorage.reuseFreeBuffer(data);
         }
         state.dispose();
+        DialogsSearchIndex.getInstance().putChats(chats);
     }
 
     public void getUsersInternal(String usersToLoad, ArrayList<TLRPC.User> result) throws Exception {
         if (usersToLoad == null || usersToLoad.length() == 0 || result == null) {
             return;
         }
-        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, status FROM users WHERE uid IN(%s)", usersToLoad));
+        SQLiteDatabase db = getCurrentDatabase();
+        BuffersStorage buffersStorage = getCurrentBuffersStorage();
+        SQLiteCursor cursor = db.queryFinalized(String.format(Locale.US, "SELECT data, status FROM users WHERE uid IN(%s)", usersToLoad));
         while (cursor.next()) {
             try {
                 ByteBufferDesc data = buffersStorage.getFreeBuffer(cursor.byteArrayLength(0));
@@ -2456,7 +2845,9 @@ public class MessagesStorage {
         if (chatsToLoad == null || chatsToLoad.length() == 0 || result == null) {
             return;
         }
-        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data FROM chats WHERE uid IN(%s)", chatsToLoad));
+        SQLiteDatabase db = getCurrentDatabase();
+        BuffersStorage buffersStorage = getCurrentBuffersStorage();
+        SQLiteCursor cursor = db.queryFinalized(String.format(Locale.US, "SELECT data FROM chats WHERE uid IN(%s)", chatsToLoad));
         while (cursor.next()) {
             try {
                 ByteBufferDesc data = buffersStorage.getFreeBuffer(cursor.byteArrayLength(0));
@@ -2479,7 +2870,9 @@ public class MessagesStorage {
             return;
         }
         //use_count INTEGER, exchange_id INTEGER, key_date INTEGER, fprint INTEGER, fauthkey BLOB
-        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT data, user, g, authkey, ttl, layer, seq_in, seq_out, use_count, exchange_id, key_date, fprint, fauthkey, khash FROM enc_chats WHERE uid IN(%s)", chatsToLoad));
+        SQLiteDatabase db = getCurrentDatabase();
+        BuffersStorage buffersStorage = getCurrentBuffersStorage();
+        SQLiteCursor cursor = db.queryFinalized(String.format(Locale.US, "SELECT data, user, g, authkey, ttl, layer, seq_in, seq_out, use_count, exchange_id, key_date, fprint, fauthkey, khash FROM enc_chats WHERE uid IN(%s)", chatsToLoad));
         while (cursor.next()) {
             try {
                 ByteBufferDesc data = buffersStorage.getFreeBuffer(cursor.byteArrayLength(0));
@@ -2535,12 +2928,22 @@ public class MessagesStorage {
             return;
         }
         if (useQueue) {
-            storageQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    putUsersAndChatsInternal(users, chats, withTransaction);
+            synchronized (pendingWritesSync) {
+                PendingWrites writes = getPendingWrites();
+                if (users != null) {
+                    for (TLRPC.User user : users) {
+                        writes.users.put(user.id, user);
+                        writes.userUpdates.remove(user.id);
+                        writes.userStatuses.remove(user.id);
+                    }
                 }
-            });
+                if (chats != null) {
+                    for (TLRPC.Chat chat : chats) {
+                        writes.chats.put(chat.id, chat);
+                    }
+                }
+                writeAdded(writes);
+            }
         } else {
             putUsersAndChatsInternal(users, chats, withTransaction);
         }
@@ -2646,10 +3049,11 @@ public class MessagesStorage {
             HashMap<Integer, Long> messagesMediaIdsMap = new HashMap<>();
             StringBuilder messageIds = new StringBuilder();
             StringBuilder messageMediaIds = new StringBuilder();
-            SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL)");
-            SQLitePreparedStatement state2 = database.executeFast("REPLACE INTO media_v2 VALUES(?, ?, ?, ?, ?)");
-            SQLitePreparedStatement state3 = database.executeFast("REPLACE INTO randoms VALUES(?, ?)");
-            SQLitePreparedStatement state4 = database.executeFast("REPLACE INTO download_queue VALUES(?, ?, ?, ?)");
+            SQLitePreparedStatement state = database.executeCached("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL)");
+            SQLitePreparedStatement state2 = database.executeCached("REPLACE INTO media_v2 VALUES(?, ?, ?, ?, ?)");
+            SQLitePreparedStatement state3 = database.executeCached("REPLACE INTO randoms VALUES(?, ?)");
+            SQLitePreparedStatement state4 = database.executeCached("REPLACE INTO download_queue VALUES(?, ?, ?, ?)");
+            SQLitePreparedStatement state5 = database.executeCached("REPLACE INTO messages_search VALUES(?, ?, ?, ?)");
 
             for (TLRPC.Message message : messages) {
                 long dialog_id = message.dialog_id;
@@ -2767,6 +3171,8 @@ public class MessagesStorage {
                 state.bindInteger(9, getMessageMediaType(message));
                 state.step();
 
+                putMessageSearchTokens(state5, message, messageId, dialog_id);
+
                 if (message.random_id != 0) {
                     state3.requery();
                     state3.bindLong(1, message.random_id);
@@ -2837,14 +3243,15 @@ public class MessagesStorage {
             state2.dispose();
             state3.dispose();
             state4.dispose();
+            state5.dispose();
 
-            state = database.executeFast("REPLACE INTO dialogs(did, date, unread_count, last_mid) VALUES(?, ?, ?, ?)");
+            state = database.executeCached("REPLACE INTO dialogs(did, date, unread_count, last_mid) VALUES(?, ?, ?, ?)");
             for (HashMap.Entry<Long, TLRPC.Message> pair : messagesMap.entrySet()) {
                 Long key = pair.getKey();
 
                 int dialog_date = 0;
                 int old_unread_count = 0;
-                SQLiteCursor cursor = database.queryFinalized("SELECT date, unread_count FROM dialogs WHERE did = " + key);
+                SQLiteCursor cursor = database.queryCached("SELECT date, unread_count FROM dialogs WHERE did = ?", key);
                 if (cursor.next()) {
                     dialog_date = cursor.intValue(0);
                     old_unread_count = cursor.intValue(1);
@@ -2866,8 +3273,10 @@ public class MessagesStorage {
                 state.bindLong(1, key);
                 if (!isBroadcast) {
                     state.bindInteger(2, value.date);
+                    DialogsSearchIndex.getInstance().putDialog(key, value.date);
                 } else {
                     state.bindInteger(2, dialog_date != 0 ? dialog_date : value.date);
+                    DialogsSearchIndex.getInstance().putDialog(key, dialog_date != 0 ? dialog_date : value.date);
                 }
                 state.bindInteger(3, old_unread_count + unread_count);
                 state.bindInteger(4, messageId);
@@ -2876,14 +3285,14 @@ public class MessagesStorage {
             state.dispose();
 
             if (!mediaCounts.isEmpty()) {
-                state = database.executeFast("REPLACE INTO media_counts_v2 VALUES(?, ?, ?)");
+                state = database.executeCached("REPLACE INTO media_counts_v2 VALUES(?, ?, ?)");
                 for (HashMap.Entry<Integer, HashMap<Long, Integer>> counts : mediaCounts.entrySet()) {
                     Integer type = counts.getKey();
                     for (HashMap.Entry<Long, Integer> pair : counts.getValue().entrySet()) {
                         long uid = pair.getKey();
                         int lower_part = (int) uid;
                         int count = -1;
-                        SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT count FROM media_counts_v2 WHERE uid = %d AND type = %d LIMIT 1", uid, type));
+                        SQLiteCursor cursor = database.queryCached("SELECT count FROM media_counts_v2 WHERE uid = ? AND type = ? LIMIT 1", uid, type);
                         if (cursor.next()) {
                             count = cursor.intValue(0);
                         }
@@ -3076,6 +3485,26 @@ public class MessagesStorage {
                 try {
                     database.executeFast(String.format(Locale.US, "DELETE FROM messages WHERE mid = %d", oldId)).stepThis().dispose();
                     database.executeFast(String.format(Locale.US, "DELETE FROM messages_seq WHERE mid = %d", oldId)).stepThis().dispose();
+                    database.executeFast(String.format(Locale.US, "DELETE FROM messages_search WHERE mid = %d", oldId)).stepThis().dispose();
+                } catch (Exception e2) {
+                    FileLog.e("tmessages", e2);
+                }
+                FileLog.e("tmessages", e);
+            } finally {
+                if (state != null) {
+                    state.dispose();
+                    state = null;
+                }
+            }
+
+            try {
+                state = database.executeFast("UPDATE messages_search SET mid = ? WHERE mid = ?");
+                state.bindInteger(1, newId);
+                state.bindInteger(2, oldId);
+                state.step();
+            } catch (Exception e) {
+                try {
+                    database.executeFast(String.format(Locale.US, "DELETE FROM messages_search WHERE mid = %d", oldId)).stepThis().dispose();
                 } catch (Exception e2) {
                     FileLog.e("tmessages", e2);
                 }
@@ -3164,19 +3593,27 @@ public class MessagesStorage {
                 }
             } else {
                 StringBuilder ids = new StringBuilder();
-                HashMap<Integer, TLRPC.User> usersDict = new HashMap<>();
+                HashMap<Integer, ArrayList<TLRPC.User>> usersDict = new HashMap<>();
                 for (TLRPC.User user : users) {
-                    if (ids.length() != 0) {
-                        ids.append(",");
+                    ArrayList<TLRPC.User> updates = usersDict.get(user.id);
+                    if (updates == null) {
+                        updates = new ArrayList<>(1);
+                        usersDict.put(user.id, updates);
+                        if (ids.length() != 0) {
+                            ids.append(",");
+                        }
+                        ids.append(user.id);
                     }
-                    ids.append(user.id);
-                    usersDict.put(user.id, user);
+                    updates.add(user);
                 }
                 ArrayList<TLRPC.User> loadedUsers = new ArrayList<>();
                 getUsersInternal(ids.toString(), loadedUsers);
                 for (TLRPC.User user : loadedUsers) {
-                    TLRPC.User updateUser = usersDict.get(user.id);
-                    if (updateUser != null) {
+                    ArrayList<TLRPC.User> updates = usersDict.get(user.id);
+                    if (updates == null) {
+                        continue;
+                    }
+                    for (TLRPC.User updateUser : updates) {
                         if (updateUser.first_name != null && updateUser.last_name != null) {
                             user.first_name = updateUser.first_name;
                             user.last_name = updateUser.last_name;
@@ -3209,12 +3646,22 @@ public class MessagesStorage {
             return;
         }
         if (useQueue) {
-            storageQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    updateUsersInternal(users, onlyStatus, withTransaction);
+            synchronized (pendingWritesSync) {
+                PendingWrites writes = getPendingWrites();
+                for (TLRPC.User user : users) {
+                    if (onlyStatus) {
+                        writes.userStatuses.put(user.id, user);
+                    } else {
+                        ArrayList<TLRPC.User> userUpdates = writes.userUpdates.get(user.id);
+                        if (userUpdates == null) {
+                            userUpdates = new ArrayList<>(1);
+                            writes.userUpdates.put(user.id, userUpdates);
+                        }
+                        userUpdates.add(user);
+                    }
                 }
-            });
+                writeAdded(writes);
+            }
         } else {
             updateUsersInternal(users, onlyStatus, withTransaction);
         }
@@ -3254,12 +3701,13 @@ public class MessagesStorage {
 
     public void markMessagesAsRead(final HashMap<Integer, Integer> inbox, final HashMap<Integer, Integer> outbox, final HashMap<Integer, Integer> encryptedMessages, boolean useQueue) {
         if (useQueue) {
-            storageQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    markMessagesAsReadInternal(inbox, outbox, encryptedMessages);
-                }
-            });
+            synchronized (pendingWritesSync) {
+                PendingWrites writes = getPendingWrites();
+                putMax(writes.readInbox, inbox);
+                putMax(writes.readOutbox, outbox);
+                putMax(writes.readEncrypted, encryptedMessages);
+                writeAdded(writes);
+            }
         } else {
             markMessagesAsReadInternal(inbox, outbox, encryptedMessages);
         }
@@ -3284,16 +3732,11 @@ public class MessagesStorage {
                         AndroidUtilities.runOnUIThread(new Runnable() {
                             @Override
                             public void run() {
-                                for (Integer id : mids) {
-                                    MessageObject obj = MessagesController.getInstance().dialogMessage.get(id);
-                                    if (obj != null) {
-                                        obj.deleted = true;
-                                    }
-                                }
+                                MessagesController.getInstance().markDialogMessagesDeleted(mids);
                                 NotificationCenter.getInstance().postNotificationName(NotificationCenter.messagesDeleted, mids);
                             }
                         });
-                        MessagesStorage.getInstance().updateDialogsWithReadedMessagesInternal(mids, null);
+                        MessagesStorage.getInstance().updateDialogsWithReadedMessagesInternal(mids, null, false);
                         MessagesStorage.getInstance().markMessagesAsDeletedInternal(mids);
                         MessagesStorage.getInstance().updateDialogsWithDeletedMessagesInternal(mids);
                     }
@@ -3361,6 +3804,7 @@ public class MessagesStorage {
             cursor.dispose();
             FileLoader.getInstance().deleteFiles(filesToDelete);
             database.executeFast(String.format(Locale.US, "DELETE FROM messages WHERE mid IN(%s)", ids)).stepThis().dispose();
+            database.executeFast(String.format(Locale.US, "DELETE FROM messages_search WHERE mid IN(%s)", ids)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "DELETE FROM messages_seq WHERE mid IN(%s)", ids)).stepThis().dispose();
             database.executeFast(String.format(Locale.US, "DELETE FROM media_v2 WHERE mid IN(%s)", ids)).stepThis().dispose();
             database.executeFast("DELETE FROM media_counts_v2 WHERE 1").stepThis().dispose();
@@ -3515,45 +3959,310 @@ public class MessagesStorage {
         }
     }
 
-    private void fixUnsupportedMedia(TLRPC.Message message) {
-        if (message != null && message.media instanceof TLRPC.TL_messageMediaUnsupported && message.media.bytes != null) {
-            if (message.media.bytes.length == 0) {
-                message.media.bytes = new byte[1];
-                message.media.bytes[0] = TLRPC.LAYER;
-            }
+    private void putMessageSearchTokens(SQLitePreparedStatement state, TLRPC.Message message, int messageId, long dialog_id) throws Exception {
+        if ((int) dialog_id == 0) {
+            return;
         }
-    }
-
-    public void putMessages(final TLRPC.messages_Messages messages, final long dialog_id) {
-        if (messages.messages.isEmpty()) {
+        SQLitePreparedStatement deleteState = database.executeCached("DELETE FROM messages_search WHERE mid = ?");
+        deleteState.requery();
+        deleteState.bindInteger(1, messageId);
+        deleteState.step();
+        deleteState.dispose();
+        if (message.message == null || message.message.length() == 0) {
             return;
         }
+        ArrayList<String> tokens = getSearchTokens(message.message);
+        for (int a = 0, count = Math.min(tokens.size(), SEARCH_MAX_TOKENS_PER_MESSAGE); a < count; a++) {
+            state.requery();
+            state.bindString(1, tokens.get(a));
+            state.bindInteger(2, messageId);
+            state.bindLong(3, dialog_id);
+            state.bindInteger(4, message.date);
+            state.step();
+        }
+    }
+
+    /**
+     * Add the messages stored before the search index existed to it, a batch at a time, newest
+     * first, so the storage queue stays responsive. Progress is kept in keyvalue.
+     */
+    private void indexMessagesForSearch() {
         storageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
+                if (database == null) {
+                    return;
+                }
                 try {
-                    database.beginTransaction();
-                    if (!messages.messages.isEmpty()) {
-                        SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL)");
-                        SQLitePreparedStatement state2 = database.executeFast("REPLACE INTO media_v2 VALUES(?, ?, ?, ?, ?)");
-                        for (TLRPC.Message message : messages.messages) {
-                            fixUnsupportedMedia(message);
-                            state.requery();
-                            ByteBufferDesc data = buffersStorage.getFreeBuffer(message.getObjectSize());
-                            message.serializeToStream(data);
-                            state.bindInteger(1, message.id);
-                            state.bindLong(2, dialog_id);
-                            state.bindInteger(3, (MessageObject.isUnread(message) ? 0 : 1));
-                            state.bindInteger(4, message.send_state);
-                            state.bindInteger(5, message.date);
-                            state.bindByteBuffer(6, data.buffer);
-                            state.bindInteger(7, (MessageObject.isOut(message) ? 1 : 0));
-                            state.bindInteger(8, 0);
-                            state.bindInteger(9, 0);
-                            state.step();
+                    int maxId = Integer.MAX_VALUE;
+                    SQLiteCursor cursor = database.queryFinalized("SELECT value FROM keyvalue WHERE id = 'search_index_mid'");
+                    if (cursor.next()) {
+                        maxId = Utilities.parseInt(cursor.stringValue(0));
+                    }
+                    cursor.dispose();
+                    if (maxId <= 0) {
+                        return;
+                    }
 
-                            if (SharedMediaQuery.canAddMessageToMedia(message)) {
-                                state2.requery();
+                    int count = 0;
+                    int lastId = 0;
+                    database.beginTransaction();
+                    SQLitePreparedStatement state = database.executeCached("REPLACE INTO messages_search VALUES(?, ?, ?, ?)");
+                    cursor = database.queryCached("SELECT mid, uid, data FROM messages WHERE mid > 0 AND mid < ? ORDER BY mid DESC LIMIT ?", maxId, SEARCH_INDEX_BATCH);
+                    while (cursor.next()) {
+                        count++;
+                        lastId = cursor.intValue(0);
+                        ByteBufferDesc data = buffersStorage.getFreeBuffer(cursor.byteArrayLength(2));
+                        if (data != null && cursor.byteBufferValue(2, data.buffer) != 0) {
+                            TLRPC.Message message = (TLRPC.Message) TLClassStore.Instance().TLdeserialize(data, data.readInt32());
+                            if (message != null) {
+                                putMessageSearchTokens(state, message, lastId, cursor.longValue(1));
+                            }
+                        }
+                        buffersStorage.reuseFreeBuffer(data);
+                    }
+                    cursor.dispose();
+                    state.dispose();
+                    int nextId = count < SEARCH_INDEX_BATCH ? 0 : lastId;
+                    database.executeFast("REPLACE INTO keyvalue VALUES('search_index_mid', '" + nextId + "')").stepThis().dispose();
+                    database.commitTransaction();
+
+                    if (nextId != 0) {
+                        storageQueue.postRunnable(this, 500);
+                    }
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Search the stored messages of non secret chats, the words of the query are matched as
+     * prefixes of message words. Messages containing the words exactly, or the whole query as a
+     * phrase, come first, newest first otherwise. Has to be called on the storage queue.
+     * @param query Search query
+     * @param count Maximum number of messages
+     * @param result List to add the found messages to
+     * @param users List to add the authors and dialog users of the messages to
+     * @param chats List to add the dialog chats of the messages to
+     */
+    public void searchMessagesInternal(String query, int count, ArrayList<TLRPC.Message> result, ArrayList<TLRPC.User> users, ArrayList<TLRPC.Chat> chats) throws Exception {
+        if (Thread.currentThread() != storageQueue && Thread.currentThread() != readQueue) {
+            throw new RuntimeException("wrong db thread");
+        }
+        SQLiteDatabase db = getCurrentDatabase();
+        BuffersStorage buffersStorage = getCurrentBuffersStorage();
+        long startTime = System.nanoTime();
+        ArrayList<String> tokens = getSearchTokens(query);
+        if (tokens.isEmpty()) {
+            return;
+        }
+        if (tokens.size() > SEARCH_MAX_QUERY_TOKENS) {
+            tokens = new ArrayList<>(tokens.subList(0, SEARCH_MAX_QUERY_TOKENS));
+        }
+        StringBuilder sql = new StringBuilder("SELECT m.data, m.mid, m.uid, m.date, m.read_state FROM messages as m WHERE m.mid IN(");
+        Object[] args = new Object[tokens.size() * 2 + 1];
+        for (int a = 0; a < tokens.size(); a++) {
+            if (a != 0) {
+                sql.append(" INTERSECT ");
+            }
+            sql.append("SELECT mid FROM messages_search WHERE token >= ? AND token < ?");
+            args[a * 2] = tokens.get(a);
+            args[a * 2 + 1] = tokens.get(a) + '\uffff';
+        }
+        sql.append(") ORDER BY m.date DESC LIMIT ?");
+        args[args.length - 1] = count * 4;
+
+        final HashMap<TLRPC.Message, Integer> scores = new HashMap<>();
+        ArrayList<TLRPC.Message> messages = new ArrayList<>();
+        String phrase = query.trim().toLowerCase();
+        SQLiteCursor cursor = db.queryFinalized(sql.toString(), args);
+        while (cursor.next()) {
+            ByteBufferDesc data = buffersStorage.getFreeBuffer(cursor.byteArrayLength(0));
+            if (data != null && cursor.byteBufferValue(0, data.buffer) != 0) {
+                TLRPC.Message message = (TLRPC.Message) TLClassStore.Instance().TLdeserialize(data, data.readInt32());
+                if (message != null) {
+                    message.id = cursor.intValue(1);
+                    message.dialog_id = cursor.longValue(2);
+                    message.date = cursor.intValue(3);
+                    MessageObject.setIsUnread(message, cursor.intValue(4) != 1);
+                    int score = 0;
+                    if (message.message != null) {
+                        ArrayList<String> words = getSearchTokens(message.message);
+                        for (String token : tokens) {
+                            if (words.contains(token)) {
+                                score++;
+                            }
+                        }
+                        if (tokens.size() > 1 && message.message.toLowerCase().contains(phrase)) {
+                            score += tokens.size();
+                        }
+                    }
+                    scores.put(message, score);
+                    messages.add(message);
+                }
+            }
+            buffersStorage.reuseFreeBuffer(data);
+        }
+        cursor.dispose();
+
+        Collections.sort(messages, new Comparator<TLRPC.Message>() {
+            @Override
+            public int compare(TLRPC.Message lhs, TLRPC.Message rhs) {
+                int lhsScore = scores.get(lhs);
+                int rhsScore = scores.get(rhs);
+                if (lhsScore != rhsScore) {
+                    return lhsScore > rhsScore ? -1 : 1;
+                } else if (lhs.date != rhs.date) {
+                    return lhs.date > rhs.date ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+
+        ArrayList<Integer> userIds = new ArrayList<>();
+        ArrayList<Integer> chatIds = new ArrayList<>();
+        for (int a = 0; a < messages.size() && a < count; a++) {
+            TLRPC.Message message = messages.get(a);
+            result.add(message);
+            int lower_id = (int) message.dialog_id;
+            if (lower_id < 0) {
+                if (!chatIds.contains(-lower_id)) {
+                    chatIds.add(-lower_id);
+                }
+            } else if (!userIds.contains(lower_id)) {
+                userIds.add(lower_id);
+            }
+            if (!userIds.contains(message.from_id)) {
+                userIds.add(message.from_id);
+            }
+        }
+        if (!userIds.isEmpty()) {
+            getUsersInternal(TextUtils.join(",", userIds), users);
+        }
+        if (!chatIds.isEmpty()) {
+            getChatsInternal(TextUtils.join(",", chatIds), chats);
+        }
+
+        lastSearchTime = System.nanoTime() - startTime;
+        lastSearchCount = result.size();
+        FileLog.d("tmessages", String.format(Locale.US, "local search of %d words found %d messages in %.2f ms", tokens.size(), lastSearchCount, lastSearchTime / 1000000.0));
+    }
+
+    /**
+     * Fill the dialogs search index from the database unless it is already filled
+     * @param semaphore Released when the index is ready, may be null
+     */
+    public void loadDialogsSearchIndex(final Semaphore semaphore) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (database == null || DialogsSearchIndex.getInstance().isLoaded()) {
+                        return;
+                    }
+                    ArrayList<Integer> usersToLoad = new ArrayList<>();
+                    ArrayList<Integer> chatsToLoad = new ArrayList<>();
+                    ArrayList<Integer> encryptedToLoad = new ArrayList<>();
+                    HashMap<Long, Integer> dialogs = new HashMap<>();
+                    SQLiteCursor cursor = database.queryFinalized("SELECT did, date FROM dialogs WHERE 1");
+                    while (cursor.next()) {
+                        long did = cursor.longValue(0);
+                        dialogs.put(did, cursor.intValue(1));
+                        int lower_id = (int) did;
+                        int high_id = (int) (did >> 32);
+                        if (lower_id != 0) {
+                            if (high_id == 1) {
+                                chatsToLoad.add(lower_id);
+                            } else if (lower_id > 0) {
+                                usersToLoad.add(lower_id);
+                            } else {
+                                chatsToLoad.add(-lower_id);
+                            }
+                        } else {
+                            encryptedToLoad.add(high_id);
+                        }
+                    }
+                    cursor.dispose();
+
+                    ArrayList<Integer> contacts = new ArrayList<>();
+                    cursor = database.queryFinalized("SELECT uid FROM contacts WHERE 1");
+                    while (cursor.next()) {
+                        int uid = cursor.intValue(0);
+                        contacts.add(uid);
+                        if (!dialogs.containsKey((long) uid)) {
+                            usersToLoad.add(uid);
+                        }
+                    }
+                    cursor.dispose();
+
+                    ArrayList<TLRPC.EncryptedChat> encryptedChats = new ArrayList<>();
+                    if (!encryptedToLoad.isEmpty()) {
+                        getEncryptedChatsInternal(TextUtils.join(",", encryptedToLoad), encryptedChats, usersToLoad);
+                    }
+                    ArrayList<TLRPC.User> users = new ArrayList<>();
+                    if (!usersToLoad.isEmpty()) {
+                        getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                    }
+                    ArrayList<TLRPC.Chat> chats = new ArrayList<>();
+                    if (!chatsToLoad.isEmpty()) {
+                        getChatsInternal(TextUtils.join(",", chatsToLoad), chats);
+                    }
+                    DialogsSearchIndex.getInstance().load(users, chats, encryptedChats, dialogs, contacts);
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                } finally {
+                    if (semaphore != null) {
+                        semaphore.release();
+                    }
+                }
+            }
+        });
+    }
+
+    private void fixUnsupportedMedia(TLRPC.Message message) {
+        if (message != null && message.media instanceof TLRPC.TL_messageMediaUnsupported && message.media.bytes != null) {
+            if (message.media.bytes.length == 0) {
+                message.media.bytes = new byte[1];
+                message.media.bytes[0] = TLRPC.LAYER;
+            }
+        }
+    }
+
+    public void putMessages(final TLRPC.messages_Messages messages, final long dialog_id) {
+        if (messages.messages.isEmpty()) {
+            return;
+        }
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    database.beginTransaction();
+                    if (!messages.messages.isEmpty()) {
+                        SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL)");
+                        SQLitePreparedStatement state2 = database.executeFast("REPLACE INTO media_v2 VALUES(?, ?, ?, ?, ?)");
+                        SQLitePreparedStatement state3 = database.executeCached("REPLACE INTO messages_search VALUES(?, ?, ?, ?)");
+                        for (TLRPC.Message message : messages.messages) {
+                            fixUnsupportedMedia(message);
+                            state.requery();
+                            ByteBufferDesc data = buffersStorage.getFreeBuffer(message.getObjectSize());
+                            message.serializeToStream(data);
+                            state.bindInteger(1, message.id);
+                            state.bindLong(2, dialog_id);
+                            state.bindInteger(3, (MessageObject.isUnread(message) ? 0 : 1));
+                            state.bindInteger(4, message.send_state);
+                            state.bindInteger(5, message.date);
+                            state.bindByteBuffer(6, data.buffer);
+                            state.bindInteger(7, (MessageObject.isOut(message) ? 1 : 0));
+                            state.bindInteger(8, 0);
+                            state.bindInteger(9, 0);
+                            state.step();
+
+                            putMessageSearchTokens(state3, message, message.id, dialog_id);
+
+                            if (SharedMediaQuery.canAddMessageToMedia(message)) {
+                                state2.requery();
                                 state2.bindInteger(1, message.id);
                                 state2.bindLong(2, dialog_id);
                                 state2.bindInteger(3, message.date);
@@ -3565,6 +4274,7 @@ public class MessagesStorage {
                         }
                         state.dispose();
                         state2.dispose();
+                        state3.dispose();
                     }
                     putUsersInternal(messages.users);
                     putChatsInternal(messages.chats);
@@ -3577,10 +4287,17 @@ public class MessagesStorage {
         });
     }
 
+    /**
+     * Load a page of dialogs from the cache. A page that continues the previous one starts right
+     * after its last dialog instead of skipping offset rows. Last messages are only decoded for
+     * the first rows of the list and for unread dialogs, the rest are loaded with
+     * {@link #getDialogPreviews} once their cells are shown.
+     */
     public void getDialogs(final int offset, final int serverOffset, final int count) {
-        storageQueue.postRunnable(new Runnable() {
+        postReadRunnable(new Runnable() {
             @Override
             public void run() {
+                SQLiteDatabase database = getCurrentDatabase();
                 TLRPC.messages_Dialogs dialogs = new TLRPC.messages_Dialogs();
                 ArrayList<TLRPC.EncryptedChat> encryptedChats = new ArrayList<>();
                 try {
@@ -3588,14 +4305,24 @@ public class MessagesStorage {
                     usersToLoad.add(UserConfig.getClientUserId());
                     ArrayList<Integer> chatsToLoad = new ArrayList<>();
                     ArrayList<Integer> encryptedToLoad = new ArrayList<>();
-                    SQLiteCursor cursor = database.queryFinalized(String.format(Locale.US, "SELECT d.did, d.last_mid, d.unread_count, d.date, m.data, m.read_state, m.mid, m.send_state, s.flags, m.date FROM dialogs as d LEFT JOIN messages as m ON d.last_mid = m.mid LEFT JOIN dialog_settings as s ON d.did = s.did ORDER BY d.date DESC LIMIT %d,%d", offset, count));
+                    ArrayList<Integer> previewsToLoad = new ArrayList<>();
+                    SQLiteCursor cursor;
+                    if (offset != 0 && offset == dialogsLoadOffset) {
+                        cursor = database.queryCached("SELECT d.did, d.last_mid, d.unread_count, d.date, s.flags, m.date FROM dialogs as d LEFT JOIN messages as m ON d.last_mid = m.mid LEFT JOIN dialog_settings as s ON d.did = s.did WHERE d.date <= ? AND (d.date < ? OR d.did < ?) ORDER BY d.date DESC, d.did DESC LIMIT ?", dialogsLoadDate, dialogsLoadDate, dialogsLoadDid, count);
+                    } else {
+                        cursor = database.queryCached("SELECT d.did, d.last_mid, d.unread_count, d.date, s.flags, m.date FROM dialogs as d LEFT JOIN messages as m ON d.last_mid = m.mid LEFT JOIN dialog_settings as s ON d.did = s.did ORDER BY d.date DESC, d.did DESC LIMIT ?,?", offset, count);
+                    }
+                    int loadedCount = 0;
                     while (cursor.next()) {
                         TLRPC.TL_dialog dialog = new TLRPC.TL_dialog();
                         dialog.id = cursor.longValue(0);
                         dialog.top_message = cursor.intValue(1);
                         dialog.unread_count = cursor.intValue(2);
                         dialog.last_message_date = cursor.intValue(3);
-                        long flags = cursor.longValue(8);
+                        dialogsLoadDate = dialog.last_message_date;
+                        dialogsLoadDid = dialog.id;
+                        loadedCount++;
+                        long flags = cursor.longValue(4);
                         int low_flags = (int)flags;
                         dialog.notify_settings = new TLRPC.TL_peerNotifySettings();
                         if ((low_flags & 1) != 0) {
@@ -3604,37 +4331,15 @@ public class MessagesStorage {
                                 dialog.notify_settings.mute_until = Integer.MAX_VALUE;
                             }
                         }
+                        int date = cursor.intValue(5);
+                        if (date != 0) {
+                            dialog.last_message_date = date;
+                        }
                         dialogs.dialogs.add(dialog);
 
-                        ByteBufferDesc data = buffersStorage.getFreeBuffer(cursor.byteArrayLength(4));
-                        if (data != null && cursor.byteBufferValue(4, data.buffer) != 0) {
-                            TLRPC.Message message = (TLRPC.Message)TLClassStore.Instance().TLdeserialize(data, data.readInt32());
-                            if (message != null) {
-                                MessageObject.setIsUnread(message, cursor.intValue(5) != 1);
-                                message.id = cursor.intValue(6);
-                                int date = cursor.intValue(9);
-                                if (date != 0) {
-                                    dialog.last_message_date = date;
-                                }
-                                message.send_state = cursor.intValue(7);
-                                dialogs.messages.add(message);
-
-                                if (!usersToLoad.contains(message.from_id)) {
-                                    usersToLoad.add(message.from_id);
-                                }
-                                if (message.action != null && message.action.user_id != 0) {
-                                    if (!usersToLoad.contains(message.action.user_id)) {
-                                        usersToLoad.add(message.action.user_id);
-                                    }
-                                }
-                                if (message.fwd_from_id != 0) {
-                                    if (!usersToLoad.contains(message.fwd_from_id)) {
-                                        usersToLoad.add(message.fwd_from_id);
-                                    }
-                                }
-                            }
+                        if (dialog.top_message != 0 && (offset + dialogs.dialogs.size() <= DIALOG_PREVIEW_COUNT || dialog.unread_count > 0)) {
+                            previewsToLoad.add(dialog.top_message);
                         }
-                        buffersStorage.reuseFreeBuffer(data);
 
                         int lower_id = (int)dialog.id;
                         int high_id = (int)(dialog.id >> 32);
@@ -3661,6 +4366,11 @@ public class MessagesStorage {
                         }
                     }
                     cursor.dispose();
+                    dialogsLoadOffset = offset + loadedCount;
+
+                    if (!previewsToLoad.isEmpty()) {
+                        getDialogPreviewsInternal(TextUtils.join(",", previewsToLoad), dialogs.messages, usersToLoad);
+                    }
 
                     if (!encryptedToLoad.isEmpty()) {
                         getEncryptedChatsInternal(TextUtils.join(",", encryptedToLoad), encryptedChats, usersToLoad);
@@ -3679,6 +4389,7 @@ public class MessagesStorage {
                     dialogs.users.clear();
                     dialogs.chats.clear();
                     encryptedChats.clear();
+                    dialogsLoadOffset = 0;
                     FileLog.e("tmessages", e);
                     /*try {
                         database.executeFast("DELETE FROM dialogs WHERE 1").stepThis().dispose();
@@ -3691,6 +4402,64 @@ public class MessagesStorage {
         });
     }
 
+    private void getDialogPreviewsInternal(String mids, ArrayList<TLRPC.Message> messages, ArrayList<Integer> usersToLoad) throws Exception {
+        BuffersStorage buffersStorage = getCurrentBuffersStorage();
+        SQLiteCursor cursor = getCurrentDatabase().queryFinalized(String.format(Locale.US, "SELECT data, read_state, mid, send_state, uid FROM messages WHERE mid IN(%s)", mids));
+        while (cursor.next()) {
+            ByteBufferDesc data = buffersStorage.getFreeBuffer(cursor.byteArrayLength(0));
+            if (data != null && cursor.byteBufferValue(0, data.buffer) != 0) {
+                TLRPC.Message message = (TLRPC.Message)TLClassStore.Instance().TLdeserialize(data, data.readInt32());
+                if (message != null) {
+                    MessageObject.setIsUnread(message, cursor.intValue(1) != 1);
+                    message.id = cursor.intValue(2);
+                    message.send_state = cursor.intValue(3);
+                    message.dialog_id = cursor.longValue(4);
+                    messages.add(message);
+
+                    if (!usersToLoad.contains(message.from_id)) {
+                        usersToLoad.add(message.from_id);
+                    }
+                    if (message.action != null && message.action.user_id != 0) {
+                        if (!usersToLoad.contains(message.action.user_id)) {
+                            usersToLoad.add(message.action.user_id);
+                        }
+                    }
+                    if (message.fwd_from_id != 0) {
+                        if (!usersToLoad.contains(message.fwd_from_id)) {
+                            usersToLoad.add(message.fwd_from_id);
+                        }
+                    }
+                }
+            }
+            buffersStorage.reuseFreeBuffer(data);
+        }
+        cursor.dispose();
+    }
+
+    /**
+     * Decode last messages of dialogs loaded without them by {@link #getDialogs}
+     * @param mids Ids of the last messages
+     */
+    public void getDialogPreviews(final ArrayList<Integer> mids) {
+        postReadRunnable(new Runnable() {
+            @Override
+            public void run() {
+                ArrayList<TLRPC.Message> messages = new ArrayList<>();
+                ArrayList<TLRPC.User> users = new ArrayList<>();
+                try {
+                    ArrayList<Integer> usersToLoad = new ArrayList<>();
+                    getDialogPreviewsInternal(TextUtils.join(",", mids), messages, usersToLoad);
+                    if (!usersToLoad.isEmpty()) {
+                        getUsersInternal(TextUtils.join(",", usersToLoad), users);
+                    }
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                }
+                MessagesController.getInstance().processLoadedDialogPreviews(mids, messages, users);
+            }
+        });
+    }
+
     public void putDialogs(final TLRPC.messages_Dialogs dialogs) {
         if (dialogs.dialogs.isEmpty()) {
             return;
@@ -3706,10 +4475,11 @@ public class MessagesStorage {
                     }
 
                     if (!dialogs.dialogs.isEmpty()) {
-                        SQLitePreparedStatement state = database.executeFast("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL)");
-                        SQLitePreparedStatement state2 = database.executeFast("REPLACE INTO dialogs(did, date, unread_count, last_mid) VALUES(?, ?, ?, ?)");
-                        SQLitePreparedStatement state3 = database.executeFast("REPLACE INTO media_v2 VALUES(?, ?, ?, ?, ?)");
-                        SQLitePreparedStatement state4 = database.executeFast("REPLACE INTO dialog_settings VALUES(?, ?)");
+                        SQLitePreparedStatement state = database.executeCached("REPLACE INTO messages VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, NULL)");
+                        SQLitePreparedStatement state2 = database.executeCached("REPLACE INTO dialogs(did, date, unread_count, last_mid) VALUES(?, ?, ?, ?)");
+                        SQLitePreparedStatement state3 = database.executeCached("REPLACE INTO media_v2 VALUES(?, ?, ?, ?, ?)");
+                        SQLitePreparedStatement state4 = database.executeCached("REPLACE INTO dialog_settings VALUES(?, ?)");
+                        SQLitePreparedStatement state5 = database.executeCached("REPLACE INTO messages_search VALUES(?, ?, ?, ?)");
 
                         for (TLRPC.TL_dialog dialog : dialogs.dialogs) {
                             state.requery();
@@ -3735,11 +4505,14 @@ public class MessagesStorage {
                             state.bindInteger(9, 0);
                             state.step();
 
+                            putMessageSearchTokens(state5, message, message.id, uid);
+
                             state2.bindLong(1, uid);
                             state2.bindInteger(2, message.date);
                             state2.bindInteger(3, dialog.unread_count);
                             state2.bindInteger(4, dialog.top_message);
                             state2.step();
+                            DialogsSearchIndex.getInstance().putDialog(uid, message.date);
 
                             state4.bindLong(1, uid);
                             state4.bindInteger(2, dialog.notify_settings.mute_until != 0 ? 1 : 0);
@@ -3760,6 +4533,7 @@ public class MessagesStorage {
                         state2.dispose();
                         state3.dispose();
                         state4.dispose();
+                        state5.dispose();
                     }
 
                     putUsersInternal(dialogs.users);
@@ -3827,4 +4601,317 @@ public class MessagesStorage {
         }
         return chat;
     }
+
+    /**
+     * Split a text into the lower case words it is indexed by, words of one character are skipped
+     */
+    public static ArrayList<String> getSearchTokens(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase();
+        int start = -1;
+        for (int a = 0, length = lower.length(); a <= length; a++) {
+            boolean letter = a < length && Character.isLetterOrDigit(lower.charAt(a));
+            if (letter) {
+                if (start == -1) {
+                    start = a;
+                }
+            } else if (start != -1) {
+                if (a - start > 1) {
+                    String token = lower.substring(start, a);
+                    if (!tokens.contains(token)) {
+                        tokens.add(token);
+                    }
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private void putTemplateTokens(SQLitePreparedStatement state, String key, String value, int source) throws Exception {
+        ArrayList<String> tokens = getSearchTokens(value);
+        for (String token : tokens) {
+            state.requery();
+            state.bindString(1, token);
+            state.bindString(2, key);
+            state.bindInteger(3, source);
+            state.step();
+        }
+    }
+
+    public void putTemplates(final ArrayList<TemplateSupport.TemplateRecord> records, final int source, final String lang, final boolean replace, final Semaphore semaphore) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (templatesDatabase == null) {
+                        return;
+                    }
+                    templatesDatabase.beginTransaction();
+                    if (replace) {
+                        templatesDatabase.executeFast("DELETE FROM templates WHERE source = " + source).stepThis().dispose();
+                        templatesDatabase.executeFast("DELETE FROM templates_tokens WHERE source = " + source).stepThis().dispose();
+                    }
+                    SQLitePreparedStatement state = templatesDatabase.executeFast("REPLACE INTO templates VALUES(?, ?, ?, ?, ?, ?)");
+                    SQLitePreparedStatement state2 = templatesDatabase.executeFast("REPLACE INTO templates_tokens VALUES(?, ?, ?)");
+                    SQLitePreparedStatement state3 = replace ? null : templatesDatabase.executeFast("DELETE FROM templates_tokens WHERE key = ? AND source = ?");
+                    for (TemplateSupport.TemplateRecord record : records) {
+                        state.requery();
+                        state.bindString(1, record.key);
+                        state.bindString(2, record.value);
+                        if (record.question != null) {
+                            state.bindString(3, record.question);
+                        } else {
+                            state.bindNull(3);
+                        }
+                        state.bindInteger(4, source);
+                        state.bindString(5, lang != null ? lang : "");
+                        state.bindLong(6, TemplateSupport.getTemplateHash(record.value, record.question));
+                        state.step();
+
+                        if (state3 != null) {
+                            state3.requery();
+                            state3.bindString(1, record.key);
+                            state3.bindInteger(2, source);
+                            state3.step();
+                        }
+                        putTemplateTokens(state2, record.key, record.value, source);
+                    }
+                    state.dispose();
+                    state2.dispose();
+                    if (state3 != null) {
+                        state3.dispose();
+                    }
+                    templatesDatabase.commitTransaction();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                } finally {
+                    if (semaphore != null) {
+                        semaphore.release();
+                    }
+                }
+            }
+        });
+    }
+
+    public void deleteTemplate(final String key, final Semaphore semaphore) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (templatesDatabase == null) {
+                        return;
+                    }
+                    Integer source = templatesDatabase.executeInt("SELECT MAX(source) FROM templates WHERE key = ?", key);
+                    if (source != null) {
+                        templatesDatabase.beginTransaction();
+                        SQLitePreparedStatement state = templatesDatabase.executeFast("DELETE FROM templates WHERE key = ? AND source = ?");
+                        state.requery();
+                        state.bindString(1, key);
+                        state.bindInteger(2, source);
+                        state.step();
+                        state.dispose();
+                        state = templatesDatabase.executeFast("DELETE FROM templates_tokens WHERE key = ? AND source = ?");
+                        state.requery();
+                        state.bindString(1, key);
+                        state.bindInteger(2, source);
+                        state.step();
+                        state.dispose();
+                        templatesDatabase.commitTransaction();
+                    }
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                } finally {
+                    if (semaphore != null) {
+                        semaphore.release();
+                    }
+                }
+            }
+        });
+    }
+
+    public void deleteTemplates(final ArrayList<String> keys, final int source, final Semaphore semaphore) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (templatesDatabase == null || keys.isEmpty()) {
+                        return;
+                    }
+                    templatesDatabase.beginTransaction();
+                    SQLitePreparedStatement state = templatesDatabase.executeFast("DELETE FROM templates WHERE key = ? AND source = ?");
+                    SQLitePreparedStatement state2 = templatesDatabase.executeFast("DELETE FROM templates_tokens WHERE key = ? AND source = ?");
+                    for (String key : keys) {
+                        state.requery();
+                        state.bindString(1, key);
+                        state.bindInteger(2, source);
+                        state.step();
+                        state2.requery();
+                        state2.bindString(1, key);
+                        state2.bindInteger(2, source);
+                        state2.step();
+                    }
+                    state.dispose();
+                    state2.dispose();
+                    templatesDatabase.commitTransaction();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                } finally {
+                    if (semaphore != null) {
+                        semaphore.release();
+                    }
+                }
+            }
+        });
+    }
+
+    public void getTemplateHashes(final int source, final HashMap<String, Long> hashes, final HashMap<String, String> questions, final Semaphore semaphore) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (templatesDatabase == null) {
+                        return;
+                    }
+                    SQLiteCursor cursor = templatesDatabase.queryFinalized("SELECT key, hash, question FROM templates WHERE source = " + source);
+                    while (cursor.next()) {
+                        String key = cursor.stringValue(0);
+                        hashes.put(key, cursor.longValue(1));
+                        if (questions != null && !cursor.isNull(2)) {
+                            questions.put(key, cursor.stringValue(2));
+                        }
+                    }
+                    cursor.dispose();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                } finally {
+                    if (semaphore != null) {
+                        semaphore.release();
+                    }
+                }
+            }
+        });
+    }
+
+    public void clearTemplates(final int source, final Semaphore semaphore) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (templatesDatabase == null) {
+                        return;
+                    }
+                    templatesDatabase.beginTransaction();
+                    templatesDatabase.executeFast("DELETE FROM templates WHERE source = " + source).stepThis().dispose();
+                    templatesDatabase.executeFast("DELETE FROM templates_tokens WHERE source = " + source).stepThis().dispose();
+                    templatesDatabase.commitTransaction();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                } finally {
+                    if (semaphore != null) {
+                        semaphore.release();
+                    }
+                }
+            }
+        });
+    }
+
+    public void getTemplates(final TreeMap<String, String> result, final Semaphore semaphore) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (templatesDatabase == null) {
+                        return;
+                    }
+                    SQLiteCursor cursor = templatesDatabase.queryFinalized("SELECT key, value FROM templates ORDER BY source ASC");
+                    while (cursor.next()) {
+                        result.put(cursor.stringValue(0), cursor.stringValue(1));
+                    }
+                    cursor.dispose();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                } finally {
+                    if (semaphore != null) {
+                        semaphore.release();
+                    }
+                }
+            }
+        });
+    }
+
+    public String getTemplate(final String key, final int source) {
+        if (key == null) {
+            return null;
+        }
+        final Semaphore semaphore = new Semaphore(0);
+        final String[] result = new String[1];
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (templatesDatabase == null) {
+                        return;
+                    }
+                    SQLiteCursor cursor = templatesDatabase.queryFinalized("SELECT value FROM templates WHERE key = ? AND source = " + source, key);
+                    if (cursor.next()) {
+                        result[0] = cursor.stringValue(0);
+                    }
+                    cursor.dispose();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                } finally {
+                    semaphore.release();
+                }
+            }
+        });
+        try {
+            semaphore.acquire();
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
+        return result[0];
+    }
+
+    public void searchTemplates(final String query, final int count, final ArrayList<String> result, final Semaphore semaphore) {
+        storageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (templatesDatabase == null) {
+                        return;
+                    }
+                    ArrayList<String> tokens = getSearchTokens(query);
+                    if (tokens.isEmpty()) {
+                        return;
+                    }
+                    StringBuilder sql = new StringBuilder();
+                    Object[] args = new Object[tokens.size() * 2];
+                    for (int a = 0; a < tokens.size(); a++) {
+                        if (a != 0) {
+                            sql.append(" INTERSECT ");
+                        }
+                        sql.append("SELECT key FROM templates_tokens WHERE token >= ? AND token < ?");
+                        args[a * 2] = tokens.get(a);
+                        args[a * 2 + 1] = tokens.get(a) + '\uffff';
+                    }
+                    sql.append(" ORDER BY key LIMIT ").append(count);
+                    SQLiteCursor cursor = templatesDatabase.queryFinalized(sql.toString(), args);
+                    while (cursor.next()) {
+                        result.add(cursor.stringValue(0));
+                    }
+                    cursor.dispose();
+                } catch (Exception e) {
+                    FileLog.e("tmessages", e);
+                } finally {
+                    if (semaphore != null) {
+                        semaphore.release();
+                    }
+                }
+            }
+        });
+    }
 }
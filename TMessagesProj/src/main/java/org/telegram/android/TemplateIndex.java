@@ -0,0 +1,313 @@
+package org.telegram.android;
+
+import java.util.Map;
+
+/**
+ * Immutable prefix index over template keys. Nodes of the trie are laid out breadth first in
+ * flat arrays, so the children of a node are contiguous and sorted by label, and every node
+ * knows the range of (sorted) keys below it. Exact and prefix lookups don't allocate.
+ */
+public final class TemplateIndex {
+
+    /**
+     * Index without templates
+     */
+    public static final TemplateIndex EMPTY = new TemplateIndex(new String[0], new String[0]);
+
+    private final String[] keys;
+    private final String[] values;
+    private final int maxKeyLength;
+
+    private final char[] label;
+    private final int[] firstChild;
+    private final int[] childCount;
+    private final int[] keyIndex;
+    private final int[] rangeStart;
+    private final int[] rangeEnd;
+
+    /**
+     * Build an index from a map of templates. Keys are expected to be sorted, as in a TreeMap.
+     * @param templates Map with the templates as <key,value>
+     * @return New index
+     */
+    public static TemplateIndex build(Map<String, String> templates) {
+        if (templates == null || templates.isEmpty()) {
+            return EMPTY;
+        }
+        String[] keys = new String[templates.size()];
+        String[] values = new String[templates.size()];
+        int a = 0;
+        for (Map.Entry<String, String> entry : templates.entrySet()) {
+            keys[a] = entry.getKey();
+            values[a] = entry.getValue();
+            a++;
+        }
+        return new TemplateIndex(keys, values);
+    }
+
+    private TemplateIndex(String[] sortedKeys, String[] sortedValues) {
+        keys = sortedKeys;
+        values = sortedValues;
+
+        int capacity = 1;
+        int maxLength = 0;
+        for (String key : keys) {
+            capacity += key.length();
+            maxLength = Math.max(maxLength, key.length());
+        }
+        maxKeyLength = maxLength;
+
+        char[] nodeLabel = new char[capacity];
+        int[] nodeFirstChild = new int[capacity];
+        int[] nodeChildCount = new int[capacity];
+        int[] nodeKeyIndex = new int[capacity];
+        int[] nodeStart = new int[capacity];
+        int[] nodeEnd = new int[capacity];
+        int[] nodeDepth = new int[capacity];
+
+        int count = 1;
+        nodeStart[0] = 0;
+        nodeEnd[0] = keys.length;
+        for (int node = 0; node < count; node++) {
+            int lo = nodeStart[node];
+            int hi = nodeEnd[node];
+            int depth = nodeDepth[node];
+            nodeKeyIndex[node] = -1;
+            if (lo < hi && keys[lo].length() == depth) {
+                nodeKeyIndex[node] = lo;
+                lo++;
+            }
+            nodeFirstChild[node] = count;
+            while (lo < hi) {
+                char c = keys[lo].charAt(depth);
+                int end = lo + 1;
+                while (end < hi && keys[end].charAt(depth) == c) {
+                    end++;
+                }
+                nodeLabel[count] = c;
+                nodeStart[count] = lo;
+                nodeEnd[count] = end;
+                nodeDepth[count] = depth + 1;
+                count++;
+                lo = end;
+            }
+            nodeChildCount[node] = count - nodeFirstChild[node];
+        }
+
+        label = trim(nodeLabel, count);
+        firstChild = trim(nodeFirstChild, count);
+        childCount = trim(nodeChildCount, count);
+        keyIndex = trim(nodeKeyIndex, count);
+        rangeStart = trim(nodeStart, count);
+        rangeEnd = trim(nodeEnd, count);
+    }
+
+    private static char[] trim(char[] array, int length) {
+        if (array.length == length) {
+            return array;
+        }
+        char[] result = new char[length];
+        System.arraycopy(array, 0, result, 0, length);
+        return result;
+    }
+
+    private static int[] trim(int[] array, int length) {
+        if (array.length == length) {
+            return array;
+        }
+        int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, length);
+        return result;
+    }
+
+    private int child(int node, char c) {
+        int lo = firstChild[node];
+        int hi = lo + childCount[node] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            char midLabel = label[mid];
+            if (midLabel < c) {
+                lo = mid + 1;
+            } else if (midLabel > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int walk(CharSequence text, int start, int end) {
+        int node = 0;
+        for (int a = start; a < end && node != -1; a++) {
+            node = child(node, text.charAt(a));
+        }
+        return node;
+    }
+
+    /**
+     * Number of templates in the index
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Find a template by its exact key
+     * @param text Text containing the key
+     * @param start Start of the key inside text
+     * @param end End of the key inside text
+     * @return Index of the template or -1 if the key isn't in the index
+     */
+    public int find(CharSequence text, int start, int end) {
+        int node = walk(text, start, end);
+        return node == -1 ? -1 : keyIndex[node];
+    }
+
+    /**
+     * Find a template from a trigger typed by the user, ignoring ".." and "(" markers as
+     * {@link TemplateSupport#getTemplate(String)} always did.
+     * @param text Text containing the trigger
+     * @param start Start of the trigger inside text
+     * @param end End of the trigger inside text
+     * @return Index of the template or -1 if the key isn't in the index
+     */
+    public int findTrigger(CharSequence text, int start, int end) {
+        int node = 0;
+        for (int a = start; a < end && node != -1; a++) {
+            char c = text.charAt(a);
+            if (c == '(') {
+                continue;
+            }
+            if (c == '.' && a + 1 < end && text.charAt(a + 1) == '.') {
+                a++;
+                continue;
+            }
+            node = child(node, c);
+        }
+        return node == -1 ? -1 : keyIndex[node];
+    }
+
+    /**
+     * Get the value of a template
+     * @param key Key of the template
+     * @return Template content or null if the key isn't in the index
+     */
+    public String get(CharSequence key) {
+        int index = find(key, 0, key.length());
+        return index == -1 ? null : values[index];
+    }
+
+    /**
+     * Find templates whose key starts with a prefix. Results are ranked by key length and then
+     * alphabetically, so an exact match always comes first.
+     * @param text Text containing the prefix
+     * @param start Start of the prefix inside text
+     * @param end End of the prefix inside text
+     * @param result Array to fill with template indexes, its length limits the number of results
+     * @return Number of results written in result
+     */
+    public int findPrefix(CharSequence text, int start, int end, int[] result) {
+        int node = walk(text, start, end);
+        if (node == -1 || result.length == 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int index = rangeStart[node], last = rangeEnd[node]; index < last; index++) {
+            int length = keys[index].length();
+            if (count == result.length && length >= keys[result[count - 1]].length()) {
+                continue;
+            }
+            int position = count == result.length ? count - 1 : count++;
+            while (position > 0 && keys[result[position - 1]].length() > length) {
+                result[position] = result[position - 1];
+                position--;
+            }
+            result[position] = index;
+        }
+        return count;
+    }
+
+    /**
+     * Find templates whose key is within a number of edits (insertions, deletions or
+     * substitutions) of a query. Results are ranked by distance, then key length and then
+     * alphabetically.
+     * @param text Text containing the query
+     * @param start Start of the query inside text
+     * @param end End of the query inside text
+     * @param maxEdits Maximum edit distance allowed
+     * @param result Array to fill with template indexes, its length limits the number of results
+     * @return Number of results written in result
+     */
+    public int findFuzzy(CharSequence text, int start, int end, int maxEdits, int[] result) {
+        if (result.length == 0 || keys.length == 0 || maxEdits < 0) {
+            return 0;
+        }
+        int length = end - start;
+        int[][] rows = new int[maxKeyLength + 1][length + 1];
+        for (int a = 0; a <= length; a++) {
+            rows[0][a] = a;
+        }
+        int[] distances = new int[result.length];
+        int[] count = new int[1];
+        if (length <= maxEdits && keyIndex[0] != -1) {
+            count[0] = insertFuzzy(keyIndex[0], length, result, distances, 0);
+        }
+        for (int a = 0, first = firstChild[0]; a < childCount[0]; a++) {
+            searchFuzzy(first + a, 1, text, start, length, maxEdits, rows, result, distances, count);
+        }
+        return count[0];
+    }
+
+    private void searchFuzzy(int node, int depth, CharSequence text, int start, int length, int maxEdits, int[][] rows, int[] result, int[] distances, int[] count) {
+        int[] previous = rows[depth - 1];
+        int[] row = rows[depth];
+        char c = label[node];
+        row[0] = depth;
+        int best = depth;
+        for (int a = 1; a <= length; a++) {
+            int cost = text.charAt(start + a - 1) == c ? 0 : 1;
+            int value = Math.min(Math.min(row[a - 1] + 1, previous[a] + 1), previous[a - 1] + cost);
+            row[a] = value;
+            if (value < best) {
+                best = value;
+            }
+        }
+        if (best > maxEdits) {
+            return;
+        }
+        if (keyIndex[node] != -1 && row[length] <= maxEdits) {
+            count[0] = insertFuzzy(keyIndex[node], row[length], result, distances, count[0]);
+        }
+        for (int a = 0, first = firstChild[node]; a < childCount[node]; a++) {
+            searchFuzzy(first + a, depth + 1, text, start, length, maxEdits, rows, result, distances, count);
+        }
+    }
+
+    private int insertFuzzy(int index, int distance, int[] result, int[] distances, int count) {
+        int length = keys[index].length();
+        if (count == result.length) {
+            int last = count - 1;
+            if (distances[last] < distance || distances[last] == distance && keys[result[last]].length() <= length) {
+                return count;
+            }
+        }
+        int position = count == result.length ? count - 1 : count++;
+        while (position > 0 && (distances[position - 1] > distance || distances[position - 1] == distance && keys[result[position - 1]].length() > length)) {
+            result[position] = result[position - 1];
+            distances[position] = distances[position - 1];
+            position--;
+        }
+        result[position] = index;
+        distances[position] = distance;
+        return count;
+    }
+}
@@ -0,0 +1,197 @@
+package org.telegram.android;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Streaming reader for template packs in the {QUESTION}/{KEYS}/{VALUE} format. Entries are read
+ * one at a time, so only the current entry is kept in memory.
+ */
+public class TemplatePackReader {
+
+    private static final int SECTION_NONE = 0;
+    private static final int SECTION_QUESTION = 1;
+    private static final int SECTION_KEYS = 2;
+    private static final int SECTION_VALUE = 3;
+
+    private final Reader reader;
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder marker = new StringBuilder();
+    private int section = SECTION_NONE;
+    private boolean finished;
+
+    private String pendingQuestion;
+    private String entryQuestion;
+    private ArrayList<String> pendingKeys;
+
+    private String question;
+    private ArrayList<String> keys;
+    private String value;
+
+    public TemplatePackReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next entry of the pack
+     * @return false when there are no more entries
+     */
+    public boolean next() throws IOException {
+        while (!finished) {
+            int c = reader.read();
+            if (c == -1) {
+                finished = true;
+                return section == SECTION_VALUE && closeValue();
+            }
+            if (c == '\r') {
+                continue;
+            }
+            if (c != '{') {
+                text.append((char) c);
+                continue;
+            }
+            boolean entry = section == SECTION_VALUE && closeValue();
+            int nextSection = readMarker();
+            if (nextSection == SECTION_KEYS) {
+                pendingQuestion = section == SECTION_QUESTION ? trim(text, false) : null;
+            } else if (nextSection == SECTION_VALUE && section == SECTION_KEYS) {
+                pendingKeys = parseKeys(text);
+                entryQuestion = pendingQuestion;
+                pendingQuestion = null;
+            } else {
+                nextSection = nextSection == SECTION_VALUE ? SECTION_NONE : nextSection;
+                pendingQuestion = null;
+            }
+            if (nextSection != SECTION_VALUE) {
+                pendingKeys = null;
+            }
+            section = nextSection;
+            text.setLength(0);
+            if (entry) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getQuestion() {
+        return question;
+    }
+
+    public ArrayList<String> getKeys() {
+        return keys;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    private int readMarker() throws IOException {
+        marker.setLength(0);
+        int c;
+        while ((c = reader.read()) != -1 && c != '}' && c != '{' && marker.length() < 16) {
+            marker.append((char) c);
+        }
+        if (c == -1) {
+            finished = true;
+        }
+        if (c != '}') {
+            return SECTION_NONE;
+        }
+        if (equals(marker, "QUESTION")) {
+            return SECTION_QUESTION;
+        } else if (equals(marker, "KEYS")) {
+            return SECTION_KEYS;
+        } else if (equals(marker, "VALUE")) {
+            return SECTION_VALUE;
+        }
+        return SECTION_NONE;
+    }
+
+    private static ArrayList<String> parseKeys(StringBuilder builder) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = -1;
+        for (int a = 0, length = builder.length(); a <= length; a++) {
+            boolean word = a < length && isWordChar(builder.charAt(a));
+            if (word) {
+                if (start == -1) {
+                    start = a;
+                }
+            } else if (start != -1) {
+                result.add(builder.substring(start, a));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    private boolean closeValue() {
+        ArrayList<String> entryKeys = pendingKeys;
+        pendingKeys = null;
+        if (entryKeys == null || entryKeys.isEmpty()) {
+            return false;
+        }
+        String result = trim(text, true);
+        if (result == null) {
+            return false;
+        }
+        keys = entryKeys;
+        question = entryQuestion;
+        value = result;
+        return true;
+    }
+
+    /**
+     * Trim whitespace around a section, optionally collapsing runs of three or more line breaks
+     * into two as the old importer did for values
+     * @return Trimmed text or null if there is nothing left
+     */
+    private static String trim(StringBuilder builder, boolean collapseLines) {
+        int start = 0;
+        int end = builder.length();
+        while (start < end && Character.isWhitespace(builder.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(builder.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+        if (!collapseLines) {
+            return builder.substring(start, end);
+        }
+        StringBuilder result = new StringBuilder(end - start);
+        int lines = 0;
+        for (int a = start; a < end; a++) {
+            char c = builder.charAt(a);
+            if (c == '\n') {
+                lines++;
+                if (lines > 2) {
+                    continue;
+                }
+            } else {
+                lines = 0;
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    private static boolean isWordChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    private static boolean equals(StringBuilder builder, String string) {
+        if (builder.length() != string.length()) {
+            return false;
+        }
+        for (int a = 0; a < string.length(); a++) {
+            if (builder.charAt(a) != string.charAt(a)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -7,9 +7,9 @@ import android.os.Environment;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.telegram.messenger.ApplicationLoader;
 import org.telegram.messenger.DispatchQueue;
@@ -21,16 +21,15 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Semaphore;
 
 /**
  *
@@ -49,6 +48,16 @@ public class TemplateSupport {
         public String question;
     }
 
+    public interface TemplatesSearchDelegate {
+        void didFindTemplates(String query, ArrayList<String> keys);
+    }
+
+    public static class TemplateRecord {
+        public String key;
+        public String value;
+        public String question;
+    }
+
     /**
      * Types of operations with default templates
      */
@@ -67,208 +76,292 @@ public class TemplateSupport {
     private static final String BASEURL = "http://translate.tsfkb.com/";
 
     /**
-     * Name of preference file for default template values
+     * Name of preference file for default template values, only read to move them to the database
      */
     private static final String DEFAULTTEMPLATES = "templatesDefault";
 
     /**
-     * Name of preference file for default template
+     * Name of preference file for default template, only read to move them to the database
      */
     private static final String DEFAULTTEMPLATESQUESTIONS = "templatesDefaultQuestions";
 
     /**
-     * Name of preference file for custom templates
+     * Name of preference file for custom templates, only read to move them to the database
      */
     private static final String CUSTOMTEMPLATES = "templatesCustom";
 
     /**
-     * Templates regex patern
+     * Number of changed templates written to the database at once while importing a pack
      */
-    private static final Pattern TEMPLATESPATTERN = Pattern.compile("(?:\\{KEYS\\}\\n?([^{]+)\\n+\\{VALUE\\}\\n?([^{]+)\\n?|\\{QUESTION\\}\\n?([^{]+)\\n+\\{KEYS\\}\\n?([^{]+)\\n+\\{VALUE\\}\\n?([^{]+)\\n?)");
+    private static final int IMPORTBATCH = 500;
 
     /**
-     * Templates regex patern
+     * Static Map to keep pairs kay-values with the templates.
      */
-    private static final Pattern KEYSPATTERN = Pattern.compile("((\\w+))");
+    public static TreeMap<String,String> templates = new TreeMap<String, String>();
 
     /**
-     * Static Map to keep pairs kay-values with the templates.
+     * Prefix index over templates, rebuilt in templatesQueue every time templates change.
      */
-    public static TreeMap<String,String> templates = new TreeMap<String, String>();
+    private static volatile TemplateIndex templateIndex = TemplateIndex.EMPTY;
 
     /**
      * Singleton Instance
      */
     private static volatile TemplateSupport Instance = null;
 
+    private static void rebuildIndex() {
+        final TreeMap<String, String> snapshot = new TreeMap<>(templates);
+        templatesQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                templateIndex = TemplateIndex.build(snapshot);
+            }
+        });
+    }
+
+    private static String getTemplatesLanguage() {
+        SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("mainconfig", Activity.MODE_PRIVATE);
+        return preferences.getString("languageSupport", "en");
+    }
+
+    private static void waitForStorage(Semaphore semaphore) {
+        try {
+            semaphore.acquire();
+        } catch (Exception e) {
+            FileLog.e("TemplateSupport", e);
+        }
+    }
+
     private static void saveCustomTemplates(final TreeMap<String,String> newTemplates) {
-        SharedPreferences customTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(CUSTOMTEMPLATES, Activity.MODE_PRIVATE);
-        SharedPreferences.Editor customTemplatesEditor = customTemplatesPreferences.edit();
+        ArrayList<TemplateRecord> records = new ArrayList<>();
         for (Map.Entry<String, String> entry: newTemplates.entrySet()) {
-            customTemplatesEditor.putString(entry.getKey(), entry.getValue());
+            TemplateRecord record = new TemplateRecord();
+            record.key = entry.getKey();
+            record.value = entry.getValue();
+            records.add(record);
             templates.put(entry.getKey(), entry.getValue());
         }
-        customTemplatesEditor.commit();
+        MessagesStorage.getInstance().putTemplates(records, MessagesStorage.TEMPLATE_SOURCE_CUSTOM, getTemplatesLanguage(), false, null);
+        rebuildIndex();
         NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateTemplatesNotification);
     }
 
     private static void saveCustomTemplate(String key, String value) {
-        SharedPreferences customTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(CUSTOMTEMPLATES, Activity.MODE_PRIVATE);
-        SharedPreferences.Editor customTemplatesEditor = customTemplatesPreferences.edit();
-        customTemplatesEditor.putString(key, value);
+        ArrayList<TemplateRecord> records = new ArrayList<>();
+        TemplateRecord record = new TemplateRecord();
+        record.key = key;
+        record.value = value;
+        records.add(record);
+        MessagesStorage.getInstance().putTemplates(records, MessagesStorage.TEMPLATE_SOURCE_CUSTOM, getTemplatesLanguage(), false, null);
         templates.put(key, value);
-        customTemplatesEditor.commit();
+        rebuildIndex();
         NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateTemplatesNotification);
 
     }
 
-    private static String saveDefaultTemplate(String key, String value, SharedPreferences sharedPreferences) {
-        String notification = "";
-        boolean toSave = false;
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        if (sharedPreferences.contains(key)) {
-            if (sharedPreferences.getString(key, "").compareToIgnoreCase(value) != 0) {
-                toSave = true;
-            }
-        } else {
-            toSave = true;
-        }
-
-        if (toSave) {
-            editor.putString(key, value);
-            editor.apply();
+    /**
+     * Content hash of a template, used to find the templates that changed when importing a pack
+     */
+    public static long getTemplateHash(String value, String question) {
+        long hash = 0xcbf29ce484222325L;
+        for (int a = 0; a < value.length(); a++) {
+            hash = (hash ^ value.charAt(a)) * 0x100000001b3L;
         }
-        return notification;
-    }
-
-    private static ArrayList<String> saveDefaultTemplates(TreeMap<String, String> newTemlates, SharedPreferences sharedPreferences) {
-        ArrayList<String> notifications = new ArrayList<>();
-
-        for (Map.Entry<String, String> entry: newTemlates.entrySet()) {
-            notifications.add(saveDefaultTemplate(entry.getKey(), entry.getValue(), sharedPreferences));
+        hash = (hash ^ 0xffff) * 0x100000001b3L;
+        if (question != null) {
+            for (int a = 0; a < question.length(); a++) {
+                hash = (hash ^ question.charAt(a)) * 0x100000001b3L;
+            }
         }
-
-        return notifications;
+        return hash == 0 ? 1 : hash;
     }
 
-
-    private static ArrayList<TemplateNotification> generateTemplatesNotifications(TreeMap<String, String> newTemplates, Map<String, HashSet<String>> oldTemplatesQuestions) {
+    /**
+     * Import a template pack, writing only the templates that were added, changed or removed.
+     * @param reader Reader with the pack
+     * @param source Source of the templates in the pack
+     * @param removeMissing True to delete the templates of this source that are not in the pack,
+     *                      ignored for a pack without templates so an empty reply keeps them
+     * @return Changes to show to the user, one for each question of the pack that changed
+     */
+    private static ArrayList<TemplateNotification> importPack(Reader reader, int source, boolean removeMissing) throws IOException {
+        HashMap<String, Long> hashes = new HashMap<>();
+        HashMap<String, String> questions = removeMissing ? new HashMap<String, String>() : null;
+        Semaphore semaphore = new Semaphore(0);
+        MessagesStorage.getInstance().getTemplateHashes(source, hashes, questions, semaphore);
+        waitForStorage(semaphore);
+
+        String lang = getTemplatesLanguage();
+        HashSet<String> seen = removeMissing ? new HashSet<String>() : null;
         ArrayList<TemplateNotification> notifications = new ArrayList<>();
-        SharedPreferences defaulttemplatesQuestionsPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATESQUESTIONS, Activity.MODE_PRIVATE);
-        SharedPreferences defaulttemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATES, Activity.MODE_PRIVATE);
-        HashMap<String, HashSet<String>> newQuestions = (HashMap<String, HashSet<String>>) defaulttemplatesQuestionsPreferences.getAll();
-
-        for (String question: oldTemplatesQuestions.keySet()) {
-            if (newQuestions.containsKey(question)) {
-                Set<String> newkeys = newQuestions.get(question);
-                Set<String> oldKeys = oldTemplatesQuestions.get(question);
-                String newValue = "";
-                String oldValue = "";
-                for (String key : oldKeys) {
-                    oldValue = defaulttemplatesPreferences.getString(key, "");
-                    break;
+        ArrayList<TemplateRecord> changed = new ArrayList<>();
+        int pendingBatches = 0;
+        TemplatePackReader packReader = new TemplatePackReader(reader);
+        while (packReader.next()) {
+            String value = packReader.getValue();
+            String question = packReader.getQuestion();
+            long hash = getTemplateHash(value, question);
+            boolean added = true;
+            boolean updated = false;
+            for (String key : packReader.getKeys()) {
+                if (seen != null) {
+                    seen.add(key);
                 }
-                for (String key : newkeys) {
-                    newValue = newTemplates.get(key);
-                }
-                if (!newkeys.equals(oldKeys) || oldValue.compareToIgnoreCase(newValue) != 0) {
-                    TemplateNotification notification = new TemplateNotification();
-                    notification.type = UPDATEDTEMPLATE;
-                    notification.value = newValue;
-                    notification.keys.addAll(newkeys);
-                    notification.question = question;
-                    notifications.add(notification);
+                Long oldHash = hashes.put(key, hash);
+                if (oldHash != null) {
+                    added = false;
                 }
-            } else {
-                Set<String> keys = oldTemplatesQuestions.get(question);
-                String value = "";
-                for (String key : keys) {
-                    value = defaulttemplatesPreferences.getString(key, "");
-                    break;
+                if (oldHash == null || oldHash != hash) {
+                    if (oldHash != null && oldHash != 0) {
+                        updated = true;
+                    }
+                    TemplateRecord record = new TemplateRecord();
+                    record.key = key;
+                    record.value = value;
+                    record.question = question;
+                    changed.add(record);
                 }
+            }
+            if (question != null && (added || updated)) {
                 TemplateNotification notification = new TemplateNotification();
-                notification.type = REMOVEDTEMPLATE;
+                notification.type = added ? ADDEDTEMPLATE : UPDATEDTEMPLATE;
                 notification.value = value;
-                notification.keys.addAll(keys);
+                notification.keys.addAll(packReader.getKeys());
                 notification.question = question;
                 notifications.add(notification);
             }
+            if (changed.size() >= IMPORTBATCH) {
+                MessagesStorage.getInstance().putTemplates(changed, source, lang, false, semaphore);
+                changed = new ArrayList<>();
+                pendingBatches++;
+            }
+        }
+        if (!changed.isEmpty()) {
+            MessagesStorage.getInstance().putTemplates(changed, source, lang, false, semaphore);
+            pendingBatches++;
         }
-        for (String question: newQuestions.keySet()) {
-            if (!oldTemplatesQuestions.containsKey(question)) {
-                HashSet<String> keys = newQuestions.get(question);
-                String value = "";
-                for (String key: keys) {
-                    value = newTemplates.get(key);
+        for (int a = 0; a < pendingBatches; a++) {
+            waitForStorage(semaphore);
+        }
+
+        if (removeMissing && !seen.isEmpty()) {
+            ArrayList<String> removed = new ArrayList<>();
+            HashMap<String, TemplateNotification> removedQuestions = new HashMap<>();
+            for (String key : hashes.keySet()) {
+                if (seen.contains(key)) {
+                    continue;
                 }
-                TemplateNotification notification = new TemplateNotification();
-                notification.type = ADDEDTEMPLATE;
-                notification.value = value;
-                notification.keys.addAll(keys);
-                notification.question = question;
-                notifications.add(notification);
+                removed.add(key);
+                String question = questions.get(key);
+                if (question == null) {
+                    continue;
+                }
+                TemplateNotification notification = removedQuestions.get(question);
+                if (notification == null) {
+                    notification = new TemplateNotification();
+                    notification.type = REMOVEDTEMPLATE;
+                    notification.value = MessagesStorage.getInstance().getTemplate(key, source);
+                    notification.question = question;
+                    removedQuestions.put(question, notification);
+                    notifications.add(notification);
+                }
+                notification.keys.add(key);
+            }
+            if (!removed.isEmpty()) {
+                MessagesStorage.getInstance().deleteTemplates(removed, source, semaphore);
+                waitForStorage(semaphore);
             }
         }
-
         return notifications;
     }
 
     private static void deleteTemplate(final String key) {
-        SharedPreferences customTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(CUSTOMTEMPLATES, Activity.MODE_PRIVATE);
-        if (customTemplatesPreferences.contains(key)) {
-            SharedPreferences.Editor customTemplatesEditor = customTemplatesPreferences.edit();
-            customTemplatesEditor.remove(key);
-            templates.remove(key);
-            customTemplatesEditor.commit();
-            NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateTemplatesNotification);
-        } else {
-            SharedPreferences defaultTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATES, Activity.MODE_PRIVATE);
-            if (defaultTemplatesPreferences.contains(key)) {
-                SharedPreferences.Editor defaultTemplatesEditor = defaultTemplatesPreferences.edit();
-                defaultTemplatesEditor.remove(key);
-                templates.remove(key);
-                defaultTemplatesEditor.commit();
-                NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateTemplatesNotification);
-            }
-        }
+        MessagesStorage.getInstance().deleteTemplate(key, null);
+        templates.remove(key);
+        rebuildIndex();
+        NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateTemplatesNotification);
     }
 
     private static void clearCustomTemplates() {
-        SharedPreferences customTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(CUSTOMTEMPLATES, Activity.MODE_PRIVATE);
-        SharedPreferences.Editor customTemplatesEditor = customTemplatesPreferences.edit();
-        customTemplatesEditor.clear();
-        customTemplatesEditor.commit();
+        Semaphore semaphore = new Semaphore(0);
+        MessagesStorage.getInstance().clearTemplates(MessagesStorage.TEMPLATE_SOURCE_CUSTOM, semaphore);
+        waitForStorage(semaphore);
         templates.clear();
         loadTemplatesInternal();
     }
 
     private static void clearDefaultTemplates() {
-        SharedPreferences customTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATES, Activity.MODE_PRIVATE);
-        SharedPreferences.Editor customTemplatesEditor = customTemplatesPreferences.edit();
-        customTemplatesEditor.clear();
-        customTemplatesEditor.apply();
-        SharedPreferences customTemplatesQuestionsPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATESQUESTIONS, Activity.MODE_PRIVATE);
-        SharedPreferences.Editor customTemplatesQuestionsEditor = customTemplatesQuestionsPreferences.edit();
-        customTemplatesQuestionsEditor.clear();
-        customTemplatesQuestionsEditor.apply();
+        Semaphore semaphore = new Semaphore(0);
+        MessagesStorage.getInstance().clearTemplates(MessagesStorage.TEMPLATE_SOURCE_DEFAULT, semaphore);
+        waitForStorage(semaphore);
         templates.clear();
         loadTemplatesInternal();
     }
 
+    /**
+     * Move templates saved by older versions in SharedPreferences to the database
+     */
+    private static void migratePreferences() {
+        SharedPreferences preferences = ApplicationLoader.applicationContext.getSharedPreferences("mainconfig", Activity.MODE_PRIVATE);
+        if (preferences.getBoolean("templatesMigrated", false)) {
+            return;
+        }
+        SharedPreferences defaultTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATES, Activity.MODE_PRIVATE);
+        SharedPreferences questionsPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATESQUESTIONS, Activity.MODE_PRIVATE);
+        SharedPreferences customTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(CUSTOMTEMPLATES, Activity.MODE_PRIVATE);
+
+        HashMap<String, String> keyQuestions = new HashMap<>();
+        for (Map.Entry<String, ?> entry : questionsPreferences.getAll().entrySet()) {
+            if (entry.getValue() instanceof Set) {
+                for (Object key : (Set) entry.getValue()) {
+                    keyQuestions.put((String) key, entry.getKey());
+                }
+            }
+        }
+        ArrayList<TemplateRecord> defaultRecords = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : defaultTemplatesPreferences.getAll().entrySet()) {
+            if (entry.getValue() instanceof String) {
+                TemplateRecord record = new TemplateRecord();
+                record.key = entry.getKey();
+                record.value = (String) entry.getValue();
+                record.question = keyQuestions.get(entry.getKey());
+                defaultRecords.add(record);
+            }
+        }
+        ArrayList<TemplateRecord> customRecords = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : customTemplatesPreferences.getAll().entrySet()) {
+            if (entry.getValue() instanceof String) {
+                TemplateRecord record = new TemplateRecord();
+                record.key = entry.getKey();
+                record.value = (String) entry.getValue();
+                customRecords.add(record);
+            }
+        }
+        String lang = getTemplatesLanguage();
+        Semaphore semaphore = new Semaphore(0);
+        MessagesStorage.getInstance().putTemplates(defaultRecords, MessagesStorage.TEMPLATE_SOURCE_DEFAULT, lang, false, semaphore);
+        MessagesStorage.getInstance().putTemplates(customRecords, MessagesStorage.TEMPLATE_SOURCE_CUSTOM, lang, false, semaphore);
+        waitForStorage(semaphore);
+        waitForStorage(semaphore);
+
+        defaultTemplatesPreferences.edit().clear().commit();
+        questionsPreferences.edit().clear().commit();
+        customTemplatesPreferences.edit().clear().commit();
+        preferences.edit().putBoolean("templatesMigrated", true).commit();
+    }
+
     private static void loadTemplatesInternal() {
         templatesQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                SharedPreferences defaultTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATES, Activity.MODE_PRIVATE);
-                Map<String, String> defaultTemplates = (Map<String, String>) defaultTemplatesPreferences.getAll();
-                for (Map.Entry<String, String> entry: defaultTemplates.entrySet()) {
-                    templates.put(entry.getKey(), entry.getValue());
-                }
-                SharedPreferences customTemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(CUSTOMTEMPLATES, Activity.MODE_PRIVATE);
-                Map<String, String> customTemplates = (Map<String, String>) customTemplatesPreferences.getAll();
-                for (Map.Entry<String, String> entry: customTemplates.entrySet()) {
-                    templates.put(entry.getKey(), entry.getValue());
-                }
+                migratePreferences();
+                TreeMap<String, String> loadedTemplates = new TreeMap<>();
+                Semaphore semaphore = new Semaphore(0);
+                MessagesStorage.getInstance().getTemplates(loadedTemplates, semaphore);
+                waitForStorage(semaphore);
+                templates.putAll(loadedTemplates);
+                templateIndex = TemplateIndex.build(new TreeMap<>(templates));
                 NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateTemplatesNotification);
             }
         });
@@ -313,13 +406,33 @@ public class TemplateSupport {
      * @return Template content or empty string if the key isn't inside the templates Map.
      */
     public String getTemplate(String key) {
-        String cleanKey = key.replace("..","").replace("(","");
-        if (templates.containsKey(cleanKey)) {
-            return templates.get(cleanKey);
+        return getTemplate(key, 0, key.length());
+    }
+
+    /**
+     * Check if a part of a text is a key for a template, ignoring ".." and "(" markers
+     * @param text Text containing the key
+     * @param start Start of the key inside text
+     * @param end End of the key inside text
+     * @return Template content or empty string if the key isn't inside the templates Map.
+     */
+    public String getTemplate(CharSequence text, int start, int end) {
+        TemplateIndex index = templateIndex;
+        int position = index.findTrigger(text, start, end);
+        if (position != -1) {
+            return index.getValue(position);
         }
         return "";
     }
 
+    /**
+     * Get the current prefix index over templates
+     * @return Immutable index, never null
+     */
+    public TemplateIndex getIndex() {
+        return templateIndex;
+    }
+
     /**
      * Load templates from default file
      */
@@ -351,46 +464,22 @@ public class TemplateSupport {
      * @param path Name of the file
      */
     public static void loadFileInternal(String path) {
-        SharedPreferences customtemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(CUSTOMTEMPLATES, Activity.MODE_PRIVATE);
-        SharedPreferences.Editor customtemplatesEditor = null;
+        Reader reader = null;
         try {
-            customtemplatesEditor = customtemplatesPreferences.edit();
-            File f = new File(path);
-            InputStream inputStream = new FileInputStream(f);
-
-            BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-            String fileString = "";
-            if (br.ready()) {
-                String line;
-
-                while ((line = br.readLine()) != null) {
-                    fileString += line;
-                    fileString += "\n";
-                }
-            }
-            Matcher mainMatcher = TEMPLATESPATTERN.matcher(fileString);
-            String keys;
-            String value;
-            while (mainMatcher.find()) {
-                keys = mainMatcher.group(1) != null ? mainMatcher.group(1) : mainMatcher.group(4);
-                value = mainMatcher.group(2) != null ? mainMatcher.group(2) : mainMatcher.group(5);
-                value = value.replaceAll("\\n{3,}", "\\n\\n").replaceAll("^\\s*", "").replaceAll("\\s*$", "");
-                Matcher keysMatcher = KEYSPATTERN.matcher(keys);
-                while (keysMatcher.find()) {
-                    String key = keysMatcher.group(0).replace("\n", "");
-                    if (key.compareToIgnoreCase("") != 0) {
-                        customtemplatesEditor.putString(key, value);
-                    }
-                }
-            }
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(path))));
+            importPack(reader, MessagesStorage.TEMPLATE_SOURCE_CUSTOM, false);
             templates.clear();
             TemplateSupport.getInstance().loadTemplates();
             NotificationCenter.getInstance().postNotificationName(NotificationCenter.updateTemplatesNotification);
         } catch (IOException e) {
             FileLog.e("TemplateSupport", "File IO Exception");
         } finally {
-            if (customtemplatesEditor != null) {
-                customtemplatesEditor.apply();
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    FileLog.e("TemplateSupport", e);
+                }
             }
         }
     }
@@ -400,75 +489,65 @@ public class TemplateSupport {
      * @param fileName Name of the file
      */
     public static void loadDefaultFileInternal(String fileName) {
-        SharedPreferences defaulttemplatesQuestionsPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATESQUESTIONS, Activity.MODE_PRIVATE);
-        SharedPreferences defaulttemplatesPreferences = ApplicationLoader.applicationContext.getSharedPreferences(DEFAULTTEMPLATES, Activity.MODE_PRIVATE);
-        SharedPreferences.Editor defaulttemplatesQuestionsEditor = null;
-        SharedPreferences.Editor defaulttemplatesEditor = null;
+        ArrayList<TemplateNotification> notifications = null;
+        Reader reader = null;
         try {
-            defaulttemplatesQuestionsEditor = defaulttemplatesQuestionsPreferences.edit();
-            defaulttemplatesEditor = defaulttemplatesPreferences.edit();
             HttpClient httpclient = new DefaultHttpClient();
             HttpGet httppost = new HttpGet(BASEURL + fileName);
             HttpResponse response = httpclient.execute(httppost);
-            HttpEntity ht = response.getEntity();
-
-            BufferedHttpEntity buf = new BufferedHttpEntity(ht);
-            InputStream inputStream = buf.getContent();
-
-            BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-            String fileString = "";
-            if (br.ready()) {
-                String line;
-
-                while ((line = br.readLine()) != null) {
-                    fileString += line;
-                    fileString += "\n";
-                }
-            }
-            Matcher mainMatcher = TEMPLATESPATTERN.matcher(fileString);
-            String keys;
-            String question;
-            String value;
-            Set<String> keySet;
-            defaulttemplatesQuestionsEditor.clear();
-            TreeMap<String, String> newTemplates = new TreeMap<>();
-            while(mainMatcher.find()) {
-                keys = mainMatcher.group(1) != null ? mainMatcher.group(1) : mainMatcher.group(4);
-                value = mainMatcher.group(2) != null ? mainMatcher.group(2) : mainMatcher.group(5);
-                question = mainMatcher.group(3);
-                value = value.replaceAll("\\n{3,}", "\\n\\n").replaceAll("^\\s*","").replaceAll("\\s*$","");
-
-                Matcher keysMatcher = KEYSPATTERN.matcher(keys);
-                keySet = new HashSet<>();
-                while(keysMatcher.find()) {
-                    String key = keysMatcher.group(0).replace("\n","");
-                    if (key.compareToIgnoreCase("") != 0){
-                        keySet.add(key);
-                        defaulttemplatesEditor.putString(key, value);
-                    }
-                }
-                if (question != null && question.compareToIgnoreCase("") != 0) {
-                    defaulttemplatesQuestionsEditor.putStringSet(question, keySet);
-                }
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_OK) {
+                HttpEntity ht = response.getEntity();
+                reader = new BufferedReader(new InputStreamReader(ht.getContent()));
+                notifications = importPack(reader, MessagesStorage.TEMPLATE_SOURCE_DEFAULT, true);
+            } else {
+                FileLog.e("TemplateSupport", "Default templates not loaded, status " + status);
             }
-            //ArrayList<TemplateNotification> modifiedTemplates = generateTemplatesNotifications(newTemplates, oldTemplatesQuestions);
         } catch (FileNotFoundException e) {
             FileLog.e("TemplateSupport", "File not found");
         } catch (IOException e) {
             FileLog.e("TemplateSupport", "File IO Exception");
         } finally {
-            if (defaulttemplatesQuestionsEditor != null) {
-                defaulttemplatesQuestionsEditor.apply();
-            }
-            if (defaulttemplatesEditor != null) {
-                defaulttemplatesEditor.apply();
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    FileLog.e("TemplateSupport", e);
+                }
             }
         }
-        NotificationCenter.getInstance().postNotificationName(NotificationCenter.templatesDidUpdated);
+        if (notifications != null && !notifications.isEmpty()) {
+            NotificationCenter.getInstance().postNotificationName(NotificationCenter.templatesDidUpdated, notifications);
+        } else {
+            NotificationCenter.getInstance().postNotificationName(NotificationCenter.templatesDidUpdated);
+        }
         templates.clear();
         TemplateSupport.loadTemplatesInternal();
     }
 
+    /**
+     * Search templates by the words of their text
+     * @param query Words to search, the last one can be incomplete
+     * @param delegate Delegate called in the UI thread with the keys found
+     */
+    public static void searchTemplates(final String query, final TemplatesSearchDelegate delegate) {
+        templatesQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<String> keys = new ArrayList<>();
+                Semaphore semaphore = new Semaphore(0);
+                MessagesStorage.getInstance().searchTemplates(query, 100, keys, semaphore);
+                waitForStorage(semaphore);
+                AndroidUtilities.runOnUIThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        delegate.didFindTemplates(query, keys);
+                    }
+                });
+            }
+        });
+    }
+
     /**
      * Add a template
      * @param key Key of the template
@@ -8,18 +8,55 @@
 
 package org.telegram.messenger;
 
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Pool of direct buffers in power of two size classes up to 256 KB, plus one class for the
+ * biggest packets. Every thread keeps a small stack of free buffers of the small classes, at most
+ * MAX_LOCAL_CLASS_BYTES per class, and other buffers go to a shared lock-free depot, so threads
+ * releasing and taking buffers rarely wait on each other and idle threads hold little memory.
+ */
 public class BuffersStorage {
 
-    private final ArrayList<ByteBufferDesc> freeBuffers128;
-    private final ArrayList<ByteBufferDesc> freeBuffers1024;
-    private final ArrayList<ByteBufferDesc> freeBuffers4096;
-    private final ArrayList<ByteBufferDesc> freeBuffers16384;
-    private final ArrayList<ByteBufferDesc> freeBuffers32768;
-    private final ArrayList<ByteBufferDesc> freeBuffersBig;
-    private boolean isThreadSafe;
-    private final static Object sync = new Object();
+    private static final int MIN_SIZE_SHIFT = 7;
+    private static final int MAX_SIZE_SHIFT = 18;
+    private static final int BIG_BUFFER_SIZE = 280000;
+    private static final int SIZE_CLASSES_COUNT = MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 2;
+    private static final int MAX_LOCAL_BUFFERS = 8;
+    private static final int MAX_LOCAL_CLASS_BYTES = 32 * 1024;
+    private static final int SIZE_CLASS_BYTES = 512 * 1024;
+
+    private static class SizeClass {
+        final int size;
+        final ConcurrentLinkedQueue<ByteBufferDesc> depot = new ConcurrentLinkedQueue<>();
+        final AtomicInteger depotCount = new AtomicInteger();
+        volatile int maxDepotCount;
+        volatile int maxLocalCount;
+
+        SizeClass(int size) {
+            this.size = size;
+        }
+    }
+
+    private static class LocalCache {
+        final ByteBufferDesc[][] buffers = new ByteBufferDesc[SIZE_CLASSES_COUNT][MAX_LOCAL_BUFFERS];
+        final int[] counts = new int[SIZE_CLASSES_COUNT];
+    }
+
+    private final SizeClass[] sizeClasses = new SizeClass[SIZE_CLASSES_COUNT];
+    private final ThreadLocal<LocalCache> localCache = new ThreadLocal<LocalCache>() {
+        @Override
+        protected LocalCache initialValue() {
+            return new LocalCache();
+        }
+    };
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong unpooledCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
 
     private static volatile BuffersStorage Instance = null;
     public static BuffersStorage getInstance() {
@@ -35,67 +72,79 @@ public class BuffersStorage {
         return localInstance;
     }
 
+    /**
+     * @param threadSafe Kept for compatibility, the pool can always be shared between threads
+     */
     public BuffersStorage(boolean threadSafe) {
-        isThreadSafe = threadSafe;
-        freeBuffers128 = new ArrayList<ByteBufferDesc>();
-        freeBuffers1024 = new ArrayList<ByteBufferDesc>();
-        freeBuffers4096 = new ArrayList<ByteBufferDesc>();
-        freeBuffers16384 = new ArrayList<ByteBufferDesc>();
-        freeBuffers32768 = new ArrayList<ByteBufferDesc>();
-        freeBuffersBig = new ArrayList<ByteBufferDesc>();
+        for (int a = 0; a < SIZE_CLASSES_COUNT; a++) {
+            SizeClass sizeClass = new SizeClass(a == SIZE_CLASSES_COUNT - 1 ? BIG_BUFFER_SIZE : 1 << (MIN_SIZE_SHIFT + a));
+            sizeClasses[a] = sizeClass;
+            setMaxCachedBuffers(sizeClass.size, Math.max(2, Math.min(32, SIZE_CLASS_BYTES / sizeClass.size)));
+        }
 
+        SizeClass smallest = sizeClasses[0];
         for (int a = 0; a < 5; a++) {
-            freeBuffers128.add(new ByteBufferDesc(128));
+            smallest.depot.offer(new ByteBufferDesc(smallest.size));
+            smallest.depotCount.incrementAndGet();
         }
     }
 
+    private static int getSizeClassIndex(int size) {
+        if (size <= (1 << MIN_SIZE_SHIFT)) {
+            return 0;
+        }
+        if (size > (1 << MAX_SIZE_SHIFT)) {
+            return size <= BIG_BUFFER_SIZE ? SIZE_CLASSES_COUNT - 1 : -1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SIZE_SHIFT;
+    }
+
+    /**
+     * Set how many free buffers are kept for a size class, buffers released beyond that are left
+     * to the garbage collector. Every thread additionally keeps up to a quarter of that amount,
+     * if it fits to MAX_LOCAL_CLASS_BYTES.
+     * @param size Any size served by the class
+     * @param count Maximum number of buffers in the shared depot
+     */
+    public void setMaxCachedBuffers(int size, int count) {
+        int index = getSizeClassIndex(size);
+        if (index == -1) {
+            return;
+        }
+        SizeClass sizeClass = sizeClasses[index];
+        sizeClass.maxDepotCount = Math.max(0, count);
+        sizeClass.maxLocalCount = Math.min(MAX_LOCAL_CLASS_BYTES / sizeClass.size, Math.max(count > 0 ? 1 : 0, Math.min(MAX_LOCAL_BUFFERS, count / 4)));
+    }
+
     public ByteBufferDesc getFreeBuffer(int size) {
         if (size <= 0) {
             return null;
         }
-        int byteCount = 0;
-        ArrayList<ByteBufferDesc> arrayToGetFrom = null;
         ByteBufferDesc buffer = null;
-        if (size <= 128) {
-            arrayToGetFrom = freeBuffers128;
-            byteCount = 128;
-        } else if (size <= 1024 + 200) {
-            arrayToGetFrom = freeBuffers1024;
-            byteCount = 1024 + 200;
-        } else if (size <= 4096 + 200) {
-            arrayToGetFrom = freeBuffers4096;
-            byteCount = 4096 + 200;
-        } else if (size <= 16384 + 200) {
-            arrayToGetFrom = freeBuffers16384;
-            byteCount = 16384 + 200;
-        } else if (size <= 40000) {
-            arrayToGetFrom = freeBuffers32768;
-            byteCount = 40000;
-        } else if (size <= 280000) {
-            arrayToGetFrom = freeBuffersBig;
-            byteCount = 280000;
-        } else {
+        int index = getSizeClassIndex(size);
+        if (index == -1) {
             buffer = new ByteBufferDesc(size);
-        }
-
-        if (arrayToGetFrom != null) {
-            if (isThreadSafe) {
-                synchronized (sync) {
-                    if (arrayToGetFrom.size() > 0) {
-                        buffer = arrayToGetFrom.get(0);
-                        arrayToGetFrom.remove(0);
-                    }
-                }
+            unpooledCount.incrementAndGet();
+        } else {
+            SizeClass sizeClass = sizeClasses[index];
+            LocalCache cache = localCache.get();
+            int count = cache.counts[index];
+            if (count > 0) {
+                count--;
+                buffer = cache.buffers[index][count];
+                cache.buffers[index][count] = null;
+                cache.counts[index] = count;
             } else {
-                if (arrayToGetFrom.size() > 0) {
-                    buffer = arrayToGetFrom.get(0);
-                    arrayToGetFrom.remove(0);
+                buffer = sizeClass.depot.poll();
+                if (buffer != null) {
+                    sizeClass.depotCount.decrementAndGet();
                 }
             }
-
-            if (buffer == null) {
-                buffer = new ByteBufferDesc(byteCount);
-                FileLog.e("tmessages", "create new " + byteCount + " buffer");
+            if (buffer != null) {
+                hitCount.incrementAndGet();
+            } else {
+                buffer = new ByteBufferDesc(sizeClass.size);
+                missCount.incrementAndGet();
             }
         }
 
@@ -104,39 +153,55 @@ public class BuffersStorage {
     }
 
     public void reuseFreeBuffer(ByteBufferDesc buffer) {
-        if (buffer == null) {
+        if (buffer == null || buffer.buffer == null || !buffer.buffer.isDirect()) {
             return;
         }
-        int maxCount = 10;
-        ArrayList<ByteBufferDesc> arrayToReuse = null;
-        if (buffer.buffer.capacity() == 128) {
-            arrayToReuse = freeBuffers128;
-        } else if (buffer.buffer.capacity() == 1024 + 200) {
-            arrayToReuse = freeBuffers1024;
-        } if (buffer.buffer.capacity() == 4096 + 200) {
-            arrayToReuse = freeBuffers4096;
-        } else if (buffer.buffer.capacity() == 16384 + 200) {
-            arrayToReuse = freeBuffers16384;
-        } else if (buffer.buffer.capacity() == 40000) {
-            arrayToReuse = freeBuffers32768;
-        } else if (buffer.buffer.capacity() == 280000) {
-            arrayToReuse = freeBuffersBig;
-            maxCount = 10;
+        int capacity = buffer.buffer.capacity();
+        int index = getSizeClassIndex(capacity);
+        if (index == -1 || sizeClasses[index].size != capacity) {
+            return;
         }
-        if (arrayToReuse != null) {
-            if (isThreadSafe) {
-                synchronized (sync) {
-                    if (arrayToReuse.size() < maxCount) {
-                        arrayToReuse.add(buffer);
-                    } else {
-                        FileLog.e("tmessages", "too more");
-                    }
-                }
-            } else {
-                if (arrayToReuse.size() < maxCount) {
-                    arrayToReuse.add(buffer);
-                }
-            }
+        SizeClass sizeClass = sizeClasses[index];
+        LocalCache cache = localCache.get();
+        int count = cache.counts[index];
+        if (count < sizeClass.maxLocalCount) {
+            cache.buffers[index][count] = buffer;
+            cache.counts[index] = count + 1;
+            return;
         }
+        if (sizeClass.depotCount.incrementAndGet() <= sizeClass.maxDepotCount) {
+            sizeClass.depot.offer(buffer);
+        } else {
+            sizeClass.depotCount.decrementAndGet();
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Number of requests served with a free buffer
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of requests that had to allocate a buffer of their size class
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of requests too big to be pooled
+     */
+    public long getUnpooledCount() {
+        return unpooledCount.get();
+    }
+
+    /**
+     * Number of released buffers left to the garbage collector because their class was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
     }
 }
@@ -21,7 +21,10 @@ import org.telegram.android.AndroidUtilities;
 import org.telegram.android.ContactsController;
 import org.telegram.android.LocaleController;
 import org.telegram.android.MessagesController;
+import org.telegram.android.MessagesStorage;
 import org.telegram.android.NotificationCenter;
+import org.telegram.messenger.collections.IntHashMap;
+import org.telegram.messenger.collections.LongHashMap;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -36,15 +39,15 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
     private ArrayList<Long> sessionsToDestroy = new ArrayList<>();
     private ArrayList<Long> destroyingSessions = new ArrayList<>();
-    private HashMap<Integer, ArrayList<Long>> quickAckIdToRequestIds = new HashMap<>();
+    private IntHashMap<ArrayList<Long>> quickAckIdToRequestIds = new IntHashMap<>();
 
-    private HashMap<Long, Integer> pingIdToDate = new HashMap<>();
+    private LongHashMap<Integer> pingIdToDate = new LongHashMap<>();
     private ConcurrentHashMap<Integer, ArrayList<Long>> requestsByGuids = new ConcurrentHashMap<>(100, 1.0f, 2);
     private ConcurrentHashMap<Long, Integer> requestsByClass = new ConcurrentHashMap<>(100, 1.0f, 2);
     private volatile int connectionState = 2;
 
-    private ArrayList<RPCRequest> requestQueue = new ArrayList<>();
-    private ArrayList<RPCRequest> runningRequests = new ArrayList<>();
+    private RPCRequestList requestQueue = new RPCRequestList(false);
+    private RPCRequestList runningRequests = new RPCRequestList(true);
     private ArrayList<Action> actionQueue = new ArrayList<>();
 
     private ArrayList<Integer> unknownDatacenterIds = new ArrayList<>();
@@ -285,6 +288,9 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 if (!byScreenState) {
                     appPaused = value;
                     FileLog.e("tmessages", "app paused = " + value);
+                    if (value) {
+                        MessagesStorage.getInstance().checkpointDatabase();
+                    }
                 }
                 if (value) {
                     if (byScreenState) {
@@ -580,7 +586,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         for (RPCRequest request : runningRequests) {
             Datacenter dcenter = datacenterWithId(request.runningDatacenterId);
             if ((request.flags & requestClass) != 0 && dcenter != null && dcenter.datacenterId == datacenter.datacenterId) {
-                request.runningMessageId = 0;
+                runningRequests.setRunningMessageId(request, 0);
                 request.runningMessageSeqNo = 0;
                 request.runningStartTime = 0;
                 request.runningMinStartTime = 0;
@@ -593,33 +599,29 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                for (int a = 0; a < requestQueue.size(); a++) {
-                    RPCRequest request = requestQueue.get(a);
+                for (RPCRequest request : requestQueue.toArray()) {
                     if ((request.flags & RPCRequest.RPCRequestClassWithoutLogin) != 0) {
                         continue;
                     }
-                    requestQueue.remove(a);
+                    requestQueue.remove(request);
                     if (request.completionBlock != null) {
                         TLRPC.TL_error implicitError = new TLRPC.TL_error();
                         implicitError.code = -1000;
                         implicitError.text = "";
                         request.completionBlock.run(null, implicitError);
                     }
-                    a--;
                 }
-                for (int a = 0; a < runningRequests.size(); a++) {
-                    RPCRequest request = runningRequests.get(a);
+                for (RPCRequest request : runningRequests.toArray()) {
                     if ((request.flags & RPCRequest.RPCRequestClassWithoutLogin) != 0) {
                         continue;
                     }
-                    runningRequests.remove(a);
+                    runningRequests.remove(request);
                     if (request.completionBlock != null) {
                         TLRPC.TL_error implicitError = new TLRPC.TL_error();
                         implicitError.code = -1000;
                         implicitError.text = "";
                         request.completionBlock.run(null, implicitError);
                     }
-                    a--;
                 }
                 pingIdToDate.clear();
                 quickAckIdToRequestIds.clear();
@@ -929,39 +931,32 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             public void run() {
                 boolean found = false;
 
-                for (int i = 0; i < requestQueue.size(); i++) {
-                    RPCRequest request = requestQueue.get(i);
-                    if (request.token == token) {
-                        found = true;
-                        request.cancelled = true;
-                        FileLog.d("tmessages", "===== Cancelled queued rpc request " + request.rawRequest);
-                        requestQueue.remove(i);
-                        break;
-                    }
+                RPCRequest request = requestQueue.remove(token);
+                if (request != null) {
+                    found = true;
+                    request.cancelled = true;
+                    FileLog.d("tmessages", "===== Cancelled queued rpc request " + request.rawRequest);
                 }
 
                 if (!ifNotSent) {
-                    for (int i = 0; i < runningRequests.size(); i++) {
-                        RPCRequest request = runningRequests.get(i);
-                        if (request.token == token) {
-                            found = true;
-
-                            FileLog.d("tmessages", "===== Cancelled running rpc request " + request.rawRequest);
-
-                            if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                                if (notifyServer) {
-                                    TLRPC.TL_rpc_drop_answer dropAnswer = new TLRPC.TL_rpc_drop_answer();
-                                    dropAnswer.req_msg_id = request.runningMessageId;
-                                    performRpc(dropAnswer, null, false, request.flags);
-                                }
-                            }
+                    request = runningRequests.get(token);
+                    if (request != null) {
+                        found = true;
 
-                            request.cancelled = true;
-                            request.rawRequest.freeResources();
-                            request.rpcRequest.freeResources();
-                            runningRequests.remove(i);
-                            break;
+                        FileLog.d("tmessages", "===== Cancelled running rpc request " + request.rawRequest);
+
+                        if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
+                            if (notifyServer) {
+                                TLRPC.TL_rpc_drop_answer dropAnswer = new TLRPC.TL_rpc_drop_answer();
+                                dropAnswer.req_msg_id = request.runningMessageId;
+                                performRpc(dropAnswer, null, false, request.flags);
+                            }
                         }
+
+                        request.cancelled = true;
+                        request.rawRequest.freeResources();
+                        request.rpcRequest.freeResources();
+                        runningRequests.remove(request);
                     }
                     if (!found) {
                         FileLog.d("tmessages", "***** Warning: cancelling unknown request");
@@ -1045,9 +1040,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         }
 
         int currentTime = (int)(System.currentTimeMillis() / 1000);
-        for (int i = 0; i < runningRequests.size(); i++) {
-            RPCRequest request = runningRequests.get(i);
-
+        for (RPCRequest request : runningRequests.toArray()) {
             if (UserConfig.waitingForPasswordEnter && (request.flags & RPCRequest.RPCRequestClassWithoutLogin) == 0) {
                 FileLog.e("tmessages", "skip request " + request.rawRequest + ", need password enter");
                 continue;
@@ -1070,9 +1063,8 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 }
                 if (requestStartTime != 0 && requestStartTime < currentTime - timeout) {
                     FileLog.e("tmessages", "move " + request.rawRequest + " to requestQueue");
+                    runningRequests.remove(request);
                     requestQueue.add(request);
-                    runningRequests.remove(i);
-                    i--;
                     continue;
                 }
             }
@@ -1130,7 +1122,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 if (request.runningMessageId != 0) {
                     request.addRespondMessageId(request.runningMessageId);
                 }
-                request.runningMessageId = 0;
+                runningRequests.setRunningMessageId(request, 0);
                 request.runningMessageSeqNo = 0;
                 request.transportChannelToken = 0;
                 forceThisRequest = false;
@@ -1172,8 +1164,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                         if (request.completionBlock != null) {
                             request.completionBlock.run(null, error);
                         }
-                        runningRequests.remove(i);
-                        i--;
+                        runningRequests.remove(request);
                         continue;
                     }
                 }
@@ -1183,7 +1174,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
                 if (request.runningMessageSeqNo == 0) {
                     request.runningMessageSeqNo = connection.generateMessageSeqNo(true);
-                    request.runningMessageId = generateMessageId();
+                    runningRequests.setRunningMessageId(request, generateMessageId());
                 }
                 networkMessage.protoMessage.msg_id = request.runningMessageId;
                 networkMessage.protoMessage.seqno = request.runningMessageSeqNo;
@@ -1233,25 +1224,13 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             }
         }
 
-        int genericRunningRequestCount = 0;
-        int uploadRunningRequestCount = 0;
-        int downloadRunningRequestCount = 0;
-
-        for (RPCRequest request : runningRequests) {
-            if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                genericRunningRequestCount++;
-            } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                uploadRunningRequestCount++;
-            } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                downloadRunningRequestCount++;
-            }
-        }
+        int genericRunningRequestCount = runningRequests.getCount(RPCRequest.RPCRequestClassGeneric);
+        int uploadRunningRequestCount = runningRequests.getCount(RPCRequest.RPCRequestClassUploadMedia);
+        int downloadRunningRequestCount = runningRequests.getCount(RPCRequest.RPCRequestClassDownloadMedia);
 
-        for (int i = 0; i < requestQueue.size(); i++) {
-            RPCRequest request = requestQueue.get(i);
+        for (RPCRequest request : requestQueue.toArray()) {
             if (request.cancelled) {
-                requestQueue.remove(i);
-                i--;
+                requestQueue.remove(request);
                 continue;
             }
 
@@ -1401,8 +1380,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 FileLog.e("tmessages", "***** Couldn't serialize " + request.rawRequest);
             }
 
-            requestQueue.remove(i);
-            i--;
+            requestQueue.remove(request);
         }
 
         for (Datacenter datacenter : datacenters.values()) {
@@ -1643,6 +1621,17 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         }
     }
 
+    private void logSendMessage(TcpConnection connection, Datacenter datacenter, TLRPC.TL_protoMessage message) {
+        TLObject body = message.body;
+        if (body instanceof TLRPC.initConnection) {
+            body = ((TLRPC.initConnection) body).query;
+        }
+        if (body instanceof TLRPC.invokeWithLayer) {
+            body = ((TLRPC.invokeWithLayer) body).query;
+        }
+        FileLog.d("tmessages", "%d:DC%d> Send message (%d, %d): %s", connection.getSissionId(), datacenter.datacenterId, message.seqno, message.msg_id, body);
+    }
+
     ByteBufferDesc createConnectionData(ArrayList<NetworkMessage> messages, ArrayList<Integer> quickAckId, TcpConnection connection) {
         Datacenter datacenter = datacenterWithId(connection.getDatacenterId());
         if (datacenter.authKey == null) {
@@ -1652,24 +1641,14 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         long messageId;
         TLObject messageBody;
         int messageSeqNo;
+        int bodyLength;
 
         if (messages.size() == 1) {
             NetworkMessage networkMessage = messages.get(0);
             TLRPC.TL_protoMessage message = networkMessage.protoMessage;
 
             if (BuildVars.DEBUG_VERSION) {
-                if (message.body instanceof TLRPC.invokeWithLayer) {
-                    FileLog.d("tmessages", connection.getSissionId() + ":DC" + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + ((TLRPC.invokeWithLayer)message.body).query);
-                } else if (message.body instanceof TLRPC.initConnection) {
-                    TLRPC.initConnection r = (TLRPC.initConnection)message.body;
-                    if (r.query instanceof TLRPC.invokeWithLayer) {
-                        FileLog.d("tmessages", connection.getSissionId() + ":DC" + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + ((TLRPC.invokeWithLayer)r.query).query);
-                    } else {
-                        FileLog.d("tmessages", connection.getSissionId() + ":DC" + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + r.query);
-                    }
-                } else {
-                    FileLog.d("tmessages", connection.getSissionId() + ":DC" + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + message.body);
-                }
+                logSendMessage(connection, datacenter, message);
             }
 
             long msg_time = getTimeFromMsgId(message.msg_id);
@@ -1684,10 +1663,12 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 messageId = generateMessageId();
                 messageBody = messageContainer;
                 messageSeqNo = connection.generateMessageSeqNo(false);
+                bodyLength = getContainerLength(messageContainer);
             } else {
                 messageId = message.msg_id;
                 messageBody = message.body;
                 messageSeqNo = message.seqno;
+                bodyLength = message.bytes;
             }
         } else {
             TLRPC.TL_msg_container messageContainer = new TLRPC.TL_msg_container();
@@ -1698,18 +1679,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 TLRPC.TL_protoMessage message = networkMessage.protoMessage;
                 containerMessages.add(message);
                 if (BuildVars.DEBUG_VERSION) {
-                    if (message.body instanceof TLRPC.invokeWithLayer) {
-                        FileLog.d("tmessages", connection.getSissionId() + ":DC" + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + ((TLRPC.invokeWithLayer)message.body).query);
-                    } else if (message.body instanceof TLRPC.initConnection) {
-                        TLRPC.initConnection r = (TLRPC.initConnection)message.body;
-                        if (r.query instanceof TLRPC.invokeWithLayer) {
-                            FileLog.d("tmessages", connection.getSissionId() + ":DC" + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + ((TLRPC.invokeWithLayer)r.query).query);
-                        } else {
-                            FileLog.d("tmessages", connection.getSissionId() + ":DC" + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + r.query);
-                        }
-                    } else {
-                        FileLog.d("tmessages", connection.getSissionId() + ":DC" + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + message.body);
-                    }
+                    logSendMessage(connection, datacenter, message);
                 }
             }
 
@@ -1718,63 +1688,88 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             messageId = generateMessageId();
             messageBody = messageContainer;
             messageSeqNo = connection.generateMessageSeqNo(false);
+            bodyLength = getContainerLength(messageContainer);
         }
 
-        ByteBufferDesc sizeBuffer = new ByteBufferDesc(true);
-        messageBody.serializeToStream(sizeBuffer);
-
-        ByteBufferDesc innerOs = BuffersStorage.getInstance().getFreeBuffer(8 + 8 + 8 + 4 + 4 + sizeBuffer.length());
-
         long serverSalt = datacenter.selectServerSalt(getCurrentTime());
-        if (serverSalt == 0) {
-            innerOs.writeInt64(0);
-        } else {
-            innerOs.writeInt64(serverSalt);
+        ByteBufferDesc data = serializeEncryptedMessage(datacenter, connection, serverSalt, messageId, messageSeqNo, messageBody, bodyLength);
+        if (data == null) {
+            FileLog.e("tmessages", "***** Wrong precomputed length for " + messageBody);
+            ByteBufferDesc sizeBuffer = new ByteBufferDesc(true);
+            messageBody.serializeToStream(sizeBuffer);
+            bodyLength = sizeBuffer.length();
+            data = serializeEncryptedMessage(datacenter, connection, serverSalt, messageId, messageSeqNo, messageBody, bodyLength);
+            if (data == null) {
+                return null;
+            }
         }
-        innerOs.writeInt64(connection.getSissionId());
-        innerOs.writeInt64(messageId);
-        innerOs.writeInt32(messageSeqNo);
-        innerOs.writeInt32(sizeBuffer.length());
-        messageBody.serializeToStream(innerOs);
 
-        byte[] messageKeyFull = Utilities.computeSHA1(innerOs.buffer, 0, innerOs.limit());
+        int innerLength = 8 + 8 + 8 + 4 + 4 + bodyLength;
+        int zeroCount = getPaddingLength(innerLength);
+
+        byte[] messageKeyFull = Utilities.computeSHA1(data.buffer, 24, 24 + innerLength);
         byte[] messageKey = new byte[16];
         System.arraycopy(messageKeyFull, messageKeyFull.length - 16, messageKey, 0, 16);
 
         if (quickAckId != null) {
-            SerializedData data = new SerializedData(messageKeyFull);
-            quickAckId.add(data.readInt32() & 0x7fffffff);
-            data.cleanup();
+            quickAckId.add(((messageKeyFull[0] & 0xff) | ((messageKeyFull[1] & 0xff) << 8) | ((messageKeyFull[2] & 0xff) << 16) | ((messageKeyFull[3] & 0xff) << 24)) & 0x7fffffff);
         }
 
-        MessageKeyData keyData = Utilities.generateMessageKeyData(datacenter.authKey, messageKey, false);
-
-        int zeroCount = 0;
-        if (innerOs.limit() % 16 != 0) {
-            zeroCount = 16 - innerOs.limit() % 16;
-        }
-
-        ByteBufferDesc dataForEncryption = BuffersStorage.getInstance().getFreeBuffer(innerOs.limit() + zeroCount);
-        dataForEncryption.writeRaw(innerOs);
-        BuffersStorage.getInstance().reuseFreeBuffer(innerOs);
-
         if (zeroCount != 0) {
             byte[] b = new byte[zeroCount];
             Utilities.random.nextBytes(b);
-            dataForEncryption.writeRaw(b);
+            data.writeRaw(b);
         }
 
-        Utilities.aesIgeEncryption(dataForEncryption.buffer, keyData.aesKey, keyData.aesIv, true, false, 0, dataForEncryption.limit());
-
-        ByteBufferDesc data = BuffersStorage.getInstance().getFreeBuffer(8 + messageKey.length + dataForEncryption.limit());
-        data.writeInt64(datacenter.authKeyId);
+        data.position(8);
         data.writeRaw(messageKey);
-        data.writeRaw(dataForEncryption);
-        BuffersStorage.getInstance().reuseFreeBuffer(dataForEncryption);
+
+        MessageKeyData keyData = Utilities.generateMessageKeyData(datacenter.authKey, messageKey, false);
+        Utilities.aesIgeEncryption(data.buffer, keyData.aesKey, keyData.aesIv, true, false, 24, innerLength + zeroCount);
+        data.position(data.limit());
 
         return data;
     }
 
+    private static int getPaddingLength(int length) {
+        return length % 16 == 0 ? 0 : 16 - length % 16;
+    }
+
+    /**
+     * Get the serialized length of a container without serializing it, the length of every
+     * message body is already known from wrapping it into a TL_protoMessage
+     */
+    private static int getContainerLength(TLRPC.TL_msg_container container) {
+        int length = 4 + 4;
+        for (TLRPC.TL_protoMessage message : container.messages) {
+            length += 8 + 4 + 4 + message.bytes;
+        }
+        return length;
+    }
+
+    /**
+     * Serialize a message body once, straight into a pooled buffer with room for the auth key id
+     * and message key in front and the padding behind, so it can be hashed and encrypted in place.
+     * @return Buffer positioned after the body, or null if the body didn't match bodyLength
+     */
+    private ByteBufferDesc serializeEncryptedMessage(Datacenter datacenter, TcpConnection connection, long serverSalt, long messageId, int messageSeqNo, TLObject messageBody, int bodyLength) {
+        int innerLength = 8 + 8 + 8 + 4 + 4 + bodyLength;
+        ByteBufferDesc data = BuffersStorage.getInstance().getFreeBuffer(8 + 16 + innerLength + getPaddingLength(innerLength));
+        data.writeInt64(datacenter.authKeyId);
+        data.position(8 + 16);
+        data.writeInt64(serverSalt);
+        data.writeInt64(connection.getSissionId());
+        data.writeInt64(messageId);
+        data.writeInt32(messageSeqNo);
+        data.writeInt32(bodyLength);
+        messageBody.serializeToStream(data);
+        if (data.position() != 24 + innerLength) {
+            BuffersStorage.getInstance().reuseFreeBuffer(data);
+            return null;
+        }
+        return data;
+    }
+
     void refillSaltSet(final Datacenter datacenter) {
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
@@ -1819,10 +1814,9 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                for (RPCRequest request : runningRequests) {
-                    if (requestMsgId == request.runningMessageId) {
-                        request.confirmed = true;
-                    }
+                RPCRequest request = runningRequests.getByMessageId(requestMsgId);
+                if (request != null && request.runningMessageId == requestMsgId) {
+                    request.confirmed = true;
                 }
             }
         });
@@ -1832,15 +1826,12 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                for (int i = 0; i < runningRequests.size(); i++) {
-                    RPCRequest request = runningRequests.get(i);
+                RPCRequest request = runningRequests.getByMessageId(requestMsgId);
+                if (request != null) {
                     removeRequestInClass(request.token);
-                    if (request.respondsToMessageId(requestMsgId)) {
-                        request.rawRequest.freeResources();
-                        request.rpcRequest.freeResources();
-                        runningRequests.remove(i);
-                        i--;
-                    }
+                    request.rawRequest.freeResources();
+                    request.rpcRequest.freeResources();
+                    runningRequests.remove(request);
                 }
             }
         });
@@ -1936,7 +1927,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 for (RPCRequest request : runningRequests) {
                     Datacenter dcenter = datacenterWithId(request.runningDatacenterId);
                     if (request.runningMessageId < newSession.first_msg_id && (request.flags & connection.transportRequestClass) != 0 && dcenter != null && dcenter.datacenterId == datacenter.datacenterId) {
-                        request.runningMessageId = 0;
+                        runningRequests.setRunningMessageId(request, 0);
                         request.runningMessageSeqNo = 0;
                         request.runningStartTime = 0;
                         request.runningMinStartTime = 0;
@@ -1982,8 +1973,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 TLRPC.TL_pong pong = (TLRPC.TL_pong) message;
                 long pingId = pong.ping_id;
 
-                ArrayList<Long> itemsToDelete = new ArrayList<>();
-                for (Long pid : pingIdToDate.keySet()) {
+                for (long pid : pingIdToDate.keys()) {
                     if (pid == pingId) {
                         int time = pingIdToDate.get(pid);
                         int pingTime = (int) (System.currentTimeMillis() / 1000) - time;
@@ -1997,14 +1987,11 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                                 timeDifference = (int) ((timeMessage - currentTime) / 1000 - currentPingTime / 2.0);
                             }
                         }
-                        itemsToDelete.add(pid);
+                        pingIdToDate.remove(pid);
                     } else if (pid < pingId) {
-                        itemsToDelete.add(pid);
+                        pingIdToDate.remove(pid);
                     }
                 }
-                for (Long pid : itemsToDelete) {
-                    pingIdToDate.remove(pid);
-                }
             } else {
                 FileLog.e("tmessages", "received push ping");
                 sendingPushPing = false;
@@ -2012,20 +1999,18 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         } else if (message instanceof TLRPC.TL_futuresalts) {
             TLRPC.TL_futuresalts futureSalts = (TLRPC.TL_futuresalts)message;
             long requestMid = futureSalts.req_msg_id;
-            for (RPCRequest request : runningRequests) {
-                if (request.respondsToMessageId(requestMid)) {
-                    if (request.completionBlock != null) {
-                        request.completionBlock.run(futureSalts, null);
-                    }
+            RPCRequest request = runningRequests.getByMessageId(requestMid);
+            if (request != null) {
+                if (request.completionBlock != null) {
+                    request.completionBlock.run(futureSalts, null);
+                }
 
-                    futureSalts.freeResources();
+                futureSalts.freeResources();
 
-                    messagesConfirmed(requestMid);
-                    request.completed = true;
-                    rpcCompleted(requestMid);
+                messagesConfirmed(requestMid);
+                request.completed = true;
+                rpcCompleted(requestMid);
 
-                    break;
-                }
             }
         } else if (message instanceof TLRPC.DestroySessionRes) {
             TLRPC.DestroySessionRes res = (TLRPC.DestroySessionRes)message;
@@ -2094,168 +2079,166 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             if (!ignoreResult) {
                 boolean found = false;
 
-                for (RPCRequest request : runningRequests) {
-                    if (request.respondsToMessageId(resultMid)) {
-                        found = true;
+                RPCRequest request = runningRequests.getByMessageId(resultMid);
+                if (request != null) {
+                    found = true;
 
-                        boolean discardResponse = false;
-                        boolean isError = false;
-                        if (request.completionBlock != null) {
-                            TLRPC.TL_error implicitError = null;
-                            if (resultContainer.result instanceof TLRPC.TL_gzip_packed) {
-                                TLRPC.TL_gzip_packed packet = (TLRPC.TL_gzip_packed)resultContainer.result;
-                                TLObject uncomressed = Utilities.decompress(packet.packed_data, request.rawRequest);
-                                if (uncomressed == null) {
-                                    System.gc();
-                                    uncomressed = Utilities.decompress(packet.packed_data, request.rawRequest);
-                                }
-                                if (uncomressed == null) {
-                                    throw new RuntimeException("failed to decomress responce for " + request.rawRequest);
-                                }
-                                resultContainer.result = uncomressed;
+                    boolean discardResponse = false;
+                    boolean isError = false;
+                    if (request.completionBlock != null) {
+                        TLRPC.TL_error implicitError = null;
+                        if (resultContainer.result instanceof TLRPC.TL_gzip_packed) {
+                            TLRPC.TL_gzip_packed packet = (TLRPC.TL_gzip_packed)resultContainer.result;
+                            TLObject uncomressed = Utilities.decompress(packet.packed_data, request.rawRequest);
+                            if (uncomressed == null) {
+                                System.gc();
+                                uncomressed = Utilities.decompress(packet.packed_data, request.rawRequest);
                             }
-                            if (resultContainer.result instanceof TLRPC.RpcError) {
-                                String errorMessage = ((TLRPC.RpcError) resultContainer.result).error_message;
-                                FileLog.e("tmessages", String.format("***** RPC error %d: %s", ((TLRPC.RpcError) resultContainer.result).error_code, errorMessage));
-
-                                int errorCode = ((TLRPC.RpcError) resultContainer.result).error_code;
-
-                                if (errorCode == 500 || errorCode < 0) {
-                                    if ((request.flags & RPCRequest.RPCRequestClassFailOnServerErrors) == 0) {
-                                        discardResponse = true;
-                                        int delay = Math.min(1, request.serverFailureCount * 2);
-                                        request.runningMinStartTime = request.runningStartTime + delay;
-                                        request.confirmed = false;
-                                    }
-                                    request.serverFailureCount++;
-                                } else if (errorCode == 420) {
-                                    if ((request.flags & RPCRequest.RPCRequestClassFailOnServerErrors) == 0) {
-                                        double waitTime = 2.0;
-
-                                        if (errorMessage.contains("FLOOD_WAIT_")) {
-                                            String errorMsg = errorMessage.replace("FLOOD_WAIT_", "");
-
-                                            Pattern pattern = Pattern.compile("[0-9]+");
-                                            Matcher matcher = pattern.matcher(errorMsg);
-                                            if (matcher.find()) {
-                                                errorMsg = matcher.group(0);
-                                            }
-
-                                            Integer val;
-                                            try {
-                                                val = Integer.parseInt(errorMsg);
-                                            } catch (Exception e) {
-                                                val = null;
-                                            }
-                                            if (val != null) {
-                                                waitTime = val;
-                                            }
-                                        }
+                            if (uncomressed == null) {
+                                throw new RuntimeException("failed to decomress responce for " + request.rawRequest);
+                            }
+                            resultContainer.result = uncomressed;
+                        }
+                        if (resultContainer.result instanceof TLRPC.RpcError) {
+                            String errorMessage = ((TLRPC.RpcError) resultContainer.result).error_message;
+                            FileLog.e("tmessages", String.format("***** RPC error %d: %s", ((TLRPC.RpcError) resultContainer.result).error_code, errorMessage));
 
-                                        waitTime = Math.min(30, waitTime);
+                            int errorCode = ((TLRPC.RpcError) resultContainer.result).error_code;
 
-                                        discardResponse = true;
-                                        request.wait = true;
-                                        request.runningMinStartTime = (int)(System.currentTimeMillis() / 1000 + waitTime);
-                                        request.confirmed = false;
-                                    }
+                            if (errorCode == 500 || errorCode < 0) {
+                                if ((request.flags & RPCRequest.RPCRequestClassFailOnServerErrors) == 0) {
+                                    discardResponse = true;
+                                    int delay = Math.min(1, request.serverFailureCount * 2);
+                                    request.runningMinStartTime = request.runningStartTime + delay;
+                                    request.confirmed = false;
                                 }
+                                request.serverFailureCount++;
+                            } else if (errorCode == 420) {
+                                if ((request.flags & RPCRequest.RPCRequestClassFailOnServerErrors) == 0) {
+                                    double waitTime = 2.0;
+
+                                    if (errorMessage.contains("FLOOD_WAIT_")) {
+                                        String errorMsg = errorMessage.replace("FLOOD_WAIT_", "");
+
+                                        Pattern pattern = Pattern.compile("[0-9]+");
+                                        Matcher matcher = pattern.matcher(errorMsg);
+                                        if (matcher.find()) {
+                                            errorMsg = matcher.group(0);
+                                        }
 
-                                implicitError = new TLRPC.TL_error();
-                                implicitError.code = ((TLRPC.RpcError)resultContainer.result).error_code;
-                                implicitError.text = ((TLRPC.RpcError)resultContainer.result).error_message;
-                            } else if (!(resultContainer.result instanceof TLRPC.TL_error)) {
-                                if (request.rawRequest == null || resultContainer.result == null || !request.rawRequest.responseClass().isAssignableFrom(resultContainer.result.getClass())) {
-                                    if (request.rawRequest == null) {
-                                        FileLog.e("tmessages", "rawRequest is null");
-                                    } else {
-                                        FileLog.e("tmessages", "***** RPC error: invalid response class " + resultContainer.result + " (" + request.rawRequest.responseClass() + " expected)");
+                                        Integer val;
+                                        try {
+                                            val = Integer.parseInt(errorMsg);
+                                        } catch (Exception e) {
+                                            val = null;
+                                        }
+                                        if (val != null) {
+                                            waitTime = val;
+                                        }
                                     }
-                                    implicitError = new TLRPC.TL_error();
-                                    implicitError.code = -1000;
-                                    implicitError.text = "";
+
+                                    waitTime = Math.min(30, waitTime);
+
+                                    discardResponse = true;
+                                    request.wait = true;
+                                    request.runningMinStartTime = (int)(System.currentTimeMillis() / 1000 + waitTime);
+                                    request.confirmed = false;
                                 }
                             }
 
-                            if (!discardResponse) {
-                                if (implicitError != null || resultContainer.result instanceof TLRPC.TL_error) {
-                                    isError = true;
-                                    request.completionBlock.run(null, implicitError != null ? implicitError : (TLRPC.TL_error) resultContainer.result);
+                            implicitError = new TLRPC.TL_error();
+                            implicitError.code = ((TLRPC.RpcError)resultContainer.result).error_code;
+                            implicitError.text = ((TLRPC.RpcError)resultContainer.result).error_message;
+                        } else if (!(resultContainer.result instanceof TLRPC.TL_error)) {
+                            if (request.rawRequest == null || resultContainer.result == null || !request.rawRequest.responseClass().isAssignableFrom(resultContainer.result.getClass())) {
+                                if (request.rawRequest == null) {
+                                    FileLog.e("tmessages", "rawRequest is null");
                                 } else {
-                                    if (resultContainer.result instanceof TLRPC.updates_Difference) {
-                                        pushMessagesReceived = true;
-                                        AndroidUtilities.runOnUIThread(new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                if (wakeLock.isHeld()) {
-                                                    FileLog.e("tmessages", "release wakelock");
-                                                    wakeLock.release();
-                                                }
-                                            }
-                                        });
-                                    }
-                                    if (request.rawRequest instanceof TLRPC.TL_auth_checkPassword) {
-                                        UserConfig.setWaitingForPasswordEnter(false);
-                                        UserConfig.saveConfig(false);
-                                    }
-                                    request.completionBlock.run(resultContainer.result, null);
+                                    FileLog.e("tmessages", "***** RPC error: invalid response class " + resultContainer.result + " (" + request.rawRequest.responseClass() + " expected)");
                                 }
+                                implicitError = new TLRPC.TL_error();
+                                implicitError.code = -1000;
+                                implicitError.text = "";
                             }
+                        }
 
-                            if (implicitError != null && implicitError.code == 401) {
+                        if (!discardResponse) {
+                            if (implicitError != null || resultContainer.result instanceof TLRPC.TL_error) {
                                 isError = true;
-                                if (implicitError.text != null && implicitError.text.contains("SESSION_PASSWORD_NEEDED")) {
-                                    UserConfig.setWaitingForPasswordEnter(true);
-                                    UserConfig.saveConfig(false);
-                                    if (UserConfig.isClientActivated()) {
-                                        discardResponse = true;
-                                        AndroidUtilities.runOnUIThread(new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                NotificationCenter.getInstance().postNotificationName(NotificationCenter.needPasswordEnter);
-                                            }
-                                        });
-                                    }
-                                } else if (datacenter.datacenterId == currentDatacenterId || datacenter.datacenterId == movingToDatacenterId) {
-                                    if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0 && UserConfig.isClientActivated()) {
-                                        UserConfig.clearConfig();
-                                        AndroidUtilities.runOnUIThread(new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                NotificationCenter.getInstance().postNotificationName(NotificationCenter.appDidLogout);
+                                request.completionBlock.run(null, implicitError != null ? implicitError : (TLRPC.TL_error) resultContainer.result);
+                            } else {
+                                if (resultContainer.result instanceof TLRPC.updates_Difference) {
+                                    pushMessagesReceived = true;
+                                    AndroidUtilities.runOnUIThread(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            if (wakeLock.isHeld()) {
+                                                FileLog.e("tmessages", "release wakelock");
+                                                wakeLock.release();
                                             }
-                                        });
-                                    }
-                                } else {
-                                    datacenter.authorized = false;
-                                    saveSession();
-                                    discardResponse = true;
-                                    if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0 || (request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                                        retryRequestsFromDatacenter = datacenter.datacenterId;
-                                        retryRequestsClass = request.flags;
-                                    }
+                                        }
+                                    });
                                 }
+                                if (request.rawRequest instanceof TLRPC.TL_auth_checkPassword) {
+                                    UserConfig.setWaitingForPasswordEnter(false);
+                                    UserConfig.saveConfig(false);
+                                }
+                                request.completionBlock.run(resultContainer.result, null);
                             }
                         }
 
-                        if (!discardResponse) {
-                            if (request.initRequest && !isError) {
-                                if (datacenter.lastInitVersion != currentAppVersion) {
-                                    datacenter.lastInitVersion = currentAppVersion;
-                                    saveSession();
-                                    FileLog.e("tmessages", "init connection completed");
-                                } else {
-                                    FileLog.e("tmessages", "rpc is init, but init connection already completed");
+                        if (implicitError != null && implicitError.code == 401) {
+                            isError = true;
+                            if (implicitError.text != null && implicitError.text.contains("SESSION_PASSWORD_NEEDED")) {
+                                UserConfig.setWaitingForPasswordEnter(true);
+                                UserConfig.saveConfig(false);
+                                if (UserConfig.isClientActivated()) {
+                                    discardResponse = true;
+                                    AndroidUtilities.runOnUIThread(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            NotificationCenter.getInstance().postNotificationName(NotificationCenter.needPasswordEnter);
+                                        }
+                                    });
+                                }
+                            } else if (datacenter.datacenterId == currentDatacenterId || datacenter.datacenterId == movingToDatacenterId) {
+                                if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0 && UserConfig.isClientActivated()) {
+                                    UserConfig.clearConfig();
+                                    AndroidUtilities.runOnUIThread(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            NotificationCenter.getInstance().postNotificationName(NotificationCenter.appDidLogout);
+                                        }
+                                    });
+                                }
+                            } else {
+                                datacenter.authorized = false;
+                                saveSession();
+                                discardResponse = true;
+                                if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0 || (request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
+                                    retryRequestsFromDatacenter = datacenter.datacenterId;
+                                    retryRequestsClass = request.flags;
                                 }
                             }
-                            request.completed = true;
-                            rpcCompleted(resultMid);
-                        } else {
-                            request.runningMessageId = 0;
-                            request.runningMessageSeqNo = 0;
-                            request.transportChannelToken = 0;
                         }
-                        break;
+                    }
+
+                    if (!discardResponse) {
+                        if (request.initRequest && !isError) {
+                            if (datacenter.lastInitVersion != currentAppVersion) {
+                                datacenter.lastInitVersion = currentAppVersion;
+                                saveSession();
+                                FileLog.e("tmessages", "init connection completed");
+                            } else {
+                                FileLog.e("tmessages", "rpc is init, but init connection already completed");
+                            }
+                        }
+                        request.completed = true;
+                        rpcCompleted(resultMid);
+                    } else {
+                        runningRequests.setRunningMessageId(request, 0);
+                        request.runningMessageSeqNo = 0;
+                        request.transportChannelToken = 0;
                     }
                 }
 
@@ -2314,15 +2297,10 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             }
             long resultMid = ((TLRPC.TL_bad_server_salt) message).bad_msg_id;
             if (resultMid != 0) {
-                for (RPCRequest request : runningRequests) {
-                    if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) == 0) {
-                        continue;
-                    }
-                    if (request.respondsToMessageId(resultMid)) {
-                        request.retryCount = 0;
-                        request.salt = true;
-                        break;
-                    }
+                RPCRequest request = runningRequests.getByMessageId(resultMid);
+                if (request != null && (request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
+                    request.retryCount = 0;
+                    request.salt = true;
                 }
             }
 
@@ -2347,18 +2325,13 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             boolean confirm = true;
 
             if (detailedInfo instanceof TLRPC.TL_msg_detailed_info) {
-                for (RPCRequest request : runningRequests) {
-                    if (request.respondsToMessageId(detailedInfo.msg_id)) {
-                        if (request.completed) {
-                            break;
-                        }
-                        if (request.lastResendTime == 0 || request.lastResendTime + 60 < (int)(System.currentTimeMillis() / 1000)) {
-                            request.lastResendTime = (int)(System.currentTimeMillis() / 1000);
-                            requestResend = true;
-                        } else {
-                            confirm = false;
-                        }
-                        break;
+                RPCRequest request = runningRequests.getByMessageId(detailedInfo.msg_id);
+                if (request != null && !request.completed) {
+                    if (request.lastResendTime == 0 || request.lastResendTime + 60 < (int)(System.currentTimeMillis() / 1000)) {
+                        request.lastResendTime = (int)(System.currentTimeMillis() / 1000);
+                        requestResend = true;
+                    } else {
+                        confirm = false;
                     }
                 }
             } else {
@@ -2436,15 +2409,11 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             ping.disconnect_delay = 35;
             pingIdToDate.put(ping.ping_id, (int) (System.currentTimeMillis() / 1000));
             if (pingIdToDate.size() > 20) {
-                ArrayList<Long> itemsToDelete = new ArrayList<>();
-                for (Long pid : pingIdToDate.keySet()) {
+                for (long pid : pingIdToDate.keys()) {
                     if (pid < nextPingId - 10) {
-                        itemsToDelete.add(pid);
+                        pingIdToDate.remove(pid);
                     }
                 }
-                for (Long pid : itemsToDelete) {
-                    pingIdToDate.remove(pid);
-                }
             }
         }
 
@@ -2561,11 +2530,10 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
     public void tcpConnectionQuiackAckReceived(TcpConnection connection, int ack) {
         ArrayList<Long> arr = quickAckIdToRequestIds.get(ack);
         if (arr != null) {
-            for (RPCRequest request : runningRequests) {
-                if (arr.contains(request.token)) {
-                    if (request.quickAckBlock != null) {
-                        request.quickAckBlock.quickAck();
-                    }
+            for (Long token : arr) {
+                RPCRequest request = runningRequests.get(token);
+                if (request != null && request.quickAckBlock != null) {
+                    request.quickAckBlock.quickAck();
                 }
             }
             quickAckIdToRequestIds.remove(ack);
@@ -2706,10 +2674,9 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
     }
 
     public TLObject getRequestWithMessageId(long msgId) {
-        for (RPCRequest request : runningRequests) {
-            if (msgId == request.runningMessageId) {
-                return request.rawRequest;
-            }
+        RPCRequest request = runningRequests.getByMessageId(msgId);
+        if (request != null && request.runningMessageId == msgId) {
+            return request.rawRequest;
         }
         return null;
     }
@@ -19,6 +19,8 @@ public class FileLoadOperation {
     private static class RequestInfo {
         private long requestToken = 0;
         private int offset = 0;
+        private int limit = 0;
+        private long startTime = 0;
         private TLRPC.TL_upload_file response = null;
     }
 
@@ -27,8 +29,12 @@ public class FileLoadOperation {
     private final static int stateFailed = 2;
     private final static int stateFinished = 3;
 
-    private final static int downloadChunkSize = 1024 * 32;
-    private final static int maxDownloadRequests = 3;
+    private final static int minDownloadChunkSize = 1024 * 32;
+    private final static int maxDownloadChunkSize = 1024 * 128;
+    private final static int minDownloadRequests = 2;
+    private final static int maxDownloadRequests = 4;
+    private final static int syncInterval = 1024 * 1024;
+    private final static int ivFileSize = 32 + 4;
 
     private int datacenter_id;
     private TLRPC.InputFileLocation location;
@@ -43,6 +49,13 @@ public class FileLoadOperation {
     private ArrayList<RequestInfo> requestInfos = new ArrayList<>(maxDownloadRequests);
     private ArrayList<RequestInfo> delayedRequestInfos = new ArrayList<>(maxDownloadRequests - 1);
 
+    private int downloadChunkSize = minDownloadChunkSize;
+    private int downloadRequestsCount = 3;
+    private long downloadStartTime = 0;
+    private long receivedBytes = 0;
+    private long minRequestTime = Long.MAX_VALUE;
+    private int syncedBytes = 0;
+
     private File cacheFileTemp;
     private File cacheFileFinal;
     private File cacheIvTemp;
@@ -227,15 +240,21 @@ public class FileLoadOperation {
             cacheFileTemp = new File(tempPath, fileNameTemp);
             if (cacheFileTemp.exists()) {
                 downloadedBytes = (int)cacheFileTemp.length();
-                nextDownloadOffset = downloadedBytes = downloadedBytes / 1024 * 1024;
+                nextDownloadOffset = syncedBytes = downloadedBytes = downloadedBytes / 1024 * 1024;
             }
             if (fileNameIv != null) {
                 cacheIvTemp = new File(tempPath, fileNameIv);
                 try {
-                    fiv = new RandomAccessFile(cacheIvTemp, "rws");
+                    fiv = new RandomAccessFile(cacheIvTemp, "rw");
                     long len = cacheIvTemp.length();
-                    if (len > 0 && len % 32 == 0) {
-                        fiv.read(iv, 0, 32);
+                    if (len == ivFileSize && downloadedBytes != 0) {
+                        fiv.readFully(iv, 0, 32);
+                        int syncedOffset = fiv.readInt();
+                        if (syncedOffset >= 0 && syncedOffset <= cacheFileTemp.length()) {
+                            nextDownloadOffset = syncedBytes = downloadedBytes = syncedOffset;
+                        } else {
+                            downloadedBytes = 0;
+                        }
                     } else {
                         downloadedBytes = 0;
                     }
@@ -245,7 +264,10 @@ public class FileLoadOperation {
                 }
             }
             try {
-                fileOutputStream = new RandomAccessFile(cacheFileTemp, "rws");
+                fileOutputStream = new RandomAccessFile(cacheFileTemp, "rw");
+                if (fiv != null) {
+                    fileOutputStream.setLength(downloadedBytes);
+                }
                 if (downloadedBytes != 0) {
                     fileOutputStream.seek(downloadedBytes);
                 }
@@ -305,6 +327,7 @@ public class FileLoadOperation {
     }
 
     private void cleanup() {
+        syncFiles();
         try {
             if (fileOutputStream != null) {
                 fileOutputStream.close();
@@ -331,6 +354,51 @@ public class FileLoadOperation {
         delayedRequestInfos.clear();
     }
 
+    /**
+     * Flush written data to the device, then write and flush the iv together with the offset it
+     * belongs to, so a resumed download continues from data that is known to be on the device
+     */
+    private void syncFiles() {
+        try {
+            if (fileOutputStream != null) {
+                fileOutputStream.getChannel().force(false);
+            }
+            if (fiv != null) {
+                fiv.seek(0);
+                fiv.write(iv);
+                fiv.writeInt(downloadedBytes);
+                fiv.getChannel().force(false);
+            }
+            syncedBytes = downloadedBytes;
+        } catch (Exception e) {
+            FileLog.e("tmessages", e);
+        }
+    }
+
+    /**
+     * Adjust chunk size and number of parallel requests after a response. The data in flight is
+     * kept at twice the measured throughput times the shortest request time, so the window grows
+     * while responses come back as fast as before and stops growing once they start to queue.
+     */
+    private void updateDownloadWindow(RequestInfo requestInfo) {
+        long currentTime = System.currentTimeMillis();
+        minRequestTime = Math.max(1, Math.min(minRequestTime, currentTime - requestInfo.startTime));
+        receivedBytes += requestInfo.response.bytes.limit();
+        long elapsed = Math.max(1, currentTime - downloadStartTime);
+        long windowBytes = receivedBytes * minRequestTime * 2 / elapsed;
+
+        int chunkSize = minDownloadChunkSize;
+        while (chunkSize < maxDownloadChunkSize && (long) chunkSize * 2 * minDownloadRequests <= windowBytes) {
+            chunkSize *= 2;
+        }
+        //a request must not cross a 1MB boundary, so the offset has to be a multiple of the limit
+        while (chunkSize > minDownloadChunkSize && nextDownloadOffset % chunkSize != 0) {
+            chunkSize /= 2;
+        }
+        downloadChunkSize = chunkSize;
+        downloadRequestsCount = (int) Math.max(minDownloadRequests, Math.min(maxDownloadRequests, windowBytes / chunkSize));
+    }
+
     private void onFinishLoadingFile() throws Exception {
         if (state != stateDownloading) {
             return;
@@ -371,12 +439,11 @@ public class FileLoadOperation {
                     FileChannel channel = fileOutputStream.getChannel();
                     channel.write(requestInfo.response.bytes.buffer);
                 }
-                if (fiv != null) {
-                    fiv.seek(0);
-                    fiv.write(iv);
-                }
                 int currentBytesSize = requestInfo.response.bytes.limit();
                 downloadedBytes += currentBytesSize;
+                if (downloadedBytes - syncedBytes >= syncInterval) {
+                    syncFiles();
+                }
                 if (totalBytesCount > 0 && state == stateDownloading) {
                     delegate.didChangedLoadProgress(FileLoadOperation.this,  Math.min(1.0f, (float)downloadedBytes / (float)totalBytesCount));
                 }
@@ -393,10 +460,10 @@ public class FileLoadOperation {
                     }
                 }
 
-                if (currentBytesSize != downloadChunkSize) {
+                if (currentBytesSize != requestInfo.limit) {
                     onFinishLoadingFile();
                 } else {
-                    if (totalBytesCount != downloadedBytes && downloadedBytes % downloadChunkSize == 0 || totalBytesCount > 0 && totalBytesCount > downloadedBytes) {
+                    if (totalBytesCount != downloadedBytes && downloadedBytes % minDownloadChunkSize == 0 || totalBytesCount > 0 && totalBytesCount > downloadedBytes) {
                         startDownloadRequest();
                     } else {
                         onFinishLoadingFile();
@@ -424,10 +491,11 @@ public class FileLoadOperation {
                 } else {
                     datacenter_id = val;
                     nextDownloadOffset = 0;
+                    downloadStartTime = 0;
                     startDownloadRequest();
                 }
             } else if (error.text.contains("OFFSET_INVALID")) {
-                if (downloadedBytes % downloadChunkSize == 0) {
+                if (downloadedBytes % minDownloadChunkSize == 0) {
                     try {
                         onFinishLoadingFile();
                     } catch (Exception e) {
@@ -453,12 +521,17 @@ public class FileLoadOperation {
     }
 
     private void startDownloadRequest() {
-        if (state != stateDownloading || totalBytesCount > 0 && nextDownloadOffset >= totalBytesCount || requestInfos.size() + delayedRequestInfos.size() >= maxDownloadRequests) {
+        if (state != stateDownloading || totalBytesCount > 0 && nextDownloadOffset >= totalBytesCount || requestInfos.size() + delayedRequestInfos.size() >= downloadRequestsCount) {
             return;
         }
         int count = 1;
         if (totalBytesCount > 0) {
-            count = Math.max(0, maxDownloadRequests - requestInfos.size() - delayedRequestInfos.size());
+            count = Math.max(0, downloadRequestsCount - requestInfos.size() - delayedRequestInfos.size());
+        }
+        long currentTime = System.currentTimeMillis();
+        if (downloadStartTime == 0) {
+            downloadStartTime = currentTime;
+            receivedBytes = 0;
         }
 
         for (int a = 0; a < count; a++) {
@@ -475,10 +548,15 @@ public class FileLoadOperation {
             final RequestInfo requestInfo = new RequestInfo();
             requestInfos.add(requestInfo);
             requestInfo.offset = req.offset;
+            requestInfo.limit = req.limit;
+            requestInfo.startTime = currentTime;
             requestInfo.requestToken = ConnectionsManager.getInstance().performRpc(req, new RPCRequest.RPCRequestDelegate() {
                 @Override
                 public void run(TLObject response, TLRPC.TL_error error) {
                     requestInfo.response = (TLRPC.TL_upload_file) response;
+                    if (error == null && requestInfo.response != null && requestInfo.response.bytes != null) {
+                        updateDownloadWindow(requestInfo);
+                    }
                     processRequestResult(requestInfo, error);
                 }
             }, null, true, RPCRequest.RPCRequestClassDownloadMedia | (isForceRequest ? RPCRequest.RPCRequestClassForceDownload : 0), datacenter_id, isLast);
@@ -55,6 +55,13 @@ public class FileLoader {
     private int currentUploadOperationsCount = 0;
     private int currentUploadSmallOperationsCount = 0;
 
+    private volatile int maxLoadOperationsCount = 1;
+    private volatile int maxAudioLoadOperationsCount = 1;
+    private volatile int maxPhotoLoadOperationsCount = 1;
+    private volatile int maxForceLoadOperationsCount = 3;
+    private volatile int maxForceAudioLoadOperationsCount = 3;
+    private volatile int maxForcePhotoLoadOperationsCount = 3;
+
     private static volatile FileLoader Instance = null;
     public static FileLoader getInstance() {
         FileLoader localInstance = Instance;
@@ -88,6 +95,28 @@ public class FileLoader {
         return dir;
     }
 
+    /**
+     * Set how many files of a media type are downloaded at once, the rest wait in a queue.
+     * Videos and documents share a queue, so they share the limits too.
+     * @param type MEDIA_DIR_IMAGE, MEDIA_DIR_AUDIO, MEDIA_DIR_VIDEO or MEDIA_DIR_DOCUMENT
+     * @param count Limit while the first queued file is not forced
+     * @param forceCount Limit while the first queued file is forced
+     */
+    public void setMaxLoadOperationsCount(int type, int count, int forceCount) {
+        count = Math.max(1, count);
+        forceCount = Math.max(count, forceCount);
+        if (type == MEDIA_DIR_AUDIO) {
+            maxAudioLoadOperationsCount = count;
+            maxForceAudioLoadOperationsCount = forceCount;
+        } else if (type == MEDIA_DIR_IMAGE) {
+            maxPhotoLoadOperationsCount = count;
+            maxForcePhotoLoadOperationsCount = forceCount;
+        } else if (type == MEDIA_DIR_VIDEO || type == MEDIA_DIR_DOCUMENT) {
+            maxLoadOperationsCount = count;
+            maxForceLoadOperationsCount = forceCount;
+        }
+    }
+
     public void cancelUploadFile(final String location, final boolean enc) {
         fileLoaderQueue.postRunnable(new Runnable() {
             @Override
@@ -445,8 +474,8 @@ public class FileLoader {
                         }
                     }
                 });
-                int maxCount = force ? 3 : 1;
                 if (audio != null) {
+                    int maxCount = force ? maxForceAudioLoadOperationsCount : maxAudioLoadOperationsCount;
                     if (currentAudioLoadOperationsCount < maxCount) {
                         currentAudioLoadOperationsCount++;
                         operation.start();
@@ -458,6 +487,7 @@ public class FileLoader {
                         }
                     }
                 } else if (location != null) {
+                    int maxCount = force ? maxForcePhotoLoadOperationsCount : maxPhotoLoadOperationsCount;
                     if (currentPhotoLoadOperationsCount < maxCount) {
                         currentPhotoLoadOperationsCount++;
                         operation.start();
@@ -469,6 +499,7 @@ public class FileLoader {
                         }
                     }
                 } else {
+                    int maxCount = force ? maxForceLoadOperationsCount : maxLoadOperationsCount;
                     if (currentLoadOperationsCount < maxCount) {
                         currentLoadOperationsCount++;
                         operation.start();
@@ -492,42 +523,39 @@ public class FileLoader {
                 FileLoadOperation operation = null;
                 if (audio != null) {
                     currentAudioLoadOperationsCount--;
-                    if (!audioLoadOperationQueue.isEmpty()) {
+                    while (!audioLoadOperationQueue.isEmpty()) {
                         operation = audioLoadOperationQueue.get(0);
-                        int maxCount = operation.isForceRequest() ? 3 : 1;
-                        if (currentAudioLoadOperationsCount < maxCount) {
-                            operation = audioLoadOperationQueue.poll();
-                            if (operation != null) {
-                                currentAudioLoadOperationsCount++;
-                                operation.start();
-                            }
+                        int maxCount = operation.isForceRequest() ? maxForceAudioLoadOperationsCount : maxAudioLoadOperationsCount;
+                        if (currentAudioLoadOperationsCount >= maxCount) {
+                            break;
                         }
+                        operation = audioLoadOperationQueue.poll();
+                        currentAudioLoadOperationsCount++;
+                        operation.start();
                     }
                 } else if (location != null) {
                     currentPhotoLoadOperationsCount--;
-                    if (!photoLoadOperationQueue.isEmpty()) {
+                    while (!photoLoadOperationQueue.isEmpty()) {
                         operation = photoLoadOperationQueue.get(0);
-                        int maxCount = operation.isForceRequest() ? 3 : 1;
-                        if (currentPhotoLoadOperationsCount < maxCount) {
-                            operation = photoLoadOperationQueue.poll();
-                            if (operation != null) {
-                                currentPhotoLoadOperationsCount++;
-                                operation.start();
-                            }
+                        int maxCount = operation.isForceRequest() ? maxForcePhotoLoadOperationsCount : maxPhotoLoadOperationsCount;
+                        if (currentPhotoLoadOperationsCount >= maxCount) {
+                            break;
                         }
+                        operation = photoLoadOperationQueue.poll();
+                        currentPhotoLoadOperationsCount++;
+                        operation.start();
                     }
                 } else {
                     currentLoadOperationsCount--;
-                    if (!loadOperationQueue.isEmpty()) {
+                    while (!loadOperationQueue.isEmpty()) {
                         operation = loadOperationQueue.get(0);
-                        int maxCount = operation.isForceRequest() ? 3 : 1;
-                        if (currentLoadOperationsCount < maxCount) {
-                            operation = loadOperationQueue.poll();
-                            if (operation != null) {
-                                currentLoadOperationsCount++;
-                                operation.start();
-                            }
+                        int maxCount = operation.isForceRequest() ? maxForceLoadOperationsCount : maxLoadOperationsCount;
+                        if (currentLoadOperationsCount >= maxCount) {
+                            break;
                         }
+                        operation = loadOperationQueue.poll();
+                        currentLoadOperationsCount++;
+                        operation.start();
                     }
                 }
             }
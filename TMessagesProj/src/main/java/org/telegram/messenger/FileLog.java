@@ -13,17 +13,57 @@ import android.util.Log;
 
 import org.telegram.android.time.FastDateFormat;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Debug log. Callers only put the record to a preallocated ring buffer, the formatting, logcat
+ * output and writing to the file is done by the writer thread in batches, records that don't fit
+ * to the buffer are dropped and counted. Log files are rotated by size and the oldest ones are
+ * deleted, so the logs never take more than MAX_FILES * MAX_FILE_SIZE.
+ */
 public class FileLog {
-    private OutputStreamWriter streamWriter = null;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_FILE_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_FILES = 5;
+
+    private static final char LEVEL_DEBUG = 'D';
+    private static final char LEVEL_WARNING = 'W';
+    private static final char LEVEL_ERROR = 'E';
+
+    private final long[] recordTimes = new long[BUFFER_SIZE];
+    private final char[] recordLevels = new char[BUFFER_SIZE];
+    private final String[] recordTags = new String[BUFFER_SIZE];
+    private final String[] recordMessages = new String[BUFFER_SIZE];
+    private final Object[][] recordArgs = new Object[BUFFER_SIZE][];
+    private final Throwable[] recordExceptions = new Throwable[BUFFER_SIZE];
+    private final AtomicLongArray published = new AtomicLongArray(BUFFER_SIZE);
+    private final AtomicLong writeSequence = new AtomicLong();
+    private volatile long readSequence;
+    private volatile boolean writerWaiting;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile long writtenCount;
+    private volatile int rotationCount;
+
+    private BufferedWriter streamWriter = null;
     private FastDateFormat dateFormat = null;
-    private DispatchQueue logQueue = null;
-    private File currentFile = null;
+    private Thread writerThread = null;
+    private File logsDir = null;
+    private volatile File currentFile = null;
+    private int currentFileSize;
+    private long lastDateSecond = -1;
+    private String lastDate;
 
     private static volatile FileLog Instance = null;
     public static FileLog getInstance() {
@@ -46,138 +86,243 @@ public class FileLog {
         dateFormat = FastDateFormat.getInstance("dd_MM_yyyy_HH_mm_ss", Locale.US);
         try {
             File sdCard = ApplicationLoader.applicationContext.getExternalFilesDir(null);
-            if (sdCard == null) {
-                return;
+            if (sdCard != null) {
+                logsDir = new File(sdCard.getAbsolutePath() + "/logs");
+                logsDir.mkdirs();
+                openFile();
             }
-            File dir = new File(sdCard.getAbsolutePath() + "/logs");
-            if (dir == null) {
-                return;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        writerThread = new Thread("logQueue") {
+            @Override
+            public void run() {
+                runWriter();
             }
-            dir.mkdirs();
-            currentFile = new File(dir, dateFormat.format(System.currentTimeMillis()) + ".txt");
-            if (currentFile == null) {
-                return;
+        };
+        writerThread.start();
+    }
+
+    private void openFile() throws Exception {
+        currentFile = new File(logsDir, dateFormat.format(System.currentTimeMillis()) + (rotationCount != 0 ? "_" + rotationCount : "") + ".txt");
+        currentFile.createNewFile();
+        streamWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(currentFile)), 32 * 1024);
+        currentFileSize = 0;
+        write("-----start log " + dateFormat.format(System.currentTimeMillis()) + "-----\n");
+        streamWriter.flush();
+        deleteOldFiles();
+    }
+
+    private void deleteOldFiles() {
+        File[] files = logsDir.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsTime = lhs.lastModified();
+                long rhsTime = rhs.lastModified();
+                if (lhsTime < rhsTime) {
+                    return -1;
+                } else if (lhsTime > rhsTime) {
+                    return 1;
+                }
+                return 0;
+            }
+        });
+        for (int a = 0; a < files.length - MAX_FILES; a++) {
+            if (!files[a].equals(currentFile)) {
+                files[a].delete();
             }
+        }
+    }
+
+    private void rotate() {
+        try {
+            streamWriter.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
+        streamWriter = null;
+        rotationCount++;
         try {
-            logQueue = new DispatchQueue("logQueue");
-            currentFile.createNewFile();
-            FileOutputStream stream = new FileOutputStream(currentFile);
-            streamWriter = new OutputStreamWriter(stream);
-            streamWriter.write("-----start log " + dateFormat.format(System.currentTimeMillis()) + "-----\n");
-            streamWriter.flush();
+            openFile();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    public static void e(final String tag, final String message, final Throwable exception) {
-        if (!BuildVars.DEBUG_VERSION) {
-            return;
+    private void write(String string) throws Exception {
+        streamWriter.write(string);
+        currentFileSize += string.length();
+    }
+
+    private void enqueue(char level, String tag, String message, Object[] args, Throwable exception) {
+        long sequence;
+        do {
+            sequence = writeSequence.get();
+            if (sequence - readSequence >= BUFFER_SIZE) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+        } while (!writeSequence.compareAndSet(sequence, sequence + 1));
+        int index = (int) (sequence & (BUFFER_SIZE - 1));
+        recordTimes[index] = System.currentTimeMillis();
+        recordLevels[index] = level;
+        recordTags[index] = tag;
+        recordMessages[index] = message;
+        recordArgs[index] = args;
+        recordExceptions[index] = exception;
+        published.set(index, sequence + 1);
+        if (writerWaiting) {
+            LockSupport.unpark(writerThread);
         }
-        Log.e(tag, message, exception);
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
+    }
+
+    private void runWriter() {
+        while (true) {
+            long sequence = readSequence;
+            int index = (int) (sequence & (BUFFER_SIZE - 1));
+            if (published.get(index) != sequence + 1) {
+                if (streamWriter != null) {
                     try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " E/" + tag + "﹕ " + message + "\n");
-                        getInstance().streamWriter.write(exception.toString());
-                        getInstance().streamWriter.flush();
+                        streamWriter.flush();
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
                 }
-            });
+                writerWaiting = true;
+                if (published.get(index) != sequence + 1) {
+                    LockSupport.parkNanos(100000000);
+                }
+                writerWaiting = false;
+                continue;
+            }
+            long time = recordTimes[index];
+            char level = recordLevels[index];
+            String tag = recordTags[index];
+            String message = recordMessages[index];
+            Object[] args = recordArgs[index];
+            Throwable exception = recordExceptions[index];
+            recordTags[index] = null;
+            recordMessages[index] = null;
+            recordArgs[index] = null;
+            recordExceptions[index] = null;
+            readSequence = sequence + 1;
+
+            if (args != null) {
+                try {
+                    message = String.format(Locale.US, message, args);
+                } catch (Exception e) {
+                    message = message + " " + Arrays.toString(args);
+                }
+            }
+            writeRecord(time, level, tag, message, exception);
+            writtenCount++;
         }
     }
 
-    public static void e(final String tag, final String message) {
-        if (!BuildVars.DEBUG_VERSION) {
+    private void writeRecord(long time, char level, String tag, String message, Throwable exception) {
+        if (level == LEVEL_DEBUG) {
+            Log.d(tag, message);
+        } else if (level == LEVEL_WARNING) {
+            Log.w(tag, message);
+        } else if (message != null) {
+            if (exception != null) {
+                Log.e(tag, message, exception);
+            } else {
+                Log.e(tag, message);
+            }
+        } else if (exception != null) {
+            exception.printStackTrace();
+        }
+        if (streamWriter == null) {
             return;
         }
-        Log.e(tag, message);
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " E/" + tag + "﹕ " + message + "\n");
-                        getInstance().streamWriter.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+        try {
+            String prefix = getDate(time) + " " + level + "/" + tag + "﹕ ";
+            if (message != null) {
+                write(prefix + message + "\n");
+            }
+            if (exception != null) {
+                write(prefix + exception + "\n");
+                for (StackTraceElement el : exception.getStackTrace()) {
+                    write(prefix + el + "\n");
                 }
-            });
+            }
+            if (currentFileSize >= MAX_FILE_SIZE) {
+                rotate();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
         }
     }
 
-    public static void e(final String tag, final Throwable e) {
+    private String getDate(long time) {
+        long second = time / 1000;
+        if (second != lastDateSecond) {
+            lastDateSecond = second;
+            lastDate = dateFormat.format(time);
+        }
+        return lastDate;
+    }
+
+    /**
+     * Number of records that were dropped because the writer didn't keep up
+     */
+    public static long getDroppedCount() {
+        return getInstance().droppedCount.get();
+    }
+
+    public static long getWrittenCount() {
+        return getInstance().writtenCount;
+    }
+
+    public static void e(final String tag, final String message, final Throwable exception) {
         if (!BuildVars.DEBUG_VERSION) {
             return;
         }
-        e.printStackTrace();
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " E/" + tag + "﹕ " + e + "\n");
-                        StackTraceElement[] stack = e.getStackTrace();
-                        for (StackTraceElement el : stack) {
-                            getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " E/" + tag + "﹕ " + el + "\n");
-                        }
-                        getInstance().streamWriter.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
-        } else {
-            e.printStackTrace();
+        getInstance().enqueue(LEVEL_ERROR, tag, message, null, exception);
+    }
+
+    public static void e(final String tag, final String message) {
+        if (!BuildVars.DEBUG_VERSION) {
+            return;
+        }
+        getInstance().enqueue(LEVEL_ERROR, tag, message, null, null);
+    }
+
+    public static void e(final String tag, final Throwable e) {
+        if (!BuildVars.DEBUG_VERSION) {
+            return;
         }
+        getInstance().enqueue(LEVEL_ERROR, tag, null, null, e);
     }
 
     public static void d(final String tag, final String message) {
         if (!BuildVars.DEBUG_VERSION) {
             return;
         }
-        Log.d(tag, message);
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " D/" + tag + "﹕ " + message + "\n");
-                        getInstance().streamWriter.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
+        getInstance().enqueue(LEVEL_DEBUG, tag, message, null, null);
+    }
+
+    /**
+     * Debug record formatted with String.format by the writer thread, so the caller doesn't pay
+     * for building the message. Arguments must not change after the call.
+     */
+    public static void d(final String tag, final String format, final Object... args) {
+        if (!BuildVars.DEBUG_VERSION) {
+            return;
         }
+        getInstance().enqueue(LEVEL_DEBUG, tag, format, args, null);
     }
 
     public static void w(final String tag, final String message) {
         if (!BuildVars.DEBUG_VERSION) {
             return;
         }
-        Log.w(tag, message);
-        if (getInstance().streamWriter != null) {
-            getInstance().logQueue.postRunnable(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        getInstance().streamWriter.write(getInstance().dateFormat.format(System.currentTimeMillis()) + " W/" + tag + ": " + message + "\n");
-                        getInstance().streamWriter.flush();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
-        }
+        getInstance().enqueue(LEVEL_WARNING, tag, message, null, null);
     }
 
     public static void cleanupLogs() {
@@ -185,6 +330,9 @@ public class FileLog {
         File sdCard = ApplicationLoader.applicationContext.getExternalFilesDir(null);
         File dir = new File (sdCard.getAbsolutePath() + "/logs");
         File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
         for (File file : files) {
             if (getInstance().currentFile != null && file.getAbsolutePath().equals(getInstance().currentFile.getAbsolutePath())) {
                 continue;
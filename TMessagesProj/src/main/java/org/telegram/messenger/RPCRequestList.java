@@ -0,0 +1,187 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.messenger;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Requests in the order they were added, indexed by token and, optionally, by the message ids
+ * they were sent with, so lookups and removals don't scan the whole list. It also keeps the
+ * number of requests of every transport class.
+ */
+class RPCRequestList implements Iterable<RPCRequest> {
+
+    private final LinkedHashMap<Long, RPCRequest> requests = new LinkedHashMap<>();
+    private final HashMap<Long, RPCRequest> requestsByMessageId;
+    private int genericCount;
+    private int downloadCount;
+    private int uploadCount;
+
+    /**
+     * @param indexMessageIds Whether requests can be found by message id, message ids of the
+     *                        requests must then be changed through {@link #setRunningMessageId}
+     */
+    public RPCRequestList(boolean indexMessageIds) {
+        requestsByMessageId = indexMessageIds ? new HashMap<Long, RPCRequest>() : null;
+    }
+
+    public void add(RPCRequest request) {
+        if (requests.put(request.token, request) == request) {
+            return;
+        }
+        if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
+            genericCount++;
+        } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
+            uploadCount++;
+        } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
+            downloadCount++;
+        }
+        if (requestsByMessageId != null) {
+            if (request.runningMessageId != 0) {
+                requestsByMessageId.put(request.runningMessageId, request);
+            }
+            for (Long messageId : request.respondsToMessageIds) {
+                requestsByMessageId.put(messageId, request);
+            }
+        }
+    }
+
+    public boolean remove(RPCRequest request) {
+        if (requests.get(request.token) != request) {
+            return false;
+        }
+        requests.remove(request.token);
+        onRemoved(request);
+        return true;
+    }
+
+    /**
+     * Remove a request by its token
+     * @return Removed request or null if there is no request with this token
+     */
+    public RPCRequest remove(long token) {
+        RPCRequest request = requests.remove(token);
+        if (request != null) {
+            onRemoved(request);
+        }
+        return request;
+    }
+
+    private void onRemoved(RPCRequest request) {
+        if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
+            genericCount--;
+        } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
+            uploadCount--;
+        } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
+            downloadCount--;
+        }
+        if (requestsByMessageId != null) {
+            removeMessageId(request, request.runningMessageId);
+            for (Long messageId : request.respondsToMessageIds) {
+                removeMessageId(request, messageId);
+            }
+        }
+    }
+
+    private void removeMessageId(RPCRequest request, long messageId) {
+        if (messageId != 0 && requestsByMessageId.get(messageId) == request) {
+            requestsByMessageId.remove(messageId);
+        }
+    }
+
+    public RPCRequest get(long token) {
+        return requests.get(token);
+    }
+
+    /**
+     * Find the request that responds to a message id, either the one it is running with or one
+     * it was sent with before
+     * @return Request or null if no request in the list responds to this message id
+     */
+    public RPCRequest getByMessageId(long messageId) {
+        if (requestsByMessageId == null || messageId == 0) {
+            return null;
+        }
+        RPCRequest request = requestsByMessageId.get(messageId);
+        if (request != null && !request.respondsToMessageId(messageId)) {
+            requestsByMessageId.remove(messageId);
+            return null;
+        }
+        return request;
+    }
+
+    /**
+     * Change the message id a request in the list is running with
+     */
+    public void setRunningMessageId(RPCRequest request, long messageId) {
+        if (requestsByMessageId != null && requests.get(request.token) == request) {
+            if (!request.respondsToMessageIds.contains(request.runningMessageId)) {
+                removeMessageId(request, request.runningMessageId);
+            }
+            if (messageId != 0) {
+                requestsByMessageId.put(messageId, request);
+            }
+        }
+        request.runningMessageId = messageId;
+    }
+
+    /**
+     * Number of requests of a transport class
+     * @param requestClass One of RPCRequestClassGeneric, RPCRequestClassDownloadMedia or
+     *                     RPCRequestClassUploadMedia
+     */
+    public int getCount(int requestClass) {
+        if (requestClass == RPCRequest.RPCRequestClassGeneric) {
+            return genericCount;
+        } else if (requestClass == RPCRequest.RPCRequestClassUploadMedia) {
+            return uploadCount;
+        } else if (requestClass == RPCRequest.RPCRequestClassDownloadMedia) {
+            return downloadCount;
+        }
+        return 0;
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    /**
+     * Copy of the requests, to iterate over while the list is changed
+     */
+    public RPCRequest[] toArray() {
+        return requests.values().toArray(new RPCRequest[requests.size()]);
+    }
+
+    @Override
+    public Iterator<RPCRequest> iterator() {
+        final Iterator<RPCRequest> iterator = requests.values().iterator();
+        return new Iterator<RPCRequest>() {
+            private RPCRequest current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public RPCRequest next() {
+                current = iterator.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                onRemoved(current);
+            }
+        };
+    }
+}
@@ -6,419 +6,11 @@
  * Copyright Nikolai Kudashov, 2013.
  */
 
-package org.telegram.messenger;
+// Generated by Tools/generate_tl_class_store.py from TLRPC.java, do not edit by hand.
 
-import java.util.HashMap;
+package org.telegram.messenger;
 
 public class TLClassStore {
-    private HashMap<Integer, Class> classStore;
-
-    public TLClassStore () {
-        classStore = new HashMap<>();
-
-        classStore.put(TLRPC.TL_chatPhotoEmpty.constructor, TLRPC.TL_chatPhotoEmpty.class);
-        classStore.put(TLRPC.TL_chatPhoto.constructor, TLRPC.TL_chatPhoto.class);
-        classStore.put(TLRPC.TL_futuresalts.constructor, TLRPC.TL_futuresalts.class);
-        classStore.put(TLRPC.TL_bad_msg_notification.constructor, TLRPC.TL_bad_msg_notification.class);
-        classStore.put(TLRPC.TL_bad_server_salt.constructor, TLRPC.TL_bad_server_salt.class);
-        classStore.put(TLRPC.TL_error.constructor, TLRPC.TL_error.class);
-        classStore.put(TLRPC.TL_messages_sentEncryptedMessage.constructor, TLRPC.TL_messages_sentEncryptedMessage.class);
-        classStore.put(TLRPC.TL_messages_sentEncryptedFile.constructor, TLRPC.TL_messages_sentEncryptedFile.class);
-        classStore.put(TLRPC.TL_notifyAll.constructor, TLRPC.TL_notifyAll.class);
-        classStore.put(TLRPC.TL_notifyChats.constructor, TLRPC.TL_notifyChats.class);
-        classStore.put(TLRPC.TL_notifyUsers.constructor, TLRPC.TL_notifyUsers.class);
-        classStore.put(TLRPC.TL_notifyPeer.constructor, TLRPC.TL_notifyPeer.class);
-        classStore.put(TLRPC.TL_auth_checkedPhone.constructor, TLRPC.TL_auth_checkedPhone.class);
-        classStore.put(TLRPC.TL_msgs_ack.constructor, TLRPC.TL_msgs_ack.class);
-        classStore.put(TLRPC.TL_messages_chatFull.constructor, TLRPC.TL_messages_chatFull.class);
-        classStore.put(TLRPC.TL_documentAttributeAnimated.constructor, TLRPC.TL_documentAttributeAnimated.class);
-        classStore.put(TLRPC.TL_documentAttributeAudio.constructor, TLRPC.TL_documentAttributeAudio.class);
-        classStore.put(TLRPC.TL_documentAttributeFilename.constructor, TLRPC.TL_documentAttributeFilename.class);
-        classStore.put(TLRPC.TL_documentAttributeVideo.constructor, TLRPC.TL_documentAttributeVideo.class);
-        classStore.put(TLRPC.TL_documentAttributeSticker.constructor, TLRPC.TL_documentAttributeSticker.class);
-        classStore.put(TLRPC.TL_documentAttributeImageSize.constructor, TLRPC.TL_documentAttributeImageSize.class);
-        classStore.put(TLRPC.TL_rpc_result.constructor, TLRPC.TL_rpc_result.class);
-        classStore.put(TLRPC.TL_contactStatus.constructor, TLRPC.TL_contactStatus.class);
-        classStore.put(TLRPC.TL_auth_authorization.constructor, TLRPC.TL_auth_authorization.class);
-        classStore.put(TLRPC.TL_messages_messages.constructor, TLRPC.TL_messages_messages.class);
-        classStore.put(TLRPC.TL_messages_messagesSlice.constructor, TLRPC.TL_messages_messagesSlice.class);
-        classStore.put(TLRPC.TL_rpc_answer_unknown.constructor, TLRPC.TL_rpc_answer_unknown.class);
-        classStore.put(TLRPC.TL_rpc_answer_dropped.constructor, TLRPC.TL_rpc_answer_dropped.class);
-        classStore.put(TLRPC.TL_rpc_answer_dropped_running.constructor, TLRPC.TL_rpc_answer_dropped_running.class);
-        classStore.put(TLRPC.TL_contacts_link.constructor, TLRPC.TL_contacts_link.class);
-        classStore.put(TLRPC.TL_peerUser.constructor, TLRPC.TL_peerUser.class);
-        classStore.put(TLRPC.TL_peerChat.constructor, TLRPC.TL_peerChat.class);
-        classStore.put(TLRPC.TL_encryptedFile.constructor, TLRPC.TL_encryptedFile.class);
-        classStore.put(TLRPC.TL_encryptedFileEmpty.constructor, TLRPC.TL_encryptedFileEmpty.class);
-        classStore.put(TLRPC.TL_destroy_session_ok.constructor, TLRPC.TL_destroy_session_ok.class);
-        classStore.put(TLRPC.TL_destroy_session_none.constructor, TLRPC.TL_destroy_session_none.class);
-        classStore.put(TLRPC.TL_updates_differenceEmpty.constructor, TLRPC.TL_updates_differenceEmpty.class);
-        classStore.put(TLRPC.TL_updates_differenceSlice.constructor, TLRPC.TL_updates_differenceSlice.class);
-        classStore.put(TLRPC.TL_updates_difference.constructor, TLRPC.TL_updates_difference.class);
-        classStore.put(TLRPC.TL_geoPointEmpty.constructor, TLRPC.TL_geoPointEmpty.class);
-        classStore.put(TLRPC.TL_geoPoint.constructor, TLRPC.TL_geoPoint.class);
-        classStore.put(TLRPC.TL_privacyKeyStatusTimestamp.constructor, TLRPC.TL_privacyKeyStatusTimestamp.class);
-        classStore.put(TLRPC.TL_account_privacyRules.constructor, TLRPC.TL_account_privacyRules.class);
-        classStore.put(TLRPC.TL_help_appUpdate.constructor, TLRPC.TL_help_appUpdate.class);
-        classStore.put(TLRPC.TL_help_noAppUpdate.constructor, TLRPC.TL_help_noAppUpdate.class);
-        classStore.put(TLRPC.TL_messageEmpty.constructor, TLRPC.TL_messageEmpty.class);
-        classStore.put(TLRPC.TL_message.constructor, TLRPC.TL_message.class);
-        classStore.put(TLRPC.TL_messageService.constructor, TLRPC.TL_messageService.class);
-        classStore.put(TLRPC.TL_inputPhoneContact.constructor, TLRPC.TL_inputPhoneContact.class);
-        classStore.put(TLRPC.TL_sendMessageGeoLocationAction.constructor, TLRPC.TL_sendMessageGeoLocationAction.class);
-        classStore.put(TLRPC.TL_sendMessageChooseContactAction.constructor, TLRPC.TL_sendMessageChooseContactAction.class);
-        classStore.put(TLRPC.TL_sendMessageTypingAction.constructor, TLRPC.TL_sendMessageTypingAction.class);
-        classStore.put(TLRPC.TL_sendMessageUploadDocumentAction.constructor, TLRPC.TL_sendMessageUploadDocumentAction.class);
-        classStore.put(TLRPC.TL_sendMessageRecordVideoAction.constructor, TLRPC.TL_sendMessageRecordVideoAction.class);
-        classStore.put(TLRPC.TL_sendMessageUploadPhotoAction.constructor, TLRPC.TL_sendMessageUploadPhotoAction.class);
-        classStore.put(TLRPC.TL_sendMessageUploadVideoAction.constructor, TLRPC.TL_sendMessageUploadVideoAction.class);
-        classStore.put(TLRPC.TL_sendMessageUploadAudioAction.constructor, TLRPC.TL_sendMessageUploadAudioAction.class);
-        classStore.put(TLRPC.TL_sendMessageCancelAction.constructor, TLRPC.TL_sendMessageCancelAction.class);
-        classStore.put(TLRPC.TL_sendMessageRecordAudioAction.constructor, TLRPC.TL_sendMessageRecordAudioAction.class);
-        classStore.put(TLRPC.TL_invokeAfterMsg.constructor, TLRPC.TL_invokeAfterMsg.class);
-        classStore.put(TLRPC.TL_messageMediaVideo.constructor, TLRPC.TL_messageMediaVideo.class);
-        classStore.put(TLRPC.TL_messageMediaPhoto.constructor, TLRPC.TL_messageMediaPhoto.class);
-        classStore.put(TLRPC.TL_messageMediaDocument.constructor, TLRPC.TL_messageMediaDocument.class);
-        classStore.put(TLRPC.TL_messageMediaGeo.constructor, TLRPC.TL_messageMediaGeo.class);
-        classStore.put(TLRPC.TL_messageMediaEmpty.constructor, TLRPC.TL_messageMediaEmpty.class);
-        classStore.put(TLRPC.TL_messageMediaAudio.constructor, TLRPC.TL_messageMediaAudio.class);
-        classStore.put(TLRPC.TL_messageMediaContact.constructor, TLRPC.TL_messageMediaContact.class);
-        classStore.put(TLRPC.TL_messageMediaUnsupported.constructor, TLRPC.TL_messageMediaUnsupported.class);
-        classStore.put(TLRPC.TL_auth_sentAppCode.constructor, TLRPC.TL_auth_sentAppCode.class);
-        classStore.put(TLRPC.TL_auth_sentCode.constructor, TLRPC.TL_auth_sentCode.class);
-        classStore.put(TLRPC.TL_peerNotifySettingsEmpty.constructor, TLRPC.TL_peerNotifySettingsEmpty.class);
-        classStore.put(TLRPC.TL_peerNotifySettings.constructor, TLRPC.TL_peerNotifySettings.class);
-        classStore.put(TLRPC.TL_msg_resend_req.constructor, TLRPC.TL_msg_resend_req.class);
-        classStore.put(TLRPC.TL_http_wait.constructor, TLRPC.TL_http_wait.class);
-        classStore.put(TLRPC.TL_contacts_blocked.constructor, TLRPC.TL_contacts_blocked.class);
-        classStore.put(TLRPC.TL_contacts_blockedSlice.constructor, TLRPC.TL_contacts_blockedSlice.class);
-        classStore.put(TLRPC.TL_inputGeoPoint.constructor, TLRPC.TL_inputGeoPoint.class);
-        classStore.put(TLRPC.TL_inputGeoPointEmpty.constructor, TLRPC.TL_inputGeoPointEmpty.class);
-        classStore.put(TLRPC.TL_help_inviteText.constructor, TLRPC.TL_help_inviteText.class);
-        classStore.put(TLRPC.TL_messages_dhConfigNotModified.constructor, TLRPC.TL_messages_dhConfigNotModified.class);
-        classStore.put(TLRPC.TL_messages_dhConfig.constructor, TLRPC.TL_messages_dhConfig.class);
-        classStore.put(TLRPC.TL_audioEmpty.constructor, TLRPC.TL_audioEmpty.class);
-        classStore.put(TLRPC.TL_audio.constructor, TLRPC.TL_audio.class);
-        classStore.put(TLRPC.TL_destroy_sessions_res.constructor, TLRPC.TL_destroy_sessions_res.class);
-        classStore.put(TLRPC.TL_privacyValueAllowUsers.constructor, TLRPC.TL_privacyValueAllowUsers.class);
-        classStore.put(TLRPC.TL_privacyValueDisallowAll.constructor, TLRPC.TL_privacyValueDisallowAll.class);
-        classStore.put(TLRPC.TL_privacyValueAllowContacts.constructor, TLRPC.TL_privacyValueAllowContacts.class);
-        classStore.put(TLRPC.TL_privacyValueDisallowContacts.constructor, TLRPC.TL_privacyValueDisallowContacts.class);
-        classStore.put(TLRPC.TL_privacyValueAllowAll.constructor, TLRPC.TL_privacyValueAllowAll.class);
-        classStore.put(TLRPC.TL_privacyValueDisallowUsers.constructor, TLRPC.TL_privacyValueDisallowUsers.class);
-        classStore.put(TLRPC.TL_contacts_contacts.constructor, TLRPC.TL_contacts_contacts.class);
-        classStore.put(TLRPC.TL_contacts_contactsNotModified.constructor, TLRPC.TL_contacts_contactsNotModified.class);
-        classStore.put(TLRPC.TL_inputPrivacyKeyStatusTimestamp.constructor, TLRPC.TL_inputPrivacyKeyStatusTimestamp.class);
-        classStore.put(TLRPC.TL_photos_photos.constructor, TLRPC.TL_photos_photos.class);
-        classStore.put(TLRPC.TL_photos_photosSlice.constructor, TLRPC.TL_photos_photosSlice.class);
-        classStore.put(TLRPC.TL_chatFull.constructor, TLRPC.TL_chatFull.class);
-        classStore.put(TLRPC.TL_msgs_all_info.constructor, TLRPC.TL_msgs_all_info.class);
-        classStore.put(TLRPC.TL_inputPeerNotifySettings.constructor, TLRPC.TL_inputPeerNotifySettings.class);
-        classStore.put(TLRPC.TL_null.constructor, TLRPC.TL_null.class);
-        classStore.put(TLRPC.TL_inputUserSelf.constructor, TLRPC.TL_inputUserSelf.class);
-        classStore.put(TLRPC.TL_inputUserForeign.constructor, TLRPC.TL_inputUserForeign.class);
-        classStore.put(TLRPC.TL_inputUserEmpty.constructor, TLRPC.TL_inputUserEmpty.class);
-        classStore.put(TLRPC.TL_inputUserContact.constructor, TLRPC.TL_inputUserContact.class);
-        classStore.put(TLRPC.TL_p_q_inner_data.constructor, TLRPC.TL_p_q_inner_data.class);
-        classStore.put(TLRPC.TL_msgs_state_req.constructor, TLRPC.TL_msgs_state_req.class);
-        classStore.put(TLRPC.TL_boolTrue.constructor, TLRPC.TL_boolTrue.class);
-        classStore.put(TLRPC.TL_boolFalse.constructor, TLRPC.TL_boolFalse.class);
-        classStore.put(TLRPC.TL_auth_exportedAuthorization.constructor, TLRPC.TL_auth_exportedAuthorization.class);
-        classStore.put(TLRPC.TL_messages_statedMessagesLinks.constructor, TLRPC.TL_messages_statedMessagesLinks.class);
-        classStore.put(TLRPC.TL_messages_statedMessages.constructor, TLRPC.TL_messages_statedMessages.class);
-        classStore.put(TLRPC.TL_inputNotifyChats.constructor, TLRPC.TL_inputNotifyChats.class);
-        classStore.put(TLRPC.TL_inputNotifyPeer.constructor, TLRPC.TL_inputNotifyPeer.class);
-        classStore.put(TLRPC.TL_inputNotifyUsers.constructor, TLRPC.TL_inputNotifyUsers.class);
-        classStore.put(TLRPC.TL_inputNotifyGeoChatPeer.constructor, TLRPC.TL_inputNotifyGeoChatPeer.class);
-        classStore.put(TLRPC.TL_inputNotifyAll.constructor, TLRPC.TL_inputNotifyAll.class);
-        classStore.put(TLRPC.TL_inputAudioFileLocation.constructor, TLRPC.TL_inputAudioFileLocation.class);
-        classStore.put(TLRPC.TL_inputEncryptedFileLocation.constructor, TLRPC.TL_inputEncryptedFileLocation.class);
-        classStore.put(TLRPC.TL_inputVideoFileLocation.constructor, TLRPC.TL_inputVideoFileLocation.class);
-        classStore.put(TLRPC.TL_inputDocumentFileLocation.constructor, TLRPC.TL_inputDocumentFileLocation.class);
-        classStore.put(TLRPC.TL_inputFileLocation.constructor, TLRPC.TL_inputFileLocation.class);
-        classStore.put(TLRPC.TL_photos_photo.constructor, TLRPC.TL_photos_photo.class);
-        classStore.put(TLRPC.TL_userContact.constructor, TLRPC.TL_userContact.class);
-        classStore.put(TLRPC.TL_userRequest.constructor, TLRPC.TL_userRequest.class);
-        classStore.put(TLRPC.TL_userForeign.constructor, TLRPC.TL_userForeign.class);
-        classStore.put(TLRPC.TL_userDeleted.constructor, TLRPC.TL_userDeleted.class);
-        classStore.put(TLRPC.TL_userSelf.constructor, TLRPC.TL_userSelf.class);
-        classStore.put(TLRPC.TL_userEmpty.constructor, TLRPC.TL_userEmpty.class);
-        classStore.put(TLRPC.TL_geoChatMessage.constructor, TLRPC.TL_geoChatMessage.class);
-        classStore.put(TLRPC.TL_geoChatMessageService.constructor, TLRPC.TL_geoChatMessageService.class);
-        classStore.put(TLRPC.TL_geoChatMessageEmpty.constructor, TLRPC.TL_geoChatMessageEmpty.class);
-        classStore.put(TLRPC.TL_pong.constructor, TLRPC.TL_pong.class);
-        classStore.put(TLRPC.TL_messageActionChatEditPhoto.constructor, TLRPC.TL_messageActionChatEditPhoto.class);
-        classStore.put(TLRPC.TL_messageActionChatDeleteUser.constructor, TLRPC.TL_messageActionChatDeleteUser.class);
-        classStore.put(TLRPC.TL_messageActionChatDeletePhoto.constructor, TLRPC.TL_messageActionChatDeletePhoto.class);
-        classStore.put(TLRPC.TL_messageActionChatAddUser.constructor, TLRPC.TL_messageActionChatAddUser.class);
-        classStore.put(TLRPC.TL_messageActionChatCreate.constructor, TLRPC.TL_messageActionChatCreate.class);
-        classStore.put(TLRPC.TL_messageActionEmpty.constructor, TLRPC.TL_messageActionEmpty.class);
-        classStore.put(TLRPC.TL_messageActionChatEditTitle.constructor, TLRPC.TL_messageActionChatEditTitle.class);
-        classStore.put(TLRPC.TL_messageActionGeoChatCreate.constructor, TLRPC.TL_messageActionGeoChatCreate.class);
-        classStore.put(TLRPC.TL_messageActionGeoChatCheckin.constructor, TLRPC.TL_messageActionGeoChatCheckin.class);
-        classStore.put(TLRPC.TL_dh_gen_retry.constructor, TLRPC.TL_dh_gen_retry.class);
-        classStore.put(TLRPC.TL_dh_gen_fail.constructor, TLRPC.TL_dh_gen_fail.class);
-        classStore.put(TLRPC.TL_dh_gen_ok.constructor, TLRPC.TL_dh_gen_ok.class);
-        classStore.put(TLRPC.TL_peerNotifyEventsEmpty.constructor, TLRPC.TL_peerNotifyEventsEmpty.class);
-        classStore.put(TLRPC.TL_peerNotifyEventsAll.constructor, TLRPC.TL_peerNotifyEventsAll.class);
-        classStore.put(TLRPC.TL_chatLocated.constructor, TLRPC.TL_chatLocated.class);
-        classStore.put(TLRPC.TL_decryptedMessageService.constructor, TLRPC.TL_decryptedMessageService.class);
-        classStore.put(TLRPC.TL_decryptedMessage.constructor, TLRPC.TL_decryptedMessage.class);
-        classStore.put(TLRPC.TL_inputPeerNotifyEventsAll.constructor, TLRPC.TL_inputPeerNotifyEventsAll.class);
-        classStore.put(TLRPC.TL_inputPeerNotifyEventsEmpty.constructor, TLRPC.TL_inputPeerNotifyEventsEmpty.class);
-        classStore.put(TLRPC.TL_client_DH_inner_data.constructor, TLRPC.TL_client_DH_inner_data.class);
-        classStore.put(TLRPC.TL_video.constructor, TLRPC.TL_video.class);
-        classStore.put(TLRPC.TL_videoEmpty.constructor, TLRPC.TL_videoEmpty.class);
-        classStore.put(TLRPC.TL_contactBlocked.constructor, TLRPC.TL_contactBlocked.class);
-        classStore.put(TLRPC.TL_inputDocumentEmpty.constructor, TLRPC.TL_inputDocumentEmpty.class);
-        classStore.put(TLRPC.TL_inputDocument.constructor, TLRPC.TL_inputDocument.class);
-        classStore.put(TLRPC.TL_inputAppEvent.constructor, TLRPC.TL_inputAppEvent.class);
-        classStore.put(TLRPC.TL_messages_affectedHistory.constructor, TLRPC.TL_messages_affectedHistory.class);
-        classStore.put(TLRPC.TL_documentEmpty.constructor, TLRPC.TL_documentEmpty.class);
-        classStore.put(TLRPC.TL_document.constructor, TLRPC.TL_document.class);
-        classStore.put(TLRPC.TL_inputPrivacyValueDisallowUsers.constructor, TLRPC.TL_inputPrivacyValueDisallowUsers.class);
-        classStore.put(TLRPC.TL_inputPrivacyValueDisallowAll.constructor, TLRPC.TL_inputPrivacyValueDisallowAll.class);
-        classStore.put(TLRPC.TL_inputPrivacyValueDisallowContacts.constructor, TLRPC.TL_inputPrivacyValueDisallowContacts.class);
-        classStore.put(TLRPC.TL_inputPrivacyValueAllowAll.constructor, TLRPC.TL_inputPrivacyValueAllowAll.class);
-        classStore.put(TLRPC.TL_inputPrivacyValueAllowContacts.constructor, TLRPC.TL_inputPrivacyValueAllowContacts.class);
-        classStore.put(TLRPC.TL_inputPrivacyValueAllowUsers.constructor, TLRPC.TL_inputPrivacyValueAllowUsers.class);
-        classStore.put(TLRPC.TL_inputMediaContact.constructor, TLRPC.TL_inputMediaContact.class);
-        classStore.put(TLRPC.TL_inputMediaUploadedThumbDocument.constructor, TLRPC.TL_inputMediaUploadedThumbDocument.class);
-        classStore.put(TLRPC.TL_inputMediaAudio.constructor, TLRPC.TL_inputMediaAudio.class);
-        classStore.put(TLRPC.TL_inputMediaDocument.constructor, TLRPC.TL_inputMediaDocument.class);
-        classStore.put(TLRPC.TL_inputMediaVideo.constructor, TLRPC.TL_inputMediaVideo.class);
-        classStore.put(TLRPC.TL_inputMediaGeoPoint.constructor, TLRPC.TL_inputMediaGeoPoint.class);
-        classStore.put(TLRPC.TL_inputMediaEmpty.constructor, TLRPC.TL_inputMediaEmpty.class);
-        classStore.put(TLRPC.TL_inputMediaUploadedThumbVideo.constructor, TLRPC.TL_inputMediaUploadedThumbVideo.class);
-        classStore.put(TLRPC.TL_inputMediaUploadedPhoto.constructor, TLRPC.TL_inputMediaUploadedPhoto.class);
-        classStore.put(TLRPC.TL_inputMediaUploadedAudio.constructor, TLRPC.TL_inputMediaUploadedAudio.class);
-        classStore.put(TLRPC.TL_inputMediaUploadedVideo.constructor, TLRPC.TL_inputMediaUploadedVideo.class);
-        classStore.put(TLRPC.TL_inputMediaUploadedDocument.constructor, TLRPC.TL_inputMediaUploadedDocument.class);
-        classStore.put(TLRPC.TL_inputMediaPhoto.constructor, TLRPC.TL_inputMediaPhoto.class);
-        classStore.put(TLRPC.TL_geochats_messagesSlice.constructor, TLRPC.TL_geochats_messagesSlice.class);
-        classStore.put(TLRPC.TL_geochats_messages.constructor, TLRPC.TL_geochats_messages.class);
-        classStore.put(TLRPC.TL_messages_sentMessage.constructor, TLRPC.TL_messages_sentMessage.class);
-        classStore.put(TLRPC.TL_messages_sentMessageLink.constructor, TLRPC.TL_messages_sentMessageLink.class);
-        classStore.put(TLRPC.TL_encryptedMessageService.constructor, TLRPC.TL_encryptedMessageService.class);
-        classStore.put(TLRPC.TL_encryptedMessage.constructor, TLRPC.TL_encryptedMessage.class);
-        classStore.put(TLRPC.TL_contactSuggested.constructor, TLRPC.TL_contactSuggested.class);
-        classStore.put(TLRPC.TL_server_DH_params_fail.constructor, TLRPC.TL_server_DH_params_fail.class);
-        classStore.put(TLRPC.TL_server_DH_params_ok.constructor, TLRPC.TL_server_DH_params_ok.class);
-        classStore.put(TLRPC.TL_userStatusOffline.constructor, TLRPC.TL_userStatusOffline.class);
-        classStore.put(TLRPC.TL_userStatusLastWeek.constructor, TLRPC.TL_userStatusLastWeek.class);
-        classStore.put(TLRPC.TL_userStatusEmpty.constructor, TLRPC.TL_userStatusEmpty.class);
-        classStore.put(TLRPC.TL_userStatusLastMonth.constructor, TLRPC.TL_userStatusLastMonth.class);
-        classStore.put(TLRPC.TL_userStatusOnline.constructor, TLRPC.TL_userStatusOnline.class);
-        classStore.put(TLRPC.TL_userStatusRecently.constructor, TLRPC.TL_userStatusRecently.class);
-        classStore.put(TLRPC.TL_msg_copy.constructor, TLRPC.TL_msg_copy.class);
-        classStore.put(TLRPC.TL_contacts_importedContacts.constructor, TLRPC.TL_contacts_importedContacts.class);
-        classStore.put(TLRPC.TL_disabledFeature.constructor, TLRPC.TL_disabledFeature.class);
-        classStore.put(TLRPC.TL_futureSalt.constructor, TLRPC.TL_futureSalt.class);
-        classStore.put(TLRPC.TL_updateEncryptedMessagesRead.constructor, TLRPC.TL_updateEncryptedMessagesRead.class);
-        classStore.put(TLRPC.TL_updateContactLink.constructor, TLRPC.TL_updateContactLink.class);
-        classStore.put(TLRPC.TL_updateReadMessages.constructor, TLRPC.TL_updateReadMessages.class);
-        classStore.put(TLRPC.TL_updateChatParticipantDelete.constructor, TLRPC.TL_updateChatParticipantDelete.class);
-        classStore.put(TLRPC.TL_updateServiceNotification.constructor, TLRPC.TL_updateServiceNotification.class);
-        classStore.put(TLRPC.TL_updateNotifySettings.constructor, TLRPC.TL_updateNotifySettings.class);
-        classStore.put(TLRPC.TL_updateUserTyping.constructor, TLRPC.TL_updateUserTyping.class);
-        classStore.put(TLRPC.TL_updateChatUserTyping.constructor, TLRPC.TL_updateChatUserTyping.class);
-        classStore.put(TLRPC.TL_updateUserName.constructor, TLRPC.TL_updateUserName.class);
-        classStore.put(TLRPC.TL_updateNewEncryptedMessage.constructor, TLRPC.TL_updateNewEncryptedMessage.class);
-        classStore.put(TLRPC.TL_updateNewMessage.constructor, TLRPC.TL_updateNewMessage.class);
-        classStore.put(TLRPC.TL_updateMessageID.constructor, TLRPC.TL_updateMessageID.class);
-        classStore.put(TLRPC.TL_updateDeleteMessages.constructor, TLRPC.TL_updateDeleteMessages.class);
-        classStore.put(TLRPC.TL_updateEncryptedChatTyping.constructor, TLRPC.TL_updateEncryptedChatTyping.class);
-        classStore.put(TLRPC.TL_updateDcOptions.constructor, TLRPC.TL_updateDcOptions.class);
-        classStore.put(TLRPC.TL_updateChatParticipants.constructor, TLRPC.TL_updateChatParticipants.class);
-        classStore.put(TLRPC.TL_updatePrivacy.constructor, TLRPC.TL_updatePrivacy.class);
-        classStore.put(TLRPC.TL_updateEncryption.constructor, TLRPC.TL_updateEncryption.class);
-        classStore.put(TLRPC.TL_updateUserBlocked.constructor, TLRPC.TL_updateUserBlocked.class);
-        classStore.put(TLRPC.TL_updateActivation.constructor, TLRPC.TL_updateActivation.class);
-        classStore.put(TLRPC.TL_updateNewAuthorization.constructor, TLRPC.TL_updateNewAuthorization.class);
-        classStore.put(TLRPC.TL_updateNewGeoChatMessage.constructor, TLRPC.TL_updateNewGeoChatMessage.class);
-        classStore.put(TLRPC.TL_updateUserPhoto.constructor, TLRPC.TL_updateUserPhoto.class);
-        classStore.put(TLRPC.TL_updateContactRegistered.constructor, TLRPC.TL_updateContactRegistered.class);
-        classStore.put(TLRPC.TL_updateChatParticipantAdd.constructor, TLRPC.TL_updateChatParticipantAdd.class);
-        classStore.put(TLRPC.TL_updateUserStatus.constructor, TLRPC.TL_updateUserStatus.class);
-        classStore.put(TLRPC.TL_contacts_suggested.constructor, TLRPC.TL_contacts_suggested.class);
-        classStore.put(TLRPC.TL_rpc_error.constructor, TLRPC.TL_rpc_error.class);
-        classStore.put(TLRPC.TL_rpc_req_error.constructor, TLRPC.TL_rpc_req_error.class);
-        classStore.put(TLRPC.TL_inputEncryptedFile.constructor, TLRPC.TL_inputEncryptedFile.class);
-        classStore.put(TLRPC.TL_inputEncryptedFileBigUploaded.constructor, TLRPC.TL_inputEncryptedFileBigUploaded.class);
-        classStore.put(TLRPC.TL_inputEncryptedFileEmpty.constructor, TLRPC.TL_inputEncryptedFileEmpty.class);
-        classStore.put(TLRPC.TL_inputEncryptedFileUploaded.constructor, TLRPC.TL_inputEncryptedFileUploaded.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionFlushHistory.constructor, TLRPC.TL_decryptedMessageActionFlushHistory.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionResend.constructor, TLRPC.TL_decryptedMessageActionResend.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionNotifyLayer.constructor, TLRPC.TL_decryptedMessageActionNotifyLayer.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionSetMessageTTL.constructor, TLRPC.TL_decryptedMessageActionSetMessageTTL.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionDeleteMessages.constructor, TLRPC.TL_decryptedMessageActionDeleteMessages.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionTyping.constructor, TLRPC.TL_decryptedMessageActionTyping.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionReadMessages.constructor, TLRPC.TL_decryptedMessageActionReadMessages.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionScreenshotMessages.constructor, TLRPC.TL_decryptedMessageActionScreenshotMessages.class);
-        classStore.put(TLRPC.TL_server_DH_inner_data.constructor, TLRPC.TL_server_DH_inner_data.class);
-        classStore.put(TLRPC.TL_new_session_created.constructor, TLRPC.TL_new_session_created.class);
-        classStore.put(TLRPC.TL_account_password.constructor, TLRPC.TL_account_password.class);
-        classStore.put(TLRPC.TL_account_noPassword.constructor, TLRPC.TL_account_noPassword.class);
-        classStore.put(TLRPC.TL_userProfilePhotoEmpty.constructor, TLRPC.TL_userProfilePhotoEmpty.class);
-        classStore.put(TLRPC.TL_userProfilePhoto.constructor, TLRPC.TL_userProfilePhoto.class);
-        classStore.put(TLRPC.TL_photo.constructor, TLRPC.TL_photo.class);
-        classStore.put(TLRPC.TL_photoEmpty.constructor, TLRPC.TL_photoEmpty.class);
-        classStore.put(TLRPC.TL_encryptedChatWaiting.constructor, TLRPC.TL_encryptedChatWaiting.class);
-        classStore.put(TLRPC.TL_encryptedChatEmpty.constructor, TLRPC.TL_encryptedChatEmpty.class);
-        classStore.put(TLRPC.TL_encryptedChatDiscarded.constructor, TLRPC.TL_encryptedChatDiscarded.class);
-        classStore.put(TLRPC.TL_encryptedChat.constructor, TLRPC.TL_encryptedChat.class);
-        classStore.put(TLRPC.TL_encryptedChatRequested.constructor, TLRPC.TL_encryptedChatRequested.class);
-        classStore.put(TLRPC.TL_geochats_statedMessage.constructor, TLRPC.TL_geochats_statedMessage.class);
-        classStore.put(TLRPC.TL_contact.constructor, TLRPC.TL_contact.class);
-        classStore.put(TLRPC.TL_config.constructor, TLRPC.TL_config.class);
-        classStore.put(TLRPC.TL_inputAudio.constructor, TLRPC.TL_inputAudio.class);
-        classStore.put(TLRPC.TL_inputAudioEmpty.constructor, TLRPC.TL_inputAudioEmpty.class);
-        classStore.put(TLRPC.TL_help_support.constructor, TLRPC.TL_help_support.class);
-        classStore.put(TLRPC.TL_messages_chats.constructor, TLRPC.TL_messages_chats.class);
-        classStore.put(TLRPC.TL_contacts_found.constructor, TLRPC.TL_contacts_found.class);
-        classStore.put(TLRPC.TL_chatParticipants.constructor, TLRPC.TL_chatParticipants.class);
-        classStore.put(TLRPC.TL_chatParticipantsForbidden.constructor, TLRPC.TL_chatParticipantsForbidden.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaDocument.constructor, TLRPC.TL_decryptedMessageMediaDocument.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaGeoPoint.constructor, TLRPC.TL_decryptedMessageMediaGeoPoint.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaAudio.constructor, TLRPC.TL_decryptedMessageMediaAudio.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaVideo.constructor, TLRPC.TL_decryptedMessageMediaVideo.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaContact.constructor, TLRPC.TL_decryptedMessageMediaContact.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaEmpty.constructor, TLRPC.TL_decryptedMessageMediaEmpty.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaPhoto.constructor, TLRPC.TL_decryptedMessageMediaPhoto.class);
-        classStore.put(TLRPC.TL_chatParticipant.constructor, TLRPC.TL_chatParticipant.class);
-        classStore.put(TLRPC.TL_chatForbidden.constructor, TLRPC.TL_chatForbidden.class);
-        classStore.put(TLRPC.TL_geoChat.constructor, TLRPC.TL_geoChat.class);
-        classStore.put(TLRPC.TL_chatEmpty.constructor, TLRPC.TL_chatEmpty.class);
-        classStore.put(TLRPC.TL_chat.constructor, TLRPC.TL_chat.class);
-        classStore.put(TLRPC.TL_storage_fileUnknown.constructor, TLRPC.TL_storage_fileUnknown.class);
-        classStore.put(TLRPC.TL_storage_fileMp4.constructor, TLRPC.TL_storage_fileMp4.class);
-        classStore.put(TLRPC.TL_storage_fileWebp.constructor, TLRPC.TL_storage_fileWebp.class);
-        classStore.put(TLRPC.TL_storage_filePng.constructor, TLRPC.TL_storage_filePng.class);
-        classStore.put(TLRPC.TL_storage_fileGif.constructor, TLRPC.TL_storage_fileGif.class);
-        classStore.put(TLRPC.TL_storage_filePdf.constructor, TLRPC.TL_storage_filePdf.class);
-        classStore.put(TLRPC.TL_storage_fileMp3.constructor, TLRPC.TL_storage_fileMp3.class);
-        classStore.put(TLRPC.TL_storage_fileJpeg.constructor, TLRPC.TL_storage_fileJpeg.class);
-        classStore.put(TLRPC.TL_storage_fileMov.constructor, TLRPC.TL_storage_fileMov.class);
-        classStore.put(TLRPC.TL_storage_filePartial.constructor, TLRPC.TL_storage_filePartial.class);
-        classStore.put(TLRPC.TL_inputMessagesFilterVideo.constructor, TLRPC.TL_inputMessagesFilterVideo.class);
-        classStore.put(TLRPC.TL_inputMessagesFilterEmpty.constructor, TLRPC.TL_inputMessagesFilterEmpty.class);
-        classStore.put(TLRPC.TL_inputMessagesFilterPhotos.constructor, TLRPC.TL_inputMessagesFilterPhotos.class);
-        classStore.put(TLRPC.TL_inputMessagesFilterPhotoVideo.constructor, TLRPC.TL_inputMessagesFilterPhotoVideo.class);
-        classStore.put(TLRPC.TL_inputMessagesFilterDocument.constructor, TLRPC.TL_inputMessagesFilterDocument.class);
-        classStore.put(TLRPC.TL_inputMessagesFilterAudio.constructor, TLRPC.TL_inputMessagesFilterAudio.class);
-        classStore.put(TLRPC.TL_msgs_state_info.constructor, TLRPC.TL_msgs_state_info.class);
-        classStore.put(TLRPC.TL_upload_file.constructor, TLRPC.TL_upload_file.class);
-        classStore.put(TLRPC.TL_dialog.constructor, TLRPC.TL_dialog.class);
-        classStore.put(TLRPC.TL_fileLocation.constructor, TLRPC.TL_fileLocation.class);
-        classStore.put(TLRPC.TL_fileLocationUnavailable.constructor, TLRPC.TL_fileLocationUnavailable.class);
-        classStore.put(TLRPC.TL_messages_messageEmpty.constructor, TLRPC.TL_messages_messageEmpty.class);
-        classStore.put(TLRPC.TL_messages_message.constructor, TLRPC.TL_messages_message.class);
-        classStore.put(TLRPC.TL_geochats_located.constructor, TLRPC.TL_geochats_located.class);
-        classStore.put(TLRPC.TL_inputGeoChat.constructor, TLRPC.TL_inputGeoChat.class);
-        classStore.put(TLRPC.TL_protoMessage.constructor, TLRPC.TL_protoMessage.class);
-        classStore.put(TLRPC.TL_photoSize.constructor, TLRPC.TL_photoSize.class);
-        classStore.put(TLRPC.TL_photoSizeEmpty.constructor, TLRPC.TL_photoSizeEmpty.class);
-        classStore.put(TLRPC.TL_photoCachedSize.constructor, TLRPC.TL_photoCachedSize.class);
-        classStore.put(TLRPC.TL_contactFound.constructor, TLRPC.TL_contactFound.class);
-        classStore.put(TLRPC.TL_inputFileBig.constructor, TLRPC.TL_inputFileBig.class);
-        classStore.put(TLRPC.TL_inputFile.constructor, TLRPC.TL_inputFile.class);
-        classStore.put(TLRPC.TL_messages_statedMessageLink.constructor, TLRPC.TL_messages_statedMessageLink.class);
-        classStore.put(TLRPC.TL_messages_statedMessage.constructor, TLRPC.TL_messages_statedMessage.class);
-        classStore.put(TLRPC.TL_userFull.constructor, TLRPC.TL_userFull.class);
-        classStore.put(TLRPC.TL_updates_state.constructor, TLRPC.TL_updates_state.class);
-        classStore.put(TLRPC.TL_resPQ.constructor, TLRPC.TL_resPQ.class);
-        classStore.put(TLRPC.TL_updateShortChatMessage.constructor, TLRPC.TL_updateShortChatMessage.class);
-        classStore.put(TLRPC.TL_updates.constructor, TLRPC.TL_updates.class);
-        classStore.put(TLRPC.TL_updateShortMessage.constructor, TLRPC.TL_updateShortMessage.class);
-        classStore.put(TLRPC.TL_updateShort.constructor, TLRPC.TL_updateShort.class);
-        classStore.put(TLRPC.TL_updatesCombined.constructor, TLRPC.TL_updatesCombined.class);
-        classStore.put(TLRPC.TL_updatesTooLong.constructor, TLRPC.TL_updatesTooLong.class);
-        classStore.put(TLRPC.TL_wallPaper.constructor, TLRPC.TL_wallPaper.class);
-        classStore.put(TLRPC.TL_wallPaperSolid.constructor, TLRPC.TL_wallPaperSolid.class);
-        classStore.put(TLRPC.TL_msg_new_detailed_info.constructor, TLRPC.TL_msg_new_detailed_info.class);
-        classStore.put(TLRPC.TL_msg_detailed_info.constructor, TLRPC.TL_msg_detailed_info.class);
-        classStore.put(TLRPC.TL_inputEncryptedChat.constructor, TLRPC.TL_inputEncryptedChat.class);
-        classStore.put(TLRPC.TL_inputChatPhoto.constructor, TLRPC.TL_inputChatPhoto.class);
-        classStore.put(TLRPC.TL_inputChatPhotoEmpty.constructor, TLRPC.TL_inputChatPhotoEmpty.class);
-        classStore.put(TLRPC.TL_inputChatUploadedPhoto.constructor, TLRPC.TL_inputChatUploadedPhoto.class);
-        classStore.put(TLRPC.TL_inputVideoEmpty.constructor, TLRPC.TL_inputVideoEmpty.class);
-        classStore.put(TLRPC.TL_inputVideo.constructor, TLRPC.TL_inputVideo.class);
-        classStore.put(TLRPC.TL_nearestDc.constructor, TLRPC.TL_nearestDc.class);
-        classStore.put(TLRPC.TL_inputPhotoEmpty.constructor, TLRPC.TL_inputPhotoEmpty.class);
-        classStore.put(TLRPC.TL_inputPhoto.constructor, TLRPC.TL_inputPhoto.class);
-        classStore.put(TLRPC.TL_importedContact.constructor, TLRPC.TL_importedContact.class);
-        classStore.put(TLRPC.TL_accountDaysTTL.constructor, TLRPC.TL_accountDaysTTL.class);
-        classStore.put(TLRPC.TL_stickerPack.constructor, TLRPC.TL_stickerPack.class);
-        classStore.put(TLRPC.TL_messages_allStickers.constructor, TLRPC.TL_messages_allStickers.class);
-        classStore.put(TLRPC.TL_messages_allStickersNotModified.constructor, TLRPC.TL_messages_allStickersNotModified.class);
-        classStore.put(TLRPC.TL_inputPeerContact.constructor, TLRPC.TL_inputPeerContact.class);
-        classStore.put(TLRPC.TL_inputPeerChat.constructor, TLRPC.TL_inputPeerChat.class);
-        classStore.put(TLRPC.TL_inputPeerEmpty.constructor, TLRPC.TL_inputPeerEmpty.class);
-        classStore.put(TLRPC.TL_inputPeerSelf.constructor, TLRPC.TL_inputPeerSelf.class);
-        classStore.put(TLRPC.TL_inputPeerForeign.constructor, TLRPC.TL_inputPeerForeign.class);
-        classStore.put(TLRPC.TL_dcOption.constructor, TLRPC.TL_dcOption.class);
-        classStore.put(TLRPC.TL_decryptedMessageLayer.constructor, TLRPC.TL_decryptedMessageLayer.class);
-        classStore.put(TLRPC.TL_inputPhotoCropAuto.constructor, TLRPC.TL_inputPhotoCropAuto.class);
-        classStore.put(TLRPC.TL_inputPhotoCrop.constructor, TLRPC.TL_inputPhotoCrop.class);
-        classStore.put(TLRPC.TL_messages_dialogs.constructor, TLRPC.TL_messages_dialogs.class);
-        classStore.put(TLRPC.TL_messages_dialogsSlice.constructor, TLRPC.TL_messages_dialogsSlice.class);
-        classStore.put(TLRPC.TL_account_sentChangePhoneCode.constructor, TLRPC.TL_account_sentChangePhoneCode.class);
-        classStore.put(TLRPC.TL_updateUserPhone.constructor, TLRPC.TL_updateUserPhone.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionRequestKey.constructor, TLRPC.TL_decryptedMessageActionRequestKey.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionAcceptKey.constructor, TLRPC.TL_decryptedMessageActionAcceptKey.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionCommitKey.constructor, TLRPC.TL_decryptedMessageActionCommitKey.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionAbortKey.constructor, TLRPC.TL_decryptedMessageActionAbortKey.class);
-        classStore.put(TLRPC.TL_decryptedMessageActionNoop.constructor, TLRPC.TL_decryptedMessageActionNoop.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaExternalDocument.constructor, TLRPC.TL_decryptedMessageMediaExternalDocument.class);
-        classStore.put(TLRPC.TL_updateReadHistoryInbox.constructor, TLRPC.TL_updateReadHistoryInbox.class);
-        classStore.put(TLRPC.TL_updateReadHistoryOutbox.constructor, TLRPC.TL_updateReadHistoryOutbox.class);
-        classStore.put(TLRPC.TL_contactLinkUnknown.constructor, TLRPC.TL_contactLinkUnknown.class);
-        classStore.put(TLRPC.TL_contactLinkNone.constructor, TLRPC.TL_contactLinkNone.class);
-        classStore.put(TLRPC.TL_contactLinkHasPhone.constructor, TLRPC.TL_contactLinkHasPhone.class);
-        classStore.put(TLRPC.TL_contactLinkContact.constructor, TLRPC.TL_contactLinkContact.class);
-        classStore.put(TLRPC.TL_messages_affectedMessages.constructor, TLRPC.TL_messages_affectedMessages.class);
-
-        classStore.put(TLRPC.TL_messageMediaUnsupported_old.constructor, TLRPC.TL_messageMediaUnsupported_old.class);
-        classStore.put(TLRPC.TL_userSelf_old2.constructor, TLRPC.TL_userSelf_old2.class);
-        classStore.put(TLRPC.TL_msg_container.constructor, TLRPC.TL_msg_container.class);
-        classStore.put(TLRPC.TL_fileEncryptedLocation.constructor, TLRPC.TL_fileEncryptedLocation.class);
-        classStore.put(TLRPC.TL_messageActionTTLChange.constructor, TLRPC.TL_messageActionTTLChange.class);
-        classStore.put(TLRPC.TL_videoEncrypted.constructor, TLRPC.TL_videoEncrypted.class);
-        classStore.put(TLRPC.TL_documentEncrypted.constructor, TLRPC.TL_documentEncrypted.class);
-        classStore.put(TLRPC.TL_audioEncrypted.constructor, TLRPC.TL_audioEncrypted.class);
-        classStore.put(TLRPC.TL_gzip_packed.constructor, TLRPC.TL_gzip_packed.class);
-        classStore.put(TLRPC.Vector.constructor, TLRPC.Vector.class);
-        classStore.put(TLRPC.TL_userProfilePhotoOld.constructor, TLRPC.TL_userProfilePhotoOld.class);
-        classStore.put(TLRPC.TL_messageActionUserUpdatedPhoto.constructor, TLRPC.TL_messageActionUserUpdatedPhoto.class);
-        classStore.put(TLRPC.TL_messageActionUserJoined.constructor, TLRPC.TL_messageActionUserJoined.class);
-        classStore.put(TLRPC.TL_messageActionLoginUnknownLocation.constructor, TLRPC.TL_messageActionLoginUnknownLocation.class);
-        classStore.put(TLRPC.TL_encryptedChat_old.constructor, TLRPC.TL_encryptedChat_old.class);
-        classStore.put(TLRPC.TL_encryptedChatRequested_old.constructor, TLRPC.TL_encryptedChatRequested_old.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaVideo_old.constructor, TLRPC.TL_decryptedMessageMediaVideo_old.class);
-        classStore.put(TLRPC.TL_decryptedMessageMediaAudio_old.constructor, TLRPC.TL_decryptedMessageMediaAudio_old.class);
-        classStore.put(TLRPC.TL_audio_old.constructor, TLRPC.TL_audio_old.class);
-        classStore.put(TLRPC.TL_video_old.constructor, TLRPC.TL_video_old.class);
-        classStore.put(TLRPC.TL_messageActionCreatedBroadcastList.constructor, TLRPC.TL_messageActionCreatedBroadcastList.class);
-        classStore.put(TLRPC.TL_messageForwarded_old.constructor, TLRPC.TL_messageForwarded_old.class);
-        classStore.put(TLRPC.TL_message_old.constructor, TLRPC.TL_message_old.class);
-        classStore.put(TLRPC.TL_messageService_old.constructor, TLRPC.TL_messageService_old.class);
-        classStore.put(TLRPC.TL_decryptedMessageService_old.constructor, TLRPC.TL_decryptedMessageService_old.class);
-        classStore.put(TLRPC.TL_decryptedMessage_old.constructor, TLRPC.TL_decryptedMessage_old.class);
-        classStore.put(TLRPC.TL_message_secret.constructor, TLRPC.TL_message_secret.class);
-        classStore.put(TLRPC.TL_userSelf_old.constructor, TLRPC.TL_userSelf_old.class);
-        classStore.put(TLRPC.TL_userContact_old.constructor, TLRPC.TL_userContact_old.class);
-        classStore.put(TLRPC.TL_userRequest_old.constructor, TLRPC.TL_userRequest_old.class);
-        classStore.put(TLRPC.TL_userForeign_old.constructor, TLRPC.TL_userForeign_old.class);
-        classStore.put(TLRPC.TL_userDeleted_old.constructor, TLRPC.TL_userDeleted_old.class);
-        classStore.put(TLRPC.TL_messageEncryptedAction.constructor, TLRPC.TL_messageEncryptedAction.class);
-        classStore.put(TLRPC.TL_decryptedMessageHolder.constructor, TLRPC.TL_decryptedMessageHolder.class);
-        classStore.put(TLRPC.TL_documentEncrypted_old.constructor, TLRPC.TL_documentEncrypted_old.class);
-        classStore.put(TLRPC.TL_document_old.constructor, TLRPC.TL_document_old.class);
-        classStore.put(TLRPC.TL_config_old.constructor, TLRPC.TL_config_old.class);
-        classStore.put(TLRPC.TL_messageForwarded_old2.constructor, TLRPC.TL_messageForwarded_old2.class);
-        classStore.put(TLRPC.TL_message_old2.constructor, TLRPC.TL_message_old2.class);
-        classStore.put(TLRPC.TL_documentAttributeSticker_old.constructor, TLRPC.TL_documentAttributeSticker_old.class);
-    }
 
     static TLClassStore store = null;
 
@@ -438,34 +30,838 @@ public class TLClassStore {
     }
 
     public TLObject TLdeserialize(AbsSerializedData stream, int constructor, TLObject request) {
-        Class objClass = classStore.get(constructor);
-        if (objClass != null) {
-            try {
-                TLObject response = (TLObject)objClass.newInstance();
-                if (response instanceof TLRPC.Vector) {
-                    if (request != null) {
-                        request.parseVector((TLRPC.Vector)response, stream);
-                    } else {
-                        int size = stream.readInt32();
-                        for (int a = 0; a < size; a++) {
-                            ((TLRPC.Vector)response).objects.add(stream.readInt32());
-                        }
-                    }
-                } else {
-                    response.readParams(stream);
-                }
-                return response;
-            } catch (IllegalAccessException e) {
-                FileLog.e("tmessages", "can't create class");
-                return null;
-            } catch (InstantiationException e2) {
-                FileLog.e("tmessages", "can't create class");
-                return null;
-            }
-        } else {
+        TLObject response = createObject(constructor);
+        if (response == null) {
             FileLog.e("tmessages", String.format("unknown class %x", constructor));
             return null;
             //throw new RuntimeException(String.format("unknown class %x", constructor));
         }
+        if (response instanceof TLRPC.Vector) {
+            if (request != null) {
+                request.parseVector((TLRPC.Vector)response, stream);
+            } else {
+                int size = stream.readInt32();
+                for (int a = 0; a < size; a++) {
+                    ((TLRPC.Vector)response).objects.add(stream.readInt32());
+                }
+            }
+        } else {
+            response.readParams(stream);
+        }
+        return response;
+    }
+
+    /**
+     * Create an empty object for a constructor id
+     * @param constructor Constructor id read from the stream
+     * @return New object or null if the constructor is unknown
+     */
+    public static TLObject createObject(int constructor) {
+        switch (constructor) {
+            case 0x37c1011c:
+                return new TLRPC.TL_chatPhotoEmpty();
+            case 0x6153276a:
+                return new TLRPC.TL_chatPhoto();
+            case 0xa7eff811:
+                return new TLRPC.TL_bad_msg_notification();
+            case 0xedab447b:
+                return new TLRPC.TL_bad_server_salt();
+            case 0xc4b9f9bb:
+                return new TLRPC.TL_error();
+            case 0x560f8935:
+                return new TLRPC.TL_messages_sentEncryptedMessage();
+            case 0x9493ff32:
+                return new TLRPC.TL_messages_sentEncryptedFile();
+            case 0x74d07c60:
+                return new TLRPC.TL_notifyAll();
+            case 0xc007cec3:
+                return new TLRPC.TL_notifyChats();
+            case 0xb4c83b4c:
+                return new TLRPC.TL_notifyUsers();
+            case 0x9fd40bd8:
+                return new TLRPC.TL_notifyPeer();
+            case 0x811ea28e:
+                return new TLRPC.TL_auth_checkedPhone();
+            case 0x62d6b459:
+                return new TLRPC.TL_msgs_ack();
+            case 0xe5d7d19c:
+                return new TLRPC.TL_messages_chatFull();
+            case 0x11b58939:
+                return new TLRPC.TL_documentAttributeAnimated();
+            case 0x51448e5:
+                return new TLRPC.TL_documentAttributeAudio();
+            case 0x15590068:
+                return new TLRPC.TL_documentAttributeFilename();
+            case 0x5910cccb:
+                return new TLRPC.TL_documentAttributeVideo();
+            case 0x994c9882:
+                return new TLRPC.TL_documentAttributeSticker();
+            case 0x6c37c15c:
+                return new TLRPC.TL_documentAttributeImageSize();
+            case 0xd3680c61:
+                return new TLRPC.TL_contactStatus();
+            case 0xf6b673a4:
+                return new TLRPC.TL_auth_authorization();
+            case 0x8c718e87:
+                return new TLRPC.TL_messages_messages();
+            case 0xb446ae3:
+                return new TLRPC.TL_messages_messagesSlice();
+            case 0x5e2ad36e:
+                return new TLRPC.TL_rpc_answer_unknown();
+            case 0xa43ad8b7:
+                return new TLRPC.TL_rpc_answer_dropped();
+            case 0xcd78e586:
+                return new TLRPC.TL_rpc_answer_dropped_running();
+            case 0x3ace484c:
+                return new TLRPC.TL_contacts_link();
+            case 0x9db1bc6d:
+                return new TLRPC.TL_peerUser();
+            case 0xbad0e5bb:
+                return new TLRPC.TL_peerChat();
+            case 0x4a70994c:
+                return new TLRPC.TL_encryptedFile();
+            case 0xc21f497e:
+                return new TLRPC.TL_encryptedFileEmpty();
+            case 0x84d19185:
+                return new TLRPC.TL_messages_affectedMessages();
+            case 0xe22045fc:
+                return new TLRPC.TL_destroy_session_ok();
+            case 0x62d350c9:
+                return new TLRPC.TL_destroy_session_none();
+            case 0x5d75a138:
+                return new TLRPC.TL_updates_differenceEmpty();
+            case 0xa8fb1981:
+                return new TLRPC.TL_updates_differenceSlice();
+            case 0xf49ca0:
+                return new TLRPC.TL_updates_difference();
+            case 0x1117dd5f:
+                return new TLRPC.TL_geoPointEmpty();
+            case 0x2049d70c:
+                return new TLRPC.TL_geoPoint();
+            case 0xbc2eab30:
+                return new TLRPC.TL_privacyKeyStatusTimestamp();
+            case 0x554abb6f:
+                return new TLRPC.TL_account_privacyRules();
+            case 0x8987f311:
+                return new TLRPC.TL_help_appUpdate();
+            case 0xc45a6536:
+                return new TLRPC.TL_help_noAppUpdate();
+            case 0x83e5de54:
+                return new TLRPC.TL_messageEmpty();
+            case 0xf392b7f4:
+                return new TLRPC.TL_inputPhoneContact();
+            case 0x176f8ba1:
+                return new TLRPC.TL_sendMessageGeoLocationAction();
+            case 0x628cbc6f:
+                return new TLRPC.TL_sendMessageChooseContactAction();
+            case 0x16bf744e:
+                return new TLRPC.TL_sendMessageTypingAction();
+            case 0x8faee98e:
+                return new TLRPC.TL_sendMessageUploadDocumentAction();
+            case 0xa187d66f:
+                return new TLRPC.TL_sendMessageRecordVideoAction();
+            case 0x990a3c1a:
+                return new TLRPC.TL_sendMessageUploadPhotoAction();
+            case 0x92042ff7:
+                return new TLRPC.TL_sendMessageUploadVideoAction();
+            case 0xe6ac8a6f:
+                return new TLRPC.TL_sendMessageUploadAudioAction();
+            case 0xfd5ec8f5:
+                return new TLRPC.TL_sendMessageCancelAction();
+            case 0xd52f73f7:
+                return new TLRPC.TL_sendMessageRecordAudioAction();
+            case 0xcb9f372d:
+                return new TLRPC.TL_invokeAfterMsg();
+            case 0xa2d24290:
+                return new TLRPC.TL_messageMediaVideo();
+            case 0xc8c45a2a:
+                return new TLRPC.TL_messageMediaPhoto();
+            case 0x2fda2204:
+                return new TLRPC.TL_messageMediaDocument();
+            case 0x56e0d474:
+                return new TLRPC.TL_messageMediaGeo();
+            case 0x3ded6320:
+                return new TLRPC.TL_messageMediaEmpty();
+            case 0xc6b68300:
+                return new TLRPC.TL_messageMediaAudio();
+            case 0x5e7d2f39:
+                return new TLRPC.TL_messageMediaContact();
+            case 0x9f84f49e:
+                return new TLRPC.TL_messageMediaUnsupported();
+            case 0xe325edcf:
+                return new TLRPC.TL_auth_sentAppCode();
+            case 0xefed51d9:
+                return new TLRPC.TL_auth_sentCode();
+            case 0x70a68512:
+                return new TLRPC.TL_peerNotifySettingsEmpty();
+            case 0x8d5e11ee:
+                return new TLRPC.TL_peerNotifySettings();
+            case 0x7d861a08:
+                return new TLRPC.TL_msg_resend_req();
+            case 0x9299359f:
+                return new TLRPC.TL_http_wait();
+            case 0x1c138d15:
+                return new TLRPC.TL_contacts_blocked();
+            case 0x900802a1:
+                return new TLRPC.TL_contacts_blockedSlice();
+            case 0xf3b7acc9:
+                return new TLRPC.TL_inputGeoPoint();
+            case 0xe4c123d6:
+                return new TLRPC.TL_inputGeoPointEmpty();
+            case 0x18cb9f78:
+                return new TLRPC.TL_help_inviteText();
+            case 0xc0e24635:
+                return new TLRPC.TL_messages_dhConfigNotModified();
+            case 0x2c221edd:
+                return new TLRPC.TL_messages_dhConfig();
+            case 0x586988d8:
+                return new TLRPC.TL_audioEmpty();
+            case 0xc7ac6496:
+                return new TLRPC.TL_audio();
+            case 0xfb95abcd:
+                return new TLRPC.TL_destroy_sessions_res();
+            case 0x4d5bbe0c:
+                return new TLRPC.TL_privacyValueAllowUsers();
+            case 0x8b73e763:
+                return new TLRPC.TL_privacyValueDisallowAll();
+            case 0xfffe1bac:
+                return new TLRPC.TL_privacyValueAllowContacts();
+            case 0xf888fa1a:
+                return new TLRPC.TL_privacyValueDisallowContacts();
+            case 0x65427b82:
+                return new TLRPC.TL_privacyValueAllowAll();
+            case 0xc7f49b7:
+                return new TLRPC.TL_privacyValueDisallowUsers();
+            case 0x6f8b8cb2:
+                return new TLRPC.TL_contacts_contacts();
+            case 0xb74ba9d2:
+                return new TLRPC.TL_contacts_contactsNotModified();
+            case 0x4f96cb18:
+                return new TLRPC.TL_inputPrivacyKeyStatusTimestamp();
+            case 0x8dca6aa5:
+                return new TLRPC.TL_photos_photos();
+            case 0x15051f54:
+                return new TLRPC.TL_photos_photosSlice();
+            case 0x630e61be:
+                return new TLRPC.TL_chatFull();
+            case 0x8cc0d131:
+                return new TLRPC.TL_msgs_all_info();
+            case 0x46a2ce98:
+                return new TLRPC.TL_inputPeerNotifySettings();
+            case 0x56730bcc:
+                return new TLRPC.TL_null();
+            case 0xf7c1b13f:
+                return new TLRPC.TL_inputUserSelf();
+            case 0x655e74ff:
+                return new TLRPC.TL_inputUserForeign();
+            case 0xb98886cf:
+                return new TLRPC.TL_inputUserEmpty();
+            case 0x86e94f65:
+                return new TLRPC.TL_inputUserContact();
+            case 0x83c95aec:
+                return new TLRPC.TL_p_q_inner_data();
+            case 0xda69fb52:
+                return new TLRPC.TL_msgs_state_req();
+            case 0x997275b5:
+                return new TLRPC.TL_boolTrue();
+            case 0xbc799737:
+                return new TLRPC.TL_boolFalse();
+            case 0xdf969c2d:
+                return new TLRPC.TL_auth_exportedAuthorization();
+            case 0x51be5d19:
+                return new TLRPC.TL_messages_statedMessagesLinks();
+            case 0x7d84b48:
+                return new TLRPC.TL_messages_statedMessages();
+            case 0x4a95e84e:
+                return new TLRPC.TL_inputNotifyChats();
+            case 0xb8bc5b0c:
+                return new TLRPC.TL_inputNotifyPeer();
+            case 0x193b4417:
+                return new TLRPC.TL_inputNotifyUsers();
+            case 0x4d8ddec8:
+                return new TLRPC.TL_inputNotifyGeoChatPeer();
+            case 0xa429b886:
+                return new TLRPC.TL_inputNotifyAll();
+            case 0x74dc404d:
+                return new TLRPC.TL_inputAudioFileLocation();
+            case 0xf5235d55:
+                return new TLRPC.TL_inputEncryptedFileLocation();
+            case 0x3d0364ec:
+                return new TLRPC.TL_inputVideoFileLocation();
+            case 0x4e45abe9:
+                return new TLRPC.TL_inputDocumentFileLocation();
+            case 0x14637196:
+                return new TLRPC.TL_inputFileLocation();
+            case 0x20212ca8:
+                return new TLRPC.TL_photos_photo();
+            case 0xcab35e18:
+                return new TLRPC.TL_userContact();
+            case 0xd9ccc4ef:
+                return new TLRPC.TL_userRequest();
+            case 0x75cf7a8:
+                return new TLRPC.TL_userForeign();
+            case 0xd6016d7a:
+                return new TLRPC.TL_userDeleted();
+            case 0x1c60e608:
+                return new TLRPC.TL_userSelf();
+            case 0x4505f8e1:
+                return new TLRPC.TL_geoChatMessage();
+            case 0xd34fa24e:
+                return new TLRPC.TL_geoChatMessageService();
+            case 0x60311a9b:
+                return new TLRPC.TL_geoChatMessageEmpty();
+            case 0x347773c5:
+                return new TLRPC.TL_pong();
+            case 0x7fcb13a8:
+                return new TLRPC.TL_messageActionChatEditPhoto();
+            case 0xb2ae9b0c:
+                return new TLRPC.TL_messageActionChatDeleteUser();
+            case 0x95e3fbef:
+                return new TLRPC.TL_messageActionChatDeletePhoto();
+            case 0x5e3cfc4b:
+                return new TLRPC.TL_messageActionChatAddUser();
+            case 0xa6638b9a:
+                return new TLRPC.TL_messageActionChatCreate();
+            case 0xb6aef7b0:
+                return new TLRPC.TL_messageActionEmpty();
+            case 0xb5a1ce5a:
+                return new TLRPC.TL_messageActionChatEditTitle();
+            case 0x6f038ebc:
+                return new TLRPC.TL_messageActionGeoChatCreate();
+            case 0xc7d53de:
+                return new TLRPC.TL_messageActionGeoChatCheckin();
+            case 0x46dc1fb9:
+                return new TLRPC.TL_dh_gen_retry();
+            case 0xa69dae02:
+                return new TLRPC.TL_dh_gen_fail();
+            case 0x3bcbf734:
+                return new TLRPC.TL_dh_gen_ok();
+            case 0xadd53cb3:
+                return new TLRPC.TL_peerNotifyEventsEmpty();
+            case 0x6d1ded88:
+                return new TLRPC.TL_peerNotifyEventsAll();
+            case 0x3631cf4c:
+                return new TLRPC.TL_chatLocated();
+            case 0x73164160:
+                return new TLRPC.TL_decryptedMessageService();
+            case 0x204d3878:
+                return new TLRPC.TL_decryptedMessage();
+            case 0xe86a2c74:
+                return new TLRPC.TL_inputPeerNotifyEventsAll();
+            case 0xf03064d8:
+                return new TLRPC.TL_inputPeerNotifyEventsEmpty();
+            case 0x6643b654:
+                return new TLRPC.TL_client_DH_inner_data();
+            case 0x388fa391:
+                return new TLRPC.TL_video();
+            case 0xc10658a8:
+                return new TLRPC.TL_videoEmpty();
+            case 0x561bc879:
+                return new TLRPC.TL_contactBlocked();
+            case 0x72f0eaae:
+                return new TLRPC.TL_inputDocumentEmpty();
+            case 0x18798952:
+                return new TLRPC.TL_inputDocument();
+            case 0x770656a8:
+                return new TLRPC.TL_inputAppEvent();
+            case 0xb45c69d1:
+                return new TLRPC.TL_messages_affectedHistory();
+            case 0x36f8c871:
+                return new TLRPC.TL_documentEmpty();
+            case 0xf9a39f4f:
+                return new TLRPC.TL_document();
+            case 0xfeedd3ad:
+                return new TLRPC.TL_contactLinkNone();
+            case 0xd502c2d0:
+                return new TLRPC.TL_contactLinkContact();
+            case 0x268f3f59:
+                return new TLRPC.TL_contactLinkHasPhone();
+            case 0x5f4f9247:
+                return new TLRPC.TL_contactLinkUnknown();
+            case 0x90110467:
+                return new TLRPC.TL_inputPrivacyValueDisallowUsers();
+            case 0xd66b66c9:
+                return new TLRPC.TL_inputPrivacyValueDisallowAll();
+            case 0xba52007:
+                return new TLRPC.TL_inputPrivacyValueDisallowContacts();
+            case 0x184b35ce:
+                return new TLRPC.TL_inputPrivacyValueAllowAll();
+            case 0xd09e07b:
+                return new TLRPC.TL_inputPrivacyValueAllowContacts();
+            case 0x131cc67f:
+                return new TLRPC.TL_inputPrivacyValueAllowUsers();
+            case 0xa6e45987:
+                return new TLRPC.TL_inputMediaContact();
+            case 0x41481486:
+                return new TLRPC.TL_inputMediaUploadedThumbDocument();
+            case 0x89938781:
+                return new TLRPC.TL_inputMediaAudio();
+            case 0xd184e841:
+                return new TLRPC.TL_inputMediaDocument();
+            case 0x7f023ae6:
+                return new TLRPC.TL_inputMediaVideo();
+            case 0xf9c44144:
+                return new TLRPC.TL_inputMediaGeoPoint();
+            case 0x9664f57f:
+                return new TLRPC.TL_inputMediaEmpty();
+            case 0x9912dabf:
+                return new TLRPC.TL_inputMediaUploadedThumbVideo();
+            case 0x2dc53a7d:
+                return new TLRPC.TL_inputMediaUploadedPhoto();
+            case 0x4e498cab:
+                return new TLRPC.TL_inputMediaUploadedAudio();
+            case 0x133ad6f6:
+                return new TLRPC.TL_inputMediaUploadedVideo();
+            case 0xffe76b78:
+                return new TLRPC.TL_inputMediaUploadedDocument();
+            case 0x8f2ab2ec:
+                return new TLRPC.TL_inputMediaPhoto();
+            case 0xbc5863e8:
+                return new TLRPC.TL_geochats_messagesSlice();
+            case 0xd1526db1:
+                return new TLRPC.TL_geochats_messages();
+            case 0x900eac40:
+                return new TLRPC.TL_messages_sentMessage();
+            case 0xe923400d:
+                return new TLRPC.TL_messages_sentMessageLink();
+            case 0x23734b06:
+                return new TLRPC.TL_encryptedMessageService();
+            case 0xed18c118:
+                return new TLRPC.TL_encryptedMessage();
+            case 0x3de191a1:
+                return new TLRPC.TL_contactSuggested();
+            case 0x79cb045d:
+                return new TLRPC.TL_server_DH_params_fail();
+            case 0xd0e8075c:
+                return new TLRPC.TL_server_DH_params_ok();
+            case 0xe06046b2:
+                return new TLRPC.TL_msg_copy();
+            case 0xad524315:
+                return new TLRPC.TL_contacts_importedContacts();
+            case 0xae636f24:
+                return new TLRPC.TL_disabledFeature();
+            case 0x949d9dc:
+                return new TLRPC.TL_futureSalt();
+            case 0x38fe25b7:
+                return new TLRPC.TL_updateEncryptedMessagesRead();
+            case 0x9d2e67c5:
+                return new TLRPC.TL_updateContactLink();
+            case 0x2e5ab668:
+                return new TLRPC.TL_updateReadMessages();
+            case 0x9961fd5c:
+                return new TLRPC.TL_updateReadHistoryInbox();
+            case 0x6e5f8c22:
+                return new TLRPC.TL_updateChatParticipantDelete();
+            case 0x2f2f21bf:
+                return new TLRPC.TL_updateReadHistoryOutbox();
+            case 0x382dd3e4:
+                return new TLRPC.TL_updateServiceNotification();
+            case 0xbec268ef:
+                return new TLRPC.TL_updateNotifySettings();
+            case 0x5c486927:
+                return new TLRPC.TL_updateUserTyping();
+            case 0x9a65ea1f:
+                return new TLRPC.TL_updateChatUserTyping();
+            case 0xa7332b73:
+                return new TLRPC.TL_updateUserName();
+            case 0x12bcbd9a:
+                return new TLRPC.TL_updateNewEncryptedMessage();
+            case 0x1f2b0afd:
+                return new TLRPC.TL_updateNewMessage();
+            case 0x4e90bfd6:
+                return new TLRPC.TL_updateMessageID();
+            case 0xa20db0e5:
+                return new TLRPC.TL_updateDeleteMessages();
+            case 0x1710f156:
+                return new TLRPC.TL_updateEncryptedChatTyping();
+            case 0x8e5e9873:
+                return new TLRPC.TL_updateDcOptions();
+            case 0x7761198:
+                return new TLRPC.TL_updateChatParticipants();
+            case 0x12b9417b:
+                return new TLRPC.TL_updateUserPhone();
+            case 0xee3b272a:
+                return new TLRPC.TL_updatePrivacy();
+            case 0xb4a2e88d:
+                return new TLRPC.TL_updateEncryption();
+            case 0x80ece81a:
+                return new TLRPC.TL_updateUserBlocked();
+            case 0x6f690963:
+                return new TLRPC.TL_updateActivation();
+            case 0x8f06529a:
+                return new TLRPC.TL_updateNewAuthorization();
+            case 0x5a68e3f7:
+                return new TLRPC.TL_updateNewGeoChatMessage();
+            case 0x95313b0c:
+                return new TLRPC.TL_updateUserPhoto();
+            case 0x2575bbb9:
+                return new TLRPC.TL_updateContactRegistered();
+            case 0x3a0eeb22:
+                return new TLRPC.TL_updateChatParticipantAdd();
+            case 0x1bfbd823:
+                return new TLRPC.TL_updateUserStatus();
+            case 0x5649dcc5:
+                return new TLRPC.TL_contacts_suggested();
+            case 0x2144ca19:
+                return new TLRPC.TL_rpc_error();
+            case 0x7ae432f5:
+                return new TLRPC.TL_rpc_req_error();
+            case 0x5a17b5e5:
+                return new TLRPC.TL_inputEncryptedFile();
+            case 0x2dc173c8:
+                return new TLRPC.TL_inputEncryptedFileBigUploaded();
+            case 0x1837c364:
+                return new TLRPC.TL_inputEncryptedFileEmpty();
+            case 0x64bd0306:
+                return new TLRPC.TL_inputEncryptedFileUploaded();
+            case 0xa1733aec:
+                return new TLRPC.TL_decryptedMessageActionSetMessageTTL();
+            case 0x6719e45c:
+                return new TLRPC.TL_decryptedMessageActionFlushHistory();
+            case 0x6fe1735b:
+                return new TLRPC.TL_decryptedMessageActionAcceptKey();
+            case 0x511110b0:
+                return new TLRPC.TL_decryptedMessageActionResend();
+            case 0xf3048883:
+                return new TLRPC.TL_decryptedMessageActionNotifyLayer();
+            case 0xc4f40be:
+                return new TLRPC.TL_decryptedMessageActionReadMessages();
+            case 0xf3c9611b:
+                return new TLRPC.TL_decryptedMessageActionRequestKey();
+            case 0xccb27641:
+                return new TLRPC.TL_decryptedMessageActionTyping();
+            case 0xb5890dba:
+                return new TLRPC.TL_server_DH_inner_data();
+            case 0x9ec20908:
+                return new TLRPC.TL_new_session_created();
+            case 0xdcef3102:
+                return new TLRPC.TL_messages_allStickers();
+            case 0xe86602c3:
+                return new TLRPC.TL_messages_allStickersNotModified();
+            case 0x739e5f72:
+                return new TLRPC.TL_account_password();
+            case 0x5770e7a9:
+                return new TLRPC.TL_account_noPassword();
+            case 0x4f11bae1:
+                return new TLRPC.TL_userProfilePhotoEmpty();
+            case 0xd559d8c8:
+                return new TLRPC.TL_userProfilePhoto();
+            case 0x22b56751:
+                return new TLRPC.TL_photo();
+            case 0x2331b22d:
+                return new TLRPC.TL_photoEmpty();
+            case 0x3bf703dc:
+                return new TLRPC.TL_encryptedChatWaiting();
+            case 0xab7ec0a0:
+                return new TLRPC.TL_encryptedChatEmpty();
+            case 0x13d6dd27:
+                return new TLRPC.TL_encryptedChatDiscarded();
+            case 0xfa56ce36:
+                return new TLRPC.TL_encryptedChat();
+            case 0xc878527e:
+                return new TLRPC.TL_encryptedChatRequested();
+            case 0x17b1578b:
+                return new TLRPC.TL_geochats_statedMessage();
+            case 0xf911c994:
+                return new TLRPC.TL_contact();
+            case 0x3e6f732a:
+                return new TLRPC.TL_config();
+            case 0x17c6b5f6:
+                return new TLRPC.TL_help_support();
+            case 0x77d440ff:
+                return new TLRPC.TL_inputAudio();
+            case 0xd95adc84:
+                return new TLRPC.TL_inputAudioEmpty();
+            case 0x64ff9fd5:
+                return new TLRPC.TL_messages_chats();
+            case 0x566000e:
+                return new TLRPC.TL_contacts_found();
+            case 0x7841b415:
+                return new TLRPC.TL_chatParticipants();
+            case 0xfd2bb8a:
+                return new TLRPC.TL_chatParticipantsForbidden();
+            case 0xfa95b0dd:
+                return new TLRPC.TL_decryptedMessageMediaExternalDocument();
+            case 0xb095434b:
+                return new TLRPC.TL_decryptedMessageMediaDocument();
+            case 0x35480a59:
+                return new TLRPC.TL_decryptedMessageMediaGeoPoint();
+            case 0x57e0a9cb:
+                return new TLRPC.TL_decryptedMessageMediaAudio();
+            case 0x524a415d:
+                return new TLRPC.TL_decryptedMessageMediaVideo();
+            case 0x588a0a97:
+                return new TLRPC.TL_decryptedMessageMediaContact();
+            case 0x89f5c4a:
+                return new TLRPC.TL_decryptedMessageMediaEmpty();
+            case 0x32798a8c:
+                return new TLRPC.TL_decryptedMessageMediaPhoto();
+            case 0xc8d7493e:
+                return new TLRPC.TL_chatParticipant();
+            case 0xfb0ccc41:
+                return new TLRPC.TL_chatForbidden();
+            case 0x75eaea5a:
+                return new TLRPC.TL_geoChat();
+            case 0x6e9c9bc7:
+                return new TLRPC.TL_chat();
+            case 0xaa963b05:
+                return new TLRPC.TL_storage_fileUnknown();
+            case 0x1081464c:
+                return new TLRPC.TL_storage_fileWebp();
+            case 0xa4f63c0:
+                return new TLRPC.TL_storage_filePng();
+            case 0xcae1aadf:
+                return new TLRPC.TL_storage_fileGif();
+            case 0xae1e508d:
+                return new TLRPC.TL_storage_filePdf();
+            case 0x4b09ebbc:
+                return new TLRPC.TL_storage_fileMov();
+            case 0x528a0677:
+                return new TLRPC.TL_storage_fileMp3();
+            case 0x7efe0e:
+                return new TLRPC.TL_storage_fileJpeg();
+            case 0x40bc6f52:
+                return new TLRPC.TL_storage_filePartial();
+            case 0xb3cea0e4:
+                return new TLRPC.TL_storage_fileMp4();
+            case 0x9fc00e65:
+                return new TLRPC.TL_inputMessagesFilterVideo();
+            case 0x57e2f66c:
+                return new TLRPC.TL_inputMessagesFilterEmpty();
+            case 0x9609a51c:
+                return new TLRPC.TL_inputMessagesFilterPhotos();
+            case 0x56e9f0e4:
+                return new TLRPC.TL_inputMessagesFilterPhotoVideo();
+            case 0x9eddf188:
+                return new TLRPC.TL_inputMessagesFilterDocument();
+            case 0xcfc87522:
+                return new TLRPC.TL_inputMessagesFilterAudio();
+            case 0x4deb57d:
+                return new TLRPC.TL_msgs_state_info();
+            case 0x53d69076:
+                return new TLRPC.TL_fileLocation();
+            case 0x7c596b46:
+                return new TLRPC.TL_fileLocationUnavailable();
+            case 0x3f4e0648:
+                return new TLRPC.TL_messages_messageEmpty();
+            case 0xff90c417:
+                return new TLRPC.TL_messages_message();
+            case 0x48feb267:
+                return new TLRPC.TL_geochats_located();
+            case 0x74d456fa:
+                return new TLRPC.TL_inputGeoChat();
+            case 0x5bb8e511:
+                return new TLRPC.TL_protoMessage();
+            case 0x77bfb61b:
+                return new TLRPC.TL_photoSize();
+            case 0xe17e23c:
+                return new TLRPC.TL_photoSizeEmpty();
+            case 0xe9a734fa:
+                return new TLRPC.TL_photoCachedSize();
+            case 0xea879f95:
+                return new TLRPC.TL_contactFound();
+            case 0xa4f58c4c:
+                return new TLRPC.TL_account_sentChangePhoneCode();
+            case 0xfa4f0bb5:
+                return new TLRPC.TL_inputFileBig();
+            case 0xf52ff27f:
+                return new TLRPC.TL_inputFile();
+            case 0x948a288:
+                return new TLRPC.TL_messages_statedMessageLink();
+            case 0x96240c6a:
+                return new TLRPC.TL_messages_statedMessage();
+            case 0x771095da:
+                return new TLRPC.TL_userFull();
+            case 0xa56c2a3e:
+                return new TLRPC.TL_updates_state();
+            case 0x5162463:
+                return new TLRPC.TL_resPQ();
+            case 0x52238b3c:
+                return new TLRPC.TL_updateShortChatMessage();
+            case 0x74ae4240:
+                return new TLRPC.TL_updates();
+            case 0xed5c2127:
+                return new TLRPC.TL_updateShortMessage();
+            case 0x78d4dec1:
+                return new TLRPC.TL_updateShort();
+            case 0x725b04c3:
+                return new TLRPC.TL_updatesCombined();
+            case 0xe317af7e:
+                return new TLRPC.TL_updatesTooLong();
+            case 0xccb03657:
+                return new TLRPC.TL_wallPaper();
+            case 0x63117f24:
+                return new TLRPC.TL_wallPaperSolid();
+            case 0x809db6df:
+                return new TLRPC.TL_msg_new_detailed_info();
+            case 0x276d3ec6:
+                return new TLRPC.TL_msg_detailed_info();
+            case 0x12b299d4:
+                return new TLRPC.TL_stickerPack();
+            case 0xf141b5e1:
+                return new TLRPC.TL_inputEncryptedChat();
+            case 0xb2e1bf08:
+                return new TLRPC.TL_inputChatPhoto();
+            case 0x1ca48f57:
+                return new TLRPC.TL_inputChatPhotoEmpty();
+            case 0x94254732:
+                return new TLRPC.TL_inputChatUploadedPhoto();
+            case 0x5508ec75:
+                return new TLRPC.TL_inputVideoEmpty();
+            case 0xee579652:
+                return new TLRPC.TL_inputVideo();
+            case 0x8e1a1775:
+                return new TLRPC.TL_nearestDc();
+            case 0x1cd7bf0d:
+                return new TLRPC.TL_inputPhotoEmpty();
+            case 0xfb95c6c4:
+                return new TLRPC.TL_inputPhoto();
+            case 0xd0028438:
+                return new TLRPC.TL_importedContact();
+            case 0xb8d0afdf:
+                return new TLRPC.TL_accountDaysTTL();
+            case 0x1023dbe8:
+                return new TLRPC.TL_inputPeerContact();
+            case 0x179be863:
+                return new TLRPC.TL_inputPeerChat();
+            case 0x7f3b18ea:
+                return new TLRPC.TL_inputPeerEmpty();
+            case 0x7da07ec9:
+                return new TLRPC.TL_inputPeerSelf();
+            case 0x9b447325:
+                return new TLRPC.TL_inputPeerForeign();
+            case 0x2ec2a43c:
+                return new TLRPC.TL_dcOption();
+            case 0x1be31789:
+                return new TLRPC.TL_decryptedMessageLayer();
+            case 0xade6b004:
+                return new TLRPC.TL_inputPhotoCropAuto();
+            case 0xd9915325:
+                return new TLRPC.TL_inputPhotoCrop();
+            case 0x15ba6c40:
+                return new TLRPC.TL_messages_dialogs();
+            case 0x71e094f3:
+                return new TLRPC.TL_messages_dialogsSlice();
+            case 0xfb0a5727:
+                return new TLRPC.TL_documentAttributeSticker_old();
+            case 0x29632a36:
+                return new TLRPC.TL_messageMediaUnsupported_old();
+            case 0x2e54dd74:
+                return new TLRPC.TL_config_old();
+            case 0x9efc6326:
+                return new TLRPC.TL_document_old();
+            case 0x555555f9:
+                return new TLRPC.TL_decryptedMessageHolder();
+            case 0xb29ad7cc:
+                return new TLRPC.TL_userDeleted_old();
+            case 0x5214c89d:
+                return new TLRPC.TL_userForeign_old();
+            case 0x22e8ceb0:
+                return new TLRPC.TL_userRequest_old();
+            case 0xf2fb8319:
+                return new TLRPC.TL_userContact_old();
+            case 0x7007b451:
+                return new TLRPC.TL_userSelf_old2();
+            case 0x720535ec:
+                return new TLRPC.TL_userSelf_old();
+            case 0xaa48327d:
+                return new TLRPC.TL_decryptedMessageService_old();
+            case 0x1f814f1f:
+                return new TLRPC.TL_decryptedMessage_old();
+            case 0x7bf09fc:
+                return new TLRPC.TL_userStatusLastWeek();
+            case 0x9d05049:
+                return new TLRPC.TL_userStatusEmpty();
+            case 0x77ebc742:
+                return new TLRPC.TL_userStatusLastMonth();
+            case 0xedb93949:
+                return new TLRPC.TL_userStatusOnline();
+            case 0xe26f42f1:
+                return new TLRPC.TL_userStatusRecently();
+            case 0x8c703f:
+                return new TLRPC.TL_userStatusOffline();
+            case 0x96a18d5:
+                return new TLRPC.TL_upload_file();
+            case 0x73f1f8dc:
+                return new TLRPC.TL_msg_container();
+            case 0xf35c6d01:
+                return new TLRPC.TL_rpc_result();
+            case 0xae500895:
+                return new TLRPC.TL_futuresalts();
+            case 0x3072cfa1:
+                return new TLRPC.TL_gzip_packed();
+            case 0xa367e716:
+                return new TLRPC.TL_messageForwarded_old2();
+            case 0xa7ab1991:
+                return new TLRPC.TL_message();
+            case 0x567699b3:
+                return new TLRPC.TL_message_old2();
+            case 0x1d86f70e:
+                return new TLRPC.TL_messageService();
+            case 0x9f8d60bb:
+                return new TLRPC.TL_messageService_old();
+            case 0x5f46804:
+                return new TLRPC.TL_messageForwarded_old();
+            case 0x22eb6aba:
+                return new TLRPC.TL_message_old();
+            case 0x555555f8:
+                return new TLRPC.TL_message_secret();
+            case 0x1cb5c415:
+                return new TLRPC.Vector();
+            case 0x200250ba:
+                return new TLRPC.TL_userEmpty();
+            case 0x9ba2d800:
+                return new TLRPC.TL_chatEmpty();
+            case 0x990d1493:
+                return new TLRPC.TL_userProfilePhotoOld();
+            case 0xc1dd804a:
+                return new TLRPC.TL_dialog();
+            case 0x55555554:
+                return new TLRPC.TL_fileEncryptedLocation();
+            case 0x55555552:
+                return new TLRPC.TL_messageActionTTLChange();
+            case 0x55555557:
+                return new TLRPC.TL_messageActionCreatedBroadcastList();
+            case 0x55555558:
+                return new TLRPC.TL_documentEncrypted();
+            case 0x55555556:
+                return new TLRPC.TL_documentEncrypted_old();
+            case 0x55555553:
+                return new TLRPC.TL_videoEncrypted();
+            case 0x555555f6:
+                return new TLRPC.TL_audioEncrypted();
+            case 0x55555551:
+                return new TLRPC.TL_messageActionUserUpdatedPhoto();
+            case 0x55555550:
+                return new TLRPC.TL_messageActionUserJoined();
+            case 0x555555f5:
+                return new TLRPC.TL_messageActionLoginUnknownLocation();
+            case 0x6601d14f:
+                return new TLRPC.TL_encryptedChat_old();
+            case 0xfda9a7b7:
+                return new TLRPC.TL_encryptedChatRequested_old();
+            case 0x65614304:
+                return new TLRPC.TL_decryptedMessageActionDeleteMessages();
+            case 0xec2e0b9b:
+                return new TLRPC.TL_decryptedMessageActionCommitKey();
+            case 0xdd05ec6b:
+                return new TLRPC.TL_decryptedMessageActionAbortKey();
+            case 0xa82fdd63:
+                return new TLRPC.TL_decryptedMessageActionNoop();
+            case 0x8ac1f475:
+                return new TLRPC.TL_decryptedMessageActionScreenshotMessages();
+            case 0x555555f7:
+                return new TLRPC.TL_messageEncryptedAction();
+            case 0x4cee6ef3:
+                return new TLRPC.TL_decryptedMessageMediaVideo_old();
+            case 0x6080758f:
+                return new TLRPC.TL_decryptedMessageMediaAudio_old();
+            case 0x427425e7:
+                return new TLRPC.TL_audio_old();
+            case 0x5a04a49f:
+                return new TLRPC.TL_video_old();
+            default:
+                return null;
+        }
     }
 }
@@ -12,7 +12,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -44,13 +44,12 @@ public class TcpConnection extends ConnectionContext {
     private int datacenterId;
     private int failedConnectionCount;
     public TcpConnectionDelegate delegate;
-    private ByteBufferDesc restOfTheData;
+    private final TcpPacketReader packetReader = new TcpPacketReader();
     private boolean hasSomeDataSinceLastConnect = false;
     private int willRetryConnectCount = 5;
     private boolean isNextPort = false;
     private final Object timerSync = new Object();
     private boolean wasConnected;
-    private int lastPacketLength;
 
     public int transportRequestClass;
 
@@ -117,11 +116,7 @@ public class TcpConnection extends ConnectionContext {
 
                     FileLog.d("tmessages", String.format(TcpConnection.this + " Connecting (%s:%d)", hostAddress, hostPort));
                     firstPacket = true;
-                    if (restOfTheData != null) {
-                        BuffersStorage.getInstance().reuseFreeBuffer(restOfTheData);
-                        restOfTheData = null;
-                    }
-                    lastPacketLength = 0;
+                    packetReader.reset();
                     wasConnected = false;
                     hasSomeDataSinceLastConnect = false;
                     if (client != null) {
@@ -250,11 +245,7 @@ public class TcpConnection extends ConnectionContext {
             });
         }
         firstPacket = true;
-        if (restOfTheData != null) {
-            BuffersStorage.getInstance().reuseFreeBuffer(restOfTheData);
-            restOfTheData = null;
-        }
-        lastPacketLength = 0;
+        packetReader.reset();
         channelToken = 0;
         wasConnected = false;
     }
@@ -348,205 +339,47 @@ public class TcpConnection extends ConnectionContext {
     }
 
     private void readData(ByteBuffer buffer) throws Exception {
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
         buffer.rewind();
+        if (!buffer.hasRemaining()) {
+            return;
+        }
 
-        ByteBuffer parseLaterBuffer = null;
-        if (restOfTheData != null) {
-            if (lastPacketLength == 0) {
-                //FileLog.e("tmessages", this +  " write addition data to restOfTheData");
-                if (restOfTheData.capacity() - restOfTheData.position() >= buffer.limit()) {
-                    restOfTheData.limit(restOfTheData.position() + buffer.limit());
-                    restOfTheData.put(buffer);
-                    buffer = restOfTheData.buffer;
-                    //FileLog.e("tmessages", this +  " no need to recreate buffer");
-                } else {
-                    ByteBufferDesc newBuffer = BuffersStorage.getInstance().getFreeBuffer(restOfTheData.limit() + buffer.limit());
-                    restOfTheData.rewind();
-                    newBuffer.put(restOfTheData.buffer);
-                    newBuffer.put(buffer);
-                    buffer = newBuffer.buffer;
-                    BuffersStorage.getInstance().reuseFreeBuffer(restOfTheData);
-                    restOfTheData = newBuffer;
-                    //FileLog.e("tmessages", this +  " NEED to recreate buffer");
-                }
+        if (!hasSomeDataSinceLastConnect) {
+            Datacenter datacenter = ConnectionsManager.getInstance().datacenterWithId(datacenterId);
+            datacenter.storeCurrentAddressAndPortNum();
+            isNextPort = false;
+            if ((transportRequestClass & RPCRequest.RPCRequestClassPush) != 0) {
+                client.setTimeout(60000 * 15);
             } else {
-                //FileLog.e("tmessages", this +  " write buffer to restOfTheData buffer of len = " + lastPacketLength);
-                int len = 0;
-                if (lastPacketLength - restOfTheData.position() <= buffer.limit()) {
-                    len = lastPacketLength - restOfTheData.position();
-                    //FileLog.e("tmessages", this +  " received buffer - OK!");
-                } else {
-                    len = buffer.limit();
-                    //FileLog.e("tmessages", this +  " received buffer less than need");
-                }
-                int oldLimit = buffer.limit();
-                buffer.limit(len);
-                restOfTheData.put(buffer);
-                buffer.limit(oldLimit);
-                if (restOfTheData.position() != lastPacketLength) {
-                    //FileLog.e("tmessages", this +  " don't get much data to restOfTheData");
-                    return;
-                } else {
-                    //FileLog.e("tmessages", this +  " get much data to restOfTheData - OK!");
-                    if (buffer.hasRemaining()) {
-                        parseLaterBuffer = buffer;
-                        //FileLog.e("tmessages", this +  " something remain in the received buffer");
-                    } else {
-                        parseLaterBuffer = null;
-                    }
-                    buffer = restOfTheData.buffer;
-                }
+                client.setTimeout(25000);
             }
         }
+        hasSomeDataSinceLastConnect = true;
 
-        buffer.rewind();
-
-        while (buffer.hasRemaining()) {
-            if (!hasSomeDataSinceLastConnect) {
-                Datacenter datacenter = ConnectionsManager.getInstance().datacenterWithId(datacenterId);
-                datacenter.storeCurrentAddressAndPortNum();
-                isNextPort = false;
-                if ((transportRequestClass & RPCRequest.RPCRequestClassPush) != 0) {
-                    client.setTimeout(60000 * 15);
-                } else {
-                    client.setTimeout(25000);
-                }
-            }
-            hasSomeDataSinceLastConnect = true;
-
-            int currentPacketLength;
-            buffer.mark();
-            byte fByte = buffer.get();
-
-            if ((fByte & (1 << 7)) != 0) {
-                buffer.reset();
-                if (buffer.remaining() < 4) {
-                    ByteBufferDesc reuseLater = restOfTheData;
-                    restOfTheData = BuffersStorage.getInstance().getFreeBuffer(16384);
-                    restOfTheData.put(buffer);
-                    restOfTheData.limit(restOfTheData.position());
-                    lastPacketLength = 0;
-                    //FileLog.e("tmessages", this +  " 1 - size less than 4 bytes - write to free buffer");
-                    if (reuseLater != null) {
-                        BuffersStorage.getInstance().reuseFreeBuffer(reuseLater);
-                        //FileLog.e("tmessages", this +  " 1 - reuse later buffer1");
-                    }
-                    break;
-                }
-                buffer.order(ByteOrder.BIG_ENDIAN);
-                final int ackId = buffer.getInt() & (~(1 << 31));
-                if (delegate != null) {
-                    final TcpConnectionDelegate finalDelegate = delegate;
-                    Utilities.stageQueue.postRunnable(new Runnable() {
-                        @Override
-                        public void run() {
-                            finalDelegate.tcpConnectionQuiackAckReceived(TcpConnection.this, ackId);
-                        }
-                    });
-                }
-                buffer.order(ByteOrder.LITTLE_ENDIAN);
-                continue;
-            }
-
-            if (fByte != 0x7f) {
-                currentPacketLength = ((int)fByte) * 4;
-            } else {
-                buffer.reset();
-                if (buffer.remaining() < 4) {
-                    //FileLog.e("tmessages", this +  " 2 - size less than 4 bytes - write to free buffer");
-                    if (restOfTheData == null || restOfTheData != null && restOfTheData.position() != 0) {
-                        ByteBufferDesc reuseLater = restOfTheData;
-                        restOfTheData = BuffersStorage.getInstance().getFreeBuffer(16384);
-                        restOfTheData.put(buffer);
-                        restOfTheData.limit(restOfTheData.position());
-                        lastPacketLength = 0;
-                        if (reuseLater != null) {
-                            BuffersStorage.getInstance().reuseFreeBuffer(reuseLater);
-                            //FileLog.e("tmessages", this +  " 2 - reuse later buffer1");
+        final ArrayList<Object> received = new ArrayList<>();
+        boolean valid = packetReader.read(buffer, received);
+        if (!received.isEmpty()) {
+            final TcpConnectionDelegate finalDelegate = delegate;
+            Utilities.stageQueue.postRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    for (Object object : received) {
+                        if (object instanceof ByteBufferDesc) {
+                            ByteBufferDesc data = (ByteBufferDesc) object;
+                            if (finalDelegate != null) {
+                                finalDelegate.tcpConnectionReceivedData(TcpConnection.this, data, data.limit());
+                            }
+                            BuffersStorage.getInstance().reuseFreeBuffer(data);
+                        } else if (finalDelegate != null) {
+                            finalDelegate.tcpConnectionQuiackAckReceived(TcpConnection.this, (Integer) object);
                         }
-                    } else {
-                        restOfTheData.position(restOfTheData.limit());
-                    }
-                    break;
-                }
-                currentPacketLength = (buffer.getInt() >> 8) * 4;
-            }
-
-            if (currentPacketLength % 4 != 0 || currentPacketLength > 2 * 1024 * 1024) {
-                FileLog.e("tmessages", "Invalid packet length");
-                reconnect();
-                return;
-            }
-
-            if (currentPacketLength < buffer.remaining()) {
-                FileLog.d("tmessages", TcpConnection.this + " Received message len " + currentPacketLength + " but packet larger " + buffer.remaining());
-            } else if (currentPacketLength == buffer.remaining()) {
-                FileLog.d("tmessages", TcpConnection.this + " Received message len " + currentPacketLength + " equal to packet size");
-            } else {
-                FileLog.d("tmessages", TcpConnection.this + " Received packet size less(" + buffer.remaining() + ") then message size(" + currentPacketLength + ")");
-
-                ByteBufferDesc reuseLater = null;
-                int len = currentPacketLength + (fByte != 0x7f ? 1 : 4);
-                if (restOfTheData != null && restOfTheData.capacity() < len) {
-                    reuseLater = restOfTheData;
-                    restOfTheData = null;
-                    //FileLog.e("tmessages", this +  " not enough space for len, recreate buffer = " + len);
-                }
-                if (restOfTheData == null) {
-                    //FileLog.e("tmessages", this +  " write to restOfTheData, get buffer len = " + len);
-                    buffer.reset();
-                    restOfTheData = BuffersStorage.getInstance().getFreeBuffer(len);
-                    restOfTheData.put(buffer);
-                } else {
-                    restOfTheData.position(restOfTheData.limit());
-                    restOfTheData.limit(len);
-                }
-                lastPacketLength = len;
-                if (reuseLater != null) {
-                    BuffersStorage.getInstance().reuseFreeBuffer(reuseLater);
-                    //FileLog.e("tmessages", this +  " 3 - reuse later buffer1");
-                }
-                return;
-            }
-
-            final int length = currentPacketLength;
-            final ByteBufferDesc toProceed = BuffersStorage.getInstance().getFreeBuffer(currentPacketLength);
-            int old = buffer.limit();
-            buffer.limit(buffer.position() + currentPacketLength);
-            toProceed.put(buffer);
-            buffer.limit(old);
-            toProceed.rewind();
-
-            if (delegate != null) {
-                final TcpConnectionDelegate finalDelegate = delegate;
-                Utilities.stageQueue.postRunnable(new Runnable() {
-                    @Override
-                    public void run() {
-                        finalDelegate.tcpConnectionReceivedData(TcpConnection.this, toProceed, length);
-                        BuffersStorage.getInstance().reuseFreeBuffer(toProceed);
                     }
-                });
-            }
-
-            if (restOfTheData != null) {
-                if (lastPacketLength != 0 && restOfTheData.position() == lastPacketLength || lastPacketLength == 0 && !restOfTheData.hasRemaining()) {
-                    BuffersStorage.getInstance().reuseFreeBuffer(restOfTheData);
-                    restOfTheData = null;
-                    //FileLog.e("tmessages", this +  " restOfTheData parsed null it");
-                } else {
-                    restOfTheData.compact();
-                    restOfTheData.limit(restOfTheData.position());
-                    restOfTheData.position(0);
-                    //FileLog.e("tmessages", this +  " restOfTheData NOT parsed, compact");
                 }
-            }
-
-            if (parseLaterBuffer != null) {
-                //FileLog.e("tmessages", this +  " there is parseLaterBuffer");
-                buffer = parseLaterBuffer;
-                parseLaterBuffer = null;
-            }
+            });
+        }
+        if (!valid) {
+            FileLog.e("tmessages", "Invalid packet length");
+            reconnect();
         }
     }
 
@@ -564,12 +397,8 @@ public class TcpConnection extends ConnectionContext {
         }
         boolean switchToNextPort = wasConnected && !hasSomeDataSinceLastConnect && timedout;
         firstPacket = true;
-        if (restOfTheData != null) {
-            BuffersStorage.getInstance().reuseFreeBuffer(restOfTheData);
-            restOfTheData = null;
-        }
+        packetReader.reset();
         channelToken = 0;
-        lastPacketLength = 0;
         wasConnected = false;
         if (connectionState != TcpConnectionState.TcpConnectionStageSuspended && connectionState != TcpConnectionState.TcpConnectionStageIdle) {
             connectionState = TcpConnectionState.TcpConnectionStageIdle;
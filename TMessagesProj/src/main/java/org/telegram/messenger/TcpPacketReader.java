@@ -0,0 +1,99 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.messenger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Splits the abridged transport stream of a connection into packets and quick acks. A packet is
+ * copied once, straight into a pooled buffer of its exact size, no matter how many reads it
+ * arrives in, and that buffer is what gets delivered.
+ */
+class TcpPacketReader {
+
+    private static final int MAX_PACKET_LENGTH = 2 * 1024 * 1024;
+
+    private final byte[] header = new byte[4];
+    private int headerCount;
+    private int headerLength;
+
+    private ByteBufferDesc packet;
+    private int packetLength;
+
+    /**
+     * Read all data available in a buffer
+     * @param data Received data, read from its position to its limit
+     * @param received List to append the results to, in stream order: complete packets as
+     *                 ByteBufferDesc with their length as limit, owned by the caller and to be
+     *                 returned to BuffersStorage, and quick acks as Integer
+     * @return false if the stream contains an invalid packet length
+     */
+    public boolean read(ByteBuffer data, ArrayList<Object> received) {
+        while (data.hasRemaining()) {
+            if (packet != null) {
+                int count = Math.min(data.remaining(), packetLength - packet.position());
+                int oldLimit = data.limit();
+                data.limit(data.position() + count);
+                packet.put(data);
+                data.limit(oldLimit);
+                if (packet.position() == packetLength) {
+                    packet.rewind();
+                    received.add(packet);
+                    packet = null;
+                }
+                continue;
+            }
+
+            if (headerCount == 0) {
+                byte first = data.get();
+                header[0] = first;
+                headerCount = 1;
+                headerLength = (first & 0x80) != 0 || first == 0x7f ? 4 : 1;
+            }
+            while (headerCount < headerLength && data.hasRemaining()) {
+                header[headerCount++] = data.get();
+            }
+            if (headerCount < headerLength) {
+                break;
+            }
+            headerCount = 0;
+
+            if ((header[0] & 0x80) != 0) {
+                int ackId = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) | ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+                received.add(ackId & 0x7fffffff);
+                continue;
+            }
+            int length;
+            if (header[0] != 0x7f) {
+                length = header[0] * 4;
+            } else {
+                length = ((header[1] & 0xff) | ((header[2] & 0xff) << 8) | ((header[3] & 0xff) << 16)) * 4;
+            }
+            if (length == 0 || length > MAX_PACKET_LENGTH) {
+                return false;
+            }
+            packet = BuffersStorage.getInstance().getFreeBuffer(length);
+            packetLength = length;
+        }
+        return true;
+    }
+
+    /**
+     * Drop a partially received packet, used when the connection is closed
+     */
+    public void reset() {
+        if (packet != null) {
+            BuffersStorage.getInstance().reuseFreeBuffer(packet);
+            packet = null;
+        }
+        packetLength = 0;
+        headerCount = 0;
+    }
+}
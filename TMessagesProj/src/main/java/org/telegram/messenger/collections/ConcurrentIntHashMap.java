@@ -0,0 +1,161 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.messenger.collections;
+
+import java.util.ArrayList;
+
+/**
+ * Thread safe {@link IntHashMap}. Keys are spread over segments with a lock each, so threads
+ * working with different segments don't wait for each other. Copies of keys and values are
+ * taken segment by segment and are not a snapshot of the whole map.
+ *
+ * @param <V> Value type
+ */
+public class ConcurrentIntHashMap<V> {
+
+    private final IntHashMap<V>[] segments;
+    private final int segmentMask;
+
+    public ConcurrentIntHashMap() {
+        this(16, 4);
+    }
+
+    /**
+     * @param expectedSize Number of entries the map can take before it grows
+     * @param concurrencyLevel Number of segments, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentIntHashMap(int expectedSize, int concurrencyLevel) {
+        int count = 1;
+        while (count < concurrencyLevel) {
+            count <<= 1;
+        }
+        segments = new IntHashMap[count];
+        segmentMask = count - 1;
+        for (int a = 0; a < count; a++) {
+            segments[a] = new IntHashMap<>(expectedSize / count);
+        }
+    }
+
+    private IntHashMap<V> segmentFor(int key) {
+        int h = key * 0x7f4a7c15;
+        return segments[(h >>> 24) & segmentMask];
+    }
+
+    public V get(int key) {
+        IntHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public boolean containsKey(int key) {
+        IntHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    public V put(int key, V value) {
+        IntHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    public V putIfAbsent(int key, V value) {
+        IntHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.putIfAbsent(key, value);
+        }
+    }
+
+    public V remove(int key) {
+        IntHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (IntHashMap<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (IntHashMap<V> segment : segments) {
+            synchronized (segment) {
+                if (!segment.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        for (IntHashMap<V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return Copy of the keys
+     */
+    public int[] keys() {
+        int[][] parts = new int[segments.length][];
+        int size = 0;
+        for (int a = 0; a < segments.length; a++) {
+            synchronized (segments[a]) {
+                parts[a] = segments[a].keys();
+            }
+            size += parts[a].length;
+        }
+        int[] result = new int[size];
+        int offset = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    /**
+     * @return Copy of the values
+     */
+    public ArrayList<V> values() {
+        ArrayList<V> result = new ArrayList<>();
+        for (IntHashMap<V> segment : segments) {
+            synchronized (segment) {
+                segment.addValuesTo(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Approximate memory taken by the tables in bytes, without the values
+     */
+    public long getFootprint() {
+        long footprint = 16 + segments.length * 4L;
+        for (IntHashMap<V> segment : segments) {
+            synchronized (segment) {
+                footprint += segment.getFootprint();
+            }
+        }
+        return footprint;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.messenger.collections;
+
+import java.util.ArrayList;
+
+/**
+ * Thread safe {@link LongHashMap}. Keys are spread over segments with a lock each, so threads
+ * working with different segments don't wait for each other. Copies of keys and values are
+ * taken segment by segment and are not a snapshot of the whole map.
+ *
+ * @param <V> Value type
+ */
+public class ConcurrentLongHashMap<V> {
+
+    private final LongHashMap<V>[] segments;
+    private final int segmentMask;
+
+    public ConcurrentLongHashMap() {
+        this(16, 4);
+    }
+
+    /**
+     * @param expectedSize Number of entries the map can take before it grows
+     * @param concurrencyLevel Number of segments, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongHashMap(int expectedSize, int concurrencyLevel) {
+        int count = 1;
+        while (count < concurrencyLevel) {
+            count <<= 1;
+        }
+        segments = new LongHashMap[count];
+        segmentMask = count - 1;
+        for (int a = 0; a < count; a++) {
+            segments[a] = new LongHashMap<>(expectedSize / count);
+        }
+    }
+
+    private LongHashMap<V> segmentFor(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x7f4a7c15;
+        return segments[(h >>> 24) & segmentMask];
+    }
+
+    public V get(long key) {
+        LongHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        LongHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.containsKey(key);
+        }
+    }
+
+    public V put(long key, V value) {
+        LongHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    public V putIfAbsent(long key, V value) {
+        LongHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.putIfAbsent(key, value);
+        }
+    }
+
+    public V remove(long key) {
+        LongHashMap<V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongHashMap<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (LongHashMap<V> segment : segments) {
+            synchronized (segment) {
+                if (!segment.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        for (LongHashMap<V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return Copy of the keys
+     */
+    public long[] keys() {
+        long[][] parts = new long[segments.length][];
+        int size = 0;
+        for (int a = 0; a < segments.length; a++) {
+            synchronized (segments[a]) {
+                parts[a] = segments[a].keys();
+            }
+            size += parts[a].length;
+        }
+        long[] result = new long[size];
+        int offset = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+
+    /**
+     * @return Copy of the values
+     */
+    public ArrayList<V> values() {
+        ArrayList<V> result = new ArrayList<>();
+        for (LongHashMap<V> segment : segments) {
+            synchronized (segment) {
+                segment.addValuesTo(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Approximate memory taken by the tables in bytes, without the values
+     */
+    public long getFootprint() {
+        long footprint = 16 + segments.length * 4L;
+        for (LongHashMap<V> segment : segments) {
+            synchronized (segment) {
+                footprint += segment.getFootprint();
+            }
+        }
+        return footprint;
+    }
+}
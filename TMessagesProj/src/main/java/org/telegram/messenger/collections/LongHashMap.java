@@ -0,0 +1,219 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.messenger.collections;
+
+import java.util.ArrayList;
+
+/**
+ * Map with long keys that are stored without boxing, in open addressing tables with linear
+ * probing. An entry takes one long and one reference slot, about 16 bytes at the highest load
+ * factor, where a HashMap&lt;Long, V&gt; entry takes about 50 with its Entry and Long
+ * objects. Values can't be null. Not thread safe, see {@link ConcurrentLongHashMap}.
+ *
+ * @param <V> Value type
+ */
+public class LongHashMap<V> {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public LongHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize Number of entries the map can take before it grows
+     */
+    public LongHashMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = capacity * 3 / 4;
+    }
+
+    private static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(long key) {
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = indexOf(key);
+        return index != -1 ? (V) values[index] : null;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) != -1;
+    }
+
+    /**
+     * @return Value previously stored for the key
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                V previous = (V) values[index];
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return Value stored for the key, null if the new value was added
+     */
+    public V putIfAbsent(long key, V value) {
+        V previous = get(key);
+        if (previous == null) {
+            put(key, value);
+        }
+        return previous;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = indexOf(key);
+        if (index == -1) {
+            return null;
+        }
+        V previous = (V) values[index];
+        values[index] = null;
+        size--;
+        int free = index;
+        index = (index + 1) & mask;
+        while (values[index] != null) {
+            int home = hash(keys[index]) & mask;
+            if (((index - home) & mask) >= ((index - free) & mask)) {
+                keys[free] = keys[index];
+                values[free] = values[index];
+                values[index] = null;
+                free = index;
+            }
+            index = (index + 1) & mask;
+        }
+        return previous;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int a = 0; a < oldValues.length; a++) {
+            if (oldValues[a] != null) {
+                int index = hash(oldKeys[a]) & mask;
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[a];
+                values[index] = oldValues[a];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        if (keys.length > MIN_CAPACITY * 8) {
+            allocate(MIN_CAPACITY);
+        } else {
+            for (int a = 0; a < values.length; a++) {
+                values[a] = null;
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * @return Copy of the keys
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        for (int a = 0; a < values.length; a++) {
+            if (values[a] != null) {
+                result[count++] = keys[a];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Copy of the values
+     */
+    public ArrayList<V> values() {
+        ArrayList<V> result = new ArrayList<>(size);
+        addValuesTo(result);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    void addValuesTo(ArrayList<V> result) {
+        for (Object value : values) {
+            if (value != null) {
+                result.add((V) value);
+            }
+        }
+    }
+
+    /**
+     * Approximate memory taken by the tables in bytes, without the values
+     */
+    public long getFootprint() {
+        return 32 + keys.length * 8L + values.length * 4L;
+    }
+}
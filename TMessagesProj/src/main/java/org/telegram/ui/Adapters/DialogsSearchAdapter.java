@@ -10,26 +10,22 @@ package org.telegram.ui.Adapters;
 
 import android.content.Context;
 import android.text.Html;
-import android.text.TextUtils;
 import android.view.View;
 import android.view.ViewGroup;
 
-import org.telegram.SQLite.SQLiteCursor;
 import org.telegram.android.AndroidUtilities;
 import org.telegram.android.ContactsController;
+import org.telegram.android.DialogsSearchIndex;
 import org.telegram.android.LocaleController;
 import org.telegram.android.MessageObject;
 import org.telegram.android.MessagesController;
 import org.telegram.android.MessagesStorage;
-import org.telegram.messenger.ByteBufferDesc;
 import org.telegram.messenger.ConnectionsManager;
 import org.telegram.messenger.FileLog;
 import org.telegram.messenger.R;
 import org.telegram.messenger.RPCRequest;
-import org.telegram.messenger.TLClassStore;
 import org.telegram.messenger.TLObject;
 import org.telegram.messenger.TLRPC;
-import org.telegram.messenger.UserConfig;
 import org.telegram.messenger.Utilities;
 import org.telegram.ui.Cells.DialogCell;
 import org.telegram.ui.Cells.GreySectionCell;
@@ -37,12 +33,10 @@ import org.telegram.ui.Cells.LoadingCell;
 import org.telegram.ui.Cells.ProfileSearchCell;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Locale;
+import java.util.HashSet;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
 
 public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
 
@@ -58,13 +52,11 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
     private int needMessagesSearch;
     private boolean messagesSearchEndReached;
     private String lastMessagesSearchString;
-    private int lastSearchId = 0;
-
-    private class DialogSearchResult {
-        public TLObject object;
-        public int date;
-        public CharSequence name;
-    }
+    private ArrayList<String> lastMessagesSearchWords;
+    private HashSet<Integer> searchResultMessagesIds = new HashSet<>();
+    private int searchResultMessagesReqId;
+    private int serverMaxId;
+    private volatile int lastSearchId = 0;
 
     public interface MessagesActivitySearchAdapterDelegate {
         void searchStateChanged(boolean searching);
@@ -84,6 +76,9 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
     }
 
     public void loadMoreSearchMessages() {
+        if (reqId != 0) {
+            return;
+        }
         searchMessagesInternal(lastMessagesSearchString);
     }
 
@@ -97,8 +92,10 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
         }
         if (query == null || query.length() == 0) {
             searchResultMessages.clear();
+            searchResultMessagesIds.clear();
             lastReqId = 0;
             lastMessagesSearchString = null;
+            lastMessagesSearchWords = null;
             notifyDataSetChanged();
             if (delegate != null) {
                 delegate.searchStateChanged(false);
@@ -109,15 +106,55 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
         req.limit = 20;
         req.peer = new TLRPC.TL_inputPeerEmpty();
         req.q = query;
-        if (lastMessagesSearchString != null && query.equals(lastMessagesSearchString) && !searchResultMessages.isEmpty()) {
-            req.max_id = searchResultMessages.get(searchResultMessages.size() - 1).getId();
+        if (lastMessagesSearchString != null && query.equals(lastMessagesSearchString) && serverMaxId != 0) {
+            req.max_id = serverMaxId;
+        } else {
+            serverMaxId = 0;
         }
         lastMessagesSearchString = query;
+        lastMessagesSearchWords = MessagesStorage.getSearchTokens(query);
         req.filter = new TLRPC.TL_inputMessagesFilterEmpty();
         final int currentReqId = ++lastReqId;
         if (delegate != null) {
             delegate.searchStateChanged(true);
         }
+        if (req.max_id == 0) {
+            MessagesStorage.getInstance().postReadRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    final ArrayList<TLRPC.Message> messages = new ArrayList<>();
+                    final ArrayList<TLRPC.User> users = new ArrayList<>();
+                    final ArrayList<TLRPC.Chat> chats = new ArrayList<>();
+                    try {
+                        MessagesStorage.getInstance().searchMessagesInternal(query, 50, messages, users, chats);
+                    } catch (Exception e) {
+                        FileLog.e("tmessages", e);
+                    }
+                    AndroidUtilities.runOnUIThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (currentReqId != lastReqId) {
+                                return;
+                            }
+                            MessagesController.getInstance().putUsers(users, true);
+                            MessagesController.getInstance().putChats(chats, true);
+                            if (searchResultMessagesReqId != currentReqId) {
+                                searchResultMessagesReqId = currentReqId;
+                                searchResultMessages.clear();
+                                searchResultMessagesIds.clear();
+                            }
+                            int index = 0;
+                            for (TLRPC.Message message : messages) {
+                                if (searchResultMessagesIds.add(message.id)) {
+                                    searchResultMessages.add(index++, new MessageObject(message, null, false));
+                                }
+                            }
+                            notifyDataSetChanged();
+                        }
+                    });
+                }
+            });
+        }
         reqId = ConnectionsManager.getInstance().performRpc(req, new RPCRequest.RPCRequestDelegate() {
             @Override
             public void run(final TLObject response, final TLRPC.TL_error error) {
@@ -130,11 +167,18 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
                                 MessagesStorage.getInstance().putUsersAndChats(res.users, res.chats, true, true);
                                 MessagesController.getInstance().putUsers(res.users, false);
                                 MessagesController.getInstance().putChats(res.chats, false);
-                                if (req.max_id == 0) {
+                                if (searchResultMessagesReqId != currentReqId && req.max_id == 0) {
+                                    searchResultMessagesReqId = currentReqId;
                                     searchResultMessages.clear();
+                                    searchResultMessagesIds.clear();
                                 }
                                 for (TLRPC.Message message : res.messages) {
-                                    searchResultMessages.add(new MessageObject(message, null, false));
+                                    if (searchResultMessagesIds.add(message.id)) {
+                                        searchResultMessages.add(new MessageObject(message, null, false));
+                                    }
+                                }
+                                if (!res.messages.isEmpty()) {
+                                    serverMaxId = res.messages.get(res.messages.size() - 1).id;
                                 }
                                 messagesSearchEndReached = res.messages.size() != 20;
                                 notifyDataSetChanged();
@@ -154,9 +198,12 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
         if (needMessagesSearch == 2) {
             return;
         }
-        MessagesStorage.getInstance().getStorageQueue().postRunnable(new Runnable() {
+        DialogsSearchIndex.getInstance().getSearchQueue().postRunnable(new Runnable() {
             @Override
             public void run() {
+                if (searchId != lastSearchId) {
+                    return;
+                }
                 try {
                     String search1 = query.trim().toLowerCase();
                     if (search1.length() == 0) {
@@ -164,273 +211,41 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
                         updateSearchResults(new ArrayList<TLObject>(), new ArrayList<CharSequence>(), new ArrayList<TLRPC.User>(), lastSearchId);
                         return;
                     }
-                    String search2 = LocaleController.getInstance().getTranslitString(search1);
-                    if (search1.equals(search2) || search2.length() == 0) {
-                        search2 = null;
-                    }
-                    String search[] = new String[1 + (search2 != null ? 1 : 0)];
-                    search[0] = search1;
-                    if (search2 != null) {
-                        search[1] = search2;
+                    if (!DialogsSearchIndex.getInstance().isLoaded()) {
+                        Semaphore semaphore = new Semaphore(0);
+                        MessagesStorage.getInstance().loadDialogsSearchIndex(semaphore);
+                        semaphore.acquire();
+                        if (searchId != lastSearchId) {
+                            return;
+                        }
                     }
 
-                    ArrayList<Integer> usersToLoad = new ArrayList<>();
-                    ArrayList<Integer> chatsToLoad = new ArrayList<>();
-                    ArrayList<Integer> encryptedToLoad = new ArrayList<>();
+                    ArrayList<DialogsSearchIndex.SearchResult> searchResults = DialogsSearchIndex.getInstance().search(search1, serverOnly);
+                    ArrayList<TLObject> resultArray = new ArrayList<>(searchResults.size());
+                    ArrayList<CharSequence> resultArrayNames = new ArrayList<>(searchResults.size());
                     ArrayList<TLRPC.User> encUsers = new ArrayList<>();
-                    int resultCount = 0;
-
-                    HashMap<Long, DialogSearchResult> dialogsResult = new HashMap<>();
-                    SQLiteCursor cursor = MessagesStorage.getInstance().getDatabase().queryFinalized("SELECT did, date FROM dialogs ORDER BY date DESC LIMIT 200");
-                    while (cursor.next()) {
-                        long id = cursor.longValue(0);
-                        DialogSearchResult dialogSearchResult = new DialogSearchResult();
-                        dialogSearchResult.date = cursor.intValue(1);
-                        dialogsResult.put(id, dialogSearchResult);
-
-                        int lower_id = (int)id;
-                        int high_id = (int)(id >> 32);
-                        if (lower_id != 0) {
-                            if (high_id == 1) {
-                                if (!serverOnly && !chatsToLoad.contains(lower_id)) {
-                                    chatsToLoad.add(lower_id);
-                                }
+                    for (DialogsSearchIndex.SearchResult searchResult : searchResults) {
+                        String q = searchResult.query;
+                        if (searchResult.object instanceof TLRPC.User) {
+                            TLRPC.User user = (TLRPC.User) searchResult.object;
+                            if (!searchResult.byUsername) {
+                                resultArrayNames.add(Utilities.generateSearchName(user.first_name, user.last_name, q));
                             } else {
-                                if (lower_id > 0) {
-                                    if (!usersToLoad.contains(lower_id)) {
-                                        usersToLoad.add(lower_id);
-                                    }
-                                } else {
-                                    if (!chatsToLoad.contains(-lower_id)) {
-                                        chatsToLoad.add(-lower_id);
-                                    }
-                                }
-                            }
-                        } else if (!serverOnly) {
-                            if (!encryptedToLoad.contains(high_id)) {
-                                encryptedToLoad.add(high_id);
-                            }
-                        }
-                    }
-                    cursor.dispose();
-
-                    if (!usersToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, status, name FROM users WHERE uid IN(%s)", TextUtils.join(",", usersToLoad)));
-                        while (cursor.next()) {
-                            String name = cursor.stringValue(2);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
-                            String username = null;
-                            int usernamePos = name.lastIndexOf(";;;");
-                            if (usernamePos != -1) {
-                                username = name.substring(usernamePos + 3);
-                            }
-                            int found = 0;
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    found = 1;
-                                } else if (username != null && username.startsWith(q)) {
-                                    found = 2;
-                                }
-                                if (found != 0) {
-                                    ByteBufferDesc data = MessagesStorage.getInstance().getBuffersStorage().getFreeBuffer(cursor.byteArrayLength(0));
-                                    if (data != null && cursor.byteBufferValue(0, data.buffer) != 0) {
-                                        TLRPC.User user = (TLRPC.User) TLClassStore.Instance().TLdeserialize(data, data.readInt32());
-                                        if (user.id != UserConfig.getClientUserId()) {
-                                            DialogSearchResult dialogSearchResult = dialogsResult.get((long) user.id);
-                                            if (user.status != null) {
-                                                user.status.expires = cursor.intValue(1);
-                                            }
-                                            if (found == 1) {
-                                                dialogSearchResult.name = Utilities.generateSearchName(user.first_name, user.last_name, q);
-                                            } else {
-                                                dialogSearchResult.name = Utilities.generateSearchName("@" + user.username, null, "@" + q);
-                                            }
-                                            dialogSearchResult.object = user;
-                                            resultCount++;
-                                        }
-                                    }
-                                    MessagesStorage.getInstance().getBuffersStorage().reuseFreeBuffer(data);
-                                    break;
-                                }
-                            }
-                        }
-                        cursor.dispose();
-                    }
-
-                    if (!chatsToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized(String.format(Locale.US, "SELECT data, name FROM chats WHERE uid IN(%s)", TextUtils.join(",", chatsToLoad)));
-                        while (cursor.next()) {
-                            String name = cursor.stringValue(1);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
+                                resultArrayNames.add(Utilities.generateSearchName("@" + user.username, null, "@" + q));
                             }
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    ByteBufferDesc data = MessagesStorage.getInstance().getBuffersStorage().getFreeBuffer(cursor.byteArrayLength(0));
-                                    if (data != null && cursor.byteBufferValue(0, data.buffer) != 0) {
-                                        TLRPC.Chat chat = (TLRPC.Chat) TLClassStore.Instance().TLdeserialize(data, data.readInt32());
-                                        long dialog_id;
-                                        if (chat.id > 0) {
-                                            dialog_id = -chat.id;
-                                        } else {
-                                            dialog_id = AndroidUtilities.makeBroadcastId(chat.id);
-                                        }
-                                        DialogSearchResult dialogSearchResult = dialogsResult.get(dialog_id);
-                                        dialogSearchResult.name = Utilities.generateSearchName(chat.title, null, q);
-                                        dialogSearchResult.object = chat;
-                                        resultCount++;
-                                    }
-                                    MessagesStorage.getInstance().getBuffersStorage().reuseFreeBuffer(data);
-                                    break;
-                                }
-                            }
-                        }
-                        cursor.dispose();
-                    }
-
-                    if (!encryptedToLoad.isEmpty()) {
-                        cursor = MessagesStorage.getInstance().getDatabase().queryFinalized(String.format(Locale.US, "SELECT q.data, u.name, q.user, q.g, q.authkey, q.ttl, u.data, u.status, q.layer, q.seq_in, q.seq_out, q.use_count, q.exchange_id, q.key_date, q.fprint, q.fauthkey, q.khash FROM enc_chats as q INNER JOIN users as u ON q.user = u.uid WHERE q.uid IN(%s)", TextUtils.join(",", encryptedToLoad)));
-                        while (cursor.next()) {
-                            String name = cursor.stringValue(1);
-                            String tName = LocaleController.getInstance().getTranslitString(name);
-                            if (name.equals(tName)) {
-                                tName = null;
-                            }
-
-                            String username = null;
-                            int usernamePos = name.lastIndexOf(";;;");
-                            if (usernamePos != -1) {
-                                username = name.substring(usernamePos + 2);
-                            }
-                            int found = 0;
-                            for (String q : search) {
-                                if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                    found = 1;
-                                } else if (username != null && username.startsWith(q)) {
-                                    found = 2;
-                                }
-
-                                if (found != 0) {
-                                    ByteBufferDesc data = MessagesStorage.getInstance().getBuffersStorage().getFreeBuffer(cursor.byteArrayLength(0));
-                                    ByteBufferDesc data2 = MessagesStorage.getInstance().getBuffersStorage().getFreeBuffer(cursor.byteArrayLength(6));
-                                    if (data != null && cursor.byteBufferValue(0, data.buffer) != 0 && cursor.byteBufferValue(6, data2.buffer) != 0) {
-                                        TLRPC.EncryptedChat chat = (TLRPC.EncryptedChat) TLClassStore.Instance().TLdeserialize(data, data.readInt32());
-                                        DialogSearchResult dialogSearchResult = dialogsResult.get((long) chat.id << 32);
-
-                                        chat.user_id = cursor.intValue(2);
-                                        chat.a_or_b = cursor.byteArrayValue(3);
-                                        chat.auth_key = cursor.byteArrayValue(4);
-                                        chat.ttl = cursor.intValue(5);
-                                        chat.layer = cursor.intValue(8);
-                                        chat.seq_in = cursor.intValue(9);
-                                        chat.seq_out = cursor.intValue(10);
-                                        int use_count = cursor.intValue(11);
-                                        chat.key_use_count_in = (short) (use_count >> 16);
-                                        chat.key_use_count_out = (short) (use_count);
-                                        chat.exchange_id = cursor.longValue(12);
-                                        chat.key_create_date = cursor.intValue(13);
-                                        chat.future_key_fingerprint = cursor.longValue(14);
-                                        chat.future_auth_key = cursor.byteArrayValue(15);
-                                        chat.key_hash = cursor.byteArrayValue(16);
-
-                                        TLRPC.User user = (TLRPC.User) TLClassStore.Instance().TLdeserialize(data2, data2.readInt32());
-                                        if (user.status != null) {
-                                            user.status.expires = cursor.intValue(7);
-                                        }
-                                        if (found == 1) {
-                                            dialogSearchResult.name = Html.fromHtml("<font color=\"#00a60e\">" + ContactsController.formatName(user.first_name, user.last_name) + "</font>");
-                                        } else {
-                                            dialogSearchResult.name = Utilities.generateSearchName("@" + user.username, null, "@" + q);
-                                        }
-                                        dialogSearchResult.object = chat;
-                                        encUsers.add(user);
-                                        resultCount++;
-                                    }
-                                    MessagesStorage.getInstance().getBuffersStorage().reuseFreeBuffer(data);
-                                    MessagesStorage.getInstance().getBuffersStorage().reuseFreeBuffer(data2);
-                                    break;
-                                }
-                            }
-                        }
-                        cursor.dispose();
-                    }
-
-                    ArrayList<DialogSearchResult> searchResults = new ArrayList<>(resultCount);
-                    for (DialogSearchResult dialogSearchResult : dialogsResult.values()) {
-                        if (dialogSearchResult.object != null && dialogSearchResult.name != null) {
-                            searchResults.add(dialogSearchResult);
-                        }
-                    }
-
-                    Collections.sort(searchResults, new Comparator<DialogSearchResult>() {
-                        @Override
-                        public int compare(DialogSearchResult lhs, DialogSearchResult rhs) {
-                            if (lhs.date < rhs.date) {
-                                return 1;
-                            } else if (lhs.date > rhs.date) {
-                                return -1;
-                            }
-                            return 0;
-                        }
-                    });
-
-                    ArrayList<TLObject> resultArray = new ArrayList<>();
-                    ArrayList<CharSequence> resultArrayNames = new ArrayList<>();
-
-                    for (DialogSearchResult dialogSearchResult : searchResults) {
-                        resultArray.add(dialogSearchResult.object);
-                        resultArrayNames.add(dialogSearchResult.name);
-                    }
-
-                    cursor = MessagesStorage.getInstance().getDatabase().queryFinalized("SELECT u.data, u.status, u.name, u.uid FROM users as u INNER JOIN contacts as c ON u.uid = c.uid");
-                    while (cursor.next()) {
-                        int uid = cursor.intValue(3);
-                        if (dialogsResult.containsKey((long)uid)) {
-                            continue;
-                        }
-                        String name = cursor.stringValue(2);
-                        String tName = LocaleController.getInstance().getTranslitString(name);
-                        if (name.equals(tName)) {
-                            tName = null;
-                        }
-                        String username = null;
-                        int usernamePos = name.lastIndexOf(";;;");
-                        if (usernamePos != -1) {
-                            username = name.substring(usernamePos + 3);
-                        }
-                        int found = 0;
-                        for (String q : search) {
-                            if (name.startsWith(q) || name.contains(" " + q) || tName != null && (tName.startsWith(q) || tName.contains(" " + q))) {
-                                found = 1;
-                            } else if (username != null && username.startsWith(q)) {
-                                found = 2;
-                            }
-                            if (found != 0) {
-                                ByteBufferDesc data = MessagesStorage.getInstance().getBuffersStorage().getFreeBuffer(cursor.byteArrayLength(0));
-                                if (data != null && cursor.byteBufferValue(0, data.buffer) != 0) {
-                                    TLRPC.User user = (TLRPC.User) TLClassStore.Instance().TLdeserialize(data, data.readInt32());
-                                    if (user.id != UserConfig.getClientUserId()) {
-                                        if (user.status != null) {
-                                            user.status.expires = cursor.intValue(1);
-                                        }
-                                        if (found == 1) {
-                                            resultArrayNames.add(Utilities.generateSearchName(user.first_name, user.last_name, q));
-                                        } else {
-                                            resultArrayNames.add(Utilities.generateSearchName("@" + user.username, null, "@" + q));
-                                        }
-                                        resultArray.add(user);
-                                    }
-                                }
-                                MessagesStorage.getInstance().getBuffersStorage().reuseFreeBuffer(data);
-                                break;
+                        } else if (searchResult.object instanceof TLRPC.Chat) {
+                            resultArrayNames.add(Utilities.generateSearchName(((TLRPC.Chat) searchResult.object).title, null, q));
+                        } else {
+                            TLRPC.User user = searchResult.encryptedUser;
+                            if (!searchResult.byUsername) {
+                                resultArrayNames.add(Html.fromHtml("<font color=\"#00a60e\">" + ContactsController.formatName(user.first_name, user.last_name) + "</font>"));
+                            } else {
+                                resultArrayNames.add(Utilities.generateSearchName("@" + user.username, null, "@" + q));
                             }
+                            encUsers.add(user);
                         }
+                        resultArray.add(searchResult.object);
                     }
-                    cursor.dispose();
 
                     updateSearchResults(resultArray, resultArrayNames, encUsers, searchId);
                 } catch (Exception e) {
@@ -489,6 +304,7 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
             FileLog.e("tmessages", e);
         }
         if (query == null || query.length() == 0) {
+            lastSearchId++;
             searchResult.clear();
             searchResultNames.clear();
             if (needMessagesSearch != 2) {
@@ -498,6 +314,7 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
             notifyDataSetChanged();
         } else {
             final int searchId = ++lastSearchId;
+            searchDialogsInternal(query, serverOnly, searchId);
             searchTimer = new Timer();
             searchTimer.schedule(new TimerTask() {
                 @Override
@@ -508,7 +325,6 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
                     } catch (Exception e) {
                         FileLog.e("tmessages", e);
                     }
-                    searchDialogsInternal(query, serverOnly, searchId);
                     AndroidUtilities.runOnUIThread(new Runnable() {
                         @Override
                         public void run() {
@@ -641,6 +457,7 @@ public class DialogsSearchAdapter extends BaseContactsSearchAdapter {
             }
             ((DialogCell) view).useSeparator = (i != getCount() - 1);
             MessageObject messageObject = (MessageObject)getItem(i);
+            ((DialogCell) view).setHighlightWords(lastMessagesSearchWords);
             ((DialogCell) view).setDialog(messageObject.getDialogId(), messageObject, messageObject.messageOwner.date);
         } else if (type == 3) {
             if (view == null) {
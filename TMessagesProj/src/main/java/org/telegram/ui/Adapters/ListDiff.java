@@ -0,0 +1,108 @@
+/*
+ * This is the source code of Telegram for Android v. 2.x
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2015.
+ */
+
+package org.telegram.ui.Adapters;
+
+import org.telegram.messenger.collections.LongHashMap;
+
+/**
+ * Turns one list of rows into another with range events. Rows are matched by their stable ids,
+ * which must be unique in each list, and a matched row whose item is another object is reported
+ * as changed. Positions of the events are those of the list as it is after the previous events,
+ * like adapters expect them. Moved rows are reported as removed and inserted again.
+ */
+public class ListDiff {
+
+    public interface Callback {
+        void onInserted(int position, int count);
+        void onRemoved(int position, int count);
+        void onChanged(int position, int count);
+    }
+
+    private static final int EVENT_NONE = 0;
+    private static final int EVENT_INSERTED = 1;
+    private static final int EVENT_REMOVED = 2;
+    private static final int EVENT_CHANGED = 3;
+
+    private final Callback callback;
+    private int pendingEvent = EVENT_NONE;
+    private int pendingPosition;
+    private int pendingCount;
+
+    private ListDiff(Callback callback) {
+        this.callback = callback;
+    }
+
+    public static void diff(long[] oldIds, Object[] oldItems, long[] newIds, Object[] newItems, Callback callback) {
+        ListDiff listDiff = new ListDiff(callback);
+        LongHashMap<Integer> oldPositions = new LongHashMap<>(oldIds.length);
+        for (int a = 0; a < oldIds.length; a++) {
+            oldPositions.put(oldIds[a], a);
+        }
+        LongHashMap<Integer> newPositions = new LongHashMap<>(newIds.length);
+        for (int a = 0; a < newIds.length; a++) {
+            newPositions.put(newIds[a], a);
+        }
+
+        int i = 0;
+        int j = 0;
+        while (i < oldIds.length || j < newIds.length) {
+            if (i < oldIds.length && j < newIds.length && oldIds[i] == newIds[j]) {
+                if (oldItems[i] != newItems[j]) {
+                    listDiff.add(EVENT_CHANGED, j);
+                }
+                i++;
+                j++;
+                continue;
+            }
+            if (i < oldIds.length) {
+                Integer newPosition = newPositions.get(oldIds[i]);
+                if (newPosition == null || newPosition < j) {
+                    listDiff.add(EVENT_REMOVED, j);
+                    i++;
+                    continue;
+                }
+            }
+            if (j < newIds.length) {
+                Integer oldPosition = oldPositions.get(newIds[j]);
+                if (oldPosition == null || oldPosition < i) {
+                    listDiff.add(EVENT_INSERTED, j);
+                    j++;
+                    continue;
+                }
+            }
+            listDiff.add(EVENT_REMOVED, j);
+            i++;
+        }
+        listDiff.flush();
+    }
+
+    private void add(int event, int position) {
+        if (event == pendingEvent) {
+            if (event == EVENT_REMOVED && position == pendingPosition || event != EVENT_REMOVED && position == pendingPosition + pendingCount) {
+                pendingCount++;
+                return;
+            }
+        }
+        flush();
+        pendingEvent = event;
+        pendingPosition = position;
+        pendingCount = 1;
+    }
+
+    private void flush() {
+        if (pendingEvent == EVENT_INSERTED) {
+            callback.onInserted(pendingPosition, pendingCount);
+        } else if (pendingEvent == EVENT_REMOVED) {
+            callback.onRemoved(pendingPosition, pendingCount);
+        } else if (pendingEvent == EVENT_CHANGED) {
+            callback.onChanged(pendingPosition, pendingCount);
+        }
+        pendingEvent = EVENT_NONE;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.ui.Adapters;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import org.telegram.android.TemplateIndex;
+import org.telegram.android.TemplateSupport;
+import org.telegram.messenger.R;
+
+public class TemplatesAutoCompleteAdapter extends BaseFragmentAdapter implements Filterable {
+
+    private static final int MAX_RESULTS = 20;
+    private static final int FUZZY_MIN_LENGTH = 3;
+
+    private Context mContext;
+    private TemplateIndex index = TemplateIndex.EMPTY;
+    private int[] results = new int[0];
+    private Filter filter;
+
+    private static class FilterData {
+        TemplateIndex index;
+        int[] results;
+    }
+
+    public TemplatesAutoCompleteAdapter(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public Filter getFilter() {
+        if (filter == null) {
+            filter = new Filter() {
+                @Override
+                protected FilterResults performFiltering(CharSequence constraint) {
+                    FilterResults filterResults = new FilterResults();
+                    if (constraint == null || constraint.length() == 0) {
+                        return filterResults;
+                    }
+                    FilterData data = new FilterData();
+                    data.index = TemplateSupport.getInstance().getIndex();
+                    int[] found = new int[MAX_RESULTS];
+                    int count = data.index.findPrefix(constraint, 0, constraint.length(), found);
+                    if (count == 0 && constraint.length() >= FUZZY_MIN_LENGTH) {
+                        count = data.index.findFuzzy(constraint, 0, constraint.length(), 1, found);
+                    }
+                    data.results = new int[count];
+                    System.arraycopy(found, 0, data.results, 0, count);
+                    filterResults.values = data;
+                    filterResults.count = count;
+                    return filterResults;
+                }
+
+                @Override
+                protected void publishResults(CharSequence constraint, FilterResults filterResults) {
+                    if (filterResults != null && filterResults.values != null) {
+                        FilterData data = (FilterData) filterResults.values;
+                        index = data.index;
+                        results = data.results;
+                    } else {
+                        results = new int[0];
+                    }
+                    if (results.length > 0) {
+                        notifyDataSetChanged();
+                    } else {
+                        notifyDataSetInvalidated();
+                    }
+                }
+
+                @Override
+                public CharSequence convertResultToString(Object resultValue) {
+                    return resultValue != null ? (String) resultValue : "";
+                }
+            };
+        }
+        return filter;
+    }
+
+    @Override
+    public int getCount() {
+        return results.length;
+    }
+
+    @Override
+    public String getItem(int i) {
+        if (i < 0 || i >= results.length) {
+            return null;
+        }
+        return index.getKey(results[i]);
+    }
+
+    @Override
+    public long getItemId(int i) {
+        return i;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return false;
+    }
+
+    @Override
+    public View getView(int i, View view, ViewGroup viewGroup) {
+        if (view == null) {
+            view = LayoutInflater.from(mContext).inflate(R.layout.autocompletetemplaterow, viewGroup, false);
+        }
+        ((TextView) view).setText(getItem(i));
+        return view;
+    }
+}
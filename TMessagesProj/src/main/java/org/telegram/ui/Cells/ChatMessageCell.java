@@ -139,7 +139,8 @@ public class ChatMessageCell extends ChatBaseCell {
 
     @Override
     public void setMessageObject(MessageObject messageObject) {
-        if (currentMessageObject != messageObject || isUserDataChanged()) {
+        boolean layoutChanged = messageObject.checkLayout();
+        if (currentMessageObject != messageObject || layoutChanged || isUserDataChanged()) {
             if (currentMessageObject != messageObject) {
                 firstVisibleBlockNum = 0;
                 lastVisibleBlockNum = 0;
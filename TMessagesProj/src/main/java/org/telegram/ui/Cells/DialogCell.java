@@ -16,9 +16,12 @@ import android.graphics.Paint;
 import android.graphics.drawable.Drawable;
 import android.text.Html;
 import android.text.Layout;
+import android.text.Spannable;
+import android.text.Spanned;
 import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.text.TextUtils;
+import android.text.style.ForegroundColorSpan;
 
 import org.telegram.android.AndroidUtilities;
 import org.telegram.PhoneFormat.PhoneFormat;
@@ -35,6 +38,8 @@ import org.telegram.messenger.UserConfig;
 import org.telegram.android.ImageReceiver;
 import org.telegram.ui.Components.AvatarDrawable;
 
+import java.util.ArrayList;
+
 public class DialogCell extends BaseCell {
 
     private static TextPaint namePaint;
@@ -75,6 +80,7 @@ public class DialogCell extends BaseCell {
     private TLRPC.Chat chat = null;
     private TLRPC.EncryptedChat encryptedChat = null;
     private CharSequence lastPrintString = null;
+    private ArrayList<String> highlightWords;
 
     public boolean useSeparator = false;
 
@@ -180,6 +186,15 @@ public class DialogCell extends BaseCell {
         update(0);
     }
 
+    /**
+     * Set the words of a search query to highlight in the message, has to be called before
+     * setDialog
+     * @param words Lower case words or null to highlight nothing
+     */
+    public void setHighlightWords(ArrayList<String> words) {
+        highlightWords = words;
+    }
+
     public void setDialog(long dialog_id, MessageObject messageObject, int date) {
         currentDialogId = dialog_id;
         message = messageObject;
@@ -193,6 +208,53 @@ public class DialogCell extends BaseCell {
         update(0);
     }
 
+    private String getMessageSnippet(String mess) {
+        if (highlightWords == null || mess.length() <= 40) {
+            return mess;
+        }
+        String lower = mess.toLowerCase();
+        if (lower.length() != mess.length()) {
+            return mess;
+        }
+        int first = -1;
+        for (String word : highlightWords) {
+            int index = lower.indexOf(word);
+            if (index != -1 && (first == -1 || index < first)) {
+                first = index;
+            }
+        }
+        if (first <= 20) {
+            return mess;
+        }
+        int start = mess.indexOf(' ', first - 20);
+        if (start == -1 || start >= first) {
+            start = first - 20;
+        } else {
+            start++;
+        }
+        return "\u2026" + mess.substring(start);
+    }
+
+    private void highlightMessage(CharSequence text, int offset) {
+        if (highlightWords == null || !(text instanceof Spannable)) {
+            return;
+        }
+        Spannable spannable = (Spannable) text;
+        String lower = text.toString().toLowerCase();
+        if (lower.length() != text.length()) {
+            return;
+        }
+        for (String word : highlightWords) {
+            int index = offset;
+            while ((index = lower.indexOf(word, index)) != -1) {
+                if (index == 0 || !Character.isLetterOrDigit(lower.charAt(index - 1))) {
+                    spannable.setSpan(new ForegroundColorSpan(0xff4d83b3), index, index + word.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                }
+                index += word.length();
+            }
+        }
+    }
+
     public long getDialogId() {
         return currentDialogId;
     }
@@ -328,12 +390,13 @@ public class DialogCell extends BaseCell {
                             messageString = Emoji.replaceEmoji(Html.fromHtml(String.format("<font color=#4d83b3>%s:</font> <font color=#4d83b3>%s</font>", name, message.messageText)), messagePaint.getFontMetricsInt(), AndroidUtilities.dp(20));
                         } else {
                             if (message.messageOwner.message != null) {
-                                String mess = message.messageOwner.message;
+                                String mess = getMessageSnippet(message.messageOwner.message);
                                 if (mess.length() > 150) {
                                     mess = mess.substring(0, 150);
                                 }
                                 mess = mess.replace("\n", " ");
                                 messageString = Emoji.replaceEmoji(Html.fromHtml(String.format("<font color=#4d83b3>%s:</font> <font color=#808080>%s</font>", name, mess.replace("<", "&lt;").replace(">", "&gt;"))), messagePaint.getFontMetricsInt(), AndroidUtilities.dp(20));
+                                highlightMessage(messageString, name.length() + 1);
                             }
                         }
                     } else {
@@ -518,12 +581,13 @@ public class DialogCell extends BaseCell {
             if (messageString == null) {
                 messageString = "";
             }
-            String mess = messageString.toString();
+            String mess = getMessageSnippet(messageString.toString());
             if (mess.length() > 150) {
                 mess = mess.substring(0, 150);
             }
             mess = mess.replace("\n", " ");
             messageString = Emoji.replaceEmoji(mess, messagePaint.getFontMetricsInt(), AndroidUtilities.dp(17));
+            highlightMessage(messageString, 0);
         }
         messageWidth = Math.max(AndroidUtilities.dp(12), messageWidth);
         CharSequence messageStringFinal = TextUtils.ellipsize(messageString, currentMessagePaint, messageWidth - AndroidUtilities.dp(12), TextUtils.TruncateAt.END);
@@ -606,6 +670,9 @@ public class DialogCell extends BaseCell {
             TLRPC.TL_dialog dialog = MessagesController.getInstance().dialogs_dict.get(currentDialogId);
             if (dialog != null && mask == 0) {
                 message = MessagesController.getInstance().dialogMessage.get(dialog.top_message);
+                if (message == null) {
+                    MessagesController.getInstance().loadDialogPreview(dialog);
+                }
                 lastUnreadState = message != null && message.isUnread();
                 unreadCount = dialog.unread_count;
                 lastMessageDate = dialog.last_message_date;
@@ -25,6 +25,7 @@ import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.support.v7.widget.LinearLayoutManager;
 import android.text.TextUtils;
@@ -63,6 +64,7 @@ import org.telegram.android.SendMessagesHelper;
 import org.telegram.android.query.ReplyMessageQuery;
 import org.telegram.android.TemplateSupport;
 import org.telegram.messenger.ApplicationLoader;
+import org.telegram.messenger.BuildVars;
 import org.telegram.messenger.FileLoader;
 import org.telegram.messenger.RPCRequest;
 import org.telegram.messenger.SerializedData;
@@ -79,7 +81,9 @@ import org.telegram.messenger.R;
 import org.telegram.messenger.TsupportApi;
 import org.telegram.messenger.UserConfig;
 import org.telegram.messenger.Utilities;
+import org.telegram.messenger.collections.IntHashMap;
 import org.telegram.ui.Adapters.BaseFragmentAdapter;
+import org.telegram.ui.Adapters.ListDiff;
 import org.telegram.ui.Adapters.MentionsAdapter;
 import org.telegram.ui.Adapters.StickersAdapter;
 import org.telegram.ui.AnimationCompat.AnimatorListenerAdapterProxy;
@@ -111,6 +115,7 @@ import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.concurrent.Semaphore;
 
 public class ChatActivity extends BaseFragment implements NotificationCenter.NotificationCenterDelegate, MessagesActivity.MessagesActivityDelegate,
@@ -181,7 +186,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     private HashMap<Integer, MessageObject> selectedMessagesIds = new HashMap<>();
     private HashMap<Integer, MessageObject> selectedMessagesCanCopyIds = new HashMap<>();
 
-    private HashMap<Integer, MessageObject> messagesDict = new HashMap<>();
+    private IntHashMap<MessageObject> messagesDict = new IntHashMap<>();
     private HashMap<String, ArrayList<MessageObject>> messagesByDays = new HashMap<>();
     private ArrayList<MessageObject> messages = new ArrayList<>();
     private int maxMessageId = Integer.MAX_VALUE;
@@ -208,6 +213,17 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
     private int highlightMessageId = Integer.MAX_VALUE;
     private boolean scrollToMessageMiddleScreen = false;
 
+    private static final int LAYOUT_PRECOMPUTE_COUNT = 15;
+    private static final long SLOW_FRAME_TIME = 17;
+    private boolean scrolling;
+    private long lastFrameTime;
+    private long maxFrameTime;
+    private int scrollFramesCount;
+    private int slowFramesCount;
+    private int scrollStartUILayoutsCount;
+    private long scrollStartLayoutHits;
+    private long scrollStartLayoutMisses;
+
     private String currentPicturePath;
 
     private TLRPC.ChatParticipants info = null;
@@ -1319,6 +1335,25 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                         highlightMessageId = Integer.MAX_VALUE;
                         updateVisibleRows();
                     }
+                    if (i != AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
+                        if (!scrolling) {
+                            scrolling = true;
+                            lastFrameTime = 0;
+                            maxFrameTime = 0;
+                            scrollFramesCount = 0;
+                            slowFramesCount = 0;
+                            scrollStartUILayoutsCount = MessageObject.getUILayoutsCount();
+                            scrollStartLayoutHits = MessageObject.getLayoutCache().getHitCount();
+                            scrollStartLayoutMisses = MessageObject.getLayoutCache().getMissCount();
+                        }
+                    } else if (scrolling) {
+                        scrolling = false;
+                        if (scrollFramesCount != 0) {
+                            long hits = MessageObject.getLayoutCache().getHitCount() - scrollStartLayoutHits;
+                            long lookups = hits + MessageObject.getLayoutCache().getMissCount() - scrollStartLayoutMisses;
+                            FileLog.d("tmessages", "chat scroll frames %d, slow %d, max %d ms, layouts on ui thread %d, layout cache hit ratio %.2f", scrollFramesCount, slowFramesCount, maxFrameTime, MessageObject.getUILayoutsCount() - scrollStartUILayoutsCount, lookups != 0 ? (float) hits / lookups : 0f);
+                        }
+                    }
                 }
 
                 @Override
@@ -1343,6 +1378,8 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                         if (firstVisibleItem + visibleItemCount == totalItemCount && forward_end_reached) {
                             showPagedownButton(false, true);
                         }
+                        int end = messages.size() - firstVisibleItem + 1;
+                        MessageObject.precomputeLayouts(messages, end - visibleItemCount - LAYOUT_PRECOMPUTE_COUNT, end + LAYOUT_PRECOMPUTE_COUNT);
                     }
                     for (int a = 0; a < visibleItemCount; a++) {
                         View view = absListView.getChildAt(a);
@@ -1355,6 +1392,27 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                 }
             });
 
+            if (BuildVars.DEBUG_VERSION) {
+                chatListView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        if (scrolling) {
+                            long time = SystemClock.uptimeMillis();
+                            if (lastFrameTime != 0) {
+                                long frameTime = time - lastFrameTime;
+                                maxFrameTime = Math.max(maxFrameTime, frameTime);
+                                if (frameTime > SLOW_FRAME_TIME) {
+                                    slowFramesCount++;
+                                }
+                                scrollFramesCount++;
+                            }
+                            lastFrameTime = time;
+                        }
+                        return true;
+                    }
+                });
+            }
+
             progressView = new FrameLayout(getParentActivity());
             progressView.setVisibility(View.INVISIBLE);
             progressView.setBackgroundResource(ApplicationLoader.isCustomTheme() ? R.drawable.system_loader2 : R.drawable.system_loader1);
@@ -3131,7 +3189,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                         progressView.setVisibility(View.INVISIBLE);
                     }
                     if (chatAdapter != null) {
-                        chatAdapter.notifyDataSetChanged();
+                        chatAdapter.updateRows();
                     } else {
                         scrollToTopOnResume = true;
                     }
@@ -3260,7 +3318,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
             }
             if (updated && chatAdapter != null) {
                 removeUnreadPlane(false);
-                chatAdapter.notifyDataSetChanged();
+                chatAdapter.updateRows();
             }
         } else if (id == NotificationCenter.messageReceivedByServer) {
             Integer msgId = (Integer)args[0];
@@ -3449,7 +3507,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                     }
                 }
                 if (changed) {
-                    chatAdapter.notifyDataSetChanged();
+                    chatAdapter.updateRows();
                 }
             }
         } else if (id == NotificationCenter.notificationsSettingsUpdated) {
@@ -3589,7 +3647,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
                     SerializedData data = new SerializedData(bytes);
                     TLRPC.Message message = (TLRPC.Message) TLClassStore.Instance().TLdeserialize(data, data.readInt32());
                     if (message != null) {
-                        replyingMessageObject = new MessageObject(message, MessagesController.getInstance().getUsers(), false);
+                        replyingMessageObject = new MessageObject(message, null, false);
                         showReplyForMessageObjectOrForward(true, replyingMessageObject, null, false);
                     }
                 }
@@ -4367,12 +4425,148 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
 
     private class ChatAdapter extends BaseFragmentAdapter {
 
+        private static final long LOADING_TOP_ROW_ID = Long.MIN_VALUE;
+        private static final long LOADING_BOTTOM_ROW_ID = Long.MIN_VALUE + 1;
+
         private Context mContext;
+        private long[] rowIds = new long[0];
+        private Object[] rowItems = new Object[0];
+        private IdentityHashMap<MessageObject, Long> localRowIds = new IdentityHashMap<>();
+        private IdentityHashMap<MessageObject, Long> previousLocalRowIds;
+        private long nextLocalRowId = 1L << 32;
+        private int bindsCount;
+        private int reusedBindsCount;
 
         public ChatAdapter(Context context) {
             mContext = context;
         }
 
+        private int getMessagesOffset() {
+            return !endReached && messages.size() != 0 ? 0 : 1;
+        }
+
+        private long getRowId(int i) {
+            int offset = getMessagesOffset();
+            if (messages.size() != 0) {
+                if (i == 0 && !endReached) {
+                    return LOADING_TOP_ROW_ID;
+                }
+                if (!forward_end_reached && i == (messages.size() + 1 - offset)) {
+                    return LOADING_BOTTOM_ROW_ID;
+                }
+            }
+            MessageObject message = messages.get(messages.size() - i - offset);
+            if (message.getId() != 0) {
+                return message.getId();
+            }
+            Long id = localRowIds.get(message);
+            if (id == null && previousLocalRowIds != null) {
+                id = previousLocalRowIds.get(message);
+            }
+            if (id == null) {
+                id = nextLocalRowId++;
+            }
+            localRowIds.put(message, id);
+            return id;
+        }
+
+        /**
+         * Records the ids and items of the current rows. The ids of rows without a message id are
+         * carried over for the rows still shown, and dropped for the others.
+         */
+        private void takeRowsSnapshot() {
+            int count = getCount();
+            rowIds = new long[count];
+            rowItems = new Object[count];
+            int offset = getMessagesOffset();
+            previousLocalRowIds = localRowIds;
+            localRowIds = new IdentityHashMap<>();
+            for (int a = 0; a < count; a++) {
+                rowIds[a] = getRowId(a);
+                if (rowIds[a] != LOADING_TOP_ROW_ID && rowIds[a] != LOADING_BOTTOM_ROW_ID) {
+                    rowItems[a] = messages.get(messages.size() - a - offset);
+                }
+            }
+            previousLocalRowIds = null;
+        }
+
+        @Override
+        public void notifyDataSetChanged() {
+            takeRowsSnapshot();
+            super.notifyDataSetChanged();
+        }
+
+        /**
+         * Applies the changes of messages since the last update as range events. Rows that only
+         * got another message object are bound again in place. Inserts and removals still need a
+         * data set change, ListView has no range notifications. ListView only gives cells back
+         * to the rows with their ids on API 21 and up, older versions bind every visible row.
+         */
+        public void updateRows() {
+            long[] oldIds = rowIds;
+            Object[] oldItems = rowItems;
+            takeRowsSnapshot();
+            final int[] counts = new int[3];
+            final ArrayList<Integer> changedRanges = new ArrayList<>();
+            ListDiff.diff(oldIds, oldItems, rowIds, rowItems, new ListDiff.Callback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    counts[0] += count;
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    counts[1] += count;
+                }
+
+                @Override
+                public void onChanged(int position, int count) {
+                    counts[2] += count;
+                    changedRanges.add(position);
+                    changedRanges.add(position + count);
+                }
+            });
+            if (BuildVars.DEBUG_VERSION) {
+                FileLog.d("tmessages", "chat rows %d, inserted %d, removed %d, changed %d, binds since last update %d, reused %d", rowIds.length, counts[0], counts[1], counts[2], bindsCount, reusedBindsCount);
+            }
+            bindsCount = 0;
+            reusedBindsCount = 0;
+            if (counts[0] != 0 || counts[1] != 0 || chatListView == null) {
+                super.notifyDataSetChanged();
+                return;
+            }
+            if (changedRanges.isEmpty()) {
+                return;
+            }
+            int firstPosition = chatListView.getFirstVisiblePosition();
+            int count = chatListView.getChildCount();
+            for (int a = 0; a < count; a++) {
+                int position = firstPosition + a;
+                boolean changed = false;
+                for (int b = 0; b < changedRanges.size(); b += 2) {
+                    if (position >= changedRanges.get(b) && position < changedRanges.get(b + 1)) {
+                        changed = true;
+                        break;
+                    }
+                }
+                if (!changed) {
+                    continue;
+                }
+                View view = chatListView.getChildAt(a);
+                MessageObject current = null;
+                if (view instanceof ChatBaseCell) {
+                    current = ((ChatBaseCell) view).getMessageObject();
+                } else if (view instanceof ChatActionCell) {
+                    current = ((ChatActionCell) view).getMessageObject();
+                }
+                if (current == null || current.contentType != getItemViewType(position)) {
+                    super.notifyDataSetChanged();
+                    return;
+                }
+                getView(position, view, chatListView);
+            }
+        }
+
         @Override
         public boolean areAllItemsEnabled() {
             return true;
@@ -4404,7 +4598,7 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
 
         @Override
         public long getItemId(int i) {
-            return i;
+            return getRowId(i);
         }
 
         @Override
@@ -4752,6 +4946,11 @@ public class ChatActivity extends BaseFragment implements NotificationCenter.Not
 
             if (view instanceof ChatBaseCell) {
                 ChatBaseCell baseCell = (ChatBaseCell)view;
+                if (baseCell.getMessageObject() != message) {
+                    bindsCount++;
+                } else {
+                    reusedBindsCount++;
+                }
                 baseCell.isChat = currentChat != null;
                 baseCell.setMessageObject(message);
                 baseCell.setCheckPressed(!disableSelection, disableSelection && selected);
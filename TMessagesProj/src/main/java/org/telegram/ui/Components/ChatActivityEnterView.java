@@ -16,7 +16,6 @@ import android.os.Build;
 import android.os.PowerManager;
 import android.text.Editable;
 import android.text.TextWatcher;
-import android.text.style.ImageSpan;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.KeyEvent;
@@ -29,7 +28,6 @@ import android.view.animation.AccelerateDecelerateInterpolator;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
 import android.widget.FrameLayout;
@@ -58,10 +56,10 @@ import org.telegram.ui.AnimationCompat.AnimatorListenerAdapterProxy;
 import org.telegram.ui.AnimationCompat.AnimatorSetProxy;
 import org.telegram.ui.AnimationCompat.ObjectAnimatorProxy;
 import org.telegram.ui.AnimationCompat.ViewProxy;
+import org.telegram.ui.Adapters.TemplatesAutoCompleteAdapter;
 import org.telegram.messenger.ApplicationLoader;
 
 import java.lang.reflect.Field;
-import java.util.ArrayList;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -86,7 +84,6 @@ public class ChatActivityEnterView extends FrameLayoutFixed implements Notificat
     private TemplateView templateView;
     private SizeNotifierRelativeLayout sizeNotifierRelativeLayout;
     private FrameLayout attachButton;
-    private static final Pattern pattern = Pattern.compile("((?:[^\\s(]+\\()|(?:\\.{2}[^\\s\\.]+\\.{2}))");
     private static final Pattern patternContact = Pattern.compile("^contact:(\\+[0-9]+)\\s*(\\S+)\\s*([^\\n]+)(\\n|$)");
     private static final Pattern patternIssue = Pattern.compile("^#issue:([\\w]+)$");
     private static final Pattern patternIssueSolved = Pattern.compile("^#solved:([\\w]+)$");
@@ -119,6 +116,10 @@ public class ChatActivityEnterView extends FrameLayoutFixed implements Notificat
     private MessageObject replyingMessageObject;
     private ChatActivityEnterViewDelegate delegate;
     private TextWatcher textWatcher = null;
+    private TemplateExpander templateExpander = new TemplateExpander();
+    private boolean expandingTemplate;
+    private int templateEditStart = -1;
+    private int templateEditCount;
     private TreeMap<String, String> templates = new TreeMap<String, String>();
 
     private float topViewAnimation;
@@ -221,15 +222,12 @@ public class ChatActivityEnterView extends FrameLayoutFixed implements Notificat
         AndroidUtilities.clearCursorDrawable(messsageEditText);
         messsageEditText.setTextColor(0xff000000);
         messsageEditText.setHintTextColor(0xffb2b2b2);
-		ArrayList<String> keys = new ArrayList<String>();
-        keys.addAll(templates.keySet());
-        ArrayAdapter<String> adapter = new ArrayAdapter<String>(context, R.layout.autocompletetemplaterow,keys);
-        messsageEditText.setAdapter(adapter);
+        messsageEditText.setAdapter(new TemplatesAutoCompleteAdapter(context));
         messsageEditText.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
                 String key = (String)parent.getItemAtPosition(position);
-                messsageEditText.setText(templates.get(key));
+                messsageEditText.setText(TemplateSupport.getInstance().getIndex().get(key));
                 messsageEditText.setSelection(messsageEditText.getText().length());
             }
         });
@@ -290,7 +288,7 @@ public class ChatActivityEnterView extends FrameLayoutFixed implements Notificat
                 return false;
             }
         });
-        messsageEditText.addTextChangedListener(new TextWatcher() {
+        textWatcher = new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence charSequence, int i, int i2, int i3) {
 
@@ -298,32 +296,18 @@ public class ChatActivityEnterView extends FrameLayoutFixed implements Notificat
 
             @Override
             public void onTextChanged(CharSequence charSequence, int i, int i2, int i3) {
-                String message = getTrimmedString(charSequence.toString());
+                if (expandingTemplate) {
+                    return;
+                }
+                int messageStart = getTrimmedStart(charSequence);
 
-                if (delegate != null && (message.startsWith(":") || message.startsWith("@"))) {
+                if (delegate != null && messageStart != -1 && (charSequence.charAt(messageStart) == ':' || charSequence.charAt(messageStart) == '@')) {
                     delegate.onTextChanged(charSequence);
-                } else {
-                    if (searchForTemplate && message.length() > 0 && message.length() < 100) {
-                        Matcher matcher = pattern.matcher(message);
-                        String newMessage = message;
-                        boolean found = false;
-                        while (matcher.find()) {
-                            String template = TemplateSupport.getInstance().getTemplate(matcher.group(1));
-                            if (template != null && template.compareToIgnoreCase("") != 0) {
-                                newMessage = newMessage.replace(matcher.group(1), template);
-                                found = true;
-                            }
-                        }
-                        if (found) {
-                            messsageEditText.removeTextChangedListener(textWatcher);
-                            messsageEditText.setText(newMessage);
-                            messsageEditText.setSelection(messsageEditText.getText().length());
-                            messsageEditText.addTextChangedListener(textWatcher);
-                            searchForTemplate = false;
-                        }
-                    }
+                } else if (searchForTemplate && messageStart != -1) {
+                    templateEditStart = i;
+                    templateEditCount = i3;
                 }
-                if (message.length() != 0 && lastTypingTimeSend < System.currentTimeMillis() - 5000 && !ignoreTextChange) {
+                if (messageStart != -1 && lastTypingTimeSend < System.currentTimeMillis() - 5000 && !ignoreTextChange) {
                     int currentTime = ConnectionsManager.getInstance().getCurrentTime();
                     TLRPC.User currentUser = null;
                     if ((int) dialog_id > 0) {
@@ -341,22 +325,27 @@ public class ChatActivityEnterView extends FrameLayoutFixed implements Notificat
 
             @Override
             public void afterTextChanged(Editable editable) {
-                if (sendByEnter && editable.length() > 0 && editable.charAt(editable.length() - 1) == '\n') {
-                    sendMessage();
+                if (expandingTemplate) {
+                    return;
                 }
-                int i = 0;
-                ImageSpan[] arrayOfImageSpan = editable.getSpans(0, editable.length(), ImageSpan.class);
-                int j = arrayOfImageSpan.length;
-                while (true) {
-                    if (i >= j) {
-                        Emoji.replaceEmoji(editable, messsageEditText.getPaint().getFontMetricsInt(), AndroidUtilities.dp(20));
-                        return;
+                if (templateEditStart != -1) {
+                    int editStart = templateEditStart;
+                    templateEditStart = -1;
+                    expandingTemplate = true;
+                    boolean expanded = templateExpander.expand(editable, editStart, templateEditCount);
+                    expandingTemplate = false;
+                    if (expanded) {
+                        messsageEditText.setSelection(templateExpander.getLastExpansionEnd());
+                        searchForTemplate = false;
                     }
-                    editable.removeSpan(arrayOfImageSpan[i]);
-                    i++;
                 }
+                if (sendByEnter && editable.length() > 0 && editable.charAt(editable.length() - 1) == '\n') {
+                    sendMessage();
+                }
+                Emoji.updateEmoji(editable, messsageEditText.getPaint().getFontMetricsInt(), AndroidUtilities.dp(20));
             }
-        });
+        };
+        messsageEditText.addTextChangedListener(textWatcher);
 
         if (isChat) {
             attachButton = new FrameLayout(context);
@@ -662,18 +651,22 @@ public class ChatActivityEnterView extends FrameLayoutFixed implements Notificat
 
     }
 
-    private String getTrimmedString(String src) {
-        String result = src.trim();
-        if (result.length() == 0) {
-            return result;
+    private int getTrimmedStart(CharSequence src) {
+        int start = -1;
+        for (int a = 0, length = src.length(); a < length; a++) {
+            if (src.charAt(a) > ' ') {
+                start = a;
+                break;
+            }
         }
-        while (src.startsWith("\n")) {
-            src = src.substring(1);
+        if (start == -1) {
+            return -1;
         }
-        while (src.endsWith("\n")) {
-            src = src.substring(0, src.length() - 1);
+        int a = 0;
+        while (src.charAt(a) == '\n') {
+            a++;
         }
-        return src;
+        return a;
     }
 
     private void showEmojiPopup(boolean show) {
@@ -0,0 +1,126 @@
+/*
+ * This is the source code of Telegram for Android v. 2.0.x.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013-2014.
+ */
+
+package org.telegram.ui.Components;
+
+import android.text.Editable;
+
+import org.telegram.android.TemplateIndex;
+import org.telegram.android.TemplateSupport;
+
+/**
+ * Expands template triggers ("key(" and "..key..") around an edited span of an Editable.
+ * Triggers never contain whitespace, so only the words touched by the edit are scanned.
+ */
+public class TemplateExpander {
+
+    private int lastExpansionEnd = -1;
+
+    /**
+     * Expand the triggers created by an edit
+     * @param editable Text to expand, modified in place
+     * @param start Start of the edited span
+     * @param count Length of the inserted text
+     * @return true if at least one template was inserted
+     */
+    public boolean expand(Editable editable, int start, int count) {
+        lastExpansionEnd = -1;
+        int length = editable.length();
+        if (start < 0 || start > length) {
+            return false;
+        }
+        int editEnd = Math.min(start + count, length);
+        int left = start;
+        while (left > 0 && !isSpace(editable.charAt(left - 1))) {
+            left--;
+        }
+        int right = editEnd;
+        while (right < length && !isSpace(editable.charAt(right))) {
+            right++;
+        }
+
+        TemplateIndex index = TemplateSupport.getInstance().getIndex();
+        if (index.size() == 0) {
+            return false;
+        }
+        int position = left;
+        while (position < right) {
+            int end = matchTrigger(editable, position, right);
+            if (end == -1) {
+                position++;
+                continue;
+            }
+            if (position > editEnd || end <= start) {
+                position = end;
+                continue;
+            }
+            int template = index.findTrigger(editable, position, end);
+            if (template == -1) {
+                position = end;
+                continue;
+            }
+            String value = index.getValue(template);
+            if (value.length() == 0) {
+                position = end;
+                continue;
+            }
+            editable.replace(position, end, value);
+            int delta = value.length() - (end - position);
+            right += delta;
+            editEnd += delta;
+            position += value.length();
+            lastExpansionEnd = position;
+        }
+        return lastExpansionEnd != -1;
+    }
+
+    /**
+     * Get the position right after the last inserted template
+     * @return Position in the text or -1 if nothing was expanded
+     */
+    public int getLastExpansionEnd() {
+        return lastExpansionEnd;
+    }
+
+    /**
+     * Match a trigger starting at position, with the same rules as the old
+     * ((?:[^\s(]+\()|(?:\.{2}[^\s\.]+\.{2})) pattern.
+     * @return End of the trigger or -1 if there is no trigger at position
+     */
+    private static int matchTrigger(CharSequence text, int position, int end) {
+        int a = position;
+        while (a < end) {
+            char c = text.charAt(a);
+            if (c == '(' || isSpace(c)) {
+                break;
+            }
+            a++;
+        }
+        if (a > position && a < end && text.charAt(a) == '(') {
+            return a + 1;
+        }
+        if (position + 1 < end && text.charAt(position) == '.' && text.charAt(position + 1) == '.') {
+            a = position + 2;
+            while (a < end) {
+                char c = text.charAt(a);
+                if (c == '.' || isSpace(c)) {
+                    break;
+                }
+                a++;
+            }
+            if (a > position + 2 && a + 1 < end && text.charAt(a) == '.' && text.charAt(a + 1) == '.') {
+                return a + 2;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+}
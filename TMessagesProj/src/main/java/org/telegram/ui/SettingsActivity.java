@@ -526,6 +526,7 @@ public class SettingsActivity extends BaseFragment implements NotificationCenter
                                 File dir = AndroidUtilities.getCacheDir();
                                 if (dir != null && dir.isDirectory())
                                     ConnectionsManager.getInstance().deleteDir(dir);
+                                ImageLoader.getInstance().getDecodedImageCache().clear();
                             }
                         });
                         builder.setNegativeButton(LocaleController.getString("Cancel", R.string.Cancel), null);
@@ -21,6 +21,7 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.ListView;
 import android.widget.ProgressBar;
@@ -53,7 +54,7 @@ import java.util.Comparator;
 import java.util.TreeMap;
 
 public class TemplatesSettingsActivity extends BaseFragment implements NotificationCenter.NotificationCenterDelegate,
-        DocumentSelectActivity.DocumentSelectActivityDelegate {
+        DocumentSelectActivity.DocumentSelectActivityDelegate, TemplateSupport.TemplatesSearchDelegate {
     private ListView listView;
     private ListAdapter listViewAdapter;
     private FrameLayout progressView;
@@ -63,6 +64,7 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
     private ArrayList<String> templatesKeys = new ArrayList<String>();
     private TreeMap<String, String> templates = new TreeMap<String, String>();
     private String selectedTemplateKey;
+    private String searchQuery;
 
     private final static int add_template = 1;
     private final static int reload_default = 2;
@@ -94,6 +96,26 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
             actionBar.setBackButtonImage(R.drawable.ic_ab_back);
             actionBar.setAllowOverlayTitle(true);
             ActionBarMenu menu = actionBar.createMenu();
+            menu.addItem(0, R.drawable.ic_ab_search).setIsSearchField(true).setActionBarMenuItemSearchListener(new ActionBarMenuItem.ActionBarMenuItemSearchListener() {
+                @Override
+                public boolean onSearchCollapse() {
+                    searchQuery = null;
+                    loadTemplates();
+                    return true;
+                }
+
+                @Override
+                public void onTextChanged(EditText editText) {
+                    String text = editText.getText().toString().trim();
+                    if (text.length() == 0) {
+                        searchQuery = null;
+                        loadTemplates();
+                    } else {
+                        searchQuery = text;
+                        TemplateSupport.searchTemplates(text, TemplatesSettingsActivity.this);
+                    }
+                }
+            });
             ActionBarMenuItem item = menu.addItem(0, R.drawable.ic_ab_other);
             item.addSubItem(add_template, LocaleController.getString("AddTemplate", R.string.AddTemplate), R.drawable.addmember);
             item.addSubItem(reload_default, LocaleController.getString("ReloadDefault", R.string.ReloadDefault), R.drawable.ic_refresh);
@@ -226,7 +248,7 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
             listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
                 @Override
                 public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
-                    if (i < templates.size()) {
+                    if (i < templatesKeys.size()) {
                         Bundle args = new Bundle();
                         args.putString("templateKey", templatesKeys.get(i));
                         args.putString("templateValue", templates.get(templatesKeys.get(i)));
@@ -238,7 +260,7 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
             listView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
                 @Override
                 public boolean onItemLongClick(AdapterView<?> adapterView, View view, int i, long l) {
-                    if (i >= templates.size() || getParentActivity() == null) {
+                    if (i >= templatesKeys.size() || getParentActivity() == null) {
                         return true;
                     }
                     selectedTemplateKey = templatesKeys.get(i);
@@ -253,7 +275,7 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
                             if (i == 0) {
                                 TemplateSupport.getInstance().removeTemplate(selectedTemplateKey);
                                 templates.remove(selectedTemplateKey);
-                                templatesKeys.remove(i);
+                                templatesKeys.remove(selectedTemplateKey);
                                 listViewAdapter.notifyDataSetChanged();
                             }
                         }
@@ -288,6 +310,22 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
             }
         });
     }
+    @Override
+    public void didFindTemplates(String query, ArrayList<String> keys) {
+        if (searchQuery == null || !searchQuery.equals(query)) {
+            return;
+        }
+        templatesKeys.clear();
+        for (String key : keys) {
+            if (templates.containsKey(key)) {
+                templatesKeys.add(key);
+            }
+        }
+        if (listViewAdapter != null) {
+            listViewAdapter.notifyDataSetChanged();
+        }
+    }
+
     private void loadTemplates() {
         if (loading) {
             return;
@@ -303,6 +341,9 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
                 return str1.compareTo(str2);
             }
         });
+        if (searchQuery != null) {
+            TemplateSupport.searchTemplates(searchQuery, this);
+        }
         updateView();
     }
 
@@ -427,15 +468,15 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
 
         @Override
         public boolean isEnabled(int i) {
-            return i != templates.size();
+            return i != templatesKeys.size();
         }
 
         @Override
         public int getCount() {
-            if (templates.isEmpty()) {
+            if (templatesKeys.isEmpty()) {
                 return 0;
             }
-            return templates.size() + 1;
+            return templatesKeys.size() + 1;
         }
 
         @Override
@@ -486,7 +527,7 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
 
         @Override
         public int getItemViewType(int i) {
-            if(i == templates.size()) {
+            if(i == templatesKeys.size()) {
                 return 1;
             }
             return 0;
@@ -499,7 +540,7 @@ public class TemplatesSettingsActivity extends BaseFragment implements Notificat
 
         @Override
         public boolean isEmpty() {
-            return templates.isEmpty();
+            return templatesKeys.isEmpty();
         }
     }
 }
@@ -0,0 +1,132 @@
+#!/usr/bin/env python3
+#
+# Generates TLClassStore.java from the classes declared in TLRPC.java.
+#
+# Every TLRPC class with a constructor id that is not an RPC function (functions override
+# responseClass()) gets a case in TLClassStore.createObject, which maps the id to a direct
+# constructor call. Run it after changing TLRPC.java:
+#
+#   python3 Tools/generate_tl_class_store.py
+#
+# or through the generateTLClassStore gradle task.
+
+import os
+import re
+import sys
+
+ROOT = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+SOURCE_DIR = os.path.join(ROOT, 'TMessagesProj', 'src', 'main', 'java', 'org', 'telegram', 'messenger')
+TLRPC_PATH = os.path.join(SOURCE_DIR, 'TLRPC.java')
+OUTPUT_PATH = os.path.join(SOURCE_DIR, 'TLClassStore.java')
+
+# Objects that are only ever sent, never read back
+EXCLUDED = {'TL_users_getUsers', 'invokeWithLayer', 'initConnection'}
+
+CLASS_PATTERN = re.compile(r'^    public static class (\w+)', re.MULTILINE)
+CONSTRUCTOR_PATTERN = re.compile(r'^        public static int constructor = (0x[0-9a-fA-F]+);', re.MULTILINE)
+
+HEADER = '''/*
+ * This is the source code of Telegram for Android v. 1.3.2.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+// Generated by Tools/generate_tl_class_store.py from TLRPC.java, do not edit by hand.
+
+package org.telegram.messenger;
+
+public class TLClassStore {
+
+    static TLClassStore store = null;
+
+    public static TLClassStore Instance() {
+        if (store == null) {
+            store = new TLClassStore();
+        }
+        return store;
+    }
+
+    public TLObject TLdeserialize(AbsSerializedData stream, int constructor) {
+        try {
+            return TLdeserialize(stream, constructor, null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public TLObject TLdeserialize(AbsSerializedData stream, int constructor, TLObject request) {
+        TLObject response = createObject(constructor);
+        if (response == null) {
+            FileLog.e("tmessages", String.format("unknown class %x", constructor));
+            return null;
+            //throw new RuntimeException(String.format("unknown class %x", constructor));
+        }
+        if (response instanceof TLRPC.Vector) {
+            if (request != null) {
+                request.parseVector((TLRPC.Vector)response, stream);
+            } else {
+                int size = stream.readInt32();
+                for (int a = 0; a < size; a++) {
+                    ((TLRPC.Vector)response).objects.add(stream.readInt32());
+                }
+            }
+        } else {
+            response.readParams(stream);
+        }
+        return response;
+    }
+
+    /**
+     * Create an empty object for a constructor id
+     * @param constructor Constructor id read from the stream
+     * @return New object or null if the constructor is unknown
+     */
+    public static TLObject createObject(int constructor) {
+        switch (constructor) {
+'''
+
+FOOTER = '''            default:
+                return null;
+        }
+    }
+}
+'''
+
+
+def parse_classes(source):
+    starts = [(match.start(), match.group(1)) for match in CLASS_PATTERN.finditer(source)]
+    classes = []
+    for index, (start, name) in enumerate(starts):
+        end = starts[index + 1][0] if index + 1 < len(starts) else len(source)
+        body = source[start:end]
+        constructor = CONSTRUCTOR_PATTERN.search(body)
+        if constructor is None or name in EXCLUDED or 'responseClass' in body:
+            continue
+        classes.append((name, int(constructor.group(1), 16)))
+    return classes
+
+
+def main():
+    with open(TLRPC_PATH, encoding='utf-8') as f:
+        classes = parse_classes(f.read())
+
+    seen = {}
+    for name, constructor in classes:
+        if constructor in seen:
+            sys.exit('constructor 0x%x is declared by both %s and %s' % (constructor, seen[constructor], name))
+        seen[constructor] = name
+
+    lines = [HEADER]
+    for name, constructor in classes:
+        lines.append('            case 0x%x:\n                return new TLRPC.%s();\n' % (constructor, name))
+    lines.append(FOOTER)
+
+    with open(OUTPUT_PATH, 'w', encoding='utf-8', newline='\n') as f:
+        f.write(''.join(lines))
+    print('%d classes written to %s' % (len(classes), os.path.relpath(OUTPUT_PATH, ROOT)))
+
+
+if __name__ == '__main__':
+    main()